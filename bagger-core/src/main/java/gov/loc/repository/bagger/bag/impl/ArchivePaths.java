@@ -0,0 +1,81 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Where a bag sits among the entry names of a zip or tar archive. Bagger
+ * writes bags in a single top directory; archives made by other tools may
+ * have the bag at the top.
+ */
+final class ArchivePaths {
+  static final String DATA = "data/";
+
+  private static final Pattern TAG_FILE = Pattern
+      .compile("bagit\\.txt|bag-info\\.txt|package-info\\.txt|fetch\\.txt|(tag)?manifest-[^/]+\\.txt");
+
+  private ArchivePaths() {
+  }
+
+  /**
+   * Entries at data/ in the root or in the first directory are payload in any
+   * layout Bagger reads.
+   */
+  static boolean isPayloadCandidate(String name) {
+    if (name.startsWith(DATA)) {
+      return true;
+    }
+    int slash = name.indexOf('/');
+    return slash > 0 && name.startsWith(DATA, slash + 1);
+  }
+
+  /**
+   * Entries named like bagit.txt, bag-info.txt, fetch.txt or a manifest, at
+   * the root or in the first directory.
+   */
+  static boolean isTagCandidate(String name) {
+    int slash = name.indexOf('/');
+    if (slash >= 0 && name.indexOf('/', slash + 1) >= 0) {
+      return false;
+    }
+    return TAG_FILE.matcher(name.substring(slash + 1)).matches();
+  }
+
+  /**
+   * The directory of the bag, with a trailing slash, going by where bagit.txt
+   * is; an empty string when the bag is at the top.
+   */
+  static String findPrefix(List<String> names) {
+    for (String name : names) {
+      if (name.equals("bagit.txt")) {
+        return "";
+      }
+    }
+    for (String name : names) {
+      int slash = name.indexOf('/');
+      if (slash > 0 && name.substring(slash + 1).equals("bagit.txt")) {
+        return name.substring(0, slash + 1);
+      }
+    }
+    // no bagit.txt: assume the layout Bagger writes
+    if (!names.isEmpty()) {
+      String name = names.get(0);
+      int slash = name.indexOf('/');
+      if (slash > 0 && !name.startsWith(DATA)) {
+        return name.substring(0, slash + 1);
+      }
+    }
+    return "";
+  }
+
+  /**
+   * The path in the bag of an entry, or null when the entry lies outside the
+   * bag.
+   */
+  static String relativize(String name, String prefix) {
+    if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+      return null;
+    }
+    return name.substring(prefix.length());
+  }
+}
@@ -0,0 +1,23 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import gov.loc.repository.bagit.ProgressListener;
+
+/**
+ * A progress listener that is also told how many bytes have been read or
+ * written, so it can show throughput. It is called from worker threads, often
+ * several at once, and must return without waiting.
+ */
+public interface ByteProgressListener extends ProgressListener {
+
+  /**
+   * Reports <code>bytes</code> more processed for <code>activity</code>.
+   * Negative when bytes reported before are to be processed again, as when a
+   * download is retried.
+   */
+  void reportBytes(String activity, long bytes);
+
+  /**
+   * Reports how many bytes <code>activity</code> expects to process in all.
+   */
+  void reportByteTotal(String activity, long total);
+}
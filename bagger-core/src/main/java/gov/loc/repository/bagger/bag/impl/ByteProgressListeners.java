@@ -0,0 +1,47 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.ProgressListener;
+
+/**
+ * The {@link ByteProgressListener}s among the progress listeners of an
+ * operation. The bagit base classes keep their listeners to themselves, so
+ * operations that report bytes track these alongside.
+ */
+class ByteProgressListeners {
+  private final List<ByteProgressListener> listeners = new CopyOnWriteArrayList<>();
+
+  void add(ProgressListener listener) {
+    if (listener instanceof ByteProgressListener) {
+      listeners.add((ByteProgressListener) listener);
+    }
+  }
+
+  void remove(ProgressListener listener) {
+    listeners.remove(listener);
+  }
+
+  void reportBytes(String activity, long bytes) {
+    for (ByteProgressListener listener : listeners) {
+      listener.reportBytes(activity, bytes);
+    }
+  }
+
+  void reportByteTotal(String activity, long total) {
+    for (ByteProgressListener listener : listeners) {
+      listener.reportByteTotal(activity, total);
+    }
+  }
+
+  static long totalSize(Collection<BagFile> files) {
+    long total = 0;
+    for (BagFile bagFile : files) {
+      total += Math.max(bagFile.getSize(), 0);
+    }
+    return total;
+  }
+}
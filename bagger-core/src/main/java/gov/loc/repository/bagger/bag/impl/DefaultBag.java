@@ -1,9 +1,15 @@
 package gov.loc.repository.bagger.bag.impl;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -25,13 +31,15 @@ import gov.loc.repository.bagit.BagFactory.Version;
 import gov.loc.repository.bagit.BagFile;
 import gov.loc.repository.bagit.BagInfoTxt;
 import gov.loc.repository.bagit.BagItTxt;
+import gov.loc.repository.bagit.Cancellable;
 import gov.loc.repository.bagit.FetchTxt;
 import gov.loc.repository.bagit.FetchTxt.FilenameSizeUrl;
 import gov.loc.repository.bagit.Manifest;
 import gov.loc.repository.bagit.Manifest.Algorithm;
 import gov.loc.repository.bagit.PreBag;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.impl.FileBagFile;
 import gov.loc.repository.bagit.transformer.HolePuncher;
-import gov.loc.repository.bagit.transformer.impl.DefaultCompleter;
 import gov.loc.repository.bagit.transformer.impl.HolePuncherImpl;
 import gov.loc.repository.bagit.utilities.SimpleResult;
 import gov.loc.repository.bagit.verify.Verifier;
@@ -39,6 +47,7 @@ import gov.loc.repository.bagit.verify.impl.CompleteVerifierImpl;
 import gov.loc.repository.bagit.verify.impl.RequiredBagInfoTxtFieldsVerifier;
 import gov.loc.repository.bagit.verify.impl.ValidVerifierImpl;
 import gov.loc.repository.bagit.writer.Writer;
+import gov.loc.repository.bagit.writer.impl.FileSystemWriter;
 
 public class DefaultBag {
   protected static final Logger log = LoggerFactory.getLogger(DefaultBag.class);
@@ -66,15 +75,22 @@ public class DefaultBag {
   // bag building (saving) options
   private boolean isBuildTagManifest = true;
   private boolean isBuildPayloadManifest = true;
-  private String tagManifestAlgorithm;
-  private String payloadManifestAlgorithm;
+  private List<String> tagManifestAlgorithms;
+  private List<String> payloadManifestAlgorithms;
   private short serialMode = NO_MODE;
+  private int checksumThreads = ParallelChecksumEngine.defaultParallelism();
+  private long checksumBytesInFlight = ParallelChecksumEngine.defaultBytesInFlight();
+  private final List<ProgressListener> progressListeners = new ArrayList<>();
+  private boolean useFixityCache = true;
+  private boolean allowMetadataOnlySave = true;
 
   // Bag state flags
   private boolean isValidateOnSave = false;
   private boolean isSerialized = false;
 
-  private boolean dirty = false;
+  // metadata covers bag-info.txt and the other tag files
+  private boolean metadataDirty = false;
+  private boolean payloadDirty = false;
 
   private File rootDir = null;
   private String name = "bag_";
@@ -82,19 +98,36 @@ public class DefaultBag {
   private long totalSize = 0;
 
   private Bag bilBag;
+  // built from bilBag on demand; payloadIndexBag is the bag it was built from
+  private PayloadPathIndex payloadIndex;
+  private final EmptyDirectoryPruner emptyDirectories = new EmptyDirectoryPruner();
+  // where the bag being written was read from
+  private File writtenFrom = null;
+  // digests of the payload files as the last save wrote them
+  private Map<String, Map<Algorithm, String>> writtenFixities = null;
+  // digests taken by the last save, for the fixity cache
+  private FixityCache.Recorder fixityRecorder = null;
+  private Bag payloadIndexBag;
   private DefaultBagInfo bagInfo = null;
   private Verifier bagStrategy;
   private BaggerFetch fetch;
   private Profile profile;
   private String versionString = null;
   private File bagFile = null;
+  private final BagStatus bagStatus = new BagStatus();
+  private final BaggerProfileStore profileStore;
 
-  public DefaultBag() {
-    this(null, Version.V0_96.versionString);
+  public DefaultBag(BaggerProfileStore profileStore) {
+    this(null, Version.V0_96.versionString, profileStore);
   }
 
-  public DefaultBag(File rootDir, String version) {
+  /*
+   * Every bag has its own status and only reads from the (immutable) profile
+   * store, so any number of bags can be worked on concurrently.
+   */
+  public DefaultBag(File rootDir, String version, BaggerProfileStore profileStore) {
     this.versionString = version;
+    this.profileStore = profileStore;
     init(rootDir);
   }
 
@@ -109,7 +142,17 @@ public class DefaultBag {
 
     display("DefaultBag.init file: " + dir + ", version: " + versionString);
     BagFactory bagFactory = new BagFactory();
-    if (!newBag) {
+    if (!newBag && TarArchive.isTarFile(dir)) {
+      // read in place, the payload stays in the archive
+      try {
+        bilBag = new TarArchive(dir).load(bagFactory);
+      }
+      catch (IOException e) {
+        throw new RuntimeException("Could not read " + dir, e);
+      }
+      versionString = bilBag.getVersion().versionString;
+    }
+    else if (!newBag) {
       bilBag = bagFactory.createBag(this.rootDir);
       versionString = bilBag.getVersion().versionString;
     }
@@ -122,7 +165,7 @@ public class DefaultBag {
     }
     initializeBilBag();
 
-    bagInfo = new DefaultBagInfo();
+    bagInfo = new DefaultBagInfo(profileStore);
 
     FetchTxt fetchTxt = bilBag.getFetchTxt();
     if (fetchTxt != null && !fetchTxt.isEmpty()) {
@@ -138,8 +181,8 @@ public class DefaultBag {
       }
     }
 
-    this.payloadManifestAlgorithm = Manifest.Algorithm.MD5.bagItAlgorithm;
-    this.tagManifestAlgorithm = Manifest.Algorithm.MD5.bagItAlgorithm;
+    this.payloadManifestAlgorithms = getManifestAlgorithms(bilBag.getPayloadManifests());
+    this.tagManifestAlgorithms = getManifestAlgorithms(bilBag.getTagManifests());
 
     this.bagInfo.update(bilBag.getBagInfoTxt());
 
@@ -147,7 +190,7 @@ public class DefaultBag {
     String lcProject = bilBag.getBagInfoTxt().get(DefaultBagInfo.FIELD_LC_PROJECT);
     if (lcProject != null && !lcProject.isEmpty()) {
       log.debug("Getting [{}] profile", lcProject);
-      Profile localProfile = BaggerProfileStore.getInstance().getProfile(lcProject);
+      Profile localProfile = profileStore.getProfile(lcProject);
       setProfile(localProfile, newBag);
     }
     else {
@@ -177,10 +220,7 @@ public class DefaultBag {
   }
 
   public void createPreBag(File data) {
-    BagFactory bagFactory = new BagFactory();
-    PreBag preBag = bagFactory.createPreBag(data);
-    Bag bag = preBag.makeBagInPlace(BagFactory.LATEST, false);
-    bilBag = bag;
+    createPreBag(data, false);
   }
 
   /*
@@ -188,9 +228,20 @@ public class DefaultBag {
    * adding .keep files in empty Pay load folders
    */
   public void createPreBagAddKeepFilesToEmptyFolders(File data) {
+    createPreBag(data, true);
+  }
+
+  /*
+   * The payload manifests are left to the first write, which reads every
+   * payload file anyway; bagit's own completer would read them all once more.
+   */
+  private void createPreBag(File data, boolean keepEmptyDirectories) {
     BagFactory bagFactory = new BagFactory();
     PreBag preBag = bagFactory.createPreBag(data);
-    Bag bag = preBag.makeBagInPlace(BagFactory.LATEST, false, true);
+    MultiManifestCompleter completer = new MultiManifestCompleter(bagFactory);
+    completer.setCompletePayloadManifests(false);
+    completer.setTagManifestAlgorithms(toAlgorithms(this.tagManifestAlgorithms));
+    Bag bag = preBag.makeBagInPlace(BagFactory.LATEST, false, keepEmptyDirectories, completer);
     bilBag = bag;
   }
 
@@ -269,6 +320,44 @@ public class DefaultBag {
     return this.serialMode;
   }
 
+  /**
+   * The serialization of an existing bag going by its file name.
+   */
+  public static short getSerialMode(File file) {
+    if (file == null || !file.isFile()) {
+      return NO_MODE;
+    }
+    TarArchive.Compression compression = TarArchive.getCompression(file);
+    if (compression == TarArchive.Compression.NONE) {
+      return TAR_MODE;
+    }
+    if (compression == TarArchive.Compression.GZIP) {
+      return TAR_GZ_MODE;
+    }
+    if (compression == TarArchive.Compression.BZIP2) {
+      return TAR_BZ2_MODE;
+    }
+    if (file.getName().toLowerCase().endsWith("." + ZIP_LABEL)) {
+      return ZIP_MODE;
+    }
+    return NO_MODE;
+  }
+
+  public static String getSerialLabel(short mode) {
+    switch (mode) {
+      case ZIP_MODE:
+        return ZIP_LABEL;
+      case TAR_MODE:
+        return TAR_LABEL;
+      case TAR_GZ_MODE:
+        return TAR_GZ_LABEL;
+      case TAR_BZ2_MODE:
+        return TAR_BZ2_LABEL;
+      default:
+        return NO_LABEL;
+    }
+  }
+
   public boolean isNoProject() {
     return profile.isNoProfile();
   }
@@ -290,19 +379,140 @@ public class DefaultBag {
   }
 
   public void setTagManifestAlgorithm(String s) {
-    this.tagManifestAlgorithm = s;
+    setTagManifestAlgorithms(Collections.singletonList(s));
   }
 
   public String getTagManifestAlgorithm() {
-    return this.tagManifestAlgorithm;
+    return this.tagManifestAlgorithms.get(0);
+  }
+
+  /*
+   * Each algorithm gets its own [tag]manifest-<alg>.txt; all of them are
+   * computed from a single read of every file.
+   */
+  public void setTagManifestAlgorithms(List<String> algorithms) {
+    this.tagManifestAlgorithms = normalizeAlgorithms(algorithms);
+  }
+
+  public List<String> getTagManifestAlgorithms() {
+    return this.tagManifestAlgorithms;
   }
 
   public void setPayloadManifestAlgorithm(String s) {
-    this.payloadManifestAlgorithm = s;
+    setPayloadManifestAlgorithms(Collections.singletonList(s));
   }
 
   public String getPayloadManifestAlgorithm() {
-    return this.payloadManifestAlgorithm;
+    return this.payloadManifestAlgorithms.get(0);
+  }
+
+  public void setPayloadManifestAlgorithms(List<String> algorithms) {
+    this.payloadManifestAlgorithms = normalizeAlgorithms(algorithms);
+  }
+
+  public List<String> getPayloadManifestAlgorithms() {
+    return this.payloadManifestAlgorithms;
+  }
+
+  private static List<String> getManifestAlgorithms(List<Manifest> manifests) {
+    List<String> algorithms = new ArrayList<>();
+    for (Manifest manifest : manifests) {
+      algorithms.add(manifest.getAlgorithm().bagItAlgorithm);
+    }
+    return normalizeAlgorithms(algorithms);
+  }
+
+  private static List<String> normalizeAlgorithms(List<String> algorithms) {
+    List<String> normalized = new ArrayList<>();
+    if (algorithms != null) {
+      for (String algorithm : algorithms) {
+        if (algorithm == null) {
+          continue;
+        }
+        String bagItAlgorithm = toAlgorithm(algorithm).bagItAlgorithm;
+        if (!normalized.contains(bagItAlgorithm)) {
+          normalized.add(bagItAlgorithm);
+        }
+      }
+    }
+    if (normalized.isEmpty()) {
+      normalized.add(Algorithm.MD5.bagItAlgorithm);
+    }
+    return Collections.unmodifiableList(normalized);
+  }
+
+  private static Algorithm toAlgorithm(String algorithm) {
+    for (Algorithm value : Algorithm.values()) {
+      if (value.bagItAlgorithm.equalsIgnoreCase(algorithm)) {
+        return value;
+      }
+    }
+    return Algorithm.MD5;
+  }
+
+  private static List<Algorithm> toAlgorithms(List<String> algorithms) {
+    List<Algorithm> values = new ArrayList<>();
+    for (String algorithm : algorithms) {
+      values.add(toAlgorithm(algorithm));
+    }
+    return values;
+  }
+
+  /*
+   * Number of threads used to hash the payload when the bag is written.
+   */
+  public void setChecksumThreads(int checksumThreads) {
+    this.checksumThreads = checksumThreads;
+  }
+
+  public int getChecksumThreads() {
+    return this.checksumThreads;
+  }
+
+  /*
+   * Upper bound on the combined size of the files being hashed at once.
+   */
+  public void setChecksumBytesInFlight(long checksumBytesInFlight) {
+    this.checksumBytesInFlight = checksumBytesInFlight;
+  }
+
+  public long getChecksumBytesInFlight() {
+    return this.checksumBytesInFlight;
+  }
+
+  /**
+   * When set (the default) a save only hashes the payload files that changed
+   * since the last save, see {@link FixityCache}.
+   */
+  public void setUseFixityCache(boolean useFixityCache) {
+    this.useFixityCache = useFixityCache;
+  }
+
+  public boolean isUseFixityCache() {
+    return useFixityCache;
+  }
+
+  /**
+   * When set (the default) saving a bag whose payload did not change since it
+   * was opened only rewrites bag-info.txt and the tag manifests.
+   */
+  public void setAllowMetadataOnlySave(boolean allowMetadataOnlySave) {
+    this.allowMetadataOnlySave = allowMetadataOnlySave;
+  }
+
+  public boolean isAllowMetadataOnlySave() {
+    return allowMetadataOnlySave;
+  }
+
+  /*
+   * Listeners notified once per file while manifests are generated.
+   */
+  public void addProgressListener(ProgressListener listener) {
+    this.progressListeners.add(listener);
+  }
+
+  public void removeProgressListener(ProgressListener listener) {
+    this.progressListeners.remove(listener);
   }
 
   /*
@@ -332,15 +542,23 @@ public class DefaultBag {
   }
 
   private void isComplete(Status status) {
-    BagStatus.getInstance().getCompletenessStatus().setStatus(status);
+    bagStatus.getCompletenessStatus().setStatus(status);
   }
 
   private void isValid(Status status) {
-    BagStatus.getInstance().getValidationStatus().setStatus(status);
+    bagStatus.getValidationStatus().setStatus(status);
   }
 
   private void isValidMetadata(Status status) {
-    BagStatus.getInstance().getProfileComplianceStatus().setStatus(status);
+    bagStatus.getProfileComplianceStatus().setStatus(status);
+  }
+
+  public BagStatus getBagStatus() {
+    return bagStatus;
+  }
+
+  public BaggerProfileStore getProfileStore() {
+    return profileStore;
   }
 
   public void isSerialized(boolean b) {
@@ -352,7 +570,7 @@ public class DefaultBag {
   }
 
   public void updateBagInfo(Map<String, String> map) {
-    changeToDirty();
+    changeMetadataToDirty();
     isValidMetadata(Status.UNKNOWN);
     bagInfo.update(map);
   }
@@ -421,11 +639,67 @@ public class DefaultBag {
     return list;
   }
 
-  public String getDataContent() {
+  /**
+   * Downloads the files listed in fetch.txt into the bag directory with
+   * <code>resolver</code>, checking each against the payload manifests, and
+   * adds those that arrived intact to the payload. The bag is no longer
+   * holey once every file is in place. Returns what went wrong, or an empty
+   * string; warnings are left in {@link FetchResolver#getWarnings()}.
+   */
+  public String fetchPayload(FetchResolver resolver) {
+    FetchTxt fetchTxt = bilBag.getFetchTxt();
+    if (fetchTxt == null || fetchTxt.isEmpty()) {
+      return "The bag has no files to fetch.";
+    }
+    File bagDir = bilBag.getFile();
+    if (bagDir == null || !bagDir.isDirectory()) {
+      return "Only a bag saved to a directory can be filled.";
+    }
+
+    Map<String, Map<Algorithm, String>> fixities = new HashMap<>();
+    for (Manifest manifest : bilBag.getPayloadManifests()) {
+      for (Entry<String, String> entry : manifest.entrySet()) {
+        Map<Algorithm, String> values = fixities.get(entry.getKey());
+        if (values == null) {
+          values = new EnumMap<>(Algorithm.class);
+          fixities.put(entry.getKey(), values);
+        }
+        values.put(manifest.getAlgorithm(), entry.getValue());
+      }
+    }
+    BaggerFetch localFetch = getFetch();
+    if (localFetch.getUserName() != null && !localFetch.getUserName().isEmpty()) {
+      resolver.setCredentials(localFetch.getUserName(), localFetch.getUserPassword());
+    }
+
+    SimpleResult result = resolver.resolve(fetchTxt, fixities, bagDir, getDataDirectory());
+    if (resolver.isCancelled() || result == null) {
+      return "Fetch cancelled.";
+    }
+    List<BagFile> fetched = new ArrayList<>();
+    for (FilenameSizeUrl entry : fetchTxt) {
+      if (entry.getFetchStatus() == FetchTxt.FetchStatus.SUCCEEDED) {
+        fetched.add(new FileBagFile(entry.getFilename(), new File(bagDir, entry.getFilename())));
+      }
+    }
+    bilBag.putBagFiles(fetched);
+    isComplete(Status.UNKNOWN);
+    synchronized (this) {
+      payloadIndex = null;
+    }
+    if (fetched.size() == fetchTxt.size()) {
+      isHoley(false);
+    }
+    log.info("Fetched {} of {} files into {}", fetched.size(), fetchTxt.size(), bagDir);
+
+    return result.isSuccess() ? "" : "Could not fetch every file:\n" + result.toString();
+  }
+
+  /**
+   * Adds up the size of the payload files and keeps it as the bag size.
+   */
+  public long updateDataSize() {
     totalSize = 0;
-    StringBuffer dcontent = new StringBuffer();
-    dcontent.append(this.getDataDirectory() + "/");
-    dcontent.append('\n');
     Collection<BagFile> files = this.bilBag.getPayload();
     if (files != null) {
       for (Iterator<BagFile> it = files.iterator(); it.hasNext();) {
@@ -433,23 +707,46 @@ public class DefaultBag {
           BagFile bf = it.next();
           if (bf != null) {
             totalSize += bf.getSize();
-            dcontent.append(bf.getFilepath());
-            dcontent.append('\n');
           }
         }
         catch (Exception e) {
-          log.error("Failed to get data content", e);
+          log.error("Failed to get data size", e);
         }
       }
     }
     this.setSize(totalSize);
-    return dcontent.toString();
+    return totalSize;
   }
 
   public long getDataSize() {
     return this.totalSize;
   }
 
+  /**
+   * The size of the payload or tag file at <code>filepath</code>, or -1 when
+   * the bag has no such file.
+   */
+  public long getFileSize(String filepath) {
+    BagFile bagFile = bilBag.getBagFile(filepath);
+    return bagFile == null ? -1 : bagFile.getSize();
+  }
+
+  /**
+   * The bytes read to check every manifest of the bag, counting each file
+   * once for every manifest that lists it.
+   */
+  public long getManifestedSize() {
+    List<Manifest> manifests = new ArrayList<>(bilBag.getPayloadManifests());
+    manifests.addAll(bilBag.getTagManifests());
+    long total = 0;
+    for (Manifest manifest : manifests) {
+      for (String filepath : manifest.keySet()) {
+        total += Math.max(getFileSize(filepath), 0);
+      }
+    }
+    return total;
+  }
+
   public int getDataNumber() {
     return this.bilBag.getPayload().size();
   }
@@ -482,8 +779,29 @@ public class DefaultBag {
     return pathList;
   }
 
+  /**
+   * The payload paths in a compact sorted index, built when first asked for
+   * after the payload was loaded or added to.
+   */
+  public synchronized PayloadPathIndex getPayloadIndex() {
+    if (payloadIndex == null || payloadIndexBag != bilBag) {
+      payloadIndex = PayloadPathIndex.build(getPayloadPaths());
+      payloadIndexBag = bilBag;
+      log.debug("Indexed {} payload paths in {} bytes", payloadIndex.size(), payloadIndex.getMemorySize());
+    }
+    return payloadIndex;
+  }
+
+  /*
+   * The index if it was built from the current payload, null otherwise;
+   * removals are marked in it rather than building it again.
+   */
+  private synchronized PayloadPathIndex currentPayloadIndex() {
+    return payloadIndexBag == bilBag ? payloadIndex : null;
+  }
+
   public String addTagFile(File f) {
-    changeToDirty();
+    changeMetadataToDirty();
     isComplete(Status.UNKNOWN);
 
     String message = null;
@@ -498,10 +816,51 @@ public class DefaultBag {
     return message;
   }
 
+  /**
+   * Writes the bag with <code>bw</code>. Once written, this object stands for
+   * the bag where it was written, with the tag files and manifests built for
+   * it, so it need not be read back to be shown or worked on.
+   */
   public String write(Writer bw) {
+    // the writers keep every payload path, so the index outlives the bag it
+    // was built from
+    PayloadPathIndex index = currentPayloadIndex();
+    int payloadCount = bilBag.getPayload().size();
+    String messages = writeFiles(bw);
+    if (index != null && isSerialized() && !isHoley && bilBag.getPayload().size() == payloadCount) {
+      synchronized (this) {
+        payloadIndex = index;
+        payloadIndexBag = bilBag;
+      }
+    }
+    return messages;
+  }
+
+  private String writeFiles(Writer bw) {
+    writtenFrom = bilBag.getFile();
+    writtenFixities = null;
+    fixityRecorder = useFixityCache ? new FixityCache.Recorder() : null;
+    if (canWriteMetadataOnly(bw)) {
+      return writeMetadataOnly((FileSystemWriter) bw);
+    }
     prepareBilBagInfoIfDirty();
 
-    generateManifestFiles();
+    if (bw instanceof StreamingBagWriter && this.isBuildPayloadManifest && !this.isHoley) {
+      // the payload manifests are built from the digests the writer computes
+      // while archiving, once the payload is in the archive
+      final StreamingBagWriter streamingWriter = (StreamingBagWriter) bw;
+      streamingWriter.setFixityAlgorithms(toAlgorithms(this.payloadManifestAlgorithms));
+      streamingWriter.setTagFileCompleter(new StreamingBagWriter.TagFileCompleter() {
+        @Override
+        public Bag complete(Bag bag, Map<String, Map<Algorithm, String>> payloadFixities) {
+          writtenFixities = payloadFixities;
+          return generateManifestFiles(streamingWriter, true, payloadFixities) ? bilBag : null;
+        }
+      });
+    }
+    else if (!generateManifestFiles(bw, true)) {
+      return "Save cancelled.";
+    }
 
     if (this.isHoley && this.getFetch().getBaseURL() != null) {
       BagInfoTxt bagInfoTxt = bilBag.getBagInfoTxt();
@@ -525,14 +884,109 @@ public class DefaultBag {
       }
     }
 
+    if (bw instanceof HashingFileSystemWriter && !this.isHoley) {
+      List<Algorithm> algorithms = new ArrayList<>();
+      for (Manifest manifest : bilBag.getPayloadManifests()) {
+        algorithms.add(manifest.getAlgorithm());
+      }
+      ((HashingFileSystemWriter) bw).setFixityAlgorithms(algorithms);
+      ((HashingFileSystemWriter) bw).setRecorder(fixityRecorder);
+    }
+
     String messages = writeBag(bw);
 
+    if (bw instanceof HashingFileSystemWriter && !this.isHoley) {
+      // files already in the target were not copied, so they have no digest
+      // here and are read back when the bag is validated
+      writtenFixities = new HashMap<>(((HashingFileSystemWriter) bw).getWrittenFixities());
+    }
+    if (bw.isCancelled() || !isSerialized()) {
+      writtenFixities = null;
+    }
     if (bw.isCancelled()) {
       return "Save cancelled.";
     }
+    if (isSerialized()) {
+      // bag-info.txt now matches the fields and carries the generated
+      // Payload-Oxum, so later checks must not rebuild it from the fields
+      this.metadataDirty = false;
+      this.payloadDirty = false;
+      if (useFixityCache) {
+        updateFixityCache();
+      }
+    }
     return messages;
   }
 
+  /*
+   * The payload and its manifests on disk are still those of the bag being
+   * written over, so only the tag files need to be rewritten.
+   */
+  private boolean canWriteMetadataOnly(Writer bw) {
+    if (!allowMetadataOnlySave || payloadDirty || isHoley || serialMode != NO_MODE || !(bw instanceof FileSystemWriter)) {
+      return false;
+    }
+    File dir = bilBag.getFile();
+    if (dir == null || !dir.isDirectory() || bilBag.getBagItTxt() == null || bilBag.getBagInfoTxt() == null
+        || bilBag.getPayloadManifests().isEmpty() || getRootDir() == null) {
+      return false;
+    }
+    File target = new File(getRootDir().getParentFile(), fileStripSuffix(getRootDir().getName()));
+    if (!target.getAbsoluteFile().equals(dir.getAbsoluteFile())) {
+      return false;
+    }
+    if (isBuildPayloadManifest) {
+      Set<Algorithm> existing = new HashSet<>(toAlgorithms(getManifestAlgorithms(bilBag.getPayloadManifests())));
+      return existing.equals(new HashSet<>(toAlgorithms(payloadManifestAlgorithms)));
+    }
+    return true;
+  }
+
+  private String writeMetadataOnly(FileSystemWriter bw) {
+    File dir = bilBag.getFile();
+    log.info("Payload of {} is unchanged, only writing the tag files", dir);
+    // rebuilding bag-info.txt from the fields drops the generated values,
+    // which still hold since the payload is the same
+    BagInfoTxt bagInfoTxt = bilBag.getBagInfoTxt();
+    String payloadOxum = bagInfoTxt.getPayloadOxum();
+    String bagSize = bagInfoTxt.getBagSize();
+    prepareBilBagInfoIfDirty();
+    if (bagInfoTxt.getPayloadOxum() == null && payloadOxum != null) {
+      bagInfoTxt.setPayloadOxum(payloadOxum);
+    }
+    if (bagInfoTxt.getBagSize() == null && bagSize != null) {
+      bagInfoTxt.setBagSize(bagSize);
+    }
+
+    if (!generateManifestFiles(bw, false)) {
+      return "Save cancelled.";
+    }
+
+    this.setName(dir.getName());
+    setBagFile(dir);
+    this.isSerialized(false);
+    bw.setTagFilesOnly(true);
+    try {
+      Bag newBag = bw.write(bilBag, dir);
+      if (newBag != null) {
+        bilBag = newBag;
+        this.isSerialized(true);
+      }
+    }
+    finally {
+      bw.setTagFilesOnly(false);
+    }
+
+    if (bw.isCancelled()) {
+      return "Save cancelled.";
+    }
+    if (isSerialized()) {
+      // the fixity cache stays as it is, since no payload file was read
+      this.metadataDirty = false;
+    }
+    return null;
+  }
+
   public String completeBag(CompleteVerifierImpl completeVerifier) {
     prepareBilBagInfoIfDirty();
 
@@ -582,10 +1036,53 @@ public class DefaultBag {
   public String validateBag(ValidVerifierImpl validVerifier) {
     prepareBilBagInfoIfDirty();
 
-    String messages = "";
-    SimpleResult result = validVerifier.verify(bilBag);
+    File archiveFile = getArchiveFile();
+    SimpleResult result;
+    if (archiveFile != null && !isDirty()) {
+      // one pass over the archive instead of seeking to every payload file
+      StreamingBagVerifier streamingVerifier = new StreamingBagVerifier(archiveFile);
+      streamingVerifier.setParent(validVerifier);
+      for (ProgressListener listener : progressListeners) {
+        streamingVerifier.addProgressListener(listener);
+      }
+      result = streamingVerifier.verify(bilBag);
+    }
+    else {
+      result = validVerifier.verify(bilBag);
+    }
+
+    return validationMessages(validVerifier, result);
+  }
+
+  /**
+   * A checksum verifier for the bag just saved that reuses the digests taken
+   * while writing it, or null when they were not kept: the bag was written
+   * by a writer that does not hash, only its tag files were rewritten, or
+   * the payload changed since.
+   */
+  public WrittenFixityVerifier getWrittenFixityVerifier() {
+    if (writtenFixities == null || !isSerialized() || payloadDirty) {
+      return null;
+    }
+    WrittenFixityVerifier verifier = new WrittenFixityVerifier(writtenFixities);
+    verifier.setChecksumEngine(new ParallelChecksumEngine(checksumThreads, checksumBytesInFlight));
+    return verifier;
+  }
+
+  /**
+   * Validates the bag as last written with <code>validVerifier</code>,
+   * normally one checking the manifests with
+   * {@link #getWrittenFixityVerifier()}, rather than reading an archive in
+   * one pass.
+   */
+  public String validateWrittenBag(ValidVerifierImpl validVerifier) {
+    prepareBilBagInfoIfDirty();
+    return validationMessages(validVerifier, validVerifier.verify(bilBag));
+  }
 
-    if (validVerifier.isCancelled()) {
+  private String validationMessages(ValidVerifierImpl validVerifier, SimpleResult result) {
+    String messages = "";
+    if (validVerifier.isCancelled() || result == null) {
       isValid(Status.UNKNOWN);
       return "Validation check cancelled.";
     }
@@ -608,13 +1105,44 @@ public class DefaultBag {
   }
 
   private String fileStripSuffix(String filename) {
-    if(filename.toLowerCase().endsWith("zip")){
-      return filename.substring(0, filename.length() - 3);
+    String lower = filename.toLowerCase();
+    for (String suffix : new String[] { "." + TAR_GZ_LABEL, "." + TAR_BZ2_LABEL, "." + TAR_LABEL, ".tgz", ".tbz2",
+        "." + ZIP_LABEL }) {
+      if (lower.endsWith(suffix) && lower.length() > suffix.length()) {
+        return filename.substring(0, filename.length() - suffix.length());
+      }
     }
-    
     return filename;
   }
 
+  /**
+   * The archive the payload is read from when the bag was opened from, or
+   * last written as, a tar file.
+   */
+  public TarArchive getTarArchive() {
+    Iterator<BagFile> payload = bilBag.getPayload().iterator();
+    if (payload.hasNext()) {
+      BagFile bagFile = payload.next();
+      if (bagFile instanceof TarBagFile) {
+        return ((TarBagFile) bagFile).getArchive();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The zip or tar file the bag was opened from or last written as, or null
+   * when it is a directory or has not been saved.
+   */
+  public File getArchiveFile() {
+    TarArchive archive = getTarArchive();
+    if (archive != null) {
+      return archive.getFile();
+    }
+    File file = bilBag.getFile();
+    return bilBag.getFormat() == Bag.Format.ZIP && StreamingBagVerifier.isSupported(file) ? file : null;
+  }
+
   private String writeBag(Writer bw) {
     String messages = null;
     String bagName = "";
@@ -745,49 +1273,44 @@ public class DefaultBag {
     return strategy;
   }
 
-  private void generateManifestFiles() {
-    DefaultCompleter completer = new DefaultCompleter(new BagFactory());
-    if (this.isBuildPayloadManifest) {
-      if (this.payloadManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.MD5.bagItAlgorithm)) {
-        completer.setPayloadManifestAlgorithm(Algorithm.MD5);
-      }
-      else if (this.payloadManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.SHA1.bagItAlgorithm)) {
-        completer.setPayloadManifestAlgorithm(Algorithm.SHA1);
-      }
-      else if (this.payloadManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.SHA256.bagItAlgorithm)) {
-        completer.setPayloadManifestAlgorithm(Algorithm.SHA256);
-      }
-      else if (this.payloadManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.SHA512.bagItAlgorithm)) {
-        completer.setPayloadManifestAlgorithm(Algorithm.SHA512);
-      }
-      else {
-        completer.setPayloadManifestAlgorithm(Algorithm.MD5);
-      }
+  private boolean generateManifestFiles(Cancellable cancellable, boolean payload) {
+    return generateManifestFiles(cancellable, payload, Collections.<String, Map<Algorithm, String>> emptyMap());
+  }
+
+  private boolean generateManifestFiles(Cancellable cancellable, boolean payload, Map<String, Map<Algorithm, String>> payloadFixities) {
+    MultiManifestCompleter completer = new MultiManifestCompleter(new BagFactory());
+    completer.setPayloadFixities(payloadFixities);
+    completer.setCompletePayloadManifests(payload);
+    if (!payload) {
+      completer.setUpdatePayloadOxum(false);
+      completer.setUpdateBagSize(false);
+    }
+    completer.setChecksumEngine(new ParallelChecksumEngine(checksumThreads, checksumBytesInFlight));
+    completer.setParentCancellable(cancellable);
+    for (ProgressListener listener : progressListeners) {
+      completer.addProgressListener(listener);
+    }
+    if (this.isBuildPayloadManifest && payload) {
+      completer.setPayloadManifestAlgorithms(toAlgorithms(this.payloadManifestAlgorithms));
       completer.setClearExistingPayloadManifests(true);
+      if (useFixityCache && bilBag.getFile() != null && bilBag.getFile().isDirectory()) {
+        completer.setFixityCache(FixityCache.load(bilBag.getFile()));
+      }
+      completer.setRecorder(fixityRecorder);
     }
     if (this.isBuildTagManifest) {
       completer.setClearExistingTagManifests(true);
-      completer.setGenerateTagManifest(true);
-      if (this.tagManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.MD5.bagItAlgorithm)) {
-        completer.setTagManifestAlgorithm(Algorithm.MD5);
-      }
-      else if (this.tagManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.SHA1.bagItAlgorithm)) {
-        completer.setTagManifestAlgorithm(Algorithm.SHA1);
-      }
-      else if (this.tagManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.SHA256.bagItAlgorithm)) {
-        completer.setTagManifestAlgorithm(Algorithm.SHA256);
-      }
-      else if (this.tagManifestAlgorithm.equalsIgnoreCase(Manifest.Algorithm.SHA512.bagItAlgorithm)) {
-        completer.setTagManifestAlgorithm(Algorithm.SHA512);
-      }
-      else {
-        completer.setTagManifestAlgorithm(Algorithm.MD5);
-      }
+      completer.setTagManifestAlgorithms(toAlgorithms(this.tagManifestAlgorithms));
     }
     if (bilBag.getBagInfoTxt() != null){
       completer.setGenerateBagInfoTxt(true);
     }
-    bilBag = completer.complete(bilBag);
+    Bag completedBag = completer.complete(bilBag);
+    if (completedBag == null) {
+      return false;
+    }
+    bilBag = completedBag;
+    return true;
   }
 
   public void clear() {
@@ -797,24 +1320,45 @@ public class DefaultBag {
   }
 
   public void addField(BagInfoField field) {
-    changeToDirty();
+    changeMetadataToDirty();
     isValidMetadata(Status.UNKNOWN);
 
     bagInfo.addField(field);
   }
 
   public void removeBagInfoField(String key) {
-    changeToDirty();
+    changeMetadataToDirty();
     isValidMetadata(Status.UNKNOWN);
 
     bagInfo.removeField(key);
   }
 
   public void addFileToPayload(File file) {
-    changeToDirty();
+    changePayloadToDirty();
     isComplete(Status.UNKNOWN);
 
     bilBag.addFileToPayload(file);
+    synchronized (this) {
+      payloadIndex = null;
+    }
+  }
+
+  /**
+   * Puts payload files found beforehand, such as by a
+   * {@link PayloadScanner}, into the bag in one go. Files already in the
+   * payload under the same path are replaced.
+   */
+  public void addFilesToPayload(Collection<BagFile> files) {
+    if (files.isEmpty()) {
+      return;
+    }
+    changePayloadToDirty();
+    isComplete(Status.UNKNOWN);
+
+    bilBag.putBagFiles(files);
+    synchronized (this) {
+      payloadIndex = null;
+    }
   }
 
   public Collection<BagFile> getTags() {
@@ -822,16 +1366,130 @@ public class DefaultBag {
   }
 
   public void removeBagFile(String fileName) {
-    changeToDirty();
+    if (fileName.startsWith(getDataDirectory() + "/")) {
+      changePayloadToDirty();
+    }
+    else {
+      changeMetadataToDirty();
+    }
     isComplete(Status.UNKNOWN);
 
     bilBag.removeBagFile(fileName);
+    PayloadPathIndex index = currentPayloadIndex();
+    if (index != null) {
+      index.remove(fileName);
+    }
+    if (fileName.startsWith(getDataDirectory() + "/")) {
+      emptyDirectories.fileRemoved(fileName);
+    }
   }
 
   public void removePayloadDirectory(String fileName) {
-    changeToDirty();
+    changePayloadToDirty();
     isComplete(Status.UNKNOWN);
     bilBag.removePayloadDirectory(fileName);
+    PayloadPathIndex index = currentPayloadIndex();
+    if (index != null) {
+      index.removeDirectory(fileName);
+    }
+    emptyDirectories.directoryRemoved(fileName);
+  }
+
+  /**
+   * Removes payload files and directories in one pass. Each path is looked
+   * up in the payload index to tell files from directories, and the files
+   * under a directory are taken from the index rather than by going through
+   * the whole payload once per directory. Paths under a directory removed
+   * earlier in the same call count as removed.
+   */
+  public PayloadRemoval removePayloadPaths(Collection<String> paths) {
+    PayloadRemoval removal = new PayloadRemoval();
+    PayloadPathIndex index = getPayloadIndex();
+    Set<String> directories = new HashSet<>();
+    for (String path : paths) {
+      if (index.remove(path)) {
+        bilBag.removeBagFile(path);
+        emptyDirectories.fileRemoved(path);
+        removal.files++;
+      }
+      else if (index.isDirectory(path)) {
+        for (String file : index.list(path)) {
+          bilBag.removeBagFile(file);
+        }
+        removal.files += index.removeDirectory(path);
+        removal.directories++;
+        directories.add(path);
+        emptyDirectories.directoryRemoved(path);
+      }
+      else if (!isUnder(path, directories)) {
+        removal.missing.add(path);
+      }
+    }
+    if (removal.files > 0) {
+      changePayloadToDirty();
+      isComplete(Status.UNKNOWN);
+    }
+    return removal;
+  }
+
+  private static boolean isUnder(String path, Set<String> directories) {
+    for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+      if (directories.contains(path.substring(0, slash))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * What {@link DefaultBag#removePayloadPaths(Collection)} did.
+   */
+  public static class PayloadRemoval {
+    private int files = 0;
+    private int directories = 0;
+    private final List<String> missing = new ArrayList<>();
+
+    public int getFileCount() {
+      return files;
+    }
+
+    public int getDirectoryCount() {
+      return directories;
+    }
+
+    /**
+     * The paths given that were neither a payload file nor a directory of
+     * them.
+     */
+    public List<String> getMissing() {
+      return missing;
+    }
+  }
+
+  /**
+   * Deletes the payload directories left empty by the last save, when it
+   * wrote the bag as a directory. A bag written back where it was read from
+   * only has the directories that lost files checked; anywhere else the
+   * whole payload is walked. Returns how many were deleted.
+   */
+  public int pruneEmptyDirectories() {
+    File dir = getBagFile();
+    if (serialMode != NO_MODE || !isSerialized() || dir == null) {
+      return 0;
+    }
+    Path dataDir = dir.toPath().resolve(getDataDirectory());
+    if (!Files.isDirectory(dataDir)) {
+      return 0;
+    }
+    int deleted;
+    if (writtenFrom != null && writtenFrom.getAbsoluteFile().equals(dir.getAbsoluteFile())) {
+      deleted = emptyDirectories.isEmpty() ? 0 : emptyDirectories.prune(dir.toPath(), getDataDirectory());
+    }
+    else {
+      deleted = EmptyDirectoryPruner.pruneAll(dataDir);
+    }
+    emptyDirectories.clear();
+    return deleted;
   }
 
   public Collection<BagFile> getPayload() {
@@ -842,13 +1500,60 @@ public class DefaultBag {
     return bilBag.getFetchTxt();
   }
 
-  private void changeToDirty() {
-    this.dirty = true;
+  /**
+   * True if bag-info.txt or another tag file changed since the bag was last
+   * written.
+   */
+  public boolean isMetadataDirty() {
+    return metadataDirty;
+  }
+
+  /**
+   * True if payload files were added or removed since the bag was last
+   * written.
+   */
+  public boolean isPayloadDirty() {
+    return payloadDirty;
+  }
+
+  public boolean isDirty() {
+    return metadataDirty || payloadDirty;
+  }
+
+  private void changeMetadataToDirty() {
+    this.metadataDirty = true;
     isValid(Status.UNKNOWN);
   }
 
+  private void changePayloadToDirty() {
+    this.payloadDirty = true;
+    isValid(Status.UNKNOWN);
+  }
+
+  /*
+   * Records the digests taken while the bag was written, with the attributes
+   * each file had when it was read, so the next save of the same directory
+   * can skip the unchanged files. A failure only costs speed.
+   */
+  private void updateFixityCache() {
+    File dir = bilBag.getFile();
+    if (getSerialMode() != NO_MODE || dir == null || !dir.isDirectory() || fixityRecorder == null) {
+      return;
+    }
+    FixityCache cache = new FixityCache(dir);
+    for (BagFile bagFile : bilBag.getPayload()) {
+      cache.put(bagFile.getFilepath(), new File(dir, bagFile.getFilepath()), fixityRecorder);
+    }
+    try {
+      cache.save();
+    }
+    catch (IOException e) {
+      log.warn("Could not save the fixity cache of {}", dir, e);
+    }
+  }
+
   private void prepareBilBagInfoIfDirty() {
-    if (dirty) {
+    if (isDirty()) {
       bagInfo.prepareBilBagInfo(bilBag.getBagInfoTxt());
     }
   }
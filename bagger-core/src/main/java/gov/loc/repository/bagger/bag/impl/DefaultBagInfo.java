@@ -38,6 +38,11 @@ public class DefaultBagInfo implements Serializable {
   private BaggerSourceOrganization sourceOrganization = new BaggerSourceOrganization();
   private Contact toContact = new Contact(true);
   private LinkedHashMap<String, BagInfoField> fieldMap = new LinkedHashMap<>();
+  private final transient BaggerProfileStore profileStore;
+
+  public DefaultBagInfo(BaggerProfileStore profileStore) {
+    this.profileStore = profileStore;
+  }
 
   public BaggerSourceOrganization getBagOrganization() {
     return this.sourceOrganization;
@@ -143,7 +148,7 @@ public class DefaultBagInfo implements Serializable {
         fieldMap.put(field.getLabel(), field);
       }
 
-      List<ProfileField> list = BaggerProfileStore.getInstance().getProfileFields(profile.getName());
+      List<ProfileField> list = profileStore.getProfileFields(profile.getName());
       LinkedHashMap<String, ProfileField> profileFields = convertToMap(list);
 
       if (fieldMap.size() > 0) {
@@ -0,0 +1,172 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the payload directories that lost files, so that the empty
+ * directories a save leaves behind can be deleted without walking the whole
+ * payload. A directory that held a removed file is checked on its own; a
+ * removed directory is checked with everything under it. Either way the
+ * directories above are checked too, deepest first, up to the data
+ * directory, which is always kept.
+ */
+public class EmptyDirectoryPruner {
+  protected static final Logger log = LoggerFactory.getLogger(EmptyDirectoryPruner.class);
+
+  private static final Comparator<Path> DEEPEST_FIRST = new Comparator<Path>() {
+    @Override
+    public int compare(Path a, Path b) {
+      return b.getNameCount() - a.getNameCount();
+    }
+  };
+
+  // guarded by this, paths relative to the bag
+  private final Set<String> directories = new HashSet<>();
+  private final Set<String> trees = new HashSet<>();
+
+  public synchronized void fileRemoved(String filepath) {
+    int slash = filepath.lastIndexOf('/');
+    if (slash > 0) {
+      directories.add(filepath.substring(0, slash));
+    }
+  }
+
+  public synchronized void directoryRemoved(String path) {
+    trees.add(path);
+  }
+
+  public synchronized boolean isEmpty() {
+    return directories.isEmpty() && trees.isEmpty();
+  }
+
+  public synchronized void clear() {
+    directories.clear();
+    trees.clear();
+  }
+
+  /**
+   * Deletes the empty directories among those tracked and above them, in the
+   * bag at <code>bagDir</code>. Returns how many were deleted.
+   */
+  public int prune(Path bagDir, String dataDirectory) {
+    List<String> treePaths;
+    Set<String> paths = new HashSet<>();
+    synchronized (this) {
+      treePaths = new ArrayList<>(trees);
+      paths.addAll(directories);
+      paths.addAll(trees);
+    }
+    Path dataDir = bagDir.resolve(dataDirectory);
+    Deleter deleter = new Deleter(dataDir);
+    for (String tree : treePaths) {
+      Path dir = bagDir.resolve(tree);
+      if (dir.startsWith(dataDir) && Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+        deleter.walk(dir);
+      }
+    }
+
+    // every directory is tried once, after all those below it
+    Set<Path> candidates = new HashSet<>();
+    for (String path : paths) {
+      for (Path dir = bagDir.resolve(path); dir != null && dir.startsWith(dataDir)
+          && !dir.equals(dataDir); dir = dir.getParent()) {
+        if (!candidates.add(dir)) {
+          break;
+        }
+      }
+    }
+    List<Path> ordered = new ArrayList<>(candidates);
+    Collections.sort(ordered, DEEPEST_FIRST);
+    for (Path dir : ordered) {
+      if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+        deleter.deleteIfEmpty(dir);
+      }
+    }
+    log.debug("Deleted {} empty directories from {} tracked under {}", deleter.deleted, paths.size(), dataDir);
+    return deleter.deleted;
+  }
+
+  /**
+   * Deletes every empty directory under <code>dataDir</code>, for when it
+   * is not known which directories lost files. Returns how many were
+   * deleted.
+   */
+  public static int pruneAll(Path dataDir) {
+    Deleter deleter = new Deleter(dataDir);
+    deleter.walk(dataDir);
+    log.debug("Deleted {} empty directories under {}", deleter.deleted, dataDir);
+    return deleter.deleted;
+  }
+
+  /*
+   * Deletes directories on the way back up a walk, once their contents have
+   * been seen to. Links are not followed.
+   */
+  private static class Deleter extends SimpleFileVisitor<Path> {
+    private final Path dataDir;
+    int deleted = 0;
+
+    Deleter(Path dataDir) {
+      this.dataDir = dataDir;
+    }
+
+    void walk(Path dir) {
+      try {
+        Files.walkFileTree(dir, this);
+      }
+      catch (IOException e) {
+        log.warn("Could not look for empty directories under {}", dir, e);
+      }
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+      if (e != null) {
+        log.warn("Could not read {}: {}", dir, e.toString());
+      }
+      else if (!dir.equals(dataDir)) {
+        deleteIfEmpty(dir);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException e) {
+      log.warn("Could not read {}: {}", file, e.toString());
+      return FileVisitResult.CONTINUE;
+    }
+
+    /*
+     * Deleting a directory that is not empty fails, so it need not be listed
+     * first.
+     */
+    void deleteIfEmpty(Path dir) {
+      try {
+        if (Files.deleteIfExists(dir)) {
+          deleted++;
+        }
+      }
+      catch (DirectoryNotEmptyException e) {
+        // still holds files
+      }
+      catch (IOException e) {
+        log.warn("Could not delete {}: {}", dir, e.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,628 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.FetchTxt;
+import gov.loc.repository.bagit.FetchTxt.FetchStatus;
+import gov.loc.repository.bagit.FetchTxt.FilenameSizeUrl;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
+import gov.loc.repository.bagit.utilities.SimpleResult;
+
+/**
+ * Fills the holes in a bag by downloading the files listed in its fetch.txt
+ * over http or https. Downloads run in parallel, but no more than
+ * {@link #setConnectionsPerHost(int)} at once from one host; the hosts take
+ * turns, one file at a time, so a large host does not hold up the others.
+ * <p>
+ * Each file is hashed as it arrives and only moved into place when it
+ * matches the payload manifests. Until then it is kept next to its final
+ * name with a <code>.part</code> suffix. A download that breaks off is tried
+ * again after a pause that doubles each time, and asks only for the rest of
+ * the file when the server answers range requests; files already in place
+ * and intact are not downloaded again. Only files under the payload
+ * directory are fetched; an entry naming a tag file is refused.
+ */
+public class FetchResolver extends LongRunningOperationBase {
+  protected static final Logger log = LoggerFactory.getLogger(FetchResolver.class);
+
+  public static final String ACTIVITY = "fetching files";
+  public static final String THREADS_PROPERTY = "bagger.fetch.threads";
+  public static final String CONNECTIONS_PER_HOST_PROPERTY = "bagger.fetch.connectionsPerHost";
+  public static final String CODE_FETCH_FAILED = "fetch_failed";
+  public static final String CODE_VERIFY_FAILED = "fetch_verify_failed";
+  public static final String CODE_NOT_VERIFIED = "fetch_not_verified";
+
+  static final String PARTIAL_SUFFIX = ".part";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private int threads = Integer.getInteger(THREADS_PROPERTY, 8);
+  private int connectionsPerHost = Integer.getInteger(CONNECTIONS_PER_HOST_PROPERTY, 2);
+  private int maxAttempts = 5;
+  private long retryDelay = 1000;
+  private long maxRetryDelay = 60000;
+  private int connectTimeout = 30000;
+  private int socketTimeout = 60000;
+  private String userName;
+  private String password;
+
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+  private final Map<String, Map<Algorithm, String>> fetchedFixities = new ConcurrentHashMap<>();
+  private final List<String> warnings = new CopyOnWriteArrayList<>();
+
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  public void setConnectionsPerHost(int connectionsPerHost) {
+    this.connectionsPerHost = Math.max(1, connectionsPerHost);
+  }
+
+  /**
+   * How many times a file is tried before it is given up on, counting the
+   * first.
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+  }
+
+  /**
+   * The pause before the first retry, in milliseconds; it doubles with each
+   * retry up to <code>maxRetryDelay</code>.
+   */
+  public void setRetryDelay(long retryDelay, long maxRetryDelay) {
+    this.retryDelay = Math.max(0, retryDelay);
+    this.maxRetryDelay = Math.max(this.retryDelay, maxRetryDelay);
+  }
+
+  public void setTimeouts(int connectTimeout, int socketTimeout) {
+    this.connectTimeout = connectTimeout;
+    this.socketTimeout = socketTimeout;
+  }
+
+  /**
+   * Credentials sent to servers that ask for them; none when
+   * <code>userName</code> is empty.
+   */
+  public void setCredentials(String userName, String password) {
+    this.userName = userName;
+    this.password = password;
+  }
+
+  /**
+   * The digests of the files fetched by the last run, keyed by file path.
+   */
+  public Map<String, Map<Algorithm, String>> getFetchedFixities() {
+    return fetchedFixities;
+  }
+
+  /**
+   * What the last run warned about without failing, such as files fetched
+   * that no payload manifest lists.
+   */
+  public List<String> getWarnings() {
+    return warnings;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener listener) {
+    super.addProgressListener(listener);
+    byteListeners.add(listener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener listener) {
+    super.removeProgressListener(listener);
+    byteListeners.remove(listener);
+  }
+
+  /**
+   * Downloads the entries of <code>fetchTxt</code> into <code>bagDir</code>
+   * and sets the fetch status of each. <code>fixities</code> holds the
+   * manifest values of the payload files, keyed by file path, and
+   * <code>dataDirectory</code> is the payload directory the entries must be
+   * in. Returns null when cancelled.
+   */
+  public SimpleResult resolve(FetchTxt fetchTxt, Map<String, Map<Algorithm, String>> fixities, File bagDir,
+      String dataDirectory) {
+    fetchedFixities.clear();
+    warnings.clear();
+    final SimpleResult result = new SimpleResult(true);
+    final Map<String, Queue<FilenameSizeUrl>> hosts = new LinkedHashMap<>();
+    long byteTotal = 0;
+    for (FilenameSizeUrl entry : fetchTxt) {
+      entry.setFetchStatus(FetchStatus.NOT_FETCHED);
+      String host = host(entry.getUrl());
+      if (host == null) {
+        fail(result, CODE_FETCH_FAILED, entry, "Unsupported url " + entry.getUrl());
+        continue;
+      }
+      Queue<FilenameSizeUrl> queue = hosts.get(host);
+      if (queue == null) {
+        queue = new ArrayDeque<>();
+        hosts.put(host, queue);
+      }
+      queue.add(entry);
+      if (entry.getSize() != null) {
+        byteTotal += entry.getSize();
+      }
+    }
+    int count = 0;
+    for (Queue<FilenameSizeUrl> queue : hosts.values()) {
+      count += queue.size();
+    }
+    if (count == 0) {
+      return result;
+    }
+    byteListeners.reportByteTotal(ACTIVITY, byteTotal);
+
+    PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+    connections.setDefaultMaxPerRoute(connectionsPerHost);
+    connections.setMaxTotal(Math.max(threads, connectionsPerHost));
+    // content is stored as sent, or ranges and digests would not add up
+    HttpClientBuilder builder = HttpClients.custom().setConnectionManager(connections).setUserAgent("Bagger")
+        .disableContentCompression().disableAutomaticRetries()
+        .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout).build());
+    if (userName != null && !userName.isEmpty()) {
+      CredentialsProvider credentials = new BasicCredentialsProvider();
+      credentials.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
+      builder.setDefaultCredentialsProvider(credentials);
+    }
+
+    final Run run = new Run(builder.build(), fixities, bagDir, new File(bagDir, dataDirectory), result, count);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, count));
+    run.executor = executor;
+    try {
+      for (Queue<FilenameSizeUrl> queue : hosts.values()) {
+        for (int i = 0; i < Math.min(connectionsPerHost, queue.size()); i++) {
+          executor.execute(new Lane(run, queue));
+        }
+      }
+      while (!run.done.await(200, TimeUnit.MILLISECONDS)) {
+        if (isCancelled()) {
+          break;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel();
+    }
+    finally {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(socketTimeout, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        run.client.close();
+      }
+      catch (IOException e) {
+        log.debug("Could not close the http client", e);
+      }
+    }
+    if (isCancelled()) {
+      return null;
+    }
+    log.info("Fetched {} of {} files, {} bytes, from {} hosts", fetchedFixities.size(), count, run.bytes.get(),
+        hosts.size());
+    return result;
+  }
+
+  /*
+   * The host and port a url is fetched from, or null when it is not fetched
+   * over http.
+   */
+  static String host(String url) {
+    try {
+      URI uri = new URI(url);
+      String scheme = uri.getScheme();
+      if (uri.getHost() == null || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+        return null;
+      }
+      return scheme.toLowerCase() + "://" + uri.getHost().toLowerCase() + ":" + uri.getPort();
+    }
+    catch (URISyntaxException e) {
+      return null;
+    }
+  }
+
+  private static void fail(SimpleResult result, String code, FilenameSizeUrl entry, String message) {
+    synchronized (result) {
+      result.setSuccess(false);
+      result.addMessage(code, MessageFormat.format("Could not fetch {0}: {1}", entry.getFilename(), message),
+          entry.getFilename());
+    }
+    entry.setFetchStatus(CODE_VERIFY_FAILED.equals(code) ? FetchStatus.VERIFY_FAILED : FetchStatus.FETCH_FAILED);
+    log.warn("Could not fetch {}: {}", entry.getFilename(), message);
+  }
+
+  private class Run {
+    final CloseableHttpClient client;
+    final Map<String, Map<Algorithm, String>> fixities;
+    final File bagDir;
+    final File payloadDir;
+    final SimpleResult result;
+    final int total;
+    final CountDownLatch done;
+    final AtomicLong finished = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    ExecutorService executor;
+
+    Run(CloseableHttpClient client, Map<String, Map<Algorithm, String>> fixities, File bagDir, File payloadDir,
+        SimpleResult result, int total) {
+      this.client = client;
+      this.fixities = fixities;
+      this.bagDir = bagDir;
+      this.payloadDir = payloadDir;
+      this.result = result;
+      this.total = total;
+      this.done = new CountDownLatch(total);
+    }
+
+    void finished(FilenameSizeUrl entry) {
+      progress(ACTIVITY, entry.getFilename(), finished.incrementAndGet(), (long) total);
+      done.countDown();
+    }
+
+    void received(long count) {
+      bytes.addAndGet(count);
+      byteListeners.reportBytes(ACTIVITY, count);
+    }
+  }
+
+  /*
+   * Fetches one file from a host, then goes to the back of the line for the
+   * next one; the lanes of a host bound how many of its files are fetched at
+   * once.
+   */
+  private class Lane implements Runnable {
+    private final Run run;
+    private final Queue<FilenameSizeUrl> queue;
+
+    Lane(Run run, Queue<FilenameSizeUrl> queue) {
+      this.run = run;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      FilenameSizeUrl entry;
+      synchronized (queue) {
+        entry = queue.poll();
+      }
+      if (entry == null || isCancelled()) {
+        return;
+      }
+      try {
+        new Download(run, entry).fetch();
+      }
+      catch (RuntimeException e) {
+        fail(run.result, CODE_FETCH_FAILED, entry, e.toString());
+      }
+      run.finished(entry);
+      boolean more;
+      synchronized (queue) {
+        more = !queue.isEmpty();
+      }
+      if (more && !isCancelled()) {
+        try {
+          run.executor.execute(this);
+        }
+        catch (RejectedExecutionException e) {
+          // the run was stopped
+        }
+      }
+    }
+  }
+
+  private class Download {
+    private final Run run;
+    private final FilenameSizeUrl entry;
+    private final File file;
+    private final File partial;
+    private final Map<Algorithm, String> expected;
+    private final List<Algorithm> algorithms;
+    // bytes of this file reported to the listeners so far
+    private long counted = 0;
+
+    Download(Run run, FilenameSizeUrl entry) {
+      this.run = run;
+      this.entry = entry;
+      this.file = new File(run.bagDir, entry.getFilename());
+      this.partial = new File(file.getPath() + PARTIAL_SUFFIX);
+      Map<Algorithm, String> values = run.fixities.get(entry.getFilename());
+      this.expected = values == null ? Collections.<Algorithm, String> emptyMap() : values;
+      this.algorithms = new ArrayList<>(expected.keySet());
+    }
+
+    void fetch() {
+      if (!isInPayload()) {
+        fail(run.result, CODE_FETCH_FAILED, entry, "The file would be written outside the payload directory");
+        return;
+      }
+      if (isInPlace()) {
+        return;
+      }
+      File parent = file.getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+        fail(run.result, CODE_FETCH_FAILED, entry, "Could not create " + parent);
+        return;
+      }
+      long delay = retryDelay;
+      for (int attempt = 1;; attempt++) {
+        // a retry keeps only what is in the partial file, and receives the
+        // rest again
+        recount(partial.isFile() ? partial.length() : 0);
+        Attempt outcome;
+        try {
+          outcome = download();
+        }
+        catch (IOException e) {
+          outcome = new Attempt(Outcome.RETRY, e.toString());
+        }
+        if (outcome.outcome == Outcome.DONE || outcome.outcome == Outcome.CANCELLED) {
+          return;
+        }
+        if (outcome.outcome != Outcome.RETRY || attempt >= maxAttempts) {
+          fail(run.result, outcome.outcome == Outcome.MISMATCH ? CODE_VERIFY_FAILED : CODE_FETCH_FAILED, entry,
+              outcome.message);
+          return;
+        }
+        log.debug("Retrying {} after attempt {}: {}", entry.getUrl(), attempt, outcome.message);
+        try {
+          // the jitter keeps the lanes of a struggling host out of step
+          Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        delay = Math.min(delay * 2, maxRetryDelay);
+      }
+    }
+
+    /*
+     * Anywhere else in the bag would let a fetch.txt overwrite bagit.txt or
+     * the manifests it is checked against.
+     */
+    private boolean isInPayload() {
+      String filename = entry.getFilename();
+      Path payload = run.payloadDir.toPath().normalize();
+      Path target = file.toPath().normalize();
+      return filename != null && !filename.startsWith("/") && target.startsWith(payload) && !target.equals(payload);
+    }
+
+    /*
+     * Makes what was reported for this file add up to <code>kept</code>.
+     */
+    private void recount(long kept) {
+      if (kept != counted) {
+        run.received(kept - counted);
+        counted = kept;
+      }
+    }
+
+    /*
+     * A file fetched by an earlier run, or put there by hand.
+     */
+    private boolean isInPlace() {
+      if (!file.isFile() || algorithms.isEmpty()
+          || (entry.getSize() != null && file.length() != entry.getSize())) {
+        return false;
+      }
+      MessageDigest[] digests = MultiDigestHelper.createDigests(algorithms);
+      try {
+        hash(file, digests);
+      }
+      catch (IOException e) {
+        return false;
+      }
+      Map<Algorithm, String> actual = MultiDigestHelper.toFixities(algorithms, digests);
+      if (!matches(actual)) {
+        return false;
+      }
+      log.debug("{} is already in place", entry.getFilename());
+      succeeded(actual);
+      return true;
+    }
+
+    private Attempt download() throws IOException {
+      long offset = partial.isFile() ? partial.length() : 0;
+      MessageDigest[] digests = MultiDigestHelper.createDigests(algorithms);
+      HttpGet get = new HttpGet(entry.getUrl());
+      if (offset > 0) {
+        get.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+      }
+      try (CloseableHttpResponse response = run.client.execute(get)) {
+        int status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        boolean append;
+        if (status == HttpStatus.SC_PARTIAL_CONTENT && offset > 0 && startsAt(response, offset)) {
+          append = true;
+        }
+        else if (status == HttpStatus.SC_OK) {
+          append = false;
+        }
+        else if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+          // what was kept may be the whole file, or not belong to it at all
+          if (entity != null) {
+            entity.getContent().close();
+          }
+          if (entry.getSize() != null && offset == entry.getSize()) {
+            hash(partial, digests);
+            return finish(digests, true);
+          }
+          Files.deleteIfExists(partial.toPath());
+          return new Attempt(Outcome.RETRY, "The server has no more of the partial download");
+        }
+        else {
+          String message = "HTTP " + status + " " + response.getStatusLine().getReasonPhrase();
+          return isTransient(status) ? new Attempt(Outcome.RETRY, message) : new Attempt(Outcome.FAILED, message);
+        }
+        if (entity == null) {
+          return new Attempt(Outcome.RETRY, "No content");
+        }
+
+        if (append) {
+          hash(partial, digests);
+          log.debug("Resuming {} at {}", entry.getUrl(), offset);
+        }
+        else {
+          // the server sends the whole file, over what was kept
+          recount(0);
+        }
+        try (InputStream in = entity.getContent(); OutputStream out = new FileOutputStream(partial, append)) {
+          byte[] buffer = new byte[BUFFER_SIZE];
+          int n;
+          while ((n = in.read(buffer)) > 0) {
+            if (isCancelled()) {
+              get.abort();
+              return new Attempt(Outcome.CANCELLED, null);
+            }
+            out.write(buffer, 0, n);
+            for (MessageDigest digest : digests) {
+              digest.update(buffer, 0, n);
+            }
+            run.received(n);
+            counted += n;
+          }
+        }
+        return finish(digests, append);
+      }
+    }
+
+    private Attempt finish(MessageDigest[] digests, boolean resumed) throws IOException {
+      if (entry.getSize() != null && partial.length() != entry.getSize()) {
+        String message = MessageFormat.format("Received {0} bytes, expected {1}", partial.length(), entry.getSize());
+        if (partial.length() > entry.getSize()) {
+          Files.deleteIfExists(partial.toPath());
+        }
+        return new Attempt(Outcome.RETRY, message);
+      }
+      Map<Algorithm, String> actual = MultiDigestHelper.toFixities(algorithms, digests);
+      if (!matches(actual)) {
+        Files.deleteIfExists(partial.toPath());
+        // the part kept from before may be what is wrong, so start over once
+        return resumed ? new Attempt(Outcome.RETRY, "Checksum mismatch after resuming")
+            : new Attempt(Outcome.MISMATCH, "Checksum does not match the payload manifest");
+      }
+      Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      if (algorithms.isEmpty()) {
+        String warning = MessageFormat.format("Fetched {0}, but it is in no payload manifest to check it against",
+            entry.getFilename());
+        warnings.add(warning);
+        synchronized (run.result) {
+          run.result.addWarningMessage(CODE_NOT_VERIFIED, warning, entry.getFilename());
+        }
+      }
+      succeeded(actual);
+      return new Attempt(Outcome.DONE, null);
+    }
+
+    private void succeeded(Map<Algorithm, String> actual) {
+      entry.setFetchStatus(FetchStatus.SUCCEEDED);
+      fetchedFixities.put(entry.getFilename(), actual);
+    }
+
+    private boolean matches(Map<Algorithm, String> actual) {
+      for (Map.Entry<Algorithm, String> value : expected.entrySet()) {
+        if (!value.getValue().equalsIgnoreCase(actual.get(value.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean startsAt(CloseableHttpResponse response, long offset) {
+      Header range = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+      return range != null && range.getValue().trim().startsWith("bytes " + offset + "-");
+    }
+
+    private boolean isTransient(int status) {
+      return status >= 500 || status == HttpStatus.SC_REQUEST_TIMEOUT || status == 429;
+    }
+
+    private void hash(File source, MessageDigest[] digests) throws IOException {
+      if (digests.length == 0) {
+        return;
+      }
+      try (InputStream in = new FileInputStream(source)) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+          for (MessageDigest digest : digests) {
+            digest.update(buffer, 0, n);
+          }
+        }
+      }
+    }
+  }
+
+  private enum Outcome {
+    DONE, CANCELLED, RETRY, FAILED, MISMATCH
+  }
+
+  /*
+   * How a download attempt ended, and why when it did not succeed.
+   */
+  private static class Attempt {
+    final Outcome outcome;
+    final String message;
+
+    Attempt(Outcome outcome, String message) {
+      this.outcome = outcome;
+      this.message = message;
+    }
+  }
+}
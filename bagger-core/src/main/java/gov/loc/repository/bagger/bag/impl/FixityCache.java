@@ -0,0 +1,294 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.filesystem.FileNode;
+import gov.loc.repository.bagit.filesystem.impl.FileFileNode;
+import gov.loc.repository.bagit.impl.FileBagFile;
+import gov.loc.repository.bagit.impl.FileSystemBagFile;
+
+/**
+ * Remembers the size, modification time, file key (the inode on unix) and
+ * digests of every payload file of a bag as it was last written. A later save
+ * only has to hash the files whose attributes no longer match. The attributes
+ * are those a file had while it was hashed, taken through a {@link Recorder},
+ * so a file changed during a save is not stored with a digest of its old
+ * content.
+ * <p>
+ * The cache lives outside the bag, in one file per bag directory under
+ * <code>~/.bagger/fixity</code> (or the directory named by the
+ * <code>bagger.fixityCache.dir</code> system property), so it is never picked
+ * up as a tag file.
+ */
+public class FixityCache {
+  protected static final Logger log = LoggerFactory.getLogger(FixityCache.class);
+
+  public static final String DIRECTORY_PROPERTY = "bagger.fixityCache.dir";
+  private static final String HEADER = "# bagger fixity cache v1";
+  private static final String NO_KEY = "-";
+
+  private final File cacheFile;
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  public FixityCache(File bagDir) {
+    this.cacheFile = getCacheFile(bagDir);
+  }
+
+  /**
+   * Reads the cache of <code>bagDir</code>; a missing or unreadable cache
+   * simply results in an empty one.
+   */
+  public static FixityCache load(File bagDir) {
+    FixityCache cache = new FixityCache(bagDir);
+    if (cache.cacheFile.isFile()) {
+      try {
+        cache.read();
+      }
+      catch (IOException | RuntimeException e) {
+        log.warn("Ignoring unreadable fixity cache {}", cache.cacheFile, e);
+        cache.entries.clear();
+      }
+    }
+    return cache;
+  }
+
+  public static File getCacheFile(File bagDir) {
+    String dir = System.getProperty(DIRECTORY_PROPERTY);
+    File cacheDir = dir != null ? new File(dir) : new File(new File(System.getProperty("user.home"), ".bagger"), "fixity");
+    String path;
+    try {
+      path = bagDir.getCanonicalPath();
+    }
+    catch (IOException e) {
+      path = bagDir.getAbsolutePath();
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return new File(cacheDir, MultiDigestHelper.toHex(digest.digest(path.getBytes(StandardCharsets.UTF_8))) + ".txt");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public File getCacheFile() {
+    return cacheFile;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the cached digests of <code>bagFile</code> if the file on disk
+   * still has the recorded size, modification time and file key and every one
+   * of <code>algorithms</code> was recorded, otherwise null.
+   */
+  public Map<Algorithm, String> getFixities(BagFile bagFile, Collection<Algorithm> algorithms) {
+    Entry entry = entries.get(bagFile.getFilepath());
+    File file = toFile(bagFile);
+    if (entry == null || file == null) {
+      return null;
+    }
+    if (!entry.hasSameAttributes(stat(file))) {
+      return null;
+    }
+    for (Algorithm algorithm : algorithms) {
+      if (!entry.fixities.containsKey(algorithm)) {
+        return null;
+      }
+    }
+    return entry.fixities;
+  }
+
+  /**
+   * Records the digests <code>recorder</code> took of <code>file</code>, the
+   * file at <code>filepath</code> in the bag, with the attributes it had
+   * while it was read. A file the recorder did not see is left out.
+   */
+  public void put(String filepath, File file, Recorder recorder) {
+    Entry entry = recorder.get(file);
+    if (entry == null || filepath.indexOf('\n') >= 0 || filepath.indexOf('\r') >= 0) {
+      entries.remove(filepath);
+      return;
+    }
+    entries.put(filepath, entry);
+  }
+
+  public void save() throws IOException {
+    File dir = cacheFile.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create fixity cache directory " + dir);
+    }
+    Path tmp = new File(dir, cacheFile.getName() + ".tmp").toPath();
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      writer.write(HEADER);
+      writer.newLine();
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        Entry entry = e.getValue();
+        writer.write(Long.toString(entry.size));
+        writer.write('\t');
+        writer.write(Long.toString(entry.modified));
+        writer.write('\t');
+        writer.write(entry.key);
+        writer.write('\t');
+        boolean first = true;
+        for (Map.Entry<Algorithm, String> fixity : entry.fixities.entrySet()) {
+          if (!first) {
+            writer.write(',');
+          }
+          writer.write(fixity.getKey().bagItAlgorithm + ":" + fixity.getValue());
+          first = false;
+        }
+        // the path goes last since it is the only field that may hold a tab
+        writer.write('\t');
+        writer.write(e.getKey());
+        writer.newLine();
+      }
+    }
+    try {
+      Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    log.debug("Saved {} fixity cache entries to {}", entries.size(), cacheFile);
+  }
+
+  private void read() throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (!HEADER.equals(line)) {
+        log.warn("Ignoring fixity cache {} with unknown format", cacheFile);
+        return;
+      }
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split("\t", 5);
+        if (parts.length != 5) {
+          continue;
+        }
+        Entry entry = new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+        for (String fixity : parts[3].split(",")) {
+          int i = fixity.indexOf(':');
+          if (i > 0) {
+            entry.fixities.put(Algorithm.valueOfBagItAlgorithm(fixity.substring(0, i)), fixity.substring(i + 1));
+          }
+        }
+        entries.put(parts[4], entry);
+      }
+    }
+  }
+
+  /**
+   * The file on disk behind a bag file, or null when it is not a plain file
+   * (e.g. an entry of a zipped bag).
+   */
+  static File toFile(BagFile bagFile) {
+    if (bagFile instanceof FileBagFile) {
+      return ((FileBagFile) bagFile).getFile();
+    }
+    if (bagFile instanceof FileSystemBagFile) {
+      FileNode fileNode = ((FileSystemBagFile) bagFile).getFileNode();
+      if (fileNode instanceof FileFileNode) {
+        return ((FileFileNode) fileNode).getFile();
+      }
+    }
+    return null;
+  }
+
+  /*
+   * The attributes of <code>file</code> as an entry without digests, or null
+   * when it is not a regular file.
+   */
+  static Entry stat(File file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      if (!attributes.isRegularFile()) {
+        return null;
+      }
+      Object key = attributes.fileKey();
+      return new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), key == null ? NO_KEY : key.toString());
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  static class Entry {
+    private final long size;
+    private final long modified;
+    private final String key;
+    private final Map<Algorithm, String> fixities = new EnumMap<>(Algorithm.class);
+
+    Entry(long size, long modified, String key) {
+      this.size = size;
+      this.modified = modified;
+      this.key = key;
+    }
+
+    boolean hasSameAttributes(Entry other) {
+      return other != null && size == other.size && modified == other.modified && key.equals(other.key);
+    }
+  }
+
+  /**
+   * Collects digests as the files of a save are hashed, each with the
+   * attributes its file had when the read started. A file whose attributes
+   * changed by the time the read ended is dropped, since the digest may not
+   * match either version. Safe for use from several threads.
+   */
+  public static class Recorder {
+    private final ConcurrentMap<Path, Entry> hashed = new ConcurrentHashMap<>();
+
+    /**
+     * Records <code>fixities</code> read from <code>file</code>, which had
+     * the attributes <code>before</code> when the read started, as returned
+     * by {@link FixityCache#stat(File)}.
+     */
+    void record(File file, Entry before, Map<Algorithm, String> fixities) {
+      Path path = pathOf(file);
+      if (before == null || fixities == null || fixities.isEmpty()) {
+        hashed.remove(path);
+        return;
+      }
+      if (!before.hasSameAttributes(stat(file))) {
+        log.debug("{} changed while it was hashed", file);
+        hashed.remove(path);
+        return;
+      }
+      Entry entry = new Entry(before.size, before.modified, before.key);
+      entry.fixities.putAll(fixities);
+      hashed.put(path, entry);
+    }
+
+    Entry get(File file) {
+      return hashed.get(pathOf(file));
+    }
+
+    private static Path pathOf(File file) {
+      return file.toPath().toAbsolutePath().normalize();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.utilities.FileHelper;
+import gov.loc.repository.bagit.writer.impl.FileSystemWriter;
+
+/**
+ * Writes a bag to a directory like {@link FileSystemWriter}, but copies the
+ * payload files itself, hashing the bytes as they are written. The digests
+ * let the bag be validated right after saving without reading the payload
+ * back.
+ * <p>
+ * As with FileSystemWriter, payload files already in the target directory are
+ * left alone; they are not hashed.
+ */
+public class HashingFileSystemWriter extends FileSystemWriter {
+  protected static final Logger log = LoggerFactory.getLogger(HashingFileSystemWriter.class);
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private List<Algorithm> algorithms = Collections.emptyList();
+  private final Map<String, Map<Algorithm, String>> writtenFixities = new HashMap<>();
+  private FixityCache.Recorder recorder;
+  private File target;
+  private boolean tagFilesOnly = false;
+  private int fileCount;
+  private int fileTotal;
+
+  public HashingFileSystemWriter(BagFactory bagFactory) {
+    super(bagFactory);
+  }
+
+  /**
+   * Algorithms computed for every payload file copied; with none, the files
+   * are written by FileSystemWriter.
+   */
+  public void setFixityAlgorithms(List<Algorithm> algorithms) {
+    this.algorithms = new ArrayList<>(algorithms);
+  }
+
+  /**
+   * Given the digests of the payload files copied, with the attributes of
+   * the copies, for the fixity cache of the target directory.
+   */
+  public void setRecorder(FixityCache.Recorder recorder) {
+    this.recorder = recorder;
+  }
+
+  /**
+   * The digests of the payload files copied by the last write, keyed by file
+   * path.
+   */
+  public Map<String, Map<Algorithm, String>> getWrittenFixities() {
+    return writtenFixities;
+  }
+
+  @Override
+  public void setTagFilesOnly(boolean tagFilesOnly) {
+    super.setTagFilesOnly(tagFilesOnly);
+    this.tagFilesOnly = tagFilesOnly;
+  }
+
+  @Override
+  public Bag write(Bag bag, File file) {
+    target = FileHelper.normalizeForm(file);
+    writtenFixities.clear();
+    return super.write(bag, file);
+  }
+
+  @Override
+  public void startBag(Bag bag) {
+    super.startBag(bag);
+    // the tags are visited first
+    fileCount = bag.getTags().size();
+    fileTotal = fileCount + bag.getPayload().size();
+  }
+
+  @Override
+  public void visitPayload(BagFile bagFile) {
+    if (!tagFilesOnly && !algorithms.isEmpty()) {
+      File file = new File(target, bagFile.getFilepath());
+      File source = FixityCache.toFile(bagFile);
+      if (source != null && !file.exists()) {
+        progress("writing", bagFile.getFilepath(), ++fileCount, fileTotal);
+        writtenFixities.put(bagFile.getFilepath(), copy(source, file));
+      }
+    }
+    // with the file in place this only adds it to the new bag
+    super.visitPayload(bagFile);
+  }
+
+  private Map<Algorithm, String> copy(File source, File file) {
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new RuntimeException(MessageFormat.format("Error creating {0}", parent));
+    }
+    MessageDigest[] digests = MultiDigestHelper.createDigests(algorithms);
+    File tempFile = getTempFile(file);
+    try (InputStream in = new FileInputStream(source); OutputStream out = new FileOutputStream(tempFile)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+        for (MessageDigest digest : digests) {
+          digest.update(buffer, 0, n);
+        }
+      }
+    }
+    catch (IOException e) {
+      tempFile.delete();
+      throw new RuntimeException(MessageFormat.format("Error copying {0} to {1}: {2}", source, file, e.getMessage()), e);
+    }
+    switchTemp(file);
+    if (!file.setLastModified(source.lastModified())) {
+      log.debug("Could not keep the modification time of {}", source);
+    }
+    Map<Algorithm, String> fixities = MultiDigestHelper.toFixities(algorithms, digests);
+    if (recorder != null) {
+      // the digests are of the bytes written, so they go with the copy
+      recorder.record(file, FixityCache.stat(file), fixities);
+    }
+    return fixities;
+  }
+}
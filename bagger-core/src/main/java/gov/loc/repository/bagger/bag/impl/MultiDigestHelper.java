@@ -0,0 +1,97 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+
+/**
+ * Computes several fixity values from a single read of a file. Every buffer
+ * that is read is handed to each of the requested {@link MessageDigest}s, so
+ * producing MD5 and SHA-256 manifests costs one pass over the payload instead
+ * of two.
+ */
+public final class MultiDigestHelper {
+  private static final int BUFFERSIZE = 65536;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private MultiDigestHelper() {
+  }
+
+  public static Map<Algorithm, String> generateFixities(BagFile bagFile, Collection<Algorithm> algorithms) {
+    InputStream in = bagFile.newInputStream();
+    try {
+      return generateFixities(in, algorithms);
+    }
+    finally {
+      closeQuietly(in);
+    }
+  }
+
+  public static Map<Algorithm, String> generateFixities(InputStream in, Collection<Algorithm> algorithms) {
+    MessageDigest[] digests = createDigests(algorithms);
+    byte[] buffer = new byte[BUFFERSIZE];
+    try {
+      int read = in.read(buffer);
+      while (read != -1) {
+        for (MessageDigest digest : digests) {
+          digest.update(buffer, 0, read);
+        }
+        read = in.read(buffer);
+      }
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return toFixities(algorithms, digests);
+  }
+
+  public static MessageDigest[] createDigests(Collection<Algorithm> algorithms) {
+    MessageDigest[] digests = new MessageDigest[algorithms.size()];
+    int i = 0;
+    for (Algorithm algorithm : algorithms) {
+      try {
+        digests[i++] = MessageDigest.getInstance(algorithm.javaSecurityAlgorithm);
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return digests;
+  }
+
+  public static Map<Algorithm, String> toFixities(Collection<Algorithm> algorithms, MessageDigest[] digests) {
+    Map<Algorithm, String> fixities = new EnumMap<>(Algorithm.class);
+    int i = 0;
+    for (Algorithm algorithm : algorithms) {
+      fixities.put(algorithm, toHex(digests[i++].digest()));
+    }
+    return fixities;
+  }
+
+  public static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  private static void closeQuietly(InputStream in) {
+    if (in != null) {
+      try {
+        in.close();
+      }
+      catch (IOException e) {
+        // nothing left to do with the stream
+      }
+    }
+  }
+}
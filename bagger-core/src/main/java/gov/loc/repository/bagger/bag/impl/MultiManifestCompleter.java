@@ -0,0 +1,362 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.BagInfoTxt;
+import gov.loc.repository.bagit.Cancellable;
+import gov.loc.repository.bagit.Manifest;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ManifestHelper;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.transformer.Completer;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
+
+/**
+ * Completes a bag with any number of payload and tag manifest algorithms.
+ * Unlike {@link gov.loc.repository.bagit.transformer.impl.DefaultCompleter},
+ * which reads every file once per manifest, each file is read exactly once and
+ * the resulting fixities are fanned out to every selected
+ * <code>manifest-&lt;alg&gt;.txt</code> / <code>tagmanifest-&lt;alg&gt;.txt</code>.
+ */
+public class MultiManifestCompleter extends LongRunningOperationBase implements Completer {
+  protected static final Logger log = LoggerFactory.getLogger(MultiManifestCompleter.class);
+
+  private boolean generateBagInfoTxt = true;
+  private boolean updatePayloadOxum = true;
+  private boolean updateBaggingDate = true;
+  private boolean updateBagSize = true;
+  private boolean clearPayloadManifests = false;
+  private boolean clearTagManifests = true;
+  private boolean completePayloadManifests = true;
+  private List<Algorithm> payloadManifestAlgorithms = Collections.singletonList(Algorithm.MD5);
+  private List<Algorithm> tagManifestAlgorithms = Collections.singletonList(Algorithm.MD5);
+
+  private ParallelChecksumEngine checksumEngine = new ParallelChecksumEngine();
+  private FixityCache fixityCache;
+  private FixityCache.Recorder recorder;
+  private Map<String, Map<Algorithm, String>> payloadFixities = Collections.emptyMap();
+  private Cancellable parentCancellable;
+  private volatile boolean cancelled = false;
+
+  private BagFactory bagFactory;
+  private Bag newBag;
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+
+  public MultiManifestCompleter(BagFactory bagFactory) {
+    this.bagFactory = bagFactory;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener progressListener) {
+    super.addProgressListener(progressListener);
+    byteListeners.add(progressListener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener progressListener) {
+    super.removeProgressListener(progressListener);
+    byteListeners.remove(progressListener);
+  }
+
+  public void setPayloadManifestAlgorithms(List<Algorithm> algorithms) {
+    this.payloadManifestAlgorithms = distinct(algorithms);
+  }
+
+  public List<Algorithm> getPayloadManifestAlgorithms() {
+    return payloadManifestAlgorithms;
+  }
+
+  public void setTagManifestAlgorithms(List<Algorithm> algorithms) {
+    this.tagManifestAlgorithms = distinct(algorithms);
+  }
+
+  public List<Algorithm> getTagManifestAlgorithms() {
+    return tagManifestAlgorithms;
+  }
+
+  public void setClearExistingPayloadManifests(boolean clearPayloadManifests) {
+    this.clearPayloadManifests = clearPayloadManifests;
+  }
+
+  public void setClearExistingTagManifests(boolean clearTagManifests) {
+    this.clearTagManifests = clearTagManifests;
+  }
+
+  /**
+   * When false the payload manifests are carried over untouched and only the
+   * tag manifests are generated.
+   */
+  public void setCompletePayloadManifests(boolean completePayloadManifests) {
+    this.completePayloadManifests = completePayloadManifests;
+  }
+
+  public void setGenerateBagInfoTxt(boolean generateBagInfoTxt) {
+    this.generateBagInfoTxt = generateBagInfoTxt;
+  }
+
+  public void setUpdatePayloadOxum(boolean updatePayloadOxum) {
+    this.updatePayloadOxum = updatePayloadOxum;
+  }
+
+  public void setUpdateBaggingDate(boolean updateBaggingDate) {
+    this.updateBaggingDate = updateBaggingDate;
+  }
+
+  public void setUpdateBagSize(boolean updateBagSize) {
+    this.updateBagSize = updateBagSize;
+  }
+
+  public void setChecksumEngine(ParallelChecksumEngine checksumEngine) {
+    this.checksumEngine = checksumEngine;
+  }
+
+  /**
+   * Turns on incremental completion: payload files the cache reports as
+   * unchanged get their cached digests instead of being read again.
+   */
+  public void setFixityCache(FixityCache fixityCache) {
+    this.fixityCache = fixityCache;
+  }
+
+  /**
+   * Given the digests of the payload files as they are read or taken from
+   * the cache, for the cache written after the save.
+   */
+  public void setRecorder(FixityCache.Recorder recorder) {
+    this.recorder = recorder;
+  }
+
+  /**
+   * Digests of payload files that were already read for another reason, e.g.
+   * while they were written to a zip, keyed by file path.
+   */
+  public void setPayloadFixities(Map<String, Map<Algorithm, String>> payloadFixities) {
+    this.payloadFixities = payloadFixities;
+  }
+
+  /**
+   * Makes this completer stop as soon as <code>parentCancellable</code> is
+   * cancelled, e.g. the writer the user is watching in the progress dialog.
+   */
+  public void setParentCancellable(Cancellable parentCancellable) {
+    this.parentCancellable = parentCancellable;
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    super.cancel();
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled || (parentCancellable != null && parentCancellable.isCancelled());
+  }
+
+  @Override
+  public Bag complete(Bag bag) {
+    log.info("Completing bag at {} with payload algorithms {} and tag algorithms {}", bag.getFile(), payloadManifestAlgorithms,
+        tagManifestAlgorithms);
+    newBag = bagFactory.createBag(bag);
+    newBag.putBagFiles(bag.getPayload());
+    newBag.putBagFiles(bag.getTags());
+
+    handleBagIt();
+    handleBagInfo();
+    if (completePayloadManifests) {
+      handlePayloadManifests();
+    }
+    handleTagManifests();
+
+    if (isCancelled()) {
+      return null;
+    }
+    return newBag;
+  }
+
+  protected void handleBagIt() {
+    if (newBag.getBagItTxt() == null) {
+      newBag.putBagFile(newBag.getBagPartFactory().createBagItTxt());
+    }
+  }
+
+  protected void handleBagInfo() {
+    BagInfoTxt bagInfo = newBag.getBagInfoTxt();
+    if (bagInfo == null) {
+      if (!generateBagInfoTxt) {
+        return;
+      }
+      bagInfo = newBag.getBagPartFactory().createBagInfoTxt();
+    }
+    newBag.putBagFile(bagInfo);
+    if (updatePayloadOxum) {
+      bagInfo.generatePayloadOxum(newBag);
+    }
+    if (updateBaggingDate) {
+      bagInfo.setBaggingDate(Calendar.getInstance().getTime());
+    }
+    if (updateBagSize) {
+      bagInfo.generateBagSize(newBag);
+    }
+  }
+
+  protected void handlePayloadManifests() {
+    if (clearPayloadManifests) {
+      clearManifests(newBag.getPayloadManifests());
+    }
+    cleanManifests(newBag.getPayloadManifests());
+
+    List<BagFile> files = new ArrayList<>();
+    Map<String, Map<Algorithm, String>> cached = new LinkedHashMap<>();
+    for (BagFile bagFile : newBag.getPayload()) {
+      if (newBag.getChecksums(bagFile.getFilepath()).isEmpty()) {
+        Map<Algorithm, String> fixities = payloadFixities.get(bagFile.getFilepath());
+        if (fixities == null && fixityCache != null) {
+          File file = recorder != null ? FixityCache.toFile(bagFile) : null;
+          FixityCache.Entry before = file != null ? FixityCache.stat(file) : null;
+          fixities = fixityCache.getFixities(bagFile, payloadManifestAlgorithms);
+          if (file != null && fixities != null) {
+            recorder.record(file, before, fixities);
+          }
+        }
+        if (fixities == null) {
+          files.add(bagFile);
+        }
+        else {
+          cached.put(bagFile.getFilepath(), fixities);
+        }
+      }
+    }
+    if (!cached.isEmpty()) {
+      log.info("Reusing known fixities for {} payload files, hashing {}", cached.size(), files.size());
+    }
+    Map<String, Map<Algorithm, String>> fixities = generateFixities("creating manifest entry", files,
+        payloadManifestAlgorithms, recorder);
+    putManifests(cached, payloadManifestAlgorithms, true);
+    putManifests(fixities, payloadManifestAlgorithms, true);
+  }
+
+  protected void handleTagManifests() {
+    if (clearTagManifests) {
+      clearManifests(newBag.getTagManifests());
+    }
+    cleanManifests(newBag.getTagManifests());
+
+    List<BagFile> files = new ArrayList<>();
+    for (BagFile bagFile : newBag.getTags()) {
+      if (ManifestHelper.isTagManifest(bagFile.getFilepath(), newBag.getBagConstants())) {
+        continue;
+      }
+      if (newBag.getChecksums(bagFile.getFilepath()).isEmpty()) {
+        files.add(bagFile);
+      }
+    }
+    Map<String, Map<Algorithm, String>> fixities = generateFixities("creating tag manifest entry", files, tagManifestAlgorithms);
+    putManifests(fixities, tagManifestAlgorithms, false);
+  }
+
+  /**
+   * Reads each file once, returning its fixities keyed by file path in the
+   * same order as <code>files</code>. The files are hashed in parallel by the
+   * {@link ParallelChecksumEngine}.
+   */
+  protected Map<String, Map<Algorithm, String>> generateFixities(String activity, List<BagFile> files, List<Algorithm> algorithms) {
+    return generateFixities(activity, files, algorithms, null);
+  }
+
+  protected Map<String, Map<Algorithm, String>> generateFixities(String activity, List<BagFile> files,
+      List<Algorithm> algorithms, FixityCache.Recorder fileRecorder) {
+    ProgressListener listener = new ByteProgressListener() {
+      @Override
+      public void reportProgress(String fileActivity, Object item, Long count, Long total) {
+        progress(fileActivity, item, count, total);
+      }
+
+      @Override
+      public void reportBytes(String fileActivity, long bytes) {
+        byteListeners.reportBytes(fileActivity, bytes);
+      }
+
+      @Override
+      public void reportByteTotal(String fileActivity, long total) {
+        byteListeners.reportByteTotal(fileActivity, total);
+      }
+    };
+    List<Map<Algorithm, String>> results = checksumEngine.generateFixities(activity, files, algorithms, listener, this,
+        fileRecorder);
+    Map<String, Map<Algorithm, String>> fixities = new LinkedHashMap<>();
+    for (int i = 0; i < files.size(); i++) {
+      if (results.get(i) != null) {
+        fixities.put(files.get(i).getFilepath(), results.get(i));
+      }
+    }
+    return fixities;
+  }
+
+  private void putManifests(Map<String, Map<Algorithm, String>> fixities, List<Algorithm> algorithms, boolean payload) {
+    for (Algorithm algorithm : algorithms) {
+      String filepath = payload ? ManifestHelper.getPayloadManifestFilename(algorithm, newBag.getBagConstants())
+          : ManifestHelper.getTagManifestFilename(algorithm, newBag.getBagConstants());
+      Manifest manifest = (Manifest) newBag.getBagFile(filepath);
+      if (manifest == null) {
+        manifest = newBag.getBagPartFactory().createManifest(filepath);
+      }
+      for (Entry<String, Map<Algorithm, String>> entry : fixities.entrySet()) {
+        manifest.put(entry.getKey(), entry.getValue().get(algorithm));
+      }
+      if (!manifest.isEmpty()) {
+        newBag.putBagFile(manifest);
+      }
+    }
+  }
+
+  private void clearManifests(Collection<Manifest> manifests) {
+    for (Manifest manifest : manifests) {
+      newBag.removeBagFile(manifest.getFilepath());
+    }
+  }
+
+  private void cleanManifests(Collection<Manifest> manifests) {
+    for (Manifest manifest : manifests) {
+      List<String> deleteFilepaths = new ArrayList<>();
+      for (String filepath : manifest.keySet()) {
+        BagFile bagFile = newBag.getBagFile(filepath);
+        if (bagFile == null || !bagFile.exists()) {
+          deleteFilepaths.add(filepath);
+        }
+      }
+      for (String filepath : deleteFilepaths) {
+        manifest.remove(filepath);
+      }
+    }
+  }
+
+  private static List<Algorithm> distinct(List<Algorithm> algorithms) {
+    List<Algorithm> distinct = new ArrayList<>();
+    if (algorithms != null) {
+      for (Algorithm algorithm : algorithms) {
+        if (algorithm != null && !distinct.contains(algorithm)) {
+          distinct.add(algorithm);
+        }
+      }
+    }
+    if (distinct.isEmpty()) {
+      distinct.add(Algorithm.MD5);
+    }
+    return Collections.unmodifiableList(distinct);
+  }
+}
@@ -0,0 +1,44 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * A bzip2 stream compressed on several threads. Every block becomes a
+ * complete bzip2 stream of its own and the streams are concatenated, as
+ * pbzip2 does; bunzip2 and readers that accept concatenated streams see one
+ * file.
+ */
+public class ParallelBzip2OutputStream extends ParallelCompressorOutputStream {
+  public static final int BLOCK_SIZE = 900 * 1000;
+
+  public ParallelBzip2OutputStream(OutputStream out, int threads) {
+    super(out, BLOCK_SIZE, threads, "bagger-bzip2");
+  }
+
+  @Override
+  protected void writeHeader(OutputStream out) {
+  }
+
+  @Override
+  protected byte[] compress(byte[] data, int length, byte[] dictionary, int dictionaryLength, boolean last)
+      throws IOException {
+    // a trailing empty block only needs a stream when nothing came before it
+    if (length == 0 && (dictionary != null || !last)) {
+      return new byte[0];
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+    try (BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(compressed,
+        BZip2CompressorOutputStream.MAX_BLOCKSIZE)) {
+      bzip2.write(data, 0, length);
+    }
+    return compressed.toByteArray();
+  }
+
+  @Override
+  protected void writeTrailer(OutputStream out) {
+  }
+}
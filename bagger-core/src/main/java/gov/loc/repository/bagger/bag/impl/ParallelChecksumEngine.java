@@ -0,0 +1,259 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Cancellable;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ProgressListener;
+
+/**
+ * Computes fixities for many files on a work-stealing {@link ForkJoinPool}.
+ * The number of bytes being read at any moment is capped by a byte budget so
+ * that a handful of very large files cannot saturate the disk while the rest
+ * of the workers wait. Results are returned in the same order as the input, so
+ * manifests built from them are identical to a sequential run.
+ */
+public class ParallelChecksumEngine {
+  protected static final Logger log = LoggerFactory.getLogger(ParallelChecksumEngine.class);
+
+  public static final String THREADS_PROPERTY = "bagger.checksum.threads";
+  public static final String BYTES_IN_FLIGHT_PROPERTY = "bagger.checksum.bytesInFlight";
+  public static final long DEFAULT_BYTES_IN_FLIGHT = 256 * DefaultBag.MB;
+
+  private final int parallelism;
+  private final long maxBytesInFlight;
+
+  public ParallelChecksumEngine() {
+    this(defaultParallelism(), defaultBytesInFlight());
+  }
+
+  public ParallelChecksumEngine(int parallelism, long maxBytesInFlight) {
+    this.parallelism = parallelism > 0 ? parallelism : defaultParallelism();
+    this.maxBytesInFlight = maxBytesInFlight > 0 ? maxBytesInFlight : DEFAULT_BYTES_IN_FLIGHT;
+  }
+
+  public static int defaultParallelism() {
+    return Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+  }
+
+  public static long defaultBytesInFlight() {
+    return Long.getLong(BYTES_IN_FLIGHT_PROPERTY, DEFAULT_BYTES_IN_FLIGHT);
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public long getMaxBytesInFlight() {
+    return maxBytesInFlight;
+  }
+
+  /**
+   * Reads every file once and returns its fixities for all
+   * <code>algorithms</code>, index-aligned with <code>files</code>. Entries
+   * for files skipped because of cancellation are null.
+   */
+  public List<Map<Algorithm, String>> generateFixities(String activity, List<BagFile> files, List<Algorithm> algorithms,
+      ProgressListener listener, Cancellable cancellable) {
+    return generateFixities(activity, files, algorithms, listener, cancellable, null);
+  }
+
+  /**
+   * Like {@link #generateFixities(String, List, List, ProgressListener, Cancellable)},
+   * also giving <code>recorder</code>, when not null, the digests of the
+   * plain files along with the attributes they had while they were read.
+   */
+  public List<Map<Algorithm, String>> generateFixities(String activity, List<BagFile> files, List<Algorithm> algorithms,
+      ProgressListener listener, Cancellable cancellable, FixityCache.Recorder recorder) {
+    // each task sets only its own slots, so the list never changes size
+    List<Map<Algorithm, String>> results = new ArrayList<>(Collections.<Map<Algorithm, String>> nCopies(files.size(), null));
+    if (files.isEmpty()) {
+      return results;
+    }
+    log.debug("Hashing {} files with {} threads and a {} byte budget", files.size(), parallelism, maxBytesInFlight);
+    if (listener instanceof ByteProgressListener) {
+      ((ByteProgressListener) listener).reportByteTotal(activity, ByteProgressListeners.totalSize(files));
+    }
+    Job job = new Job(activity, files, algorithms, results, listener, cancellable, recorder);
+    ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, files.size()));
+    try {
+      pool.invoke(new ChecksumTask(job, 0, files.size()));
+    }
+    finally {
+      pool.shutdown();
+      try {
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return results;
+  }
+
+  private final class Job {
+    final String activity;
+    final List<BagFile> files;
+    final List<Algorithm> algorithms;
+    final List<Map<Algorithm, String>> results;
+    final ProgressListener listener;
+    final Cancellable cancellable;
+    final FixityCache.Recorder recorder;
+    final ByteBudget budget = new ByteBudget(maxBytesInFlight);
+    final AtomicLong count = new AtomicLong();
+
+    Job(String activity, List<BagFile> files, List<Algorithm> algorithms, List<Map<Algorithm, String>> results,
+        ProgressListener listener, Cancellable cancellable, FixityCache.Recorder recorder) {
+      this.activity = activity;
+      this.files = files;
+      this.algorithms = algorithms;
+      this.results = results;
+      this.listener = listener;
+      this.cancellable = cancellable;
+      this.recorder = recorder;
+    }
+
+    boolean isCancelled() {
+      return cancellable != null && cancellable.isCancelled();
+    }
+
+    void hash(int index) {
+      BagFile bagFile = files.get(index);
+      long reserved = Math.min(Math.max(bagFile.getSize(), 0), budget.getCapacity());
+      Map<Algorithm, String> fixities = null;
+      budget.acquire(reserved);
+      try {
+        if (!isCancelled()) {
+          File file = recorder != null ? FixityCache.toFile(bagFile) : null;
+          FixityCache.Entry before = file != null ? FixityCache.stat(file) : null;
+          fixities = MultiDigestHelper.generateFixities(bagFile, algorithms);
+          results.set(index, fixities);
+          if (file != null) {
+            recorder.record(file, before, fixities);
+          }
+        }
+      }
+      finally {
+        budget.release(reserved);
+      }
+      if (listener instanceof ByteProgressListener && fixities != null) {
+        ((ByteProgressListener) listener).reportBytes(activity, Math.max(bagFile.getSize(), 0));
+      }
+      if (listener != null) {
+        listener.reportProgress(activity, bagFile.getFilepath(), count.incrementAndGet(), (long) files.size());
+      }
+    }
+  }
+
+  private static final class ChecksumTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Job job;
+    private final int from;
+    private final int to;
+
+    ChecksumTask(Job job, int from, int to) {
+      this.job = job;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (job.isCancelled()) {
+        return;
+      }
+      if (to - from == 1) {
+        job.hash(from);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ChecksumTask(job, from, middle), new ChecksumTask(job, middle, to));
+    }
+  }
+
+  /**
+   * Counting limit on the bytes of files currently being read. A file larger
+   * than the whole budget takes all of it, so it is read on its own. Workers
+   * wait for it through {@link ForkJoinPool#managedBlock}, so the pool can
+   * make up for the ones blocked.
+   */
+  private static final class ByteBudget {
+    private final long capacity;
+    private long available;
+
+    ByteBudget(long capacity) {
+      this.capacity = capacity;
+      this.available = capacity;
+    }
+
+    long getCapacity() {
+      return capacity;
+    }
+
+    void acquire(long bytes) {
+      Reservation reservation = new Reservation(bytes);
+      boolean interrupted = false;
+      while (true) {
+        try {
+          ForkJoinPool.managedBlock(reservation);
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized void release(long bytes) {
+      available += bytes;
+      notifyAll();
+    }
+
+    private synchronized boolean tryAcquire(long bytes) {
+      if (available < bytes) {
+        return false;
+      }
+      available -= bytes;
+      return true;
+    }
+
+    private final class Reservation implements ForkJoinPool.ManagedBlocker {
+      private final long bytes;
+      private boolean acquired = false;
+
+      Reservation(long bytes) {
+        this.bytes = bytes;
+      }
+
+      @Override
+      public boolean block() throws InterruptedException {
+        synchronized (ByteBudget.this) {
+          while (!isReleasable()) {
+            ByteBudget.this.wait();
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public boolean isReleasable() {
+        return acquired || (acquired = tryAcquire(bytes));
+      }
+    }
+  }
+}
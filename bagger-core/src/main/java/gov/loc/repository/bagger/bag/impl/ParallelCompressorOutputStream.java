@@ -0,0 +1,196 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compresses what is written to it in fixed size blocks on a pool of threads
+ * and writes the compressed blocks to the underlying stream in order, the
+ * way pigz and pbzip2 do. At most a few blocks per thread are in flight, so
+ * memory use stays bounded however much is written.
+ * <p>
+ * Subclasses define the container format: the header, how one block is
+ * compressed (it may use the tail of the block before it as a dictionary)
+ * and the trailer.
+ */
+public abstract class ParallelCompressorOutputStream extends OutputStream {
+  private final OutputStream out;
+  private final int blockSize;
+  private final ExecutorService executor;
+  private final int window;
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  private byte[] block;
+  private int length = 0;
+  private byte[] previous;
+  private int previousLength = 0;
+  private boolean started = false;
+  private boolean closed = false;
+
+  protected ParallelCompressorOutputStream(OutputStream out, int blockSize, int threads, String threadName) {
+    this.out = out;
+    this.blockSize = blockSize;
+    this.block = new byte[blockSize];
+    this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, new CompressorThreadFactory(threadName)) : null;
+    this.window = Math.max(1, threads) * 4;
+  }
+
+  /**
+   * Written once, before the first compressed block.
+   */
+  protected abstract void writeHeader(OutputStream out) throws IOException;
+
+  /**
+   * Compresses <code>data[0, length)</code>; <code>dictionary</code> holds the
+   * uncompressed block before it (null for the first). Runs on a pool thread.
+   */
+  protected abstract byte[] compress(byte[] data, int length, byte[] dictionary, int dictionaryLength, boolean last)
+      throws IOException;
+
+  /**
+   * Sees every uncompressed byte, in order, on the writing thread.
+   */
+  protected void update(byte[] data, int offset, int length) {
+  }
+
+  /**
+   * Written once, after the last compressed block.
+   */
+  protected abstract void writeTrailer(OutputStream out) throws IOException;
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int count) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    update(data, offset, count);
+    while (count > 0) {
+      int n = Math.min(count, blockSize - length);
+      System.arraycopy(data, offset, block, length, n);
+      length += n;
+      offset += n;
+      count -= n;
+      if (length == blockSize) {
+        submit(false);
+      }
+    }
+  }
+
+  /**
+   * Waits for the blocks compressed so far and flushes them; a partly filled
+   * block stays buffered.
+   */
+  @Override
+  public void flush() throws IOException {
+    drain(0);
+    out.flush();
+  }
+
+  /**
+   * Compresses the last block and writes the trailer without closing the
+   * underlying stream.
+   */
+  public void finish() throws IOException {
+    if (closed) {
+      return;
+    }
+    submit(true);
+    drain(0);
+    writeTrailer(out);
+    out.flush();
+    closed = true;
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    }
+    finally {
+      for (Future<byte[]> future : pending) {
+        future.cancel(true);
+      }
+      pending.clear();
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      out.close();
+    }
+  }
+
+  private void submit(final boolean last) throws IOException {
+    if (!started) {
+      writeHeader(out);
+      started = true;
+    }
+    final byte[] data = block;
+    final int dataLength = length;
+    final byte[] dictionary = previous;
+    final int dictionaryLength = previousLength;
+    if (executor == null) {
+      out.write(compress(data, dataLength, dictionary, dictionaryLength, last));
+    }
+    else {
+      pending.addLast(executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          return compress(data, dataLength, dictionary, dictionaryLength, last);
+        }
+      }));
+      drain(window);
+    }
+    previous = data;
+    previousLength = dataLength;
+    block = new byte[blockSize];
+    length = 0;
+  }
+
+  private void drain(int keep) throws IOException {
+    while (pending.size() > keep) {
+      Future<byte[]> future = pending.removeFirst();
+      try {
+        out.write(future.get());
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compressing", e);
+      }
+      catch (ExecutionException e) {
+        throw new IOException("Compression failed", e.getCause());
+      }
+    }
+  }
+
+  private static class CompressorThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    CompressorThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * A gzip stream compressed on several threads. The blocks are raw deflate
+ * streams primed with the last 32 KB of the block before them and ended on a
+ * sync flush, so together they form the single deflate stream of one gzip
+ * member that any gunzip can read.
+ */
+public class ParallelGzipOutputStream extends ParallelCompressorOutputStream {
+  public static final int BLOCK_SIZE = 128 * 1024;
+
+  private final int level;
+  private final CRC32 crc = new CRC32();
+  private long size = 0;
+
+  public ParallelGzipOutputStream(OutputStream out, int level, int threads) {
+    super(out, BLOCK_SIZE, threads, "bagger-gzip");
+    this.level = level;
+  }
+
+  @Override
+  protected void writeHeader(OutputStream out) throws IOException {
+    // magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+  }
+
+  @Override
+  protected byte[] compress(byte[] data, int length, byte[] dictionary, int dictionaryLength, boolean last) {
+    return ParallelZipWriter.deflate(data, length, dictionary, dictionaryLength, last, level);
+  }
+
+  @Override
+  protected void update(byte[] data, int offset, int length) {
+    crc.update(data, offset, length);
+    size += length;
+  }
+
+  @Override
+  protected void writeTrailer(OutputStream out) throws IOException {
+    writeInt(out, (int) crc.getValue());
+    writeInt(out, (int) size);
+  }
+
+  private static void writeInt(OutputStream out, int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >>> 8) & 0xff);
+    out.write((value >>> 16) & 0xff);
+    out.write((value >>> 24) & 0xff);
+  }
+}
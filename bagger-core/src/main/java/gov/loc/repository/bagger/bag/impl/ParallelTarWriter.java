@@ -0,0 +1,379 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.impl.StringBagFile;
+import gov.loc.repository.bagit.writer.impl.AbstractWriter;
+import gov.loc.repository.bagit.writer.impl.ZipWriter;
+
+/**
+ * Writes a bag as a tar, tar.gz or tar.bz2 file in a single pass. The tar
+ * stream goes straight into a {@link ParallelGzipOutputStream} or
+ * {@link ParallelBzip2OutputStream}, so compression runs on several threads
+ * while the next files are read. Payload files are hashed as they are
+ * archived and the tag files follow the payload, as in
+ * {@link ParallelZipWriter}.
+ * <p>
+ * Long and non-ASCII names and files over 8 GB are written with POSIX (pax)
+ * headers.
+ */
+public class ParallelTarWriter extends AbstractWriter implements StreamingBagWriter {
+  protected static final Logger log = LoggerFactory.getLogger(ParallelTarWriter.class);
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private final TarArchive.Compression compression;
+  private String bagDir;
+  private int compressionLevel = ZipWriter.DEFAULT_COMPRESSION_LEVEL;
+  private int threads = ParallelChecksumEngine.defaultParallelism();
+  private List<Algorithm> fixityAlgorithms = Collections.emptyList();
+  private TagFileCompleter tagFileCompleter;
+  private volatile boolean cancelled = false;
+
+  private long fileCount;
+  private long fileTotal;
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+  private final List<WrittenEntry> written = new ArrayList<>();
+
+  public ParallelTarWriter(BagFactory bagFactory, TarArchive.Compression compression) {
+    super(bagFactory);
+    this.compression = compression;
+  }
+
+  public void setBagDir(String bagDir) {
+    this.bagDir = bagDir;
+  }
+
+  /**
+   * Deflate level of tar.gz files; bzip2 always uses 900 KB blocks.
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    if (compressionLevel < 0 || compressionLevel > 9) {
+      throw new IllegalArgumentException("Valid compression levels are 0-9.");
+    }
+    this.compressionLevel = compressionLevel;
+  }
+
+  @Override
+  public void setThreads(int threads) {
+    this.threads = threads > 0 ? threads : ParallelChecksumEngine.defaultParallelism();
+  }
+
+  @Override
+  public void setFixityAlgorithms(List<Algorithm> fixityAlgorithms) {
+    this.fixityAlgorithms = fixityAlgorithms == null ? Collections.<Algorithm> emptyList() : fixityAlgorithms;
+  }
+
+  @Override
+  public void setTagFileCompleter(TagFileCompleter tagFileCompleter) {
+    this.tagFileCompleter = tagFileCompleter;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener progressListener) {
+    super.addProgressListener(progressListener);
+    byteListeners.add(progressListener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener progressListener) {
+    super.removeProgressListener(progressListener);
+    byteListeners.remove(progressListener);
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    super.cancel();
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /*
+   * The bagit library has no tar format; nothing reads this.
+   */
+  @Override
+  protected Bag.Format getFormat() {
+    return null;
+  }
+
+  /**
+   * Writes the archive next to <code>file</code> and moves it into place once
+   * it is complete; the bag being written may well be read from the archive
+   * it replaces.
+   */
+  @Override
+  public Bag write(Bag bag, File file) {
+    log.info("Writing {} bag to {} with {} threads", compression, file, threads);
+    String dir = bagDir != null ? bagDir : file.getName().replaceFirst("\\..*$", "");
+    File parentDir = file.getParentFile();
+    if (parentDir != null && !parentDir.isDirectory() && !parentDir.mkdirs()) {
+      throw new RuntimeException("Could not create " + parentDir);
+    }
+    File tempFile = getTempFile(file);
+    Bag completed;
+    // anything short of moving the archive into place leaves it to be deleted
+    boolean moved = false;
+    try {
+      try (OutputStream out = new FileOutputStream(tempFile)) {
+        completed = write(bag, dir, out);
+      }
+      catch (IOException e) {
+        if (isCancelled()) {
+          return null;
+        }
+        throw new RuntimeException(e);
+      }
+      if (completed == null) {
+        return null;
+      }
+
+      switchTemp(file);
+      moved = true;
+    }
+    finally {
+      if (!moved) {
+        tempFile.delete();
+      }
+    }
+    TarArchive archive = new TarArchive(file);
+    archive.setPrefix(dir + "/");
+    Bag newBag = bagFactory.createBag(completed.getBagConstants().getVersion());
+    for (WrittenEntry entry : written) {
+      if (entry.content != null) {
+        newBag.putBagFile(new StringBagFile(entry.filepath, entry.content));
+      }
+      else {
+        newBag.putBagFile(new TarBagFile(entry.filepath, archive, entry.index, entry.name, entry.size));
+      }
+    }
+    return newBag;
+  }
+
+  /**
+   * Streams the bag as an archive with its files under <code>dir</code> to
+   * <code>out</code>, which is left open. Returns the completed bag, or null
+   * when the write was cancelled.
+   */
+  public Bag write(Bag bag, String dir, OutputStream out) throws IOException {
+    written.clear();
+    fileCount = 0;
+    fileTotal = bag.getPayload().size() + bag.getTags().size();
+    long payloadBytes = ByteProgressListeners.totalSize(bag.getPayload());
+    byteListeners.reportByteTotal("writing", payloadBytes + ByteProgressListeners.totalSize(bag.getTags()));
+    Map<String, Map<Algorithm, String>> fixities = new LinkedHashMap<>();
+
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(compress(new UnclosedOutputStream(out)), "UTF-8")) {
+      tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+      tar.setAddPaxHeadersForNonAsciiNames(true);
+
+      for (BagFile bagFile : sortPayload(bag.getPayload())) {
+        if (isCancelled()) {
+          return null;
+        }
+        Map<Algorithm, String> fileFixities = writeEntry(tar, dir, bagFile, fixityAlgorithms, false);
+        if (fileFixities != null) {
+          fixities.put(bagFile.getFilepath(), fileFixities);
+        }
+      }
+
+      Bag completed = bag;
+      if (!isCancelled() && tagFileCompleter != null) {
+        completed = tagFileCompleter.complete(bag, fixities);
+        if (completed == null) {
+          cancel();
+        }
+      }
+      if (isCancelled()) {
+        return null;
+      }
+      fileTotal = completed.getPayload().size() + completed.getTags().size();
+      byteListeners.reportByteTotal("writing", payloadBytes + ByteProgressListeners.totalSize(completed.getTags()));
+      for (BagFile bagFile : sortTags(completed)) {
+        if (isCancelled()) {
+          return null;
+        }
+        writeEntry(tar, dir, bagFile, Collections.<Algorithm> emptyList(), true);
+      }
+      tar.finish();
+      return completed;
+    }
+  }
+
+  private OutputStream compress(OutputStream out) {
+    OutputStream buffered = new BufferedOutputStream(out, 1024 * 1024);
+    if (compression == TarArchive.Compression.GZIP) {
+      return new ParallelGzipOutputStream(buffered, compressionLevel, threads);
+    }
+    if (compression == TarArchive.Compression.BZIP2) {
+      return new ParallelBzip2OutputStream(buffered, threads);
+    }
+    return buffered;
+  }
+
+  /*
+   * Files already in a tar archive are read in archive order, which keeps the
+   * archive they come from streaming forward; the others by path.
+   */
+  private static List<BagFile> sortPayload(Collection<BagFile> payload) {
+    List<BagFile> files = new ArrayList<>(payload);
+    Collections.sort(files, new Comparator<BagFile>() {
+      @Override
+      public int compare(BagFile a, BagFile b) {
+        boolean aTar = a instanceof TarBagFile;
+        boolean bTar = b instanceof TarBagFile;
+        if (aTar && bTar) {
+          return Integer.compare(((TarBagFile) a).getIndex(), ((TarBagFile) b).getIndex());
+        }
+        if (aTar != bTar) {
+          return aTar ? -1 : 1;
+        }
+        return a.getFilepath().compareTo(b.getFilepath());
+      }
+    });
+    return files;
+  }
+
+  private static List<BagFile> sortTags(Bag bag) {
+    final String bagItTxt = bag.getBagConstants().getBagItTxt();
+    List<BagFile> files = new ArrayList<>(bag.getTags());
+    Collections.sort(files, new Comparator<BagFile>() {
+      @Override
+      public int compare(BagFile a, BagFile b) {
+        boolean aFirst = a.getFilepath().equals(bagItTxt);
+        boolean bFirst = b.getFilepath().equals(bagItTxt);
+        if (aFirst != bFirst) {
+          return aFirst ? -1 : 1;
+        }
+        return a.getFilepath().compareTo(b.getFilepath());
+      }
+    });
+    return files;
+  }
+
+  /*
+   * Copies the file into the archive, feeding the digests on the way. Tag
+   * files are also kept in memory for the bag returned after the write.
+   */
+  private Map<Algorithm, String> writeEntry(TarArchiveOutputStream tar, String dir, BagFile bagFile,
+      List<Algorithm> algorithms, boolean keepContent) throws IOException {
+    progress("writing", bagFile.getFilepath(), ++fileCount, fileTotal);
+    File source = FixityCache.toFile(bagFile);
+    String name = dir + "/" + bagFile.getFilepath();
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(bagFile.getSize());
+    entry.setModTime(new Date(source == null ? System.currentTimeMillis() : source.lastModified()));
+    MessageDigest[] digests = algorithms.isEmpty() ? null : MultiDigestHelper.createDigests(algorithms);
+    ByteArrayOutputStream content = keepContent ? new ByteArrayOutputStream((int) Math.min(bagFile.getSize(), BUFFER_SIZE)) : null;
+
+    tar.putArchiveEntry(entry);
+    long size = 0;
+    try (InputStream in = bagFile.newInputStream()) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        if (isCancelled()) {
+          throw new IOException("Write cancelled");
+        }
+        size += n;
+        if (size > entry.getSize()) {
+          throw new IOException(bagFile.getFilepath() + " grew while it was archived");
+        }
+        tar.write(buffer, 0, n);
+        byteListeners.reportBytes("writing", n);
+        if (digests != null) {
+          for (MessageDigest digest : digests) {
+            digest.update(buffer, 0, n);
+          }
+        }
+        if (content != null) {
+          content.write(buffer, 0, n);
+        }
+      }
+    }
+    if (size != entry.getSize()) {
+      throw new IOException(bagFile.getFilepath() + " shrank while it was archived");
+    }
+    tar.closeArchiveEntry();
+    written.add(new WrittenEntry(written.size(), name, bagFile.getFilepath(), size, content == null ? null
+        : content.toByteArray()));
+    return digests == null ? null : MultiDigestHelper.toFixities(algorithms, digests);
+  }
+
+  private static class WrittenEntry {
+    private final int index;
+    private final String name;
+    private final String filepath;
+    private final long size;
+    private final byte[] content;
+
+    WrittenEntry(int index, String name, String filepath, long size, byte[] content) {
+      this.index = index;
+      this.name = name;
+      this.filepath = filepath;
+      this.size = size;
+      this.content = content;
+    }
+  }
+
+  /*
+   * Lets the archive and the compressor be closed, and their threads stopped,
+   * without closing the caller's stream.
+   */
+  private static class UnclosedOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    UnclosedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,656 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.filesystem.impl.ZipFileSystem;
+import gov.loc.repository.bagit.impl.FileSystemBagFile;
+import gov.loc.repository.bagit.writer.impl.AbstractWriter;
+import gov.loc.repository.bagit.writer.impl.ZipWriter;
+
+/**
+ * Writes a bag as a zip file, deflating on several threads. Every entry is cut
+ * into blocks that are compressed independently (each primed with the last
+ * 32 KB of the block before it) and concatenated in order, so the archive is
+ * streamed out front to back and large files are compressed in parallel too.
+ * Entries are written as ZIP64 when they or the archive outgrow the classic
+ * format.
+ * <p>
+ * Files that are already compressed (images, audio, video, archives) are
+ * stored as is. Payload files can be hashed while they are read for the
+ * archive; the digests are handed to a
+ * {@link StreamingBagWriter.TagFileCompleter} before the tag files are
+ * written, so the manifests and the zip come from one read.
+ */
+public class ParallelZipWriter extends AbstractWriter implements StreamingBagWriter {
+  protected static final Logger log = LoggerFactory.getLogger(ParallelZipWriter.class);
+
+  public static final int BLOCK_SIZE = 256 * 1024;
+  public static final Set<String> STORED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("7z", "aac",
+      "avi", "bz2", "docx", "epub", "flac", "gif", "gz", "heic", "jar", "jp2", "jpeg", "jpg", "m4a", "m4v", "mkv", "mov", "mp3",
+      "mp4", "mpeg", "mpg", "odt", "ogg", "ogv", "png", "pptx", "rar", "tgz", "webm", "webp", "wmv", "xlsx", "xz", "zip")));
+
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+  private String bagDir;
+  private int compressionLevel = ZipWriter.DEFAULT_COMPRESSION_LEVEL;
+  private int threads = ParallelChecksumEngine.defaultParallelism();
+  private List<Algorithm> fixityAlgorithms = Collections.emptyList();
+  private TagFileCompleter tagFileCompleter;
+  private volatile boolean cancelled = false;
+
+  private long fileCount;
+  private long fileTotal;
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+
+  public ParallelZipWriter(BagFactory bagFactory) {
+    super(bagFactory);
+  }
+
+  public void setBagDir(String bagDir) {
+    this.bagDir = bagDir;
+  }
+
+  public void setCompressionLevel(int compressionLevel) {
+    if (compressionLevel < 0 || compressionLevel > 9) {
+      throw new IllegalArgumentException("Valid compression levels are 0-9.");
+    }
+    this.compressionLevel = compressionLevel;
+  }
+
+  @Override
+  public void setThreads(int threads) {
+    this.threads = threads > 0 ? threads : ParallelChecksumEngine.defaultParallelism();
+  }
+
+  @Override
+  public void setFixityAlgorithms(List<Algorithm> fixityAlgorithms) {
+    this.fixityAlgorithms = fixityAlgorithms == null ? Collections.<Algorithm> emptyList() : fixityAlgorithms;
+  }
+
+  @Override
+  public void setTagFileCompleter(TagFileCompleter tagFileCompleter) {
+    this.tagFileCompleter = tagFileCompleter;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener progressListener) {
+    super.addProgressListener(progressListener);
+    byteListeners.add(progressListener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener progressListener) {
+    super.removeProgressListener(progressListener);
+    byteListeners.remove(progressListener);
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    super.cancel();
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  protected Bag.Format getFormat() {
+    return Bag.Format.ZIP;
+  }
+
+  @Override
+  public Bag write(Bag bag, File file) {
+    log.info("Writing bag to {} with {} threads", file, threads);
+    String dir = bagDir != null ? bagDir : file.getName().replaceFirst("\\..*$", "");
+    File parentDir = file.getParentFile();
+    if (parentDir != null && !parentDir.isDirectory() && !parentDir.mkdirs()) {
+      throw new RuntimeException("Could not create " + parentDir);
+    }
+    File tempFile = getTempFile(file);
+
+    List<String> filepaths = new ArrayList<>();
+    Map<String, Map<Algorithm, String>> fixities = new LinkedHashMap<>();
+    fileCount = 0;
+    fileTotal = bag.getPayload().size() + bag.getTags().size();
+    long payloadBytes = ByteProgressListeners.totalSize(bag.getPayload());
+    byteListeners.reportByteTotal("writing", payloadBytes + ByteProgressListeners.totalSize(bag.getTags()));
+    // anything short of moving the archive into place leaves it to be deleted
+    boolean moved = false;
+    try {
+      ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads, new ZipThreadFactory()) : null;
+      try (ZipOutput out = new ZipOutput(tempFile, executor, compressionLevel, threads * 4)) {
+        for (BagFile bagFile : bag.getPayload()) {
+          if (isCancelled()) {
+            break;
+          }
+          Map<Algorithm, String> fileFixities = writeEntry(out, dir, bagFile, fixityAlgorithms);
+          if (fileFixities != null) {
+            fixities.put(bagFile.getFilepath(), fileFixities);
+          }
+          filepaths.add(bagFile.getFilepath());
+        }
+        out.flushPending();
+
+        Bag completed = bag;
+        if (!isCancelled() && tagFileCompleter != null) {
+          completed = tagFileCompleter.complete(bag, fixities);
+          if (completed == null) {
+            cancel();
+          }
+        }
+        if (!isCancelled()) {
+          fileTotal = completed.getPayload().size() + completed.getTags().size();
+          byteListeners.reportByteTotal("writing",
+              payloadBytes + ByteProgressListeners.totalSize(completed.getTags()));
+          for (BagFile bagFile : completed.getTags()) {
+            if (isCancelled()) {
+              break;
+            }
+            writeEntry(out, dir, bagFile, Collections.<Algorithm> emptyList());
+            filepaths.add(bagFile.getFilepath());
+          }
+          out.finish();
+        }
+        bag = completed;
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      finally {
+        if (executor != null) {
+          executor.shutdownNow();
+        }
+      }
+      if (isCancelled()) {
+        return null;
+      }
+
+      switchTemp(file);
+      moved = true;
+    }
+    finally {
+      if (!moved) {
+        tempFile.delete();
+      }
+    }
+    Bag newBag = bagFactory.createBag(file, bag.getBagConstants().getVersion(), BagFactory.LoadOption.NO_LOAD);
+    ZipFileSystem fileSystem = new ZipFileSystem(file);
+    for (String filepath : filepaths) {
+      newBag.putBagFile(new FileSystemBagFile(filepath, fileSystem.resolve(dir + "/" + filepath)));
+    }
+    return newBag;
+  }
+
+  /*
+   * Reads the file once, feeding the CRC, the digests and the compressor.
+   * Returns the digests, or null when none were asked for.
+   */
+  private Map<Algorithm, String> writeEntry(ZipOutput out, String dir, BagFile bagFile, List<Algorithm> algorithms)
+      throws IOException {
+    progress("writing", bagFile.getFilepath(), ++fileCount, fileTotal);
+    File source = FixityCache.toFile(bagFile);
+    ZipEntry entry = new ZipEntry(dir + "/" + bagFile.getFilepath(), isStored(bagFile.getFilepath()) ? STORED : DEFLATED,
+        bagFile.getSize(), source == null ? System.currentTimeMillis() : source.lastModified());
+    MessageDigest[] digests = algorithms.isEmpty() ? null : MultiDigestHelper.createDigests(algorithms);
+    CRC32 crc = new CRC32();
+    long size = 0;
+
+    out.startEntry(entry);
+    try (InputStream in = bagFile.newInputStream()) {
+      byte[] previous = null;
+      int previousLength = 0;
+      while (true) {
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = readBlock(in, block);
+        boolean last = length < BLOCK_SIZE;
+        if (length > 0) {
+          crc.update(block, 0, length);
+          if (digests != null) {
+            for (MessageDigest digest : digests) {
+              digest.update(block, 0, length);
+            }
+          }
+          size += length;
+          byteListeners.reportBytes("writing", length);
+        }
+        if (length > 0 || last) {
+          out.addBlock(entry, block, length, previous, previousLength, last);
+        }
+        if (last || isCancelled()) {
+          break;
+        }
+        previous = block;
+        previousLength = length;
+      }
+    }
+    entry.crc = crc.getValue();
+    entry.size = size;
+    out.endEntry(entry);
+    return digests == null ? null : MultiDigestHelper.toFixities(algorithms, digests);
+  }
+
+  private static int readBlock(InputStream in, byte[] block) throws IOException {
+    int length = 0;
+    while (length < block.length) {
+      int read = in.read(block, length, block.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  static boolean isStored(String filepath) {
+    int slash = filepath.lastIndexOf('/');
+    int dot = filepath.lastIndexOf('.');
+    if (dot <= slash + 1 || dot == filepath.length() - 1) {
+      return false;
+    }
+    return STORED_EXTENSIONS.contains(filepath.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+  }
+
+  /*
+   * Raw deflate of one block. Every block but the last ends on a sync flush so
+   * that the compressed blocks can simply be concatenated.
+   */
+  static byte[] deflate(byte[] block, int length, byte[] dictionary, int dictionaryLength, boolean last, int level) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (dictionary != null && dictionaryLength > 0) {
+        int n = Math.min(DICTIONARY_SIZE, dictionaryLength);
+        deflater.setDictionary(dictionary, dictionaryLength - n, n);
+      }
+      deflater.setInput(block, 0, length);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          int n = deflater.deflate(buffer);
+          out.write(buffer, 0, n);
+        }
+      }
+      else {
+        int n;
+        do {
+          n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          out.write(buffer, 0, n);
+        } while (n == buffer.length);
+      }
+      return out.toByteArray();
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  private static class ZipEntry {
+    private final byte[] name;
+    private final int method;
+    private final long dosTime;
+    private final boolean zip64Local;
+    private long offset;
+    private long crc;
+    private long size;
+    private long compressedSize;
+
+    ZipEntry(String name, int method, long expectedSize, long time) {
+      this.name = name.getBytes(StandardCharsets.UTF_8);
+      this.method = method;
+      this.dosTime = toDosTime(time);
+      this.zip64Local = needsZip64(expectedSize);
+    }
+  }
+
+  /*
+   * Whether an entry of about expectedSize bytes is given ZIP64 sizes up
+   * front, leaving room for the (tiny) growth of incompressible data.
+   */
+  static boolean needsZip64(long expectedSize) {
+    return expectedSize + expectedSize / 100 + 65536 >= ZIP64_MAGIC;
+  }
+
+  /*
+   * An entry is queued as its start, its data blocks and its end; the queue is
+   * written out strictly in order while the blocks ahead of it are compressed.
+   */
+  private static class Chunk {
+    private final ZipEntry entry;
+    private final int kind;
+    private final byte[] data;
+    private final int length;
+    private final Future<byte[]> future;
+
+    Chunk(ZipEntry entry, int kind, byte[] data, int length, Future<byte[]> future) {
+      this.entry = entry;
+      this.kind = kind;
+      this.data = data;
+      this.length = length;
+      this.future = future;
+    }
+  }
+
+  private static class ZipOutput implements Closeable {
+    private static final int START = 0;
+    private static final int DATA = 1;
+    private static final int END = 2;
+
+    private final FileOutputStream file;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int window;
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+    private final List<ZipEntry> entries = new ArrayList<>();
+    private long position = 0;
+
+    ZipOutput(File tempFile, ExecutorService executor, int level, int window) throws IOException {
+      this.file = new FileOutputStream(tempFile);
+      this.channel = file.getChannel();
+      this.out = new BufferedOutputStream(file, 1024 * 1024);
+      this.executor = executor;
+      this.level = level;
+      this.window = Math.max(1, window);
+    }
+
+    void startEntry(ZipEntry entry) throws IOException {
+      enqueue(new Chunk(entry, START, null, 0, null));
+    }
+
+    void addBlock(ZipEntry entry, final byte[] block, final int length, final byte[] previous, final int previousLength,
+        final boolean last) throws IOException {
+      if (entry.method == STORED) {
+        enqueue(new Chunk(entry, DATA, block, length, null));
+      }
+      else if (executor == null) {
+        byte[] compressed = deflate(block, length, previous, previousLength, last, level);
+        enqueue(new Chunk(entry, DATA, compressed, compressed.length, null));
+      }
+      else {
+        Future<byte[]> future = executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() {
+            return deflate(block, length, previous, previousLength, last, level);
+          }
+        });
+        enqueue(new Chunk(entry, DATA, null, 0, future));
+      }
+    }
+
+    void endEntry(ZipEntry entry) throws IOException {
+      enqueue(new Chunk(entry, END, null, 0, null));
+    }
+
+    void flushPending() throws IOException {
+      while (!pending.isEmpty()) {
+        write(pending.removeFirst());
+      }
+    }
+
+    private void enqueue(Chunk chunk) throws IOException {
+      pending.addLast(chunk);
+      while (pending.size() > window) {
+        write(pending.removeFirst());
+      }
+    }
+
+    private void write(Chunk chunk) throws IOException {
+      ZipEntry entry = chunk.entry;
+      if (chunk.kind == START) {
+        entry.offset = position;
+        writeLocalHeader(entry);
+      }
+      else if (chunk.kind == DATA) {
+        byte[] data = chunk.data;
+        int length = chunk.length;
+        if (chunk.future != null) {
+          data = get(chunk.future);
+          length = data.length;
+        }
+        out.write(data, 0, length);
+        position += length;
+        entry.compressedSize += length;
+      }
+      else {
+        patchLocalHeader(entry);
+        entries.add(entry);
+      }
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+      try {
+        return future.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compressing", e);
+      }
+      catch (ExecutionException e) {
+        throw new IOException("Compression failed", e.getCause());
+      }
+    }
+
+    private void writeLocalHeader(ZipEntry entry) throws IOException {
+      ByteBuffer header = buffer(30 + entry.name.length + (entry.zip64Local ? 20 : 0));
+      header.putInt(0x04034b50);
+      header.putShort((short) (entry.zip64Local ? 45 : 20));
+      header.putShort((short) 0x0800); // names are UTF-8
+      header.putShort((short) entry.method);
+      header.putInt((int) entry.dosTime);
+      header.putInt(0); // crc and sizes are filled in by patchLocalHeader
+      header.putInt(entry.zip64Local ? (int) ZIP64_MAGIC : 0);
+      header.putInt(entry.zip64Local ? (int) ZIP64_MAGIC : 0);
+      header.putShort((short) entry.name.length);
+      header.putShort((short) (entry.zip64Local ? 20 : 0));
+      header.put(entry.name);
+      if (entry.zip64Local) {
+        header.putShort((short) 0x0001);
+        header.putShort((short) 16);
+        header.putLong(0);
+        header.putLong(0);
+      }
+      writeBuffer(header);
+    }
+
+    private void patchLocalHeader(ZipEntry entry) throws IOException {
+      if (!entry.zip64Local && (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC)) {
+        throw new IOException("Entry " + new String(entry.name, StandardCharsets.UTF_8) + " grew past 4 GB while it was written");
+      }
+      out.flush();
+      ByteBuffer sizes = buffer(12);
+      sizes.putInt((int) entry.crc);
+      sizes.putInt(entry.zip64Local ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+      sizes.putInt(entry.zip64Local ? (int) ZIP64_MAGIC : (int) entry.size);
+      sizes.flip();
+      channel.write(sizes, entry.offset + 14);
+      if (entry.zip64Local) {
+        ByteBuffer extra = buffer(16);
+        extra.putLong(entry.size);
+        extra.putLong(entry.compressedSize);
+        extra.flip();
+        channel.write(extra, entry.offset + 30 + entry.name.length + 4);
+      }
+    }
+
+    void finish() throws IOException {
+      flushPending();
+      long centralOffset = position;
+      for (ZipEntry entry : entries) {
+        writeCentralHeader(entry);
+      }
+      long centralSize = position - centralOffset;
+      boolean zip64 = entries.size() >= ZIP64_MAGIC_SHORT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+      if (zip64) {
+        long recordOffset = position;
+        ByteBuffer record = buffer(56 + 20);
+        record.putInt(0x06064b50);
+        record.putLong(44);
+        record.putShort((short) 45);
+        record.putShort((short) 45);
+        record.putInt(0);
+        record.putInt(0);
+        record.putLong(entries.size());
+        record.putLong(entries.size());
+        record.putLong(centralSize);
+        record.putLong(centralOffset);
+        record.putInt(0x07064b50);
+        record.putInt(0);
+        record.putLong(recordOffset);
+        record.putInt(1);
+        writeBuffer(record);
+      }
+      ByteBuffer end = buffer(22);
+      end.putInt(0x06054b50);
+      end.putShort((short) 0);
+      end.putShort((short) 0);
+      end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_SHORT));
+      end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_SHORT));
+      end.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+      end.putInt((int) Math.min(centralOffset, ZIP64_MAGIC));
+      end.putShort((short) 0);
+      writeBuffer(end);
+      out.flush();
+    }
+
+    private void writeCentralHeader(ZipEntry entry) throws IOException {
+      boolean zip64Size = entry.size >= ZIP64_MAGIC;
+      boolean zip64CompressedSize = entry.compressedSize >= ZIP64_MAGIC;
+      boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+      int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+      if (extraLength > 0) {
+        extraLength += 4;
+      }
+      boolean zip64 = entry.zip64Local || extraLength > 0;
+
+      ByteBuffer header = buffer(46 + entry.name.length + extraLength);
+      header.putInt(0x02014b50);
+      header.putShort((short) 45);
+      header.putShort((short) (zip64 ? 45 : 20));
+      header.putShort((short) 0x0800);
+      header.putShort((short) entry.method);
+      header.putInt((int) entry.dosTime);
+      header.putInt((int) entry.crc);
+      header.putInt(zip64CompressedSize ? (int) ZIP64_MAGIC : (int) entry.compressedSize);
+      header.putInt(zip64Size ? (int) ZIP64_MAGIC : (int) entry.size);
+      header.putShort((short) entry.name.length);
+      header.putShort((short) extraLength);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putInt(0);
+      header.putInt(zip64Offset ? (int) ZIP64_MAGIC : (int) entry.offset);
+      header.put(entry.name);
+      if (extraLength > 0) {
+        header.putShort((short) 0x0001);
+        header.putShort((short) (extraLength - 4));
+        if (zip64Size) {
+          header.putLong(entry.size);
+        }
+        if (zip64CompressedSize) {
+          header.putLong(entry.compressedSize);
+        }
+        if (zip64Offset) {
+          header.putLong(entry.offset);
+        }
+      }
+      writeBuffer(header);
+    }
+
+    private static ByteBuffer buffer(int capacity) {
+      return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+      out.write(buffer.array(), 0, buffer.position());
+      position += buffer.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (Chunk chunk : pending) {
+        if (chunk.future != null) {
+          chunk.future.cancel(true);
+        }
+      }
+      pending.clear();
+      try {
+        out.close();
+      }
+      finally {
+        file.close();
+      }
+    }
+  }
+
+  private static long toDosTime(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return ((long) (year - 1980) << 25) | ((long) (calendar.get(Calendar.MONTH) + 1) << 21)
+        | ((long) calendar.get(Calendar.DAY_OF_MONTH) << 16) | ((long) calendar.get(Calendar.HOUR_OF_DAY) << 11)
+        | ((long) calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+  }
+
+  private static class ZipThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "bagger-zip-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,466 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The payload paths of a bag, sorted and front coded in one block of native
+ * memory. Each path is stored as the length of the prefix it shares with the
+ * path before it and the UTF-8 bytes that follow; every sixteenth path is
+ * stored whole so a lookup decodes at most sixteen entries after a binary
+ * search. Paths are addressed by their position in the sort order.
+ * <p>
+ * Reading is safe from several threads. Removing marks paths as gone; paths
+ * are never added, a new index is built instead.
+ */
+public class PayloadPathIndex implements Iterable<String> {
+  private static final int BLOCK_SIZE = 16;
+
+  private final ByteBuffer data;
+  private final int[] blockOffsets;
+  private final int size;
+  private final BitSet removed;
+  private volatile int removedCount = 0;
+
+  private PayloadPathIndex(ByteBuffer data, int[] blockOffsets, int size) {
+    this.data = data;
+    this.blockOffsets = blockOffsets;
+    this.size = size;
+    // sized up front so that marking never reallocates under a reader
+    this.removed = new BitSet(Math.max(1, size));
+  }
+
+  public static PayloadPathIndex build(Collection<String> paths) {
+    String[] sorted = paths.toArray(new String[paths.size()]);
+    Arrays.sort(sorted, CODE_POINT_ORDER);
+
+    ByteArrayBuilder out = new ByteArrayBuilder(Math.max(1024, sorted.length * 16));
+    int[] blockOffsets = new int[(sorted.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    byte[] previous = new byte[0];
+    int count = 0;
+    for (String path : sorted) {
+      byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+      if (count > 0 && Arrays.equals(bytes, previous)) {
+        continue;
+      }
+      int shared = 0;
+      if (count % BLOCK_SIZE == 0) {
+        blockOffsets[count / BLOCK_SIZE] = out.size();
+      }
+      else {
+        int max = Math.min(bytes.length, previous.length);
+        while (shared < max && bytes[shared] == previous[shared]) {
+          shared++;
+        }
+      }
+      out.writeVarInt(shared);
+      out.writeVarInt(bytes.length - shared);
+      out.write(bytes, shared, bytes.length - shared);
+      previous = bytes;
+      count++;
+    }
+
+    ByteBuffer data = ByteBuffer.allocateDirect(Math.max(1, out.size()));
+    data.put(out.array(), 0, out.size());
+    return new PayloadPathIndex(data, Arrays.copyOf(blockOffsets, (count + BLOCK_SIZE - 1) / BLOCK_SIZE), count);
+  }
+
+  /**
+   * The number of paths that have not been removed.
+   */
+  public int size() {
+    return size - removedCount;
+  }
+
+  /**
+   * Bytes of native memory holding the paths.
+   */
+  public int getMemorySize() {
+    return data.capacity();
+  }
+
+  public String get(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException(String.valueOf(id));
+    }
+    Decoder decoder = new Decoder(id / BLOCK_SIZE * BLOCK_SIZE);
+    while (decoder.id < id) {
+      decoder.next();
+    }
+    return decoder.toString();
+  }
+
+  /**
+   * The id of <code>path</code>, or -1 when it is not in the index or was
+   * removed.
+   */
+  public int indexOf(String path) {
+    byte[] key = path.getBytes(StandardCharsets.UTF_8);
+    Decoder decoder = lowerBound(key);
+    if (decoder == null || decoder.compareTo(key) != 0 || removed.get(decoder.id)) {
+      return -1;
+    }
+    return decoder.id;
+  }
+
+  public boolean contains(String path) {
+    return indexOf(path) >= 0;
+  }
+
+  /**
+   * The id of the path at <code>position</code> among those not removed.
+   */
+  public int idAt(int position) {
+    if (position < 0 || position >= size()) {
+      throw new IndexOutOfBoundsException(String.valueOf(position));
+    }
+    int id = position;
+    while (true) {
+      // each removal at or before id pushes the path one further along
+      int next = position + removed.get(0, id + 1).cardinality();
+      if (next == id && !removed.get(id)) {
+        return id;
+      }
+      id = next;
+    }
+  }
+
+  /**
+   * The position of <code>path</code> among the paths not removed, or -1.
+   */
+  public int positionOf(String path) {
+    int id = indexOf(path);
+    if (id <= 0) {
+      return id;
+    }
+    return id - removed.get(0, id).cardinality();
+  }
+
+  /**
+   * True when some path that has not been removed lies under
+   * <code>directory</code>.
+   */
+  public boolean isDirectory(String directory) {
+    int[] range = range(directory);
+    int next = removed.nextClearBit(range[0]);
+    return next < range[1];
+  }
+
+  /**
+   * The names of the files and directories right under
+   * <code>directory</code>, in sort order; directory names end with a slash.
+   */
+  public List<String> children(String directory) {
+    String prefix = directory.endsWith("/") ? directory : directory + "/";
+    byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+    int end = range(prefixBytes)[1];
+    List<String> children = new ArrayList<>();
+    Decoder decoder = lowerBound(prefixBytes);
+    while (decoder != null && decoder.id < end) {
+      if (removed.get(decoder.id)) {
+        decoder = decoder.hasNext() ? decoder.next() : null;
+        continue;
+      }
+      int slash = decoder.indexOf((byte) '/', prefixBytes.length);
+      if (slash < 0) {
+        children.add(decoder.toString(prefixBytes.length, decoder.length));
+        decoder = decoder.hasNext() ? decoder.next() : null;
+      }
+      else {
+        // skip the rest of the subdirectory: its paths sort before name + '0'
+        children.add(decoder.toString(prefixBytes.length, slash + 1));
+        byte[] skip = Arrays.copyOf(decoder.bytes, slash + 1);
+        skip[slash] = '/' + 1;
+        decoder = lowerBound(skip);
+      }
+    }
+    return children;
+  }
+
+  /**
+   * The paths under <code>directory</code> that have not been removed, in
+   * sort order.
+   */
+  public List<String> list(String directory) {
+    int[] range = range(directory);
+    List<String> paths = new ArrayList<>();
+    if (range[0] >= range[1]) {
+      return paths;
+    }
+    Decoder decoder = new Decoder(range[0] / BLOCK_SIZE * BLOCK_SIZE);
+    while (decoder.id < range[0]) {
+      decoder.next();
+    }
+    while (true) {
+      if (!removed.get(decoder.id)) {
+        paths.add(decoder.toString());
+      }
+      if (decoder.id + 1 >= range[1]) {
+        return paths;
+      }
+      decoder.next();
+    }
+  }
+
+  /**
+   * Marks a path as removed. Returns false when it was not there.
+   */
+  public synchronized boolean remove(String path) {
+    int id = indexOf(path);
+    if (id < 0) {
+      return false;
+    }
+    removed.set(id);
+    removedCount++;
+    return true;
+  }
+
+  /**
+   * Marks every path under <code>directory</code> as removed and returns how
+   * many there were.
+   */
+  public synchronized int removeDirectory(String directory) {
+    int[] range = range(directory);
+    int count = 0;
+    for (int id = removed.nextClearBit(range[0]); id < range[1]; id = removed.nextClearBit(id + 1)) {
+      removed.set(id);
+      count++;
+    }
+    removedCount += count;
+    return count;
+  }
+
+  /**
+   * The paths that have not been removed, in sort order.
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private Decoder decoder = advance(size == 0 ? null : new Decoder(0));
+
+      @Override
+      public boolean hasNext() {
+        return decoder != null;
+      }
+
+      @Override
+      public String next() {
+        if (decoder == null) {
+          throw new NoSuchElementException();
+        }
+        String path = decoder.toString();
+        decoder = advance(decoder.hasNext() ? decoder.next() : null);
+        return path;
+      }
+
+      private Decoder advance(Decoder d) {
+        while (d != null && removed.get(d.id)) {
+          d = d.hasNext() ? d.next() : null;
+        }
+        return d;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /*
+   * The ids [from, to) of the paths under a directory.
+   */
+  private int[] range(String directory) {
+    String prefix = directory.endsWith("/") ? directory : directory + "/";
+    return range(prefix.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private int[] range(byte[] prefix) {
+    byte[] upper = Arrays.copyOf(prefix, prefix.length);
+    upper[upper.length - 1] = '/' + 1;
+    Decoder from = lowerBound(prefix);
+    Decoder to = lowerBound(upper);
+    return new int[] { from == null ? size : from.id, to == null ? size : to.id };
+  }
+
+  /*
+   * A decoder at the first path not below key, or null when there is none.
+   */
+  private Decoder lowerBound(byte[] key) {
+    if (size == 0) {
+      return null;
+    }
+    // the last block whose first path is not above key
+    int low = 0;
+    int high = blockOffsets.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (new Decoder(mid * BLOCK_SIZE).compareTo(key) <= 0) {
+        low = mid;
+      }
+      else {
+        high = mid - 1;
+      }
+    }
+    Decoder decoder = new Decoder(low * BLOCK_SIZE);
+    while (decoder.compareTo(key) < 0) {
+      if (!decoder.hasNext()) {
+        return null;
+      }
+      decoder.next();
+    }
+    return decoder;
+  }
+
+  /*
+   * Walks the entries forward from the start of a block, rebuilding each
+   * path in a reused buffer.
+   */
+  private class Decoder {
+    private int id;
+    private int position;
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+
+    Decoder(int blockStart) {
+      id = blockStart - 1;
+      position = blockOffsets[blockStart / BLOCK_SIZE];
+      next();
+    }
+
+    boolean hasNext() {
+      return id + 1 < size;
+    }
+
+    Decoder next() {
+      int shared = readVarInt();
+      int suffix = readVarInt();
+      if (shared + suffix > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, shared + suffix));
+      }
+      for (int i = 0; i < suffix; i++) {
+        bytes[shared + i] = data.get(position++);
+      }
+      length = shared + suffix;
+      id++;
+      return this;
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data.get(position++);
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    int compareTo(byte[] key) {
+      int max = Math.min(length, key.length);
+      for (int i = 0; i < max; i++) {
+        int c = (bytes[i] & 0xff) - (key[i] & 0xff);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return length - key.length;
+    }
+
+    int indexOf(byte b, int from) {
+      for (int i = from; i < length; i++) {
+        if (bytes[i] == b) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    String toString(int from, int to) {
+      return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+      return toString(0, length);
+    }
+  }
+
+  /*
+   * Orders strings as their UTF-8 bytes sort, which differs from
+   * String.compareTo only where surrogates meet characters from U+E000 up.
+   */
+  private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String a, String b) {
+      int max = Math.min(a.length(), b.length());
+      for (int i = 0; i < max; i++) {
+        char ca = a.charAt(i);
+        char cb = b.charAt(i);
+        if (ca != cb) {
+          if (ca >= 0xd800 && cb >= 0xd800) {
+            return fixup(ca) - fixup(cb);
+          }
+          return ca - cb;
+        }
+      }
+      return a.length() - b.length();
+    }
+
+    private int fixup(char c) {
+      return c >= 0xe000 ? c - 0x800 : c + 0x2000;
+    }
+  };
+
+  private static class ByteArrayBuilder {
+    private byte[] buffer;
+    private int count = 0;
+
+    ByteArrayBuilder(int capacity) {
+      buffer = new byte[capacity];
+    }
+
+    void writeVarInt(int value) {
+      while ((value & ~0x7f) != 0) {
+        write((byte) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      write((byte) value);
+    }
+
+    void write(byte b) {
+      ensureCapacity(count + 1);
+      buffer[count++] = b;
+    }
+
+    void write(byte[] b, int offset, int length) {
+      ensureCapacity(count + length);
+      System.arraycopy(b, offset, buffer, count, length);
+      count += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+      }
+    }
+
+    int size() {
+      return count;
+    }
+
+    byte[] array() {
+      return buffer;
+    }
+  }
+}
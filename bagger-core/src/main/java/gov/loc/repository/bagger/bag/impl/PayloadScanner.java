@@ -0,0 +1,220 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.impl.FileBagFile;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
+
+/**
+ * Finds the files to add to a payload, walking directories in parallel on a
+ * {@link ForkJoinPool}: each directory is read by one task, which hands its
+ * subdirectories on to new tasks. The file sizes are taken from the walk, so
+ * the files need not be looked at again to add up the bag size.
+ * <p>
+ * Files are named the way bagit's own add does: the data directory, then the
+ * path from the parent of the file or directory chosen. Symbolic links are
+ * followed, and links that loop back are skipped.
+ */
+public class PayloadScanner extends LongRunningOperationBase {
+  protected static final Logger log = LoggerFactory.getLogger(PayloadScanner.class);
+
+  public static final String ACTIVITY = "scanning files";
+  public static final String THREADS_PROPERTY = "bagger.scan.threads";
+  private static final EnumSet<FileVisitOption> FOLLOW_LINKS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+
+  private final int parallelism;
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+
+  public PayloadScanner() {
+    // reading directories waits on the disk more than the processor
+    this(Integer.getInteger(THREADS_PROPERTY, Math.max(4, Runtime.getRuntime().availableProcessors())));
+  }
+
+  public PayloadScanner(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener listener) {
+    super.addProgressListener(listener);
+    byteListeners.add(listener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener listener) {
+    super.removeProgressListener(listener);
+    byteListeners.remove(listener);
+  }
+
+  /**
+   * The files in and under <code>roots</code>, named for the payload under
+   * <code>dataDirectory</code>, in no particular order. Returns what was
+   * found so far when cancelled.
+   *
+   * @throws IOException if a directory chosen cannot be read; files and
+   *           directories below them that cannot be read are logged and
+   *           skipped
+   */
+  public List<BagFile> scan(List<File> roots, String dataDirectory) throws IOException {
+    Scan scan = new Scan();
+    List<Walk> walks = new ArrayList<>();
+    for (File root : roots) {
+      Path path = root.toPath();
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      String filepath = dataDirectory + "/" + root.getName();
+      if (attributes.isDirectory()) {
+        walks.add(new Walk(scan, null, path, attributes.fileKey(), filepath));
+      }
+      else {
+        scan.found(filepath, path, attributes.size());
+      }
+    }
+    if (!walks.isEmpty()) {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new Walks(walks));
+      }
+      finally {
+        pool.shutdown();
+      }
+    }
+    log.debug("Found {} files, {} bytes, under {}", scan.count.get(), scan.bytes.get(), roots);
+    return new ArrayList<>(scan.files);
+  }
+
+  private class Scan {
+    final ConcurrentLinkedQueue<BagFile> files = new ConcurrentLinkedQueue<>();
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+
+    void found(String filepath, Path path, long size) {
+      files.add(new ScannedFile(filepath, path.toFile(), size));
+      bytes.addAndGet(size);
+      progress(ACTIVITY, filepath, count.incrementAndGet(), null);
+      byteListeners.reportBytes(ACTIVITY, size);
+    }
+  }
+
+  private static class Walks extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final List<Walk> walks;
+
+    Walks(List<Walk> walks) {
+      this.walks = walks;
+    }
+
+    @Override
+    protected void compute() {
+      invokeAll(walks);
+    }
+  }
+
+  /*
+   * Reads one directory, and walks its subdirectories in parallel. The walk
+   * of each directory above it is kept, to tell links that loop back.
+   */
+  private class Walk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Scan scan;
+    private final Walk parent;
+    private final Path directory;
+    private final Object fileKey;
+    private final String filepath;
+
+    Walk(Scan scan, Walk parent, Path directory, Object fileKey, String filepath) {
+      this.scan = scan;
+      this.parent = parent;
+      this.directory = directory;
+      this.fileKey = fileKey;
+      this.filepath = filepath;
+    }
+
+    boolean isWithin(Object key) {
+      for (Walk walk = this; walk != null; walk = walk.parent) {
+        if (key.equals(walk.fileKey)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    protected void compute() {
+      // the scan's cancellation, not this task's
+      if (PayloadScanner.this.isCancelled()) {
+        return;
+      }
+      final List<Walk> subdirectories = new ArrayList<>();
+      try {
+        Files.walkFileTree(directory, FOLLOW_LINKS, 1, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (PayloadScanner.this.isCancelled()) {
+              return FileVisitResult.TERMINATE;
+            }
+            String child = filepath + "/" + file.getFileName();
+            if (attributes.isDirectory()) {
+              Object key = attributes.fileKey();
+              if (key != null && isWithin(key)) {
+                log.warn("Skipping {}: it links back to a directory above it", file);
+              }
+              else {
+                subdirectories.add(new Walk(scan, Walk.this, file, key, child));
+              }
+            }
+            else if (attributes.isRegularFile()) {
+              scan.found(child, file, attributes.size());
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            log.warn("Skipping {}: {}", file, e.toString());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+      }
+      catch (IOException e) {
+        log.warn("Could not read {}", directory, e);
+      }
+      invokeAll(subdirectories);
+    }
+  }
+
+  /*
+   * A payload file whose size was read during the scan.
+   */
+  private static class ScannedFile extends FileBagFile {
+    private final long size;
+
+    ScannedFile(String filepath, File file, long size) {
+      super(filepath, file);
+      this.size = size;
+    }
+
+    @Override
+    public long getSize() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,456 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.Bag.BagConstants;
+import gov.loc.repository.bagit.Bag.BagPartFactory;
+import gov.loc.repository.bagit.Cancellable;
+import gov.loc.repository.bagit.Manifest;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ManifestHelper;
+import gov.loc.repository.bagit.ManifestReader;
+import gov.loc.repository.bagit.ManifestReader.FilenameFixity;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
+import gov.loc.repository.bagit.utilities.SimpleResult;
+import gov.loc.repository.bagit.utilities.SimpleResultHelper;
+import gov.loc.repository.bagit.verify.CompleteVerifier;
+import gov.loc.repository.bagit.verify.Verifier;
+
+/**
+ * Validates a bag serialized as a zip, tar, tar.gz or tar.bz2 file without
+ * extracting it. The archive is read once, in the order its entries are
+ * stored: payload files are hashed as they stream past and the tag files
+ * (bagit.txt, bag-info.txt, the manifests) are kept in memory wherever in the
+ * archive they turn up. The manifests are reconciled with the digests at the
+ * end, so memory grows with the number of entries but not with their size.
+ * <p>
+ * Files are hashed with the algorithms of the manifests of the bag handed to
+ * {@link #verify(Bag)} and of any manifest met earlier in the archive. When a
+ * manifest asks for an algorithm that was not computed, the files it lists are
+ * read a second time.
+ */
+public class StreamingBagVerifier extends LongRunningOperationBase implements Verifier {
+  protected static final Logger log = LoggerFactory.getLogger(StreamingBagVerifier.class);
+
+  public static final String FIXITY_ACTIVITY = "verifying fixity";
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+  // larger files named like tag files are hashed, not kept
+  private static final long MAX_TAG_FILE_SIZE = 64L * 1024 * 1024;
+
+  private final File file;
+  private final Set<Algorithm> algorithms = EnumSet.noneOf(Algorithm.class);
+  private Cancellable parent;
+
+  private BagConstants bagConstants;
+  private List<String> names;
+  private Map<String, byte[]> tagFiles;
+  private Map<String, Map<Algorithm, String>> digests;
+  private long count;
+  private long total;
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+
+  public StreamingBagVerifier(File file) {
+    this.file = file;
+  }
+
+  /**
+   * True for the archive formats this verifier reads.
+   */
+  public static boolean isSupported(File file) {
+    return file != null && file.isFile()
+        && (TarArchive.getCompression(file) != null || file.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip"));
+  }
+
+  /**
+   * Algorithms to hash every file with on the first pass, in addition to
+   * those of the bag's manifests.
+   */
+  public void setAlgorithms(Collection<Algorithm> algorithms) {
+    this.algorithms.addAll(algorithms);
+  }
+
+  /**
+   * Cancelling <code>parent</code> cancels this verifier too.
+   */
+  public void setParent(Cancellable parent) {
+    this.parent = parent;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener progressListener) {
+    super.addProgressListener(progressListener);
+    byteListeners.add(progressListener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener progressListener) {
+    super.removeProgressListener(progressListener);
+    byteListeners.remove(progressListener);
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return super.isCancelled() || (parent != null && parent.isCancelled());
+  }
+
+  /**
+   * Checks the archive this verifier was made for. <code>bag</code> only
+   * supplies the BagIt conventions and the likely algorithms; it is normally
+   * the bag as read from the same archive.
+   */
+  @Override
+  public SimpleResult verify(Bag bag) {
+    long start = System.currentTimeMillis();
+    bagConstants = bag.getBagConstants();
+    for (Manifest manifest : bag.getPayloadManifests()) {
+      algorithms.add(manifest.getAlgorithm());
+    }
+    for (Manifest manifest : bag.getTagManifests()) {
+      algorithms.add(manifest.getAlgorithm());
+    }
+    names = new ArrayList<>();
+    tagFiles = new LinkedHashMap<>();
+    digests = new HashMap<>();
+    count = 0;
+    total = bag.getPayload().size() + bag.getTags().size();
+    byteListeners.reportByteTotal(FIXITY_ACTIVITY,
+        ByteProgressListeners.totalSize(bag.getPayload()) + ByteProgressListeners.totalSize(bag.getTags()));
+    try {
+      if (!scan(null)) {
+        return null;
+      }
+      SimpleResult result = reconcile(bag.getBagPartFactory());
+      log.info("Verified {} entries of {} in {} ms", names.size(), file, System.currentTimeMillis() - start);
+      return result;
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Error reading " + file + ": " + e.getMessage(), e);
+    }
+    finally {
+      names = null;
+      tagFiles = null;
+      digests = null;
+    }
+  }
+
+  /*
+   * Reads every file entry in storage order. With wanted set, only hashes the
+   * entries it names with the algorithms it lists. Returns false when
+   * cancelled.
+   */
+  private boolean scan(Map<String, Set<Algorithm>> wanted) throws IOException {
+    if (TarArchive.getCompression(file) != null) {
+      try (TarArchiveInputStream in = new TarArchive(file).openStream()) {
+        TarArchiveEntry entry;
+        while ((entry = in.getNextTarEntry()) != null) {
+          if (entry.isFile() && !visit(entry.getName(), entry.getSize(), in, wanted)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    // the central directory is only used to find the entries; they are
+    // read front to back like a stream
+    ZipFile zip = new ZipFile(file);
+    try {
+      Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+      while (entries.hasMoreElements()) {
+        ZipArchiveEntry entry = entries.nextElement();
+        if (entry.isDirectory() || (wanted != null && !wanted.containsKey(entry.getName()))) {
+          continue;
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+          if (!visit(entry.getName(), entry.getSize(), in, wanted)) {
+            return false;
+          }
+        }
+      }
+    }
+    finally {
+      ZipFile.closeQuietly(zip);
+    }
+    return true;
+  }
+
+  private boolean visit(String name, long size, InputStream in, Map<String, Set<Algorithm>> wanted)
+      throws IOException {
+    if (isCancelled()) {
+      return false;
+    }
+    if (wanted != null) {
+      Set<Algorithm> missing = wanted.get(name);
+      if (missing != null) {
+        progress(FIXITY_ACTIVITY, name, ++count, total);
+        Map<Algorithm, String> fixities = hash(in, missing);
+        if (fixities == null) {
+          return false;
+        }
+        digests.get(name).putAll(fixities);
+      }
+      return true;
+    }
+
+    names.add(name);
+    progress(FIXITY_ACTIVITY, name, ++count, Math.max(count, total));
+    if (size <= MAX_TAG_FILE_SIZE && ArchivePaths.isTagCandidate(name)) {
+      tagFiles.put(name, readFully(in, size));
+      byteListeners.reportBytes(FIXITY_ACTIVITY, size);
+      String filename = name.substring(name.indexOf('/') + 1);
+      if (isManifest(filename)) {
+        try {
+          algorithms.add(ManifestHelper.getAlgorithm(filename, bagConstants));
+        }
+        catch (IllegalArgumentException e) {
+          log.warn("Unknown algorithm in {}", name);
+        }
+      }
+      return true;
+    }
+    Map<Algorithm, String> fixities = hash(in, algorithms);
+    if (fixities == null) {
+      return false;
+    }
+    digests.put(name, fixities);
+    return true;
+  }
+
+  private SimpleResult reconcile(BagPartFactory bagPartFactory) throws IOException {
+    SimpleResult result = new SimpleResult(true);
+    String prefix = ArchivePaths.findPrefix(names);
+    Map<String, String> entries = new HashMap<>();
+    for (String name : names) {
+      String filepath = ArchivePaths.relativize(name, prefix);
+      if (filepath != null) {
+        entries.put(normalize(filepath), name);
+      }
+    }
+
+    if (!tagFiles.containsKey(prefix + bagConstants.getBagItTxt())) {
+      result.setSuccess(false);
+      result.addMessage(CompleteVerifier.CODE_NO_BAGITTXT,
+          MessageFormat.format("Bag does not have {0}.", bagConstants.getBagItTxt()));
+    }
+
+    List<ManifestFile> payloadManifests = new ArrayList<>();
+    List<ManifestFile> tagManifests = new ArrayList<>();
+    for (Map.Entry<String, byte[]> tagFile : tagFiles.entrySet()) {
+      String filepath = ArchivePaths.relativize(tagFile.getKey(), prefix);
+      if (filepath == null || filepath.indexOf('/') >= 0 || !isManifest(filepath)) {
+        continue;
+      }
+      Algorithm algorithm;
+      try {
+        algorithm = ManifestHelper.getAlgorithm(filepath, bagConstants);
+      }
+      catch (IllegalArgumentException e) {
+        result.addWarningMessage(MessageFormat.format("Unknown algorithm in {0}.", filepath));
+        continue;
+      }
+      ManifestFile manifest = new ManifestFile(filepath, algorithm, readManifest(bagPartFactory, tagFile.getValue()));
+      if (ManifestHelper.isPayloadManifest(filepath, bagConstants)) {
+        payloadManifests.add(manifest);
+      }
+      else {
+        tagManifests.add(manifest);
+      }
+    }
+    if (payloadManifests.isEmpty()) {
+      result.setSuccess(false);
+      result.addMessage(CompleteVerifier.CODE_NO_PAYLOAD_MANIFEST, "Bag does not have any payload manifests.");
+    }
+
+    Map<String, Set<Algorithm>> wanted = new HashMap<>();
+    addWanted(payloadManifests, entries, wanted);
+    addWanted(tagManifests, entries, wanted);
+    if (!wanted.isEmpty()) {
+      log.info("Reading {} entries of {} again for algorithms first seen late in the archive", wanted.size(), file);
+      count = 0;
+      total = wanted.size();
+      if (!scan(wanted)) {
+        return null;
+      }
+    }
+
+    String dataDirectory = bagConstants.getDataDirectory() + '/';
+    Set<String> listed = new HashSet<>();
+    for (ManifestFile manifest : payloadManifests) {
+      progress("verifying payload manifest", manifest.filepath);
+      for (Map.Entry<String, String> line : manifest.fixities.entrySet()) {
+        if (isCancelled()) {
+          return null;
+        }
+        String key = normalize(line.getKey());
+        if (!key.startsWith(dataDirectory)) {
+          result.setSuccess(false);
+          result.addMessage(CompleteVerifier.CODE_TAG_IN_PAYLOAD_MANIFEST, "Tag file is listed in payload manifest {0}: {1}",
+              manifest.filepath, line.getKey());
+          continue;
+        }
+        listed.add(key);
+        check(manifest, line.getKey(), line.getValue(), entries.get(key), true, result);
+      }
+    }
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      if (entry.getKey().startsWith(dataDirectory) && !listed.contains(entry.getKey())) {
+        String filepath = ArchivePaths.relativize(entry.getValue(), prefix);
+        result.setSuccess(false);
+        result.addMessage(CompleteVerifier.CODE_PAYLOAD_FILE_NOT_IN_PAYLOAD_MANIFEST,
+            "Payload file {0} not found in any payload manifest.", filepath);
+      }
+    }
+    for (ManifestFile manifest : tagManifests) {
+      progress("verifying tag manifest", manifest.filepath);
+      for (Map.Entry<String, String> line : manifest.fixities.entrySet()) {
+        check(manifest, line.getKey(), line.getValue(), entries.get(normalize(line.getKey())), false, result);
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Notes the algorithms each listed file still has to be hashed with.
+   */
+  private void addWanted(List<ManifestFile> manifests, Map<String, String> entries, Map<String, Set<Algorithm>> wanted) {
+    for (ManifestFile manifest : manifests) {
+      for (String filepath : manifest.fixities.keySet()) {
+        String name = entries.get(normalize(filepath));
+        Map<Algorithm, String> fixities = name == null ? null : digests.get(name);
+        if (fixities != null && !fixities.containsKey(manifest.algorithm)) {
+          Set<Algorithm> set = wanted.get(name);
+          if (set == null) {
+            set = EnumSet.noneOf(Algorithm.class);
+            wanted.put(name, set);
+          }
+          set.add(manifest.algorithm);
+        }
+      }
+    }
+  }
+
+  private void check(ManifestFile manifest, String filepath, String expected, String name, boolean payload,
+      SimpleResult result) {
+    if (name == null) {
+      if (payload) {
+        SimpleResultHelper.missingPayloadFile(result, manifest.filepath, filepath);
+      }
+      else {
+        SimpleResultHelper.missingTagFile(result, manifest.filepath, filepath);
+      }
+      return;
+    }
+    String actual;
+    byte[] content = tagFiles.get(name);
+    if (content != null) {
+      MessageDigest digest = MultiDigestHelper.createDigests(EnumSet.of(manifest.algorithm))[0];
+      actual = MultiDigestHelper.toHex(digest.digest(content));
+    }
+    else {
+      actual = digests.get(name).get(manifest.algorithm);
+    }
+    if (!expected.equalsIgnoreCase(actual)) {
+      if (payload) {
+        SimpleResultHelper.invalidPayloadFile(result, manifest.filepath, filepath);
+      }
+      else {
+        SimpleResultHelper.invalidTagFile(result, manifest.filepath, filepath);
+      }
+      log.debug("Fixity failure in manifest {}: {}", manifest.filepath, filepath);
+    }
+  }
+
+  private boolean isManifest(String filename) {
+    return ManifestHelper.isPayloadManifest(filename, bagConstants) || ManifestHelper.isTagManifest(filename, bagConstants);
+  }
+
+  private Map<String, String> readManifest(BagPartFactory bagPartFactory, byte[] content) throws IOException {
+    Map<String, String> fixities = new LinkedHashMap<>();
+    try (ManifestReader reader = bagPartFactory.createManifestReader(new ByteArrayInputStream(content),
+        bagConstants.getBagEncoding())) {
+      while (reader.hasNext()) {
+        FilenameFixity line = reader.next();
+        fixities.put(line.getFilename(), line.getFixityValue());
+      }
+    }
+    return fixities;
+  }
+
+  /*
+   * Returns null when cancelled part way through.
+   */
+  private Map<Algorithm, String> hash(InputStream in, Collection<Algorithm> algorithmSet) throws IOException {
+    List<Algorithm> list = new ArrayList<>(algorithmSet);
+    if (list.isEmpty()) {
+      return new EnumMap<>(Algorithm.class);
+    }
+    MessageDigest[] digestArray = MultiDigestHelper.createDigests(list);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      if (isCancelled()) {
+        return null;
+      }
+      for (MessageDigest digest : digestArray) {
+        digest.update(buffer, 0, n);
+      }
+      byteListeners.reportBytes(FIXITY_ACTIVITY, n);
+    }
+    return new EnumMap<>(MultiDigestHelper.toFixities(list, digestArray));
+  }
+
+  private static byte[] readFully(InputStream in, long size) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(0, Math.min(size, BUFFER_SIZE)));
+    byte[] buffer = new byte[64 * 1024];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  private static String normalize(String filepath) {
+    return Normalizer.normalize(filepath, Normalizer.Form.NFC);
+  }
+
+  private static class ManifestFile {
+    private final String filepath;
+    private final Algorithm algorithm;
+    private final Map<String, String> fixities;
+
+    ManifestFile(String filepath, Algorithm algorithm, Map<String, String> fixities) {
+      this.filepath = filepath;
+      this.algorithm = algorithm;
+      this.fixities = fixities;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.writer.Writer;
+
+/**
+ * A writer that streams a bag into a single archive, payload first, hashing
+ * every payload file while it is read for the archive. The manifests and the
+ * other tag files are only built once the payload is written, so the payload
+ * is read exactly once.
+ */
+public interface StreamingBagWriter extends Writer {
+
+  /**
+   * Completes the bag once its payload has been written, e.g. by building the
+   * manifests from the digests read along the way. Returning null cancels the
+   * write.
+   */
+  interface TagFileCompleter {
+    Bag complete(Bag bag, Map<String, Map<Algorithm, String>> payloadFixities);
+  }
+
+  /**
+   * Threads used for compression; 0 or less uses one per core.
+   */
+  void setThreads(int threads);
+
+  /**
+   * Algorithms computed for every payload file while it is read.
+   */
+  void setFixityAlgorithms(List<Algorithm> fixityAlgorithms);
+
+  void setTagFileCompleter(TagFileCompleter tagFileCompleter);
+}
@@ -0,0 +1,344 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFactory.Version;
+import gov.loc.repository.bagit.impl.StringBagFile;
+
+/**
+ * A bag serialized as a tar, tar.gz or tar.bz2 file, read in place. Opening
+ * it is one streaming pass over the archive: the tag files are kept in memory
+ * and every payload file becomes a {@link TarBagFile} that knows the position
+ * of its entry. Reading payload files in archive order shares one forward
+ * cursor, so reading all of them decompresses the archive once.
+ */
+public class TarArchive implements Closeable {
+  protected static final Logger log = LoggerFactory.getLogger(TarArchive.class);
+
+  public enum Compression {
+    NONE, GZIP, BZIP2
+  }
+
+  private static final Pattern VERSION = Pattern.compile("BagIt-Version\\s*:\\s*(\\S+)");
+
+  private final File file;
+  private final Compression compression;
+  private String prefix = "";
+  private Cursor shared;
+
+  public TarArchive(File file) {
+    this.file = file;
+    this.compression = getCompression(file);
+    if (compression == null) {
+      throw new IllegalArgumentException("Not a tar file: " + file);
+    }
+  }
+
+  /**
+   * The compression of a tar file going by its name, or null when the name
+   * is not that of a tar file.
+   */
+  public static Compression getCompression(File file) {
+    String name = file.getName().toLowerCase(Locale.ENGLISH);
+    if (name.endsWith(".tar")) {
+      return Compression.NONE;
+    }
+    if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+      return Compression.GZIP;
+    }
+    if (name.endsWith(".tar.bz2") || name.endsWith(".tbz2") || name.endsWith(".tbz")) {
+      return Compression.BZIP2;
+    }
+    return null;
+  }
+
+  public static boolean isTarFile(File file) {
+    return file != null && file.isFile() && getCompression(file) != null;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public Compression getCompression() {
+    return compression;
+  }
+
+  /**
+   * The directory of the bag in the archive, with a trailing slash, or an
+   * empty string when the bag is at the top.
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+
+  void setPrefix(String prefix) {
+    this.prefix = prefix;
+  }
+
+  /**
+   * The path in the bag of an entry, or null when the entry lies outside the
+   * bag.
+   */
+  public String toFilepath(String entryName) {
+    return ArchivePaths.relativize(entryName, prefix);
+  }
+
+  /**
+   * A new stream over the entries of the archive, decompressing as needed.
+   */
+  public TarArchiveInputStream openStream() throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), 256 * 1024);
+    try {
+      if (compression == Compression.GZIP) {
+        in = new GzipCompressorInputStream(in, true);
+      }
+      else if (compression == Compression.BZIP2) {
+        in = new BZip2CompressorInputStream(in, true);
+      }
+      return new TarArchiveInputStream(in, "UTF-8");
+    }
+    catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the bag in the archive. The bag may sit at the top of the archive
+   * or, as written by Bagger, in a single directory.
+   */
+  public Bag load(BagFactory bagFactory) throws IOException {
+    long start = System.currentTimeMillis();
+    List<ScannedEntry> entries = new ArrayList<>();
+    Map<String, byte[]> contents = new HashMap<>();
+    try (TarArchiveInputStream in = openStream()) {
+      TarArchiveEntry entry;
+      int index = 0;
+      while ((entry = in.getNextTarEntry()) != null) {
+        if (entry.isFile()) {
+          String name = entry.getName();
+          entries.add(new ScannedEntry(index, name, entry.getSize()));
+          // tag files are small; payload files are only ever read on demand
+          if (!ArchivePaths.isPayloadCandidate(name)) {
+            contents.put(name, readFully(in, entry.getSize()));
+          }
+        }
+        index++;
+      }
+    }
+
+    List<String> names = new ArrayList<>(entries.size());
+    for (ScannedEntry entry : entries) {
+      names.add(entry.name);
+    }
+    prefix = ArchivePaths.findPrefix(names);
+    Set<String> missing = new HashSet<>();
+    for (ScannedEntry entry : entries) {
+      String filepath = ArchivePaths.relativize(entry.name, prefix);
+      if (filepath != null && !filepath.startsWith(ArchivePaths.DATA) && !contents.containsKey(entry.name)) {
+        missing.add(entry.name);
+      }
+    }
+    if (!missing.isEmpty()) {
+      // only when the bag directory itself is named data
+      readContents(missing, contents);
+    }
+
+    byte[] bagItTxt = contents.get(prefix + "bagit.txt");
+    Version version = BagFactory.LATEST;
+    if (bagItTxt != null) {
+      Matcher matcher = VERSION.matcher(new String(bagItTxt, StandardCharsets.UTF_8));
+      if (matcher.find()) {
+        try {
+          version = Version.valueOfString(matcher.group(1));
+        }
+        catch (RuntimeException e) {
+          log.warn("Unknown BagIt version {} in {}", matcher.group(1), file);
+        }
+      }
+    }
+
+    Bag bag = bagFactory.createBag(version);
+    int payloadFiles = 0;
+    for (ScannedEntry entry : entries) {
+      String filepath = ArchivePaths.relativize(entry.name, prefix);
+      if (filepath == null) {
+        continue;
+      }
+      if (filepath.startsWith(ArchivePaths.DATA)) {
+        bag.putBagFile(new TarBagFile(filepath, this, entry.index, entry.name, entry.size));
+        payloadFiles++;
+      }
+      else {
+        bag.putBagFile(new StringBagFile(filepath, contents.get(entry.name)));
+      }
+    }
+    log.info("Read {} entries ({} payload files) of {} in {} ms", entries.size(), payloadFiles, file,
+        System.currentTimeMillis() - start);
+    return bag;
+  }
+
+  private void readContents(Set<String> names, Map<String, byte[]> contents) throws IOException {
+    try (TarArchiveInputStream in = openStream()) {
+      TarArchiveEntry entry;
+      while ((entry = in.getNextTarEntry()) != null) {
+        if (entry.isFile() && names.contains(entry.getName())) {
+          contents.put(entry.getName(), readFully(in, entry.getSize()));
+        }
+      }
+    }
+  }
+
+  private static byte[] readFully(InputStream in, long size) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(size, 1024 * 1024));
+    byte[] buffer = new byte[64 * 1024];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * A stream over the entry at <code>index</code>. When the shared cursor is
+   * idle and has not passed the entry yet it moves forward to it; otherwise
+   * the entry is read through a cursor of its own.
+   */
+  InputStream openEntry(int index, String name) throws IOException {
+    Cursor cursor;
+    synchronized (this) {
+      if (shared != null && !shared.busy && shared.index >= index) {
+        shared.close();
+        shared = null;
+      }
+      if (shared == null) {
+        shared = new Cursor(openStream(), true);
+      }
+      if (!shared.busy) {
+        cursor = shared;
+        cursor.busy = true;
+      }
+      else {
+        cursor = new Cursor(openStream(), false);
+      }
+    }
+    try {
+      cursor.seek(index, name);
+    }
+    catch (IOException | RuntimeException e) {
+      release(cursor);
+      throw e;
+    }
+    return new EntryInputStream(cursor);
+  }
+
+  private synchronized void release(Cursor cursor) {
+    if (cursor == shared) {
+      cursor.busy = false;
+    }
+    else {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (shared != null) {
+      shared.close();
+      shared = null;
+    }
+  }
+
+  private class EntryInputStream extends FilterInputStream {
+    private final Cursor cursor;
+    private boolean closed = false;
+
+    EntryInputStream(Cursor cursor) {
+      super(cursor.in);
+      this.cursor = cursor;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        release(cursor);
+      }
+    }
+  }
+
+  private static class Cursor {
+    private final TarArchiveInputStream in;
+    private final boolean isShared;
+    private int index = -1;
+    private boolean busy;
+
+    Cursor(TarArchiveInputStream in, boolean isShared) {
+      this.in = in;
+      this.isShared = isShared;
+      this.busy = !isShared;
+    }
+
+    void seek(int target, String name) throws IOException {
+      TarArchiveEntry entry = null;
+      while (index < target) {
+        entry = in.getNextTarEntry();
+        index++;
+        if (entry == null) {
+          throw new IOException("Entry " + name + " is missing from the archive");
+        }
+      }
+      if (entry == null || !entry.getName().equals(name)) {
+        throw new IOException("Entry " + target + " of the archive is not " + name);
+      }
+    }
+
+    void close() {
+      try {
+        in.close();
+      }
+      catch (IOException e) {
+        log.debug("Could not close {} cursor", isShared ? "shared" : "private", e);
+      }
+    }
+  }
+
+  private static class ScannedEntry {
+    private final int index;
+    private final String name;
+    private final long size;
+
+    ScannedEntry(int index, String name, long size) {
+      this.index = index;
+      this.name = name;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.DeclareCloseable;
+
+/**
+ * A payload file that is an entry of a {@link TarArchive}; its content is
+ * only read when a stream is opened.
+ */
+public class TarBagFile implements BagFile, DeclareCloseable {
+  private final String filepath;
+  private final TarArchive archive;
+  private final int index;
+  private final String entryName;
+  private final long size;
+
+  public TarBagFile(String filepath, TarArchive archive, int index, String entryName, long size) {
+    this.filepath = filepath;
+    this.archive = archive;
+    this.index = index;
+    this.entryName = entryName;
+    this.size = size;
+  }
+
+  public TarArchive getArchive() {
+    return archive;
+  }
+
+  /**
+   * Position of the entry in the archive; reading files in this order never
+   * goes back in the archive.
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  @Override
+  public String getFilepath() {
+    return filepath;
+  }
+
+  @Override
+  public InputStream newInputStream() {
+    try {
+      return archive.openEntry(index, entryName);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean exists() {
+    return true;
+  }
+
+  @Override
+  public long getSize() {
+    return size;
+  }
+
+  @Override
+  public Closeable declareCloseable() {
+    return archive;
+  }
+}
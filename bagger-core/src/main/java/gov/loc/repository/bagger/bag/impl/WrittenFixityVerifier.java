@@ -0,0 +1,176 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
+import gov.loc.repository.bagit.utilities.SimpleResult;
+import gov.loc.repository.bagit.utilities.SimpleResultHelper;
+import gov.loc.repository.bagit.verify.ManifestChecksumVerifier;
+
+/**
+ * Checks manifests against digests taken from the files they list while the
+ * bag was being written, instead of reading the files again. Only the files
+ * that were not hashed then, such as the tag files and payload files the
+ * write left in place, are read, in parallel by the
+ * {@link ParallelChecksumEngine}.
+ */
+public class WrittenFixityVerifier extends LongRunningOperationBase implements ManifestChecksumVerifier {
+  protected static final Logger log = LoggerFactory.getLogger(WrittenFixityVerifier.class);
+
+  public static final String ACTIVITY = "verifying file checksum";
+
+  private final Map<String, Map<Algorithm, String>> writtenFixities;
+  private ParallelChecksumEngine checksumEngine = new ParallelChecksumEngine();
+  private final ByteProgressListeners byteListeners = new ByteProgressListeners();
+
+  public WrittenFixityVerifier(Map<String, Map<Algorithm, String>> writtenFixities) {
+    this.writtenFixities = writtenFixities;
+  }
+
+  public void setChecksumEngine(ParallelChecksumEngine checksumEngine) {
+    this.checksumEngine = checksumEngine;
+  }
+
+  @Override
+  public void addProgressListener(ProgressListener listener) {
+    super.addProgressListener(listener);
+    byteListeners.add(listener);
+  }
+
+  @Override
+  public void removeProgressListener(ProgressListener listener) {
+    super.removeProgressListener(listener);
+    byteListeners.remove(listener);
+  }
+
+  @Override
+  public SimpleResult verify(Manifest manifest, Bag bag) {
+    return verify(Collections.singletonList(manifest), bag);
+  }
+
+  @Override
+  public SimpleResult verify(List<Manifest> manifests, Bag bag) {
+    SimpleResult result = new SimpleResult(true);
+    List<BagFile> unread = new ArrayList<>();
+    Map<String, Integer> unreadIndex = new HashMap<>();
+    Set<Algorithm> algorithms = EnumSet.noneOf(Algorithm.class);
+    List<Check> pending = new ArrayList<>();
+    int reused = 0;
+    for (Manifest manifest : manifests) {
+      for (Map.Entry<String, String> line : manifest.entrySet()) {
+        if (isCancelled()) {
+          return null;
+        }
+        BagFile file = find(bag, line.getKey());
+        if (file == null) {
+          if (manifest.isPayloadManifest()) {
+            SimpleResultHelper.missingPayloadFile(result, manifest.getFilepath(), line.getKey());
+          }
+          else {
+            SimpleResultHelper.missingTagFile(result, manifest.getFilepath(), line.getKey());
+          }
+          continue;
+        }
+        Map<Algorithm, String> fixities = writtenFixities.get(file.getFilepath());
+        String actual = fixities == null ? null : fixities.get(manifest.getAlgorithm());
+        if (actual != null) {
+          check(manifest, file.getFilepath(), line.getValue(), actual, result);
+          reused++;
+          continue;
+        }
+        Integer index = unreadIndex.get(file.getFilepath());
+        if (index == null) {
+          index = unread.size();
+          unread.add(file);
+          unreadIndex.put(file.getFilepath(), index);
+        }
+        algorithms.add(manifest.getAlgorithm());
+        pending.add(new Check(manifest, file.getFilepath(), line.getValue(), index));
+      }
+    }
+
+    ProgressListener listener = new ByteProgressListener() {
+      @Override
+      public void reportProgress(String activity, Object item, Long count, Long total) {
+        progress(activity, item, count, total);
+      }
+
+      @Override
+      public void reportBytes(String activity, long bytes) {
+        byteListeners.reportBytes(activity, bytes);
+      }
+
+      @Override
+      public void reportByteTotal(String activity, long total) {
+        byteListeners.reportByteTotal(activity, total);
+      }
+    };
+    List<Map<Algorithm, String>> read = checksumEngine.generateFixities(ACTIVITY, unread, new ArrayList<>(algorithms),
+        listener, this);
+    if (isCancelled()) {
+      return null;
+    }
+    for (Check check : pending) {
+      check(check.manifest, check.filepath, check.expected, read.get(check.index).get(check.manifest.getAlgorithm()),
+          result);
+    }
+    log.info("Checked {} digests taken while writing and read {} files", reused, unread.size());
+    return result;
+  }
+
+  private static void check(Manifest manifest, String filepath, String expected, String actual, SimpleResult result) {
+    if (expected.equalsIgnoreCase(actual)) {
+      return;
+    }
+    if (manifest.isPayloadManifest()) {
+      SimpleResultHelper.invalidPayloadFile(result, manifest.getFilepath(), filepath);
+    }
+    else {
+      SimpleResultHelper.invalidTagFile(result, manifest.getFilepath(), filepath);
+    }
+    log.debug("Fixity failure in manifest {}: {}", manifest.getFilepath(), filepath);
+  }
+
+  /*
+   * Manifests may name a file in another unicode normal form than the bag.
+   */
+  private static BagFile find(Bag bag, String filepath) {
+    for (String candidate : new String[] { filepath, Normalizer.normalize(filepath, Normalizer.Form.NFC),
+        Normalizer.normalize(filepath, Normalizer.Form.NFD) }) {
+      BagFile file = bag.getBagFile(candidate);
+      if (file != null && file.exists()) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  private static class Check {
+    private final Manifest manifest;
+    private final String filepath;
+    private final String expected;
+    private final int index;
+
+    Check(Manifest manifest, String filepath, String expected, int index) {
+      this.manifest = manifest;
+      this.filepath = filepath;
+      this.expected = expected;
+      this.index = index;
+    }
+  }
+}
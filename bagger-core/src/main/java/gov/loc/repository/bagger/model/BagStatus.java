@@ -1,9 +1,11 @@
 package gov.loc.repository.bagger.model;
 
+/**
+ * Completeness, validity and profile compliance of one bag. Each
+ * {@link gov.loc.repository.bagger.bag.impl.DefaultBag} owns an instance.
+ */
 public class BagStatus {
 
-  private static BagStatus instance = new BagStatus();
-
   private StatusModel validationStatus = new StatusModel();
   private StatusModel completenessStatus = new StatusModel();
   private StatusModel profileComplianceStatus = new StatusModel();
@@ -32,8 +34,4 @@ public class BagStatus {
     this.profileComplianceStatus = profileComplianceStatus;
   }
 
-  public static BagStatus getInstance() {
-    return instance;
-  }
-
 }
@@ -5,7 +5,7 @@ import java.beans.PropertyChangeSupport;
 
 public class StatusModel {
 
-  private Status status = Status.UNKNOWN;
+  private volatile Status status = Status.UNKNOWN;
 
   private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
 
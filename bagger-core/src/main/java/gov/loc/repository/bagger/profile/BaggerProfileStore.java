@@ -2,9 +2,11 @@ package gov.loc.repository.bagger.profile;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.slf4j.Logger;
@@ -14,49 +16,48 @@ import gov.loc.repository.bagger.Bagger;
 import gov.loc.repository.bagger.Profile;
 import gov.loc.repository.bagger.ProfileField;
 
+/**
+ * The profiles known to the application. The store is built once and never
+ * changes afterwards, so a single instance can be handed to every bag and read
+ * from any thread.
+ */
 public class BaggerProfileStore {
   protected static final Logger log = LoggerFactory.getLogger(BaggerProfileStore.class);
-  private static BaggerProfileStore instance;
 
-  private HashMap<String, Profile> userProfiles = new HashMap<>();
-  private LinkedHashMap<String, List<ProfileField>> profileFieldsMap = new LinkedHashMap<>();
+  private final Map<String, Profile> userProfiles;
+  private final Map<String, List<ProfileField>> profileFieldsMap;
 
   public BaggerProfileStore(Bagger bagger) {
-    initializeProfile(bagger);
-    instance = this;
+    this(bagger.loadProfiles());
   }
 
-  public Profile getProfile(String name) {
-    Profile profile = this.userProfiles.get(name);
-    if(profile == null){
-      log.error("Could not load profile [{}]! Using default profile instead", name);
-      return getDefaultProfile();
-    }
-    return profile;
-  }
-
-  private void initializeProfile(Bagger bagger) {
-    Collection<Profile> profiles = bagger.loadProfiles();
-    userProfiles = new HashMap<>();
-    profileFieldsMap = new LinkedHashMap<>();
+  public BaggerProfileStore(Collection<Profile> profiles) {
+    HashMap<String, Profile> profilesByName = new HashMap<>();
+    LinkedHashMap<String, List<ProfileField>> fieldsByName = new LinkedHashMap<>();
 
     for (Profile profile : profiles) {
-      userProfiles.put(profile.getName(), profile);
+      profilesByName.put(profile.getName(), profile);
       LinkedHashMap<String, ProfileField> standardFields = profile.getStandardFields();
       LinkedHashMap<String, ProfileField> customFields = profile.getCustomFields();
       LinkedHashMap<String, ProfileField> mergedMap = new LinkedHashMap<>();
       mergedMap.putAll(standardFields);
       mergedMap.putAll(customFields);
 
-      for (ProfileField profileField : mergedMap.values()) {
-        List<ProfileField> list = profileFieldsMap.get(profile.getName());
-        if (list == null) {
-          list = new ArrayList<>();
-          profileFieldsMap.put(profile.getName(), list);
-        }
-        list.add(profileField);
+      if (!mergedMap.isEmpty()) {
+        fieldsByName.put(profile.getName(), Collections.unmodifiableList(new ArrayList<>(mergedMap.values())));
       }
     }
+    userProfiles = Collections.unmodifiableMap(profilesByName);
+    profileFieldsMap = Collections.unmodifiableMap(fieldsByName);
+  }
+
+  public Profile getProfile(String name) {
+    Profile profile = this.userProfiles.get(name);
+    if(profile == null){
+      log.error("Could not load profile [{}]! Using default profile instead", name);
+      return getDefaultProfile();
+    }
+    return profile;
   }
 
   public Profile getDefaultProfile() {
@@ -68,10 +69,6 @@ public class BaggerProfileStore {
     return null;
   }
 
-  public static BaggerProfileStore getInstance() {
-    return instance;
-  }
-
   public String[] getProfileNames() {
     return userProfiles.keySet().toArray(new String[0]);
   }
@@ -0,0 +1,115 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.impl.StringBagFile;
+
+/**
+ * A payload that exercises the archive writers and readers: a file spanning
+ * several compression blocks of every format, an empty file, a file zip
+ * stores rather than deflates, and names with spaces and non-ASCII
+ * characters in nested directories. The file with the non-ASCII name is
+ * kept in memory, since file names on disk are only UTF-8 in a UTF-8 locale.
+ */
+class ArchiveTestBags {
+  static final List<Algorithm> ALGORITHMS = Arrays.asList(Algorithm.MD5, Algorithm.SHA256);
+  static final String UNICODE_PATH = "data/nested/\u00fcn\u00efc\u00f8d\u00e9.txt";
+  static final byte[] UNICODE_CONTENT = "\u00e9t\u00e9\n".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * Fills <code>dir</code> with the payload and returns the content of each
+   * file by its path in the bag, including the one kept in memory.
+   */
+  static Map<String, byte[]> createPayload(File dir) throws IOException {
+    Map<String, byte[]> payload = new LinkedHashMap<>();
+    // over two bzip2 blocks, and many more zip and gzip ones
+    put(payload, dir, "big.bin", content(2 * ParallelBzip2OutputStream.BLOCK_SIZE + 12345));
+    put(payload, dir, "empty.txt", new byte[0]);
+    put(payload, dir, "photo.jpg", content(5000));
+    put(payload, dir, "nested/deeper/text file.txt", "some text\n".getBytes(StandardCharsets.UTF_8));
+    payload.put(UNICODE_PATH, UNICODE_CONTENT);
+    return payload;
+  }
+
+  /**
+   * A new bag holding what is in <code>dir</code> and the file kept in
+   * memory as its payload.
+   */
+  static Bag createBag(BagFactory bagFactory, File dir) {
+    Bag bag = bagFactory.createBag();
+    for (File file : dir.listFiles()) {
+      bag.addFileToPayload(file);
+    }
+    bag.putBagFile(new StringBagFile(UNICODE_PATH, UNICODE_CONTENT));
+    return bag;
+  }
+
+  /**
+   * Writes <code>bag</code> to <code>file</code> with manifests built from
+   * the digests taken while it is written. The digests in
+   * <code>wrong</code> are listed in place of the real ones.
+   */
+  static void write(StreamingBagWriter writer, Bag bag, File file, final BagFactory bagFactory,
+      final Map<String, Map<Algorithm, String>> wrong) throws IOException {
+    writer.setThreads(4);
+    writer.setFixityAlgorithms(ALGORITHMS);
+    writer.setTagFileCompleter(new StreamingBagWriter.TagFileCompleter() {
+      @Override
+      public Bag complete(Bag bag, Map<String, Map<Algorithm, String>> payloadFixities) {
+        Map<String, Map<Algorithm, String>> fixities = new LinkedHashMap<>(payloadFixities);
+        fixities.putAll(wrong);
+        MultiManifestCompleter completer = new MultiManifestCompleter(bagFactory);
+        completer.setPayloadManifestAlgorithms(ALGORITHMS);
+        completer.setPayloadFixities(fixities);
+        return completer.complete(bag);
+      }
+    });
+    // the bag read from the new archive is not needed
+    writer.write(bag, file).close();
+  }
+
+  static byte[] read(BagFile bagFile) throws IOException {
+    try (InputStream in = bagFile.newInputStream()) {
+      return read(in);
+    }
+  }
+
+  static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[64 * 1024];
+    int n;
+    while ((n = in.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  static byte[] content(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    // a compressible stretch as well as a random one
+    Arrays.fill(content, 0, size / 2, (byte) 'a');
+    return content;
+  }
+
+  private static void put(Map<String, byte[]> payload, File dir, String path, byte[] content) throws IOException {
+    File file = new File(dir, path);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content);
+    payload.put("data/" + path, content);
+  }
+}
@@ -0,0 +1,127 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EmptyDirectoryPrunerTest {
+  private static final String DATA = "data";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path bagDir;
+  private final EmptyDirectoryPruner pruner = new EmptyDirectoryPruner();
+
+  @Before
+  public void setUp() throws IOException {
+    bagDir = folder.newFolder("bag").toPath();
+    Files.createDirectories(bagDir.resolve(DATA));
+  }
+
+  @Test
+  public void deletesTheDirectoriesAFileLeftEmpty() throws IOException {
+    createFile("data/a/keep.txt");
+    createFile("data/a/b/c/gone.txt");
+    createDirectory("data/a/b/untracked");
+    delete("data/a/b/c/gone.txt");
+    pruner.fileRemoved("data/a/b/c/gone.txt");
+
+    assertEquals(1, pruner.prune(bagDir, DATA));
+    assertFalse(exists("data/a/b/c"));
+    // not tracked, so not looked into, and b still holds it
+    assertTrue(exists("data/a/b/untracked"));
+    assertTrue(exists("data/a/keep.txt"));
+  }
+
+  @Test
+  public void deletesEmptyParentsUpToTheDataDirectory() throws IOException {
+    createFile("data/a/b/c/gone.txt");
+    delete("data/a/b/c/gone.txt");
+    pruner.fileRemoved("data/a/b/c/gone.txt");
+
+    assertEquals(3, pruner.prune(bagDir, DATA));
+    assertFalse(exists("data/a"));
+    assertTrue(exists(DATA));
+  }
+
+  @Test
+  public void deletesEmptyDirectoriesUnderARemovedDirectory() throws IOException {
+    createDirectory("data/a/b/c");
+    createDirectory("data/a/d");
+    createFile("data/a/e/kept.txt");
+    pruner.directoryRemoved("data/a");
+
+    assertEquals(3, pruner.prune(bagDir, DATA));
+    assertFalse(exists("data/a/b"));
+    assertFalse(exists("data/a/d"));
+    assertTrue(exists("data/a/e/kept.txt"));
+  }
+
+  @Test
+  public void keepsTheDataDirectoryAndWhatLiesOutsideIt() throws IOException {
+    createFile("data/gone.txt");
+    createDirectory("other/empty");
+    delete("data/gone.txt");
+    pruner.fileRemoved("data/gone.txt");
+    pruner.directoryRemoved("other");
+    pruner.fileRemoved("other/empty/gone.txt");
+
+    assertEquals(0, pruner.prune(bagDir, DATA));
+    assertTrue(exists(DATA));
+    assertTrue(exists("other/empty"));
+  }
+
+  @Test
+  public void forgetsWhatWasTrackedWhenCleared() throws IOException {
+    createDirectory("data/a");
+    pruner.directoryRemoved("data/a");
+    assertFalse(pruner.isEmpty());
+    pruner.clear();
+    assertTrue(pruner.isEmpty());
+
+    assertEquals(0, pruner.prune(bagDir, DATA));
+    assertTrue(exists("data/a"));
+  }
+
+  @Test
+  public void prunesEverythingUnderTheDataDirectory() throws IOException {
+    createDirectory("data/a/b");
+    createDirectory("data/c");
+    createFile("data/d/e/kept.txt");
+
+    assertEquals(3, EmptyDirectoryPruner.pruneAll(bagDir.resolve(DATA)));
+    assertTrue(exists(DATA));
+    assertFalse(exists("data/a"));
+    assertFalse(exists("data/c"));
+    assertTrue(exists("data/d/e/kept.txt"));
+  }
+
+  private void createFile(String path) throws IOException {
+    Path file = bagDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[] { 1 });
+  }
+
+  private void createDirectory(String path) throws IOException {
+    Files.createDirectories(bagDir.resolve(path));
+  }
+
+  private void delete(String path) throws IOException {
+    Files.delete(bagDir.resolve(path));
+  }
+
+  private boolean exists(String path) {
+    return new File(bagDir.toFile(), path).exists();
+  }
+}
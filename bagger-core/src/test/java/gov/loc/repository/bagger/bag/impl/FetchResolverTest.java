@@ -0,0 +1,181 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.FetchTxt;
+import gov.loc.repository.bagit.FetchTxt.FetchStatus;
+import gov.loc.repository.bagit.FetchTxt.FilenameSizeUrl;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.utilities.SimpleResult;
+
+public class FetchResolverTest {
+  private static final String DATA = "data";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FetchTestServer server;
+  private FetchResolver resolver;
+  private File bagDir;
+  private FetchTxt fetchTxt;
+  private final Map<String, Map<Algorithm, String>> fixities = new HashMap<>();
+  private final AtomicLong bytes = new AtomicLong();
+
+  @Before
+  public void setUp() throws IOException {
+    server = new FetchTestServer();
+    bagDir = folder.newFolder("bag");
+    fetchTxt = new BagFactory().createBag().getBagPartFactory().createFetchTxt();
+    resolver = new FetchResolver();
+    resolver.setRetryDelay(0, 0);
+    resolver.setMaxAttempts(5);
+    // a truncated response is noticed by the socket timeout at the latest
+    resolver.setTimeouts(5000, 1000);
+    resolver.addProgressListener(new ByteProgressListener() {
+      @Override
+      public void reportProgress(String activity, Object item, Long count, Long total) {
+      }
+
+      @Override
+      public void reportBytes(String activity, long count) {
+        bytes.addAndGet(count);
+      }
+
+      @Override
+      public void reportByteTotal(String activity, long total) {
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    server.close();
+  }
+
+  @Test
+  public void retriesWhileTheServerIsUnavailable() throws IOException {
+    byte[] content = content(4000);
+    FetchTestServer.Resource resource = server.serve("/a", content).unavailable(2);
+    FilenameSizeUrl entry = add("data/a", content, "/a");
+
+    assertTrue(resolve().isSuccess());
+    assertEquals(FetchStatus.SUCCEEDED, entry.getFetchStatus());
+    assertEquals(3, resource.getRequests());
+    assertArrayEquals(content, Files.readAllBytes(new File(bagDir, "data/a").toPath()));
+  }
+
+  @Test
+  public void resumesATruncatedDownload() throws IOException {
+    byte[] content = content(4000);
+    FetchTestServer.Resource resource = server.serve("/a", content).truncateAfter(1000);
+    FilenameSizeUrl entry = add("data/a", content, "/a");
+
+    assertTrue(resolve().isSuccess());
+    assertEquals(FetchStatus.SUCCEEDED, entry.getFetchStatus());
+    assertEquals(Collections.singletonList("bytes=1000-"), resource.getRanges());
+    assertArrayEquals(content, Files.readAllBytes(new File(bagDir, "data/a").toPath()));
+    assertFalse(new File(bagDir, "data/a" + FetchResolver.PARTIAL_SUFFIX).exists());
+    assertEquals(content.length, bytes.get());
+  }
+
+  @Test
+  public void startsOverWhenRangesAreIgnored() throws IOException {
+    byte[] content = content(4000);
+    server.serve("/a", content).truncateAfter(1000).ignoreRanges();
+    FilenameSizeUrl entry = add("data/a", content, "/a");
+
+    assertTrue(resolve().isSuccess());
+    assertEquals(FetchStatus.SUCCEEDED, entry.getFetchStatus());
+    assertArrayEquals(content, Files.readAllBytes(new File(bagDir, "data/a").toPath()));
+    // the kept 1000 bytes were received again, not added on top
+    assertEquals(content.length, bytes.get());
+  }
+
+  @Test
+  public void keepsNoTamperedFile() throws IOException {
+    byte[] content = content(4000);
+    byte[] tampered = content.clone();
+    tampered[2000] ^= 1;
+    server.serve("/a", tampered);
+    FilenameSizeUrl entry = add("data/a", content, "/a");
+
+    assertFalse(resolve().isSuccess());
+    assertEquals(FetchStatus.VERIFY_FAILED, entry.getFetchStatus());
+    assertFalse(new File(bagDir, "data/a").exists());
+    assertFalse(new File(bagDir, "data/a" + FetchResolver.PARTIAL_SUFFIX).exists());
+  }
+
+  @Test
+  public void fetchesNothingOutsideThePayload() throws IOException {
+    byte[] bagit = "BagIt-Version: 0.97\n".getBytes(StandardCharsets.UTF_8);
+    Files.write(new File(bagDir, "bagit.txt").toPath(), bagit);
+    byte[] content = content(100);
+    FetchTestServer.Resource resource = server.serve("/a", content);
+    FilenameSizeUrl tag = add("bagit.txt", content, "/a");
+    FilenameSizeUrl escaping = add("data/../manifest-md5.txt", content, "/a");
+
+    assertFalse(resolve().isSuccess());
+    assertEquals(FetchStatus.FETCH_FAILED, tag.getFetchStatus());
+    assertEquals(FetchStatus.FETCH_FAILED, escaping.getFetchStatus());
+    assertEquals(0, resource.getRequests());
+    assertArrayEquals(bagit, Files.readAllBytes(new File(bagDir, "bagit.txt").toPath()));
+    assertFalse(new File(bagDir, "manifest-md5.txt").exists());
+  }
+
+  @Test
+  public void warnsAboutAFileInNoManifest() throws IOException {
+    byte[] content = content(100);
+    server.serve("/a", content);
+    FilenameSizeUrl entry = new FilenameSizeUrl("data/a", (long) content.length, server.url("/a"));
+    fetchTxt.add(entry);
+
+    SimpleResult result = resolve();
+    assertTrue(result.isSuccess());
+    assertEquals(FetchStatus.SUCCEEDED, entry.getFetchStatus());
+    assertEquals(1, resolver.getWarnings().size());
+  }
+
+  private SimpleResult resolve() {
+    return resolver.resolve(fetchTxt, fixities, bagDir, DATA);
+  }
+
+  /*
+   * Lists <code>content</code> as <code>filename</code> in the fetch.txt and
+   * the manifest, to be fetched from <code>path</code> on the server.
+   */
+  private FilenameSizeUrl add(String filename, byte[] content, String path) {
+    FilenameSizeUrl entry = new FilenameSizeUrl(filename, (long) content.length, server.url(path));
+    fetchTxt.add(entry);
+    fixities.put(filename,
+        MultiDigestHelper.generateFixities(new ByteArrayInputStream(content), Arrays.asList(Algorithm.MD5)));
+    return entry;
+  }
+
+  private static byte[] content(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+}
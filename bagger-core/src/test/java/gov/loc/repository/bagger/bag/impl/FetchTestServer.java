@@ -0,0 +1,170 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An http server on a free local port standing in for the hosts a fetch.txt
+ * points at. Each file served can be made to fail in the ways real servers
+ * do: answering 503 for a while, breaking off a download, ignoring range
+ * requests, or sending something other than what the manifest lists.
+ */
+class FetchTestServer implements Closeable {
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+
+  FetchTestServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          Resource resource = resources.get(exchange.getRequestURI().getPath());
+          if (resource == null) {
+            exchange.sendResponseHeaders(404, -1);
+          }
+          else {
+            resource.handle(exchange);
+          }
+        }
+        finally {
+          exchange.close();
+        }
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Serves <code>content</code> at <code>path</code>.
+   */
+  Resource serve(String path, byte[] content) {
+    Resource resource = new Resource(content);
+    resources.put(path, resource);
+    return resource;
+  }
+
+  String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  static class Resource {
+    private final byte[] content;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private int unavailable = 0;
+    private int truncateAfter = -1;
+    private boolean acceptRanges = true;
+
+    Resource(byte[] content) {
+      this.content = content;
+    }
+
+    /**
+     * Answers the next <code>count</code> requests with 503.
+     */
+    synchronized Resource unavailable(int count) {
+      unavailable = count;
+      return this;
+    }
+
+    /**
+     * Breaks off the next response after <code>bytes</code> bytes of its
+     * body, although the whole length was announced. Nothing more is sent,
+     * as from a stalled server, so the client notices through its socket
+     * timeout if the connection is not closed first.
+     */
+    synchronized Resource truncateAfter(int bytes) {
+      truncateAfter = bytes;
+      return this;
+    }
+
+    /**
+     * Sends the whole file whatever range is asked for.
+     */
+    synchronized Resource ignoreRanges() {
+      acceptRanges = false;
+      return this;
+    }
+
+    int getRequests() {
+      return requests.get();
+    }
+
+    /**
+     * The Range headers received, in order.
+     */
+    List<String> getRanges() {
+      return ranges;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      if (range != null) {
+        ranges.add(range);
+      }
+      int cut;
+      boolean ranged;
+      synchronized (this) {
+        if (unavailable > 0) {
+          unavailable--;
+          exchange.sendResponseHeaders(503, -1);
+          return;
+        }
+        cut = truncateAfter;
+        truncateAfter = -1;
+        ranged = acceptRanges && range != null;
+      }
+
+      int start = 0;
+      int status = 200;
+      if (ranged) {
+        start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+        if (start >= content.length) {
+          exchange.sendResponseHeaders(416, -1);
+          return;
+        }
+        status = 206;
+        exchange.getResponseHeaders().set("Content-Range",
+            "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+      }
+      int length = content.length - start;
+      exchange.sendResponseHeaders(status, length);
+      OutputStream out = exchange.getResponseBody();
+      if (cut >= 0 && cut < length) {
+        out.write(content, start, cut);
+        out.flush();
+        try {
+          out.close();
+        }
+        catch (IOException e) {
+          // short of the announced length
+        }
+        return;
+      }
+      out.write(content, start, length);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.impl.FileBagFile;
+
+public class FixityCacheTest {
+  private static final String FILEPATH = "data/a.txt";
+  private static final List<Algorithm> ALGORITHMS = Arrays.asList(Algorithm.MD5, Algorithm.SHA1);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private String previousDirectory;
+  private File bagDir;
+  private File file;
+  private BagFile bagFile;
+
+  @Before
+  public void setUp() throws IOException {
+    previousDirectory = System.getProperty(FixityCache.DIRECTORY_PROPERTY);
+    System.setProperty(FixityCache.DIRECTORY_PROPERTY, folder.newFolder("cache").getPath());
+    bagDir = folder.newFolder("bag");
+    file = new File(bagDir, FILEPATH);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), "some content".getBytes(StandardCharsets.UTF_8));
+    // well in the past, so that a rewrite is seen even on coarse clocks
+    file.setLastModified(file.lastModified() - 60000);
+    bagFile = new FileBagFile(FILEPATH, file);
+  }
+
+  @After
+  public void tearDown() {
+    if (previousDirectory == null) {
+      System.clearProperty(FixityCache.DIRECTORY_PROPERTY);
+    }
+    else {
+      System.setProperty(FixityCache.DIRECTORY_PROPERTY, previousDirectory);
+    }
+  }
+
+  @Test
+  public void keepsTheDigestsOfAnUnchangedFile() throws IOException {
+    Map<Algorithm, String> fixities = saveHashed();
+
+    FixityCache cache = FixityCache.load(bagDir);
+    assertEquals(1, cache.size());
+    assertEquals(fixities, cache.getFixities(bagFile, ALGORITHMS));
+    assertEquals(fixities.get(Algorithm.MD5), cache.getFixities(bagFile, Arrays.asList(Algorithm.MD5)).get(Algorithm.MD5));
+    // an algorithm that was not recorded has to be read for
+    assertNull(cache.getFixities(bagFile, Arrays.asList(Algorithm.SHA256)));
+  }
+
+  @Test
+  public void dropsAFileWhoseModificationTimeChanged() throws IOException {
+    saveHashed();
+    file.setLastModified(file.lastModified() + 2000);
+    assertNull(FixityCache.load(bagDir).getFixities(bagFile, ALGORITHMS));
+  }
+
+  @Test
+  public void dropsAFileWhoseSizeChanged() throws IOException {
+    saveHashed();
+    long modified = file.lastModified();
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write('!');
+    }
+    file.setLastModified(modified);
+    assertNull(FixityCache.load(bagDir).getFixities(bagFile, ALGORITHMS));
+  }
+
+  @Test
+  public void leavesOutAFileChangedWhileItWasHashed() throws IOException {
+    FixityCache.Entry before = FixityCache.stat(file);
+    Map<Algorithm, String> fixities = MultiDigestHelper.generateFixities(bagFile, ALGORITHMS);
+    Files.write(file.toPath(), "other content".getBytes(StandardCharsets.UTF_8));
+    FixityCache.Recorder recorder = new FixityCache.Recorder();
+    recorder.record(file, before, fixities);
+    assertNull(recorder.get(file));
+
+    FixityCache cache = new FixityCache(bagDir);
+    cache.put(FILEPATH, file, recorder);
+    cache.save();
+    assertEquals(0, FixityCache.load(bagDir).size());
+  }
+
+  @Test
+  public void keepsCachesOfBagsApart() throws IOException {
+    saveHashed();
+    File otherDir = folder.newFolder("other");
+    assertEquals(0, FixityCache.load(otherDir).size());
+    assertEquals(new File(folder.getRoot(), "cache"), FixityCache.getCacheFile(bagDir).getParentFile());
+  }
+
+  @Test
+  public void ignoresAnUnreadableCache() throws IOException {
+    saveHashed();
+    Files.write(FixityCache.getCacheFile(bagDir).toPath(),
+        Collections.singletonList("# bagger fixity cache v1\nnot\ta\tnumber\tmd5:00\tdata/a.txt"), StandardCharsets.UTF_8);
+    assertEquals(0, FixityCache.load(bagDir).size());
+  }
+
+  /*
+   * Hashes the file as a save does and stores the result in the cache of
+   * the bag.
+   */
+  private Map<Algorithm, String> saveHashed() throws IOException {
+    FixityCache.Recorder recorder = new FixityCache.Recorder();
+    FixityCache.Entry before = FixityCache.stat(file);
+    Map<Algorithm, String> fixities = MultiDigestHelper.generateFixities(bagFile, ALGORITHMS);
+    recorder.record(file, before, fixities);
+    assertNotNull(recorder.get(file));
+
+    FixityCache cache = new FixityCache(bagDir);
+    cache.put(FILEPATH, file, recorder);
+    cache.save();
+    return fixities;
+  }
+}
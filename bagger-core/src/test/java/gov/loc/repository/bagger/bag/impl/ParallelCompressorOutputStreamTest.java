@@ -0,0 +1,102 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.junit.Test;
+
+public class ParallelCompressorOutputStreamTest {
+
+  @Test
+  public void gzipsOnOneThread() throws IOException {
+    byte[] content = ArchiveTestBags.content(3 * ParallelGzipOutputStream.BLOCK_SIZE + 17);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(new ParallelGzipOutputStream(out, 6, 1), content);
+    assertArrayEquals(content, gunzip(out.toByteArray()));
+  }
+
+  @Test
+  public void gzipsOnSeveralThreads() throws IOException {
+    // more blocks than are let in flight at once
+    byte[] content = ArchiveTestBags.content(40 * ParallelGzipOutputStream.BLOCK_SIZE + 17);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(new ParallelGzipOutputStream(out, 6, 4), content);
+    assertArrayEquals(content, gunzip(out.toByteArray()));
+  }
+
+  @Test
+  public void gzipsBlocksThatEndExactly() throws IOException {
+    byte[] content = ArchiveTestBags.content(2 * ParallelGzipOutputStream.BLOCK_SIZE);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(new ParallelGzipOutputStream(out, 6, 2), content);
+    assertArrayEquals(content, gunzip(out.toByteArray()));
+  }
+
+  @Test
+  public void gzipsNothing() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ParallelGzipOutputStream(out, 6, 2).close();
+    assertEquals(0, gunzip(out.toByteArray()).length);
+  }
+
+  @Test
+  public void bzip2sOnSeveralThreads() throws IOException {
+    byte[] content = ArchiveTestBags.content(2 * ParallelBzip2OutputStream.BLOCK_SIZE + 17);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(new ParallelBzip2OutputStream(out, 4), content);
+    assertArrayEquals(content, bunzip2(out.toByteArray()));
+  }
+
+  @Test
+  public void bzip2sNothing() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ParallelBzip2OutputStream(out, 2).close();
+    assertEquals(0, bunzip2(out.toByteArray()).length);
+  }
+
+  @Test(expected = IOException.class)
+  public void refusesWritesAfterFinish() throws IOException {
+    ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(new ByteArrayOutputStream(), 6, 2);
+    gzip.finish();
+    gzip.write(1);
+  }
+
+  /*
+   * Writes content in uneven pieces with a flush part way through, so that
+   * pieces straddle the blocks.
+   */
+  private static void write(ParallelCompressorOutputStream out, byte[] content) throws IOException {
+    int offset = 0;
+    int piece = 1;
+    while (offset < content.length) {
+      int n = Math.min(piece, content.length - offset);
+      out.write(content, offset, n);
+      offset += n;
+      piece = piece * 3 + 1;
+      if (piece > 100000) {
+        out.flush();
+        piece = 7;
+      }
+    }
+    out.close();
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return ArchiveTestBags.read(in);
+    }
+  }
+
+  private static byte[] bunzip2(byte[] compressed) throws IOException {
+    try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), true)) {
+      return ArchiveTestBags.read(in);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+
+public class ParallelTarWriterTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BagFactory bagFactory = new BagFactory();
+
+  @Test
+  public void writesATarBagThatReadsBack() throws IOException {
+    roundTrip("bag.tar", TarArchive.Compression.NONE);
+  }
+
+  @Test
+  public void writesATarGzBagThatReadsBack() throws IOException {
+    roundTrip("bag.tar.gz", TarArchive.Compression.GZIP);
+  }
+
+  @Test
+  public void writesATarBz2BagThatReadsBack() throws IOException {
+    roundTrip("bag.tar.bz2", TarArchive.Compression.BZIP2);
+  }
+
+  private void roundTrip(String name, TarArchive.Compression compression) throws IOException {
+    File payloadDir = folder.newFolder("payload");
+    Map<String, byte[]> payload = ArchiveTestBags.createPayload(payloadDir);
+    File file = new File(folder.getRoot(), name);
+    ArchiveTestBags.write(new ParallelTarWriter(bagFactory, compression), ArchiveTestBags.createBag(bagFactory, payloadDir),
+        file, bagFactory, Collections.<String, Map<Algorithm, String>> emptyMap());
+
+    TarArchive archive = new TarArchive(file);
+    assertEquals(compression, archive.getCompression());
+    Map<String, byte[]> entries = new HashMap<>();
+    try (TarArchiveInputStream in = archive.openStream()) {
+      TarArchiveEntry entry;
+      while ((entry = in.getNextTarEntry()) != null) {
+        if (entry.isFile()) {
+          entries.put(entry.getName(), ArchiveTestBags.read(in));
+        }
+      }
+    }
+    for (Map.Entry<String, byte[]> e : payload.entrySet()) {
+      assertArrayEquals(e.getKey(), e.getValue(), entries.get("bag/" + e.getKey()));
+    }
+    assertTrue(entries.containsKey("bag/bagit.txt"));
+    assertTrue(entries.containsKey("bag/manifest-sha256.txt"));
+
+    try {
+      Bag bag = archive.load(bagFactory);
+      assertEquals("bag/", archive.getPrefix());
+      assertEquals(payload.size(), bag.getPayload().size());
+      for (Map.Entry<String, byte[]> e : payload.entrySet()) {
+        assertArrayEquals(e.getKey(), e.getValue(), ArchiveTestBags.read(bag.getBagFile(e.getKey())));
+      }
+      assertEquals(ArchiveTestBags.ALGORITHMS.size(), bag.getPayloadManifests().size());
+      assertTrue(new StreamingBagVerifier(file).verify(bag).isSuccess());
+    }
+    finally {
+      archive.close();
+    }
+  }
+}
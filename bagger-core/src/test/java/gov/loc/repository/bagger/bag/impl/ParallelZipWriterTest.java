@@ -0,0 +1,123 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.impl.StringBagFile;
+
+public class ParallelZipWriterTest {
+  private static final int ZIP64_ENTRIES = 0xFFFF;
+  private static final int ZIP64_LOCATOR = 0x07064b50;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BagFactory bagFactory = new BagFactory();
+
+  @Test
+  public void writesABagThatReadsBack() throws IOException {
+    File payloadDir = folder.newFolder("payload");
+    Map<String, byte[]> payload = ArchiveTestBags.createPayload(payloadDir);
+    File file = new File(folder.getRoot(), "bag.zip");
+    ArchiveTestBags.write(new ParallelZipWriter(bagFactory), ArchiveTestBags.createBag(bagFactory, payloadDir), file,
+        bagFactory, Collections.<String, Map<Algorithm, String>> emptyMap());
+
+    try (ZipFile zip = new ZipFile(file)) {
+      for (Map.Entry<String, byte[]> e : payload.entrySet()) {
+        ZipEntry entry = zip.getEntry("bag/" + e.getKey());
+        assertArrayEquals(e.getKey(), e.getValue(), ArchiveTestBags.read(zip.getInputStream(entry)));
+      }
+      assertEquals(ZipEntry.STORED, zip.getEntry("bag/data/photo.jpg").getMethod());
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry("bag/data/big.bin").getMethod());
+    }
+
+    Bag bag = bagFactory.createBag(file);
+    try {
+      assertEquals(payload.size(), bag.getPayload().size());
+      for (Map.Entry<String, byte[]> e : payload.entrySet()) {
+        assertArrayEquals(e.getKey(), e.getValue(), ArchiveTestBags.read(bag.getBagFile(e.getKey())));
+      }
+      assertEquals(ArchiveTestBags.ALGORITHMS.size(), bag.getPayloadManifests().size());
+      assertTrue(new StreamingBagVerifier(file).verify(bag).isSuccess());
+    }
+    finally {
+      bag.close();
+    }
+  }
+
+  @Test
+  public void givesLargeEntriesZip64Sizes() {
+    assertFalse(ParallelZipWriter.needsZip64(0));
+    assertFalse(ParallelZipWriter.needsZip64(4000000000L));
+    // an incompressible file this close to 4 GB could grow past it
+    assertTrue(ParallelZipWriter.needsZip64(4260000000L));
+    assertTrue(ParallelZipWriter.needsZip64(0xFFFFFFFFL));
+    assertTrue(ParallelZipWriter.needsZip64(10000000000L));
+  }
+
+  @Test
+  public void writesAZip64EndRecordOnlyForTooManyEntries() throws IOException {
+    File below = writeEntries(ZIP64_ENTRIES - 1);
+    assertFalse(hasZip64Locator(below));
+    assertEquals(ZIP64_ENTRIES - 1, countEntries(below));
+
+    File at = writeEntries(ZIP64_ENTRIES);
+    assertTrue(hasZip64Locator(at));
+    assertEquals(ZIP64_ENTRIES, countEntries(at));
+  }
+
+  /*
+   * A zip of count entries, all tiny payload files but for any tag files a
+   * new bag comes with.
+   */
+  private File writeEntries(int count) throws IOException {
+    Bag bag = bagFactory.createBag();
+    for (int i = bag.getTags().size(); i < count; i++) {
+      bag.putBagFile(new StringBagFile("data/" + i + ".txt", Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+    }
+    File file = new File(folder.getRoot(), count + ".zip");
+    ParallelZipWriter writer = new ParallelZipWriter(bagFactory);
+    writer.setBagDir("bag");
+    writer.setThreads(2);
+    writer.write(bag, file).close();
+    return file;
+  }
+
+  private static int countEntries(File file) throws IOException {
+    try (ZipFile zip = new ZipFile(file)) {
+      ZipEntry last = zip.getEntry("bag/data/" + (zip.size() - 1) + ".txt");
+      assertEquals(Integer.toString(zip.size() - 1),
+          new String(ArchiveTestBags.read(zip.getInputStream(last)), StandardCharsets.UTF_8));
+      return zip.size();
+    }
+  }
+
+  /*
+   * The ZIP64 end of central directory locator sits right before the classic
+   * end record, which has no comment here.
+   */
+  private static boolean hasZip64Locator(File file) throws IOException {
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      in.seek(in.length() - 22 - 20);
+      return Integer.reverseBytes(in.readInt()) == ZIP64_LOCATOR;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PayloadPathIndexTest {
+  private static final List<String> PATHS = Arrays.asList("data/b/2.txt", "data/a.txt", "data/b/1.txt", "data/b/c/3.txt",
+      "data/b-c.txt", "data/d/4.txt", "data/a.txt");
+
+  private PayloadPathIndex index;
+
+  @Before
+  public void setUp() {
+    index = PayloadPathIndex.build(PATHS);
+  }
+
+  @Test
+  public void sortsAndDropsDuplicates() {
+    assertEquals(Arrays.asList("data/a.txt", "data/b-c.txt", "data/b/1.txt", "data/b/2.txt", "data/b/c/3.txt",
+        "data/d/4.txt"), toList(index));
+    assertEquals(6, index.size());
+    assertEquals("data/b/1.txt", index.get(2));
+    assertEquals(2, index.indexOf("data/b/1.txt"));
+    assertEquals(-1, index.indexOf("data/b/9.txt"));
+    assertEquals(-1, index.indexOf("data/b"));
+  }
+
+  @Test
+  public void listsTheChildrenOfADirectory() {
+    assertEquals(Arrays.asList("a.txt", "b-c.txt", "b/", "d/"), index.children("data"));
+    assertEquals(Arrays.asList("1.txt", "2.txt", "c/"), index.children("data/b/"));
+    assertEquals(Collections.singletonList("3.txt"), index.children("data/b/c"));
+    assertEquals(Collections.<String> emptyList(), index.children("data/e"));
+    assertEquals(Arrays.asList("data/b/1.txt", "data/b/2.txt", "data/b/c/3.txt"), index.list("data/b"));
+    assertTrue(index.isDirectory("data/b"));
+    assertFalse(index.isDirectory("data/a.txt"));
+  }
+
+  @Test
+  public void removesFiles() {
+    assertTrue(index.remove("data/b/2.txt"));
+    assertFalse(index.remove("data/b/2.txt"));
+    assertFalse(index.remove("data/b/9.txt"));
+
+    assertEquals(5, index.size());
+    assertFalse(index.contains("data/b/2.txt"));
+    assertEquals(Arrays.asList("1.txt", "c/"), index.children("data/b"));
+    assertEquals(Arrays.asList("data/a.txt", "data/b-c.txt", "data/b/1.txt", "data/b/c/3.txt", "data/d/4.txt"),
+        toList(index));
+  }
+
+  @Test
+  public void removesDirectories() {
+    assertEquals(1, index.removeDirectory("data/d"));
+    assertEquals(0, index.removeDirectory("data/d"));
+    assertFalse(index.isDirectory("data/d"));
+    assertEquals(Arrays.asList("a.txt", "b-c.txt", "b/"), index.children("data"));
+
+    assertEquals(3, index.removeDirectory("data/b/"));
+    // a file sharing the prefix without the slash is kept
+    assertTrue(index.contains("data/b-c.txt"));
+    assertEquals(Arrays.asList("data/a.txt", "data/b-c.txt"), toList(index));
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  public void countsPositionsAmongTheFilesLeft() {
+    for (int position = 0; position < index.size(); position++) {
+      String path = index.get(index.idAt(position));
+      assertEquals(position, index.positionOf(path));
+    }
+
+    index.remove("data/a.txt");
+    index.remove("data/b/2.txt");
+    assertEquals(-1, index.positionOf("data/a.txt"));
+    assertEquals(0, index.positionOf("data/b-c.txt"));
+    assertEquals(1, index.positionOf("data/b/1.txt"));
+    assertEquals(2, index.positionOf("data/b/c/3.txt"));
+    assertEquals(3, index.positionOf("data/d/4.txt"));
+    List<String> byPosition = new ArrayList<>();
+    for (int position = 0; position < index.size(); position++) {
+      byPosition.add(index.get(index.idAt(position)));
+    }
+    assertEquals(toList(index), byPosition);
+  }
+
+  @Test
+  public void findsPathsPastTheFirstBlock() {
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      paths.add(String.format("data/%02d/file-%04d.txt", i % 37, i));
+    }
+    paths.add("data/\u00e9t\u00e9.txt");
+    PayloadPathIndex large = PayloadPathIndex.build(paths);
+    List<String> sorted = new ArrayList<>(paths);
+    Collections.sort(sorted);
+
+    assertEquals(sorted, toList(large));
+    for (String path : paths) {
+      assertEquals(path, sorted.indexOf(path), large.indexOf(path));
+    }
+    assertEquals(37 + 1, large.children("data").size());
+    assertEquals(27, large.removeDirectory("data/36"));
+    assertEquals(1000 + 1 - 27, large.size());
+    assertEquals(sorted.indexOf("data/\u00e9t\u00e9.txt") - 27, large.positionOf("data/\u00e9t\u00e9.txt"));
+  }
+
+  private static List<String> toList(Iterable<String> paths) {
+    List<String> list = new ArrayList<>();
+    for (String path : paths) {
+      list.add(path);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,84 @@
+package gov.loc.repository.bagger.bag.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.Manifest.Algorithm;
+import gov.loc.repository.bagit.utilities.SimpleResult;
+
+public class StreamingBagVerifierTest {
+  private static final String WRONG_FILE = "data/nested/deeper/text file.txt";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BagFactory bagFactory = new BagFactory();
+
+  @Test
+  public void supportsZipAndTarFilesOnly() throws IOException {
+    assertTrue(StreamingBagVerifier.isSupported(folder.newFile("bag.zip")));
+    assertTrue(StreamingBagVerifier.isSupported(folder.newFile("bag.tar")));
+    assertTrue(StreamingBagVerifier.isSupported(folder.newFile("bag.tgz")));
+    assertTrue(StreamingBagVerifier.isSupported(folder.newFile("bag.tar.bz2")));
+    assertFalse(StreamingBagVerifier.isSupported(folder.newFile("bag.txt")));
+    assertFalse(StreamingBagVerifier.isSupported(folder.newFolder("bag")));
+  }
+
+  @Test
+  public void findsAWrongDigestInAZip() throws IOException {
+    File file = new File(folder.getRoot(), "bag.zip");
+    write(new ParallelZipWriter(bagFactory), file);
+    Bag bag = bagFactory.createBag(file);
+    try {
+      assertWrongFileFound(new StreamingBagVerifier(file).verify(bag));
+    }
+    finally {
+      bag.close();
+    }
+  }
+
+  @Test
+  public void findsAWrongDigestInATarGz() throws IOException {
+    File file = new File(folder.getRoot(), "bag.tar.gz");
+    write(new ParallelTarWriter(bagFactory, TarArchive.Compression.GZIP), file);
+    TarArchive archive = new TarArchive(file);
+    try {
+      assertWrongFileFound(new StreamingBagVerifier(file).verify(archive.load(bagFactory)));
+    }
+    finally {
+      archive.close();
+    }
+  }
+
+  /*
+   * Writes the test payload with a manifest that lists a wrong digest for
+   * one file.
+   */
+  private void write(StreamingBagWriter writer, File file) throws IOException {
+    File payloadDir = folder.newFolder("payload");
+    ArchiveTestBags.createPayload(payloadDir);
+    Map<Algorithm, String> wrong = new EnumMap<>(Algorithm.class);
+    wrong.put(Algorithm.MD5, "00000000000000000000000000000000");
+    wrong.put(Algorithm.SHA256, "0000000000000000000000000000000000000000000000000000000000000000");
+    ArchiveTestBags.write(writer, ArchiveTestBags.createBag(bagFactory, payloadDir), file, bagFactory,
+        Collections.singletonMap(WRONG_FILE, wrong));
+  }
+
+  private static void assertWrongFileFound(SimpleResult result) {
+    assertFalse(result.isSuccess());
+    assertTrue(result.toString(), result.toString().contains(WRONG_FILE));
+    assertFalse(result.toString(), result.toString().contains("data/big.bin"));
+  }
+}
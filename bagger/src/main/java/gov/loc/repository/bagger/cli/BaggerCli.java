@@ -0,0 +1,278 @@
+package gov.loc.repository.bagger.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.domain.JSonBagger;
+import gov.loc.repository.bagger.profile.BaggerProfileStore;
+
+/**
+ * Command line entry point for running Bagger on machines without a display.
+ * It never touches the rich client application context, Swing or VLDocking;
+ * every result is written to standard out as JSON and summarized in the exit
+ * code.
+ */
+public class BaggerCli {
+  static {
+    // must run before the first logger is created; keeps the GUI's groovy
+    // configuration (and its log files) out of headless runs
+    if (System.getProperty("logback.configurationFile") == null) {
+      System.setProperty("logback.configurationFile", "logback-cli.xml");
+    }
+  }
+
+  protected static final Logger log = LoggerFactory.getLogger(BaggerCli.class);
+
+  public static final int EXIT_OK = 0;
+  public static final int EXIT_FAILED = 1;
+  public static final int EXIT_USAGE = 2;
+  public static final int EXIT_ERROR = 3;
+
+  private static final String USAGE = "usage: bagger-cli <command> [options] <path>\n"
+      + "commands:\n"
+      + "  create <dir>          make a bag in place from a directory and write it\n"
+      + "  save <bag>            rewrite an existing bag\n"
+      + "  validate <bag>        check completeness and every payload checksum\n"
+      + "  complete <bag>        check that the bag is complete\n"
+      + "  check-profile <bag>   check bag-info.txt against a profile\n"
+      + "  fetch <bag>           download the files listed in fetch.txt into the bag\n"
+      + "  batch <manifest>      create bags for every directory listed in the manifest\n"
+      + "                        (one per line, optionally followed by a tab and a profile)\n"
+      + "  profiles              list the known profiles\n"
+      + "options:\n"
+      + "  --profile <name>              profile used by create and check-profile\n"
+      + "  --serialize <format>          none, zip, tar, tar.gz or tar.bz2 (default none)\n"
+      + "  --to <path>                   write the bag here and leave the source untouched\n"
+      + "                                (batch writes each bag to <path>/<dirname>)\n"
+      + "  --payload-algorithms <a,b>    payload manifest algorithms, e.g. md5,sha256\n"
+      + "  --tag-algorithms <a,b>        tag manifest algorithms\n"
+      + "  --threads <n>                 checksum threads (default: number of cores)\n"
+      + "  --keep-empty-folders          add .keep files to empty payload folders (create in place only)\n"
+      + "  --validate                    validate after writing\n"
+      + "  --workers <n>                 bags written at once by batch (default: from cores and disks)\n"
+      + "  --retries <n>                 batch retries for a directory that errored (default 1)\n"
+      + "  --report <file>               also write the batch summary to this file\n"
+      + "  --fetch-threads <n>           files downloaded at once by fetch (default 8)\n"
+      + "  --connections-per-host <n>    files downloaded at once from one host (default 2)\n"
+      + "  --pretty                      indent the JSON output\n"
+      + "exit codes: 0 pass, 1 check failed, 2 usage error, 3 error";
+
+  private final PrintStream out;
+  private HeadlessBagger bagger;
+
+  private String command;
+  private File path;
+  private String profileName;
+  private boolean pretty = false;
+  private int workers = 0;
+  private int retries = 1;
+  private File report;
+  private int fetchThreads = 0;
+  private int connectionsPerHost = 0;
+  private final SaveOptions options = new SaveOptions();
+
+  public BaggerCli(PrintStream out) {
+    this.out = out;
+  }
+
+  public static void main(String[] args) {
+    System.exit(new BaggerCli(System.out).run(args));
+  }
+
+  public int run(String[] args) {
+    try {
+      parse(args);
+    }
+    catch (IllegalArgumentException e) {
+      JSONObject json = new JSONObject();
+      json.put("status", CommandResult.ERROR);
+      json.put("messages", e.getMessage() + "\n" + USAGE);
+      print(json);
+      return EXIT_USAGE;
+    }
+
+    bagger = new HeadlessBagger(new BaggerProfileStore(new JSonBagger()));
+    if ("profiles".equals(command)) {
+      JSONObject json = new JSONObject();
+      json.put("command", command);
+      json.put("status", CommandResult.PASS);
+      json.put("profiles", new JSONArray(Arrays.asList(bagger.getProfileStore().getProfileNames())));
+      print(json);
+      return EXIT_OK;
+    }
+
+    CommandResult result = execute(command, path);
+    print(result.toJSON());
+    return exitCode(result);
+  }
+
+  public static int exitCode(CommandResult result) {
+    if (result.isPass()) {
+      return EXIT_OK;
+    }
+    if (CommandResult.FAILURE.equals(result.getStatus())) {
+      return EXIT_FAILED;
+    }
+    return EXIT_ERROR;
+  }
+
+  protected CommandResult execute(String name, File file) {
+    switch (name) {
+      case HeadlessBagger.CREATE:
+        return bagger.create(file, profileName, options);
+      case HeadlessBagger.SAVE:
+        return bagger.save(file, options);
+      case HeadlessBagger.VALIDATE:
+        return bagger.validate(file);
+      case HeadlessBagger.COMPLETE:
+        return bagger.complete(file);
+      case HeadlessBagger.CHECK_PROFILE:
+        return bagger.checkProfile(file, profileName);
+      case HeadlessBagger.FETCH:
+        return bagger.fetch(file, fetchThreads, connectionsPerHost);
+      case BatchBagger.BATCH:
+        return runBatch(file);
+      default:
+        throw new IllegalStateException("Unknown command " + name);
+    }
+  }
+
+  private CommandResult runBatch(File manifest) {
+    BatchBagger batch = new BatchBagger(bagger);
+    batch.setWorkers(workers);
+    batch.setRetries(retries);
+    CommandResult result;
+    try {
+      result = batch.run(manifest, BatchBagger.readManifest(manifest, profileName), options);
+    }
+    catch (IOException e) {
+      result = new CommandResult(BatchBagger.BATCH, manifest);
+      result.setError(e);
+    }
+    if (report != null) {
+      try (java.io.Writer writer = new OutputStreamWriter(new FileOutputStream(report), "UTF-8")) {
+        writer.write(result.toJSON().toString(2));
+      }
+      catch (IOException e) {
+        log.error("Failed to write batch report {}", report, e);
+      }
+    }
+    return result;
+  }
+
+  private void parse(String[] args) {
+    List<String> positional = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+        case "--profile":
+          profileName = value(args, ++i, arg);
+          break;
+        case "--serialize":
+          options.setSerialMode(parseSerialMode(value(args, ++i, arg)));
+          break;
+        case "--to":
+          options.setDestination(new File(value(args, ++i, arg)));
+          break;
+        case "--payload-algorithms":
+          options.setPayloadAlgorithms(Arrays.asList(value(args, ++i, arg).split(",")));
+          break;
+        case "--tag-algorithms":
+          options.setTagAlgorithms(Arrays.asList(value(args, ++i, arg).split(",")));
+          break;
+        case "--threads":
+          options.setChecksumThreads(parseInt(value(args, ++i, arg), arg));
+          break;
+        case "--keep-empty-folders":
+          options.setAddKeepFilesToEmptyFolders(true);
+          break;
+        case "--validate":
+          options.setValidate(true);
+          break;
+        case "--workers":
+          workers = parseInt(value(args, ++i, arg), arg);
+          break;
+        case "--retries":
+          retries = parseInt(value(args, ++i, arg), arg);
+          break;
+        case "--report":
+          report = new File(value(args, ++i, arg));
+          break;
+        case "--fetch-threads":
+          fetchThreads = parseInt(value(args, ++i, arg), arg);
+          break;
+        case "--connections-per-host":
+          connectionsPerHost = parseInt(value(args, ++i, arg), arg);
+          break;
+        case "--pretty":
+          pretty = true;
+          break;
+        default:
+          if (arg.startsWith("--")) {
+            throw new IllegalArgumentException("Unknown option " + arg);
+          }
+          positional.add(arg);
+      }
+    }
+    if (positional.isEmpty()) {
+      throw new IllegalArgumentException("No command given");
+    }
+    command = positional.get(0);
+    if ("profiles".equals(command)) {
+      return;
+    }
+    if (!Arrays.asList(HeadlessBagger.CREATE, HeadlessBagger.SAVE, HeadlessBagger.VALIDATE, HeadlessBagger.COMPLETE,
+        HeadlessBagger.CHECK_PROFILE, HeadlessBagger.FETCH, BatchBagger.BATCH).contains(command)) {
+      throw new IllegalArgumentException("Unknown command " + command);
+    }
+    if (positional.size() != 2) {
+      throw new IllegalArgumentException("Command " + command + " takes exactly one path");
+    }
+    path = new File(positional.get(1));
+  }
+
+  static short parseSerialMode(String value) {
+    if (DefaultBag.NO_LABEL.equalsIgnoreCase(value)) {
+      return DefaultBag.NO_MODE;
+    }
+    for (short mode : new short[] { DefaultBag.ZIP_MODE, DefaultBag.TAR_MODE, DefaultBag.TAR_GZ_MODE, DefaultBag.TAR_BZ2_MODE }) {
+      if (DefaultBag.getSerialLabel(mode).equalsIgnoreCase(value)) {
+        return mode;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported serialization " + value);
+  }
+
+  static int parseInt(String value, String option) {
+    try {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(option + " expects a number, got " + value);
+    }
+  }
+
+  static String value(String[] args, int i, String option) {
+    if (i >= args.length) {
+      throw new IllegalArgumentException(option + " needs a value");
+    }
+    return args[i];
+  }
+
+  private void print(JSONObject json) {
+    out.println(pretty ? json.toString(2) : json.toString());
+    out.flush();
+  }
+}
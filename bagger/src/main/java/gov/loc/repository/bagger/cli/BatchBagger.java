@@ -0,0 +1,330 @@
+package gov.loc.repository.bagger.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bags many directories at once on a fixed pool of workers. Each directory is
+ * an independent job with its own {@link gov.loc.repository.bagger.bag.impl.DefaultBag}
+ * and status; a failure in one never affects the others. Jobs that end in an
+ * error (as opposed to a failed validation) are retried.
+ */
+public class BatchBagger {
+  protected static final Logger log = LoggerFactory.getLogger(BatchBagger.class);
+
+  public static final String BATCH = "batch";
+  public static final int WORKERS_PER_DEVICE = 4;
+  // beside each directory being bagged in place, until its bag is written
+  public static final String MARKER_SUFFIX = ".bagging";
+  private static final long RETRY_DELAY_MILLIS = 1000;
+  private static final String RECOVERY = "needsRecovery";
+
+  private final HeadlessBagger bagger;
+  private int workers = 0;
+  private int retries = 1;
+
+  public BatchBagger(HeadlessBagger bagger) {
+    this.bagger = bagger;
+  }
+
+  /**
+   * Number of concurrent bags; 0 derives it from the cores and the number of
+   * distinct storage devices holding the directories.
+   */
+  public void setWorkers(int workers) {
+    this.workers = workers;
+  }
+
+  public void setRetries(int retries) {
+    this.retries = retries;
+  }
+
+  /**
+   * One job per line: the directory, optionally followed by a tab and the
+   * profile name. Blank lines and lines starting with # are ignored.
+   */
+  public static List<Job> readManifest(File manifest, String defaultProfile) throws IOException {
+    List<Job> jobs = new ArrayList<>();
+    File base = manifest.getAbsoluteFile().getParentFile();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+          continue;
+        }
+        String[] parts = line.split("\t", 2);
+        File dir = new File(parts[0].trim());
+        if (!dir.isAbsolute()) {
+          dir = new File(base, parts[0].trim());
+        }
+        String profile = parts.length > 1 && !parts[1].trim().isEmpty() ? parts[1].trim() : defaultProfile;
+        jobs.add(new Job(dir, profile));
+      }
+    }
+    return jobs;
+  }
+
+  public static int defaultWorkers(List<Job> jobs) {
+    Set<FileStore> stores = new HashSet<>();
+    for (Job job : jobs) {
+      try {
+        stores.add(Files.getFileStore(job.getDirectory().toPath()));
+      }
+      catch (IOException e) {
+        log.debug("Could not determine the file store of {}", job.getDirectory(), e);
+      }
+    }
+    int devices = Math.max(1, stores.size());
+    int cores = Runtime.getRuntime().availableProcessors();
+    return Math.max(1, Math.min(Math.min(cores, devices * WORKERS_PER_DEVICE), jobs.size()));
+  }
+
+  public CommandResult run(File manifest, List<Job> jobs, final SaveOptions options) {
+    CommandResult summary = new CommandResult(BATCH, manifest);
+    long start = System.currentTimeMillis();
+    if (jobs.isEmpty()) {
+      summary.setMessages("No directories to bag in " + manifest);
+      return summary;
+    }
+
+    if (options.getDestination() != null) {
+      String duplicate = findDuplicateName(jobs);
+      if (duplicate != null) {
+        summary.setError(new IllegalArgumentException("More than one directory named " + duplicate
+            + " would be written to " + options.getDestination()));
+        return summary;
+      }
+    }
+
+    int poolSize = workers > 0 ? workers : defaultWorkers(jobs);
+    if (options.getChecksumThreads() <= 0) {
+      // the checksum engine of each bag shares the cores with the other workers
+      options.setChecksumThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / poolSize));
+    }
+    log.info("Bagging {} directories with {} workers", jobs.size(), poolSize);
+
+    ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, "bagger-batch-" + count.incrementAndGet());
+      }
+    });
+    List<Future<CommandResult>> futures = new ArrayList<>();
+    try {
+      for (final Job job : jobs) {
+        futures.add(executor.submit(new Callable<CommandResult>() {
+          @Override
+          public CommandResult call() {
+            return runJob(job, options);
+          }
+        }));
+      }
+
+      JSONArray results = new JSONArray();
+      int passed = 0;
+      int failed = 0;
+      int errors = 0;
+      for (int i = 0; i < futures.size(); i++) {
+        CommandResult result = getResult(jobs.get(i), futures.get(i));
+        if (result.isPass()) {
+          passed++;
+        }
+        else if (CommandResult.FAILURE.equals(result.getStatus())) {
+          failed++;
+        }
+        else {
+          errors++;
+        }
+        results.put(result.toJSON());
+      }
+      summary.putDetail("workers", poolSize);
+      summary.putDetail("total", jobs.size());
+      summary.putDetail("passed", passed);
+      summary.putDetail("failed", failed);
+      summary.putDetail("errors", errors);
+      summary.putDetail("results", results);
+      if (errors > 0) {
+        summary.setError(new IllegalStateException(errors + " of " + jobs.size() + " directories could not be bagged"));
+      }
+      else if (failed > 0) {
+        summary.setMessages(failed + " of " + jobs.size() + " bags failed validation");
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    summary.setElapsedMillis(System.currentTimeMillis() - start);
+    return summary;
+  }
+
+  /*
+   * With a destination every job writes its bag to <destination>/<dirname>,
+   * so the names have to be distinct.
+   */
+  private static String findDuplicateName(List<Job> jobs) {
+    Set<String> names = new HashSet<>();
+    for (Job job : jobs) {
+      if (!names.add(job.getDirectory().getName())) {
+        return job.getDirectory().getName();
+      }
+    }
+    return null;
+  }
+
+  protected CommandResult runJob(Job job, SaveOptions options) {
+    SaveOptions jobOptions = options;
+    if (options.getDestination() != null) {
+      jobOptions = new SaveOptions(options);
+      jobOptions.setDestination(new File(options.getDestination(), job.getDirectory().getName()));
+    }
+    CommandResult result = null;
+    for (int attempt = 0; attempt <= retries; attempt++) {
+      if (attempt > 0) {
+        log.warn("Retrying {} (attempt {}): {}", job.getDirectory(), attempt + 1, result.getMessages());
+        try {
+          Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      result = bag(job, jobOptions);
+      result.putDetail("attempts", attempt + 1);
+      if (!CommandResult.ERROR.equals(result.getStatus()) || Boolean.TRUE.equals(result.getDetail(RECOVERY))) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /*
+   * Bagging in place first moves the payload into data/, so a marker beside
+   * the directory records that the move may have begun and is removed once
+   * the bag is written. A directory that has the marker and bagit.txt got
+   * through the move and is finished as an existing bag; one without
+   * bagit.txt may be half moved, and is left for someone to put back by
+   * hand, also in later runs.
+   */
+  private CommandResult bag(Job job, SaveOptions jobOptions) {
+    File dir = job.getDirectory();
+    boolean isBag = new File(dir, "bagit.txt").exists();
+    if (jobOptions.getDestination() != null) {
+      // the directory itself is not changed
+      return isBag ? bagger.save(dir, job.getProfile(), jobOptions) : bagger.create(dir, job.getProfile(), jobOptions);
+    }
+
+    File marker = getMarker(dir);
+    if (marker.exists() && !isBag) {
+      CommandResult result = new CommandResult(HeadlessBagger.CREATE, dir);
+      result.setError(new IllegalStateException("Bagging " + dir + " stopped while its files were being moved into data/;"
+          + " move them back by hand and delete " + marker + " to bag it again"));
+      result.putDetail(RECOVERY, true);
+      return result;
+    }
+    CommandResult result;
+    if (isBag) {
+      result = bagger.save(dir, job.getProfile(), jobOptions);
+    }
+    else {
+      String[] before = dir.list();
+      try {
+        Files.write(marker.toPath(), new byte[0]);
+      }
+      catch (IOException e) {
+        result = new CommandResult(HeadlessBagger.CREATE, dir);
+        result.setError(new IOException("Could not write " + marker + " before bagging " + dir + " in place", e));
+        return result;
+      }
+      result = bagger.create(dir, job.getProfile(), jobOptions);
+      if (CommandResult.ERROR.equals(result.getStatus()) && !new File(dir, "bagit.txt").exists() && before != null
+          && Arrays.equals(sorted(before), sorted(dir.list()))) {
+        // failed before anything was moved
+        deleteMarker(marker);
+      }
+    }
+    if (!CommandResult.ERROR.equals(result.getStatus())) {
+      deleteMarker(marker);
+    }
+    return result;
+  }
+
+  static File getMarker(File dir) {
+    File absolute = dir.getAbsoluteFile();
+    return new File(absolute.getParentFile(), "." + absolute.getName() + MARKER_SUFFIX);
+  }
+
+  private static void deleteMarker(File marker) {
+    try {
+      Files.deleteIfExists(marker.toPath());
+    }
+    catch (IOException e) {
+      log.warn("Could not delete {}", marker, e);
+    }
+  }
+
+  private static String[] sorted(String[] names) {
+    if (names != null) {
+      Arrays.sort(names);
+    }
+    return names;
+  }
+
+  private CommandResult getResult(Job job, Future<CommandResult> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      CommandResult result = new CommandResult(HeadlessBagger.CREATE, job.getDirectory());
+      result.setError(e);
+      return result;
+    }
+    catch (ExecutionException e) {
+      CommandResult result = new CommandResult(HeadlessBagger.CREATE, job.getDirectory());
+      result.setError(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+      return result;
+    }
+  }
+
+  public static class Job {
+    private final File directory;
+    private final String profile;
+
+    public Job(File directory, String profile) {
+      this.directory = directory;
+      this.profile = profile;
+    }
+
+    public File getDirectory() {
+      return directory;
+    }
+
+    public String getProfile() {
+      return profile;
+    }
+  }
+}
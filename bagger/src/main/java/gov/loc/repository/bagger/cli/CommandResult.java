@@ -0,0 +1,123 @@
+package gov.loc.repository.bagger.cli;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Outcome of one headless command, serialized as a single JSON object.
+ */
+public class CommandResult {
+  public static final String PASS = "pass";
+  public static final String FAILURE = "failure";
+  public static final String ERROR = "error";
+
+  private final String command;
+  private final File bag;
+  private String status = PASS;
+  private String messages = "";
+  private final List<String> warnings = new ArrayList<>();
+  private File output;
+  private long elapsedMillis;
+  private final JSONObject details = new JSONObject();
+
+  public CommandResult(String command, File bag) {
+    this.command = command;
+    this.bag = bag;
+  }
+
+  public String getCommand() {
+    return command;
+  }
+
+  public File getBag() {
+    return bag;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public boolean isPass() {
+    return PASS.equals(status);
+  }
+
+  /**
+   * Records the messages returned by a {@link gov.loc.repository.bagger.bag.impl.DefaultBag}
+   * operation; any message means the check did not pass.
+   */
+  public void setMessages(String messages) {
+    this.messages = messages == null ? "" : messages.trim();
+    if (!this.messages.isEmpty() && PASS.equals(status)) {
+      status = FAILURE;
+    }
+  }
+
+  public String getMessages() {
+    return messages;
+  }
+
+  /**
+   * Records what an operation warned about; unlike messages, warnings leave
+   * the status as it is.
+   */
+  public void setWarnings(List<String> warnings) {
+    this.warnings.clear();
+    this.warnings.addAll(warnings);
+  }
+
+  public List<String> getWarnings() {
+    return warnings;
+  }
+
+  public void setError(Exception e) {
+    status = ERROR;
+    messages = e.getMessage() == null ? e.toString() : e.getMessage();
+  }
+
+  public File getOutput() {
+    return output;
+  }
+
+  public void setOutput(File output) {
+    this.output = output;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public void setElapsedMillis(long elapsedMillis) {
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  public void putDetail(String key, Object value) {
+    details.put(key, value);
+  }
+
+  public Object getDetail(String key) {
+    return details.opt(key);
+  }
+
+  public JSONObject toJSON() {
+    JSONObject json = new JSONObject();
+    json.put("command", command);
+    json.put("bag", bag == null ? JSONObject.NULL : bag.getAbsolutePath());
+    json.put("status", status);
+    json.put("messages", messages);
+    if (!warnings.isEmpty()) {
+      json.put("warnings", new JSONArray(warnings));
+    }
+    if (output != null) {
+      json.put("output", output.getAbsolutePath());
+    }
+    json.put("elapsedMillis", elapsedMillis);
+    if (details.length() > 0) {
+      json.put("details", details);
+    }
+    return json;
+  }
+}
@@ -0,0 +1,345 @@
+package gov.loc.repository.bagger.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagger.Profile;
+import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.bag.impl.DefaultBagInfo;
+import gov.loc.repository.bagger.bag.impl.FetchResolver;
+import gov.loc.repository.bagger.bag.impl.HashingFileSystemWriter;
+import gov.loc.repository.bagger.bag.impl.ParallelTarWriter;
+import gov.loc.repository.bagger.bag.impl.ParallelZipWriter;
+import gov.loc.repository.bagger.bag.impl.PayloadScanner;
+import gov.loc.repository.bagger.bag.impl.StreamingBagWriter;
+import gov.loc.repository.bagger.bag.impl.TarArchive;
+import gov.loc.repository.bagger.bag.impl.WrittenFixityVerifier;
+import gov.loc.repository.bagger.model.BagStatus;
+import gov.loc.repository.bagger.profile.BaggerProfileStore;
+import gov.loc.repository.bagit.BagFactory;
+import gov.loc.repository.bagit.BagFactory.Version;
+import gov.loc.repository.bagit.verify.impl.CompleteVerifierImpl;
+import gov.loc.repository.bagit.verify.impl.ParallelManifestChecksumVerifier;
+import gov.loc.repository.bagit.verify.impl.ValidVerifierImpl;
+import gov.loc.repository.bagit.writer.Writer;
+
+/**
+ * The bag operations behind the GUI handlers (create in place, save, validate,
+ * complete and profile compliance), and filling holey bags, without any Swing
+ * or rich client dependency. Each call works on its own {@link DefaultBag} and
+ * reports the outcome as a {@link CommandResult} instead of showing a dialog.
+ */
+public class HeadlessBagger {
+  protected static final Logger log = LoggerFactory.getLogger(HeadlessBagger.class);
+
+  public static final String CREATE = "create";
+  public static final String SAVE = "save";
+  public static final String VALIDATE = "validate";
+  public static final String COMPLETE = "complete";
+  public static final String CHECK_PROFILE = "check-profile";
+  public static final String FETCH = "fetch";
+
+  private final BaggerProfileStore profileStore;
+
+  public HeadlessBagger(BaggerProfileStore profileStore) {
+    this.profileStore = profileStore;
+  }
+
+  public BaggerProfileStore getProfileStore() {
+    return profileStore;
+  }
+
+  /**
+   * Turns <code>dataDir</code> into a bag in place, like
+   * CreateBagInPlaceHandler, and writes it. With a destination the bag is
+   * written there instead, with the files of <code>dataDir</code> as its
+   * payload, and <code>dataDir</code> is left as it is.
+   */
+  public CommandResult create(File dataDir, String profileName, SaveOptions options) {
+    CommandResult result = new CommandResult(CREATE, dataDir);
+    long start = System.currentTimeMillis();
+    try {
+      if (!dataDir.isDirectory()) {
+        throw new IllegalArgumentException("Not a directory: " + dataDir);
+      }
+      DefaultBag bag = new DefaultBag(null, Version.V0_96.versionString, profileStore);
+      if (options.getDestination() != null) {
+        if (options.isAddKeepFilesToEmptyFolders()) {
+          // the .keep files would have to be added to the source directory
+          throw new IllegalArgumentException("Empty folders can only be kept when bagging in place");
+        }
+        log.info("Creating a new bag at {} with data: {}, version: {}, profile: {}", options.getDestination(), dataDir,
+            BagFactory.LATEST.versionString, profileName);
+        addPayload(bag, dataDir);
+      }
+      else {
+        log.info("Creating a new bag in place with data: {}, version: {}, profile: {}", dataDir, BagFactory.LATEST.versionString,
+            profileName);
+        if (options.isAddKeepFilesToEmptyFolders()) {
+          bag.createPreBagAddKeepFilesToEmptyFolders(dataDir);
+        }
+        else {
+          bag.createPreBag(dataDir);
+        }
+      }
+      bag.setName(dataDir.getName());
+      setProfile(bag, profileName);
+      write(bag, options.getDestination() == null ? dataDir : options.getDestination(), options, result);
+    }
+    catch (Exception e) {
+      log.error("Failed to create bag from {}", dataDir, e);
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  /**
+   * Rewrites an existing bag, optionally serializing it.
+   */
+  public CommandResult save(File bagFile, SaveOptions options) {
+    return save(bagFile, null, options);
+  }
+
+  /**
+   * Rewrites an existing bag under <code>profileName</code>; when it is null
+   * the profile named in the bag is kept.
+   */
+  public CommandResult save(File bagFile, String profileName, SaveOptions options) {
+    CommandResult result = new CommandResult(SAVE, bagFile);
+    long start = System.currentTimeMillis();
+    try {
+      DefaultBag bag = openBag(bagFile);
+      if (profileName != null) {
+        bag.setProfile(getProfile(profileName), false);
+        updateProjectField(bag, profileName);
+      }
+      // the payload may have changed on disk, which a bag opened here cannot
+      // tell; the fixity cache keeps the rebuild incremental
+      bag.setAllowMetadataOnlySave(false);
+      write(bag, options.getDestination() == null ? bagFile : options.getDestination(), options, result);
+    }
+    catch (Exception e) {
+      log.error("Failed to save bag {}", bagFile, e);
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  public CommandResult validate(File bagFile) {
+    CommandResult result = new CommandResult(VALIDATE, bagFile);
+    long start = System.currentTimeMillis();
+    try {
+      DefaultBag bag = openBag(bagFile);
+      result.setMessages(validate(bag));
+      putStatus(bag, result);
+    }
+    catch (Exception e) {
+      log.error("Failed to validate bag {}", bagFile, e);
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  public CommandResult complete(File bagFile) {
+    CommandResult result = new CommandResult(COMPLETE, bagFile);
+    long start = System.currentTimeMillis();
+    try {
+      DefaultBag bag = openBag(bagFile);
+      result.setMessages(bag.completeBag(new CompleteVerifierImpl()));
+      putStatus(bag, result);
+    }
+    catch (Exception e) {
+      log.error("Failed to check completeness of bag {}", bagFile, e);
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  /**
+   * Downloads the files listed in the fetch.txt of a bag into it. With
+   * <code>threads</code> or <code>connectionsPerHost</code> 0 the
+   * {@link FetchResolver} defaults are used.
+   */
+  public CommandResult fetch(File bagFile, int threads, int connectionsPerHost) {
+    CommandResult result = new CommandResult(FETCH, bagFile);
+    long start = System.currentTimeMillis();
+    try {
+      DefaultBag bag = openBag(bagFile);
+      FetchResolver resolver = new FetchResolver();
+      if (threads > 0) {
+        resolver.setThreads(threads);
+      }
+      if (connectionsPerHost > 0) {
+        resolver.setConnectionsPerHost(connectionsPerHost);
+      }
+      result.setMessages(bag.fetchPayload(resolver));
+      result.setWarnings(resolver.getWarnings());
+      result.putDetail("fetchedFiles", resolver.getFetchedFixities().size());
+      result.putDetail("holey", bag.isHoley());
+    }
+    catch (Exception e) {
+      log.error("Failed to fetch the payload of bag {}", bagFile, e);
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  /**
+   * Checks the bag-info.txt of a bag against a profile. When
+   * <code>profileName</code> is null the profile named in the bag is used.
+   */
+  public CommandResult checkProfile(File bagFile, String profileName) {
+    CommandResult result = new CommandResult(CHECK_PROFILE, bagFile);
+    long start = System.currentTimeMillis();
+    try {
+      DefaultBag bag = openBag(bagFile);
+      if (profileName != null) {
+        bag.setProfile(getProfile(profileName), false);
+      }
+      result.putDetail("profile", bag.getProfile().getName());
+      result.setMessages(bag.validateMetadata());
+      putStatus(bag, result);
+    }
+    catch (Exception e) {
+      log.error("Failed to check profile compliance of bag {}", bagFile, e);
+      result.setError(e);
+    }
+    result.setElapsedMillis(System.currentTimeMillis() - start);
+    return result;
+  }
+
+  protected DefaultBag openBag(File file) {
+    if (!file.exists()) {
+      throw new IllegalArgumentException("No such bag: " + file);
+    }
+    DefaultBag bag = new DefaultBag(file, null, profileStore);
+    bag.setName(file.getName());
+    bag.setRootDir(file);
+    short mode = DefaultBag.getSerialMode(file);
+    bag.setSerialMode(mode);
+    bag.isSerial(mode != DefaultBag.NO_MODE);
+    return bag;
+  }
+
+  /*
+   * Adds what is in dataDir to the payload, as a bag made of it in place
+   * would have it, without moving anything.
+   */
+  protected void addPayload(DefaultBag bag, File dataDir) throws IOException {
+    File[] files = dataDir.listFiles();
+    if (files == null) {
+      throw new IOException("Could not list " + dataDir);
+    }
+    bag.addFilesToPayload(new PayloadScanner().scan(Arrays.asList(files), bag.getDataDirectory()));
+  }
+
+  protected void write(DefaultBag bag, File rootDir, SaveOptions options, CommandResult result) {
+    bag.setSerialMode(options.getSerialMode());
+    bag.isSerial(options.getSerialMode() != DefaultBag.NO_MODE);
+    if (!options.getPayloadAlgorithms().isEmpty()) {
+      bag.setPayloadManifestAlgorithms(options.getPayloadAlgorithms());
+    }
+    if (!options.getTagAlgorithms().isEmpty()) {
+      bag.setTagManifestAlgorithms(options.getTagAlgorithms());
+    }
+    if (options.getChecksumThreads() > 0) {
+      bag.setChecksumThreads(options.getChecksumThreads());
+    }
+    bag.setRootDir(rootDir);
+
+    Writer writer = getWriter(new BagFactory(), bag);
+    if (writer == null) {
+      throw new IllegalArgumentException("Could not get writer for serialization mode " + options.getSerialMode());
+    }
+    if (writer instanceof StreamingBagWriter && options.getChecksumThreads() > 0) {
+      ((StreamingBagWriter) writer).setThreads(options.getChecksumThreads());
+    }
+    result.setMessages(bag.write(writer));
+    result.setOutput(bag.getBagFile());
+    result.putDetail("payloadFiles", bag.getPayload().size());
+    result.putDetail("payloadAlgorithms", bag.getPayloadManifestAlgorithms());
+    result.putDetail("tagAlgorithms", bag.getTagManifestAlgorithms());
+    if (result.isPass() && options.isValidate()) {
+      result.setMessages(validateWritten(bag));
+      putStatus(bag, result);
+    }
+  }
+
+  /**
+   * Copies the bag's own status models into the result; each bag has a
+   * private {@link BagStatus}, so concurrent runs cannot see each other's.
+   */
+  protected void putStatus(DefaultBag bag, CommandResult result) {
+    BagStatus status = bag.getBagStatus();
+    result.putDetail("completeness", status.getCompletenessStatus().getStatus().name());
+    result.putDetail("validation", status.getValidationStatus().getStatus().name());
+    result.putDetail("profileCompliance", status.getProfileComplianceStatus().getStatus().name());
+  }
+
+  protected String validate(DefaultBag bag) {
+    ValidVerifierImpl validVerifier = new ValidVerifierImpl(new CompleteVerifierImpl(), new ParallelManifestChecksumVerifier());
+    return bag.validateBag(validVerifier);
+  }
+
+  /*
+   * Checks a bag just written against the digests taken while writing it,
+   * when the save kept them, so that the payload is not read again.
+   */
+  protected String validateWritten(DefaultBag bag) {
+    WrittenFixityVerifier manifestVerifier = bag.getWrittenFixityVerifier();
+    if (manifestVerifier == null) {
+      return validate(bag);
+    }
+    return bag.validateWrittenBag(new ValidVerifierImpl(new CompleteVerifierImpl(), manifestVerifier));
+  }
+
+  protected Writer getWriter(BagFactory bagFactory, DefaultBag bag) {
+    if (bag.getSerialMode() == DefaultBag.NO_MODE) {
+      return new HashingFileSystemWriter(bagFactory);
+    }
+    else if (bag.getSerialMode() == DefaultBag.ZIP_MODE) {
+      return new ParallelZipWriter(bagFactory);
+    }
+    else if (bag.getSerialMode() == DefaultBag.TAR_MODE) {
+      return new ParallelTarWriter(bagFactory, TarArchive.Compression.NONE);
+    }
+    else if (bag.getSerialMode() == DefaultBag.TAR_GZ_MODE) {
+      return new ParallelTarWriter(bagFactory, TarArchive.Compression.GZIP);
+    }
+    else if (bag.getSerialMode() == DefaultBag.TAR_BZ2_MODE) {
+      return new ParallelTarWriter(bagFactory, TarArchive.Compression.BZIP2);
+    }
+    return null;
+  }
+
+  private Profile getProfile(String profileName) {
+    Profile profile = profileStore.getProfile(profileName);
+    if (profile == null || !profile.getName().equals(profileName)) {
+      throw new IllegalArgumentException("Unknown profile: " + profileName);
+    }
+    return profile;
+  }
+
+  private void setProfile(DefaultBag bag, String profileName) {
+    Profile profile = profileName == null ? profileStore.getDefaultProfile() : getProfile(profileName);
+    bag.setProfile(profile, true);
+    updateProjectField(bag, profile.getName());
+  }
+
+  private void updateProjectField(DefaultBag bag, String profileName) {
+    Map<String, String> map = new HashMap<>();
+    map.put(DefaultBagInfo.FIELD_LC_PROJECT, profileName);
+    bag.updateBagInfo(map);
+  }
+}
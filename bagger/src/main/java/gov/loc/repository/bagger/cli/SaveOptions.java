@@ -0,0 +1,99 @@
+package gov.loc.repository.bagger.cli;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import gov.loc.repository.bagger.bag.impl.DefaultBag;
+
+/**
+ * Options shared by the commands that write a bag.
+ */
+public class SaveOptions {
+  private short serialMode = DefaultBag.NO_MODE;
+  private File destination;
+  private List<String> payloadAlgorithms = Collections.emptyList();
+  private List<String> tagAlgorithms = Collections.emptyList();
+  private int checksumThreads = 0;
+  private boolean addKeepFilesToEmptyFolders = false;
+  private boolean validate = false;
+
+  public SaveOptions() {
+  }
+
+  /**
+   * A copy that can be changed without affecting <code>other</code>, e.g. to
+   * give one job of a batch its own destination.
+   */
+  public SaveOptions(SaveOptions other) {
+    this.serialMode = other.serialMode;
+    this.destination = other.destination;
+    this.payloadAlgorithms = other.payloadAlgorithms;
+    this.tagAlgorithms = other.tagAlgorithms;
+    this.checksumThreads = other.checksumThreads;
+    this.addKeepFilesToEmptyFolders = other.addKeepFilesToEmptyFolders;
+    this.validate = other.validate;
+  }
+
+  public short getSerialMode() {
+    return serialMode;
+  }
+
+  public void setSerialMode(short serialMode) {
+    this.serialMode = serialMode;
+  }
+
+  /**
+   * Where the bag is written; null writes it over the source.
+   */
+  public File getDestination() {
+    return destination;
+  }
+
+  public void setDestination(File destination) {
+    this.destination = destination;
+  }
+
+  public List<String> getPayloadAlgorithms() {
+    return payloadAlgorithms;
+  }
+
+  public void setPayloadAlgorithms(List<String> payloadAlgorithms) {
+    this.payloadAlgorithms = payloadAlgorithms;
+  }
+
+  public List<String> getTagAlgorithms() {
+    return tagAlgorithms;
+  }
+
+  public void setTagAlgorithms(List<String> tagAlgorithms) {
+    this.tagAlgorithms = tagAlgorithms;
+  }
+
+  /**
+   * Threads used to hash each bag; 0 leaves the choice to the checksum engine.
+   */
+  public int getChecksumThreads() {
+    return checksumThreads;
+  }
+
+  public void setChecksumThreads(int checksumThreads) {
+    this.checksumThreads = checksumThreads;
+  }
+
+  public boolean isAddKeepFilesToEmptyFolders() {
+    return addKeepFilesToEmptyFolders;
+  }
+
+  public void setAddKeepFilesToEmptyFolders(boolean addKeepFilesToEmptyFolders) {
+    this.addKeepFilesToEmptyFolders = addKeepFilesToEmptyFolders;
+  }
+
+  public boolean isValidate() {
+    return validate;
+  }
+
+  public void setValidate(boolean validate) {
+    this.validate = validate;
+  }
+}
@@ -29,10 +29,13 @@ public class BagInfoInputPane extends JTabbedPane {
   private OrganizationProfileForm profileForm = null;
   private HierarchicalFormModel infoFormModel = null;
   private HierarchicalFormModel profileFormModel = null;
+  private boolean formsEnabled = true;
+  private boolean locked = false;
 
   public BagInfoInputPane(BagView bagView) {
     this.bagView = bagView;
     this.defaultBag = bagView.getBag();
+    this.locked = bagView.isBagLocked();
     populateForms(defaultBag);
 
     InputMap im = this.getInputMap();
@@ -59,6 +62,21 @@ public class BagInfoInputPane extends JTabbedPane {
   }
 
   public void enableForms(boolean b) {
+    formsEnabled = b;
+    applyEnabled();
+  }
+
+  /**
+   * Keeps the forms disabled, whatever {@link #enableForms(boolean)} asks
+   * for, while the bag is locked by a background task.
+   */
+  public void setLocked(boolean locked) {
+    this.locked = locked;
+    applyEnabled();
+  }
+
+  private void applyEnabled() {
+    boolean b = formsEnabled && !locked;
     profileForm.setEnabled(b);
     profileForm.getControl().invalidate();
     bagInfoForm.setEnabled(b);
@@ -86,6 +104,11 @@ public class BagInfoInputPane extends JTabbedPane {
     bagInfoForm = new BagInfoForm(FormModelHelper.createChildPageFormModel(infoFormModel, null), bagView, bagInfo.getFieldMap());
 
     createTabbedUiComponentsWithForms();
+    // new forms start out enabled
+    formsEnabled = true;
+    if (locked) {
+      applyEnabled();
+    }
   }
 
   // Create a tabbed pane for the information forms and checkbox panel
@@ -3,27 +3,45 @@ package gov.loc.repository.bagger.ui;
 import java.awt.Dimension;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.DropMode;
 import javax.swing.JTextField;
 import javax.swing.JTree;
+import javax.swing.SwingUtilities;
 import javax.swing.event.TreeExpansionEvent;
 import javax.swing.event.TreeExpansionListener;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.loc.repository.bagger.bag.BaggerFileEntity;
 import gov.loc.repository.bagger.bag.impl.DefaultBag;
 import gov.loc.repository.bagger.ui.handlers.BagTreeTransferHandler;
+import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 import gov.loc.repository.bagit.impl.AbstractBagConstants;
 
 public class BagTree extends JTree {
@@ -32,6 +50,17 @@ public class BagTree extends JTree {
   private int BAGTREE_WIDTH = 400;
   private int BAGTREE_HEIGHT = 160;
   private int BAGTREE_ROW_MODIFIER = 22;
+  private static final int MAX_LOADED_DIRECTORIES = 256;
+  private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "bagtree-loader-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
 
   private File bagDir;
   private DefaultTreeModel bagTreeModel;
@@ -39,6 +68,42 @@ public class BagTree extends JTree {
   private String basePath;
   private DefaultMutableTreeNode parentNode = new DefaultMutableTreeNode(AbstractBagConstants.DATA_DIRECTORY);
   private ArrayList<DefaultMutableTreeNode> srcNodes = new ArrayList<>();
+  // children by lower case name, for the nodes looked into so far
+  private final Map<TreeNode, Map<String, DefaultMutableTreeNode>> childIndex = new IdentityHashMap<>();
+  private final TreeModelListener childIndexUpdater = new TreeModelListener() {
+    @Override
+    public void treeNodesChanged(TreeModelEvent e) {
+      childIndex.remove(e.getTreePath().getLastPathComponent());
+    }
+
+    @Override
+    public void treeNodesInserted(TreeModelEvent e) {
+      Object parent = e.getTreePath().getLastPathComponent();
+      Map<String, DefaultMutableTreeNode> children = childIndex.get(parent);
+      if (children != null) {
+        for (Object child : e.getChildren()) {
+          children.put(indexKey(child.toString()), (DefaultMutableTreeNode) child);
+        }
+      }
+    }
+
+    @Override
+    public void treeNodesRemoved(TreeModelEvent e) {
+      childIndex.remove(e.getTreePath().getLastPathComponent());
+    }
+
+    @Override
+    public void treeStructureChanged(TreeModelEvent e) {
+      // the children of any node below may have changed
+      childIndex.clear();
+    }
+  };
+  // directories with their children listed, least recently expanded first
+  private final Map<LazyTreeNode, Boolean> loaded = new LinkedHashMap<>(16, 0.75f, true);
+  // directories that lost children to a removal, and the directories above
+  // them; never unloaded, as listing them again from disk would bring back
+  // files the bag no longer has
+  private final Set<TreeNode> pinned = Collections.<TreeNode> newSetFromMap(new IdentityHashMap<TreeNode, Boolean>());
 
   public BagTree(BagView bagView, String path) {
     super();
@@ -50,6 +115,8 @@ public class BagTree extends JTree {
     JTextField nameTextField = new JTextField();
     int fieldHeight = nameTextField.getFontMetrics(nameTextField.getFont()).getHeight() + 5;
     BAGTREE_ROW_MODIFIER = fieldHeight;
+    // a fixed row height lets the large model lay out only the visible rows
+    setRowHeight(fieldHeight);
     this.setDragEnabled(true);
     this.setDropMode(DropMode.ON_OR_INSERT);
     this.setTransferHandler(new BagTreeTransferHandler());
@@ -58,7 +125,11 @@ public class BagTree extends JTree {
   }
 
   private void initialize() {
-    setModel(new DefaultTreeModel(parentNode));
+    DefaultTreeModel model = new DefaultTreeModel(parentNode);
+    model.addTreeModelListener(childIndexUpdater);
+    childIndex.clear();
+    pinned.clear();
+    setModel(model);
     rootPath = new TreePath(parentNode.getPath());
 
     // setCheckingPath(rootPath);
@@ -74,138 +145,256 @@ public class BagTree extends JTree {
     basePath = path;
 
     log.debug("BagTree.populateNodes");
-    if (bag.getPayload() != null && rootSrc.listFiles() != null) {
+    if (bag.getPayload() != null && rootSrc.isDirectory()) {
       addNodes(rootSrc, isParent);
     } else {
-      log.debug("BagTree.populateNodes listFiles NULL:");
-      List<String> payload = null;
-      if (!bag.isHoley()) {
-        log.debug("BagTree.populateNodes getPayloadPaths:");
-        payload = bag.getPayloadPaths();
-      } else {
-        log.debug("BagTree.populateNodes getFetchPayload:");
-        payload = bag.getPayloadPaths(); // bag.getFetchPayload();
-        // basePath = bag.getFetch().getBaseURL();
-      }
-      for (Iterator<String> it = payload.iterator(); it.hasNext();) {
-        String filePath = it.next();
-        try {
-          String normalPath;
-          if (bag.isHoley()) {
-            normalPath = BaggerFileEntity.removeBasePath("data", filePath);
-          } else {
-            normalPath = BaggerFileEntity.removeBasePath(basePath, filePath);
-          }
-          if (!nodeAlreadyExists(normalPath)) {
-            this.addNode(normalPath);
-          }
-        } catch (Exception e) {
-          if (!nodeAlreadyExists(filePath)) {
-            this.addNode(filePath);
-          }
-          log.error("Failed to remove base path from {}", filePath, e);
-        }
-      }
-      log.debug("BagTree rows: {}", payload.size());
-      BAGTREE_HEIGHT = BAGTREE_ROW_MODIFIER * (payload.size() + 1);
-      setPreferredSize(getTreeSize());
-      invalidate();
+      // the payload is not on disk: list it from the bag's path index
+      log.debug("BagTree.populateNodes payload index: {}", bag.getPayloadIndex().size());
+      IndexTreeNode rootNode = new IndexTreeNode(bag, bag.getDataDirectory(), true);
+      srcNodes.add(rootNode);
+      parentNode = rootNode;
+      initialize();
+      load(rootNode);
     }
   }
 
   public boolean addNodes(File file, boolean isParent) {
     if (!nodeAlreadyExists(file.getName())) {
-      DefaultMutableTreeNode rootNode = createNodeTree(null, null, file);
+      FileTreeNode rootNode = new FileTreeNode(file);
       srcNodes.add(rootNode);
       if (isParent){
         parentNode = rootNode;
+        initialize();
+        if (rootNode.isDirectory()) {
+          // the root is shown expanded without a will-expand event
+          load(rootNode);
+        }
       }
       else{
-        parentNode.add(rootNode);
+        addChild(parentNode, rootNode);
       }
-      initialize();
     } else {
       return true;
     }
     return false;
   }
 
-  private boolean nodeAlreadyExists(String path) {
-    DefaultMutableTreeNode aNode = new DefaultMutableTreeNode(path);
-    String node = aNode.toString();
-    boolean isNodeChild = parentNode.isNodeChild(aNode);
-    if (isNodeChild){
-      return isNodeChild;
+  /**
+   * Adds a node under the parent for each of <code>files</code> not shown
+   * already, telling the model once, and returns those that were.
+   */
+  public List<File> addNodes(List<File> files) {
+    List<File> existing = new ArrayList<>();
+    DefaultMutableTreeNode parent = parentNode;
+    int first = parent.getChildCount();
+    for (File file : files) {
+      if (nodeAlreadyExists(file.getName())) {
+        existing.add(file);
+        continue;
+      }
+      FileTreeNode node = new FileTreeNode(file);
+      srcNodes.add(node);
+      parent.add(node);
+      // the model hears of the nodes at the end, so a name chosen twice is
+      // caught here
+      childIndex.get(parent).put(indexKey(file.getName()), node);
+    }
+    int added = parent.getChildCount() - first;
+    if (added > 0) {
+      int[] indices = new int[added];
+      for (int i = 0; i < added; i++) {
+        indices[i] = first + i;
+      }
+      ((DefaultTreeModel) getModel()).nodesWereInserted(parent, indices);
+    }
+    return existing;
+  }
+
+  /**
+   * Takes <code>nodes</code> out of the tree, telling the model once for each
+   * parent they had. Nodes under another of the nodes go with it.
+   */
+  public void removeNodes(Collection<DefaultMutableTreeNode> nodes) {
+    Set<TreeNode> removing = Collections.<TreeNode> newSetFromMap(new IdentityHashMap<TreeNode, Boolean>());
+    removing.addAll(nodes);
+    Map<DefaultMutableTreeNode, Set<TreeNode>> byParent = new IdentityHashMap<>();
+    for (DefaultMutableTreeNode node : nodes) {
+      DefaultMutableTreeNode parent = (DefaultMutableTreeNode) node.getParent();
+      if (parent == null || isUnder(parent, removing)) {
+        continue;
+      }
+      Set<TreeNode> children = byParent.get(parent);
+      if (children == null) {
+        children = Collections.<TreeNode> newSetFromMap(new IdentityHashMap<TreeNode, Boolean>());
+        byParent.put(parent, children);
+      }
+      children.add(node);
     }
-    for (int i = 0; i < parentNode.getChildCount(); i++) {
-      DefaultMutableTreeNode childNode = (DefaultMutableTreeNode) parentNode.getChildAt(i);
-      String child = childNode.toString();
-      if (child.equalsIgnoreCase(node)) {
-        isNodeChild = true;
+    DefaultTreeModel model = (DefaultTreeModel) getModel();
+    for (Map.Entry<DefaultMutableTreeNode, Set<TreeNode>> entry : byParent.entrySet()) {
+      DefaultMutableTreeNode parent = entry.getKey();
+      Set<TreeNode> gone = entry.getValue();
+      // rebuilt rather than removed one by one, which is quadratic in a
+      // large directory
+      List<TreeNode> kept = new ArrayList<>();
+      int[] indices = new int[gone.size()];
+      Object[] removed = new Object[gone.size()];
+      int count = 0;
+      for (int i = 0; i < parent.getChildCount(); i++) {
+        TreeNode child = parent.getChildAt(i);
+        if (gone.contains(child)) {
+          indices[count] = i;
+          removed[count] = child;
+          count++;
+        }
+        else {
+          kept.add(child);
+        }
+      }
+      parent.removeAllChildren();
+      for (TreeNode child : kept) {
+        parent.add((MutableTreeNode) child);
+      }
+      srcNodes.removeAll(gone);
+      pin(parent);
+      model.nodesWereRemoved(parent, Arrays.copyOf(indices, count), Arrays.copyOf(removed, count));
+    }
+  }
+
+  private void pin(TreeNode directory) {
+    for (TreeNode n = directory; n != null; n = n.getParent()) {
+      if (!pinned.add(n)) {
+        // and so are the directories above it
         break;
       }
     }
-    return isNodeChild;
+  }
+
+  private static boolean isUnder(TreeNode node, Set<TreeNode> ancestors) {
+    for (TreeNode n = node; n != null; n = n.getParent()) {
+      if (ancestors.contains(n)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean nodeAlreadyExists(String path) {
+    return findChild(parentNode, path) != null;
   }
 
   public void addNode(String filePath) {
+    if (nodeAlreadyExists(filePath)) {
+      return;
+    }
     DefaultMutableTreeNode node = new DefaultMutableTreeNode(filePath);
     srcNodes.add(node);
-    parentNode.add(node);
-    initialize();
+    addChild(parentNode, node);
   }
 
-  /** Add nodes from under "dir" into curTop. Highly recursive. */
-  private DefaultMutableTreeNode createNodeTree(DefaultMutableTreeNode curTop, DefaultMutableTreeNode displayTop,
-      File dir) {
-    String curPath = dir.getPath();
-    String displayPath = dir.getName();
-    DefaultMutableTreeNode curDir = new DefaultMutableTreeNode(curPath);
-    DefaultMutableTreeNode displayDir = new DefaultMutableTreeNode(displayPath);
-    if (curTop != null) { // should only be null at root
-      curTop.add(curDir);
-      displayTop.add(displayDir);
-    }
-    Vector<String> ol = new Vector<>();
-    // display("addNodes: " + dir.list());
-    String[] tmp = dir.list();
-    if (tmp != null && tmp.length > 0) {
-      for (int i = 0; i < tmp.length; i++){
-        ol.addElement(tmp[i]);
+  private void addChild(DefaultMutableTreeNode parent, DefaultMutableTreeNode child) {
+    parent.add(child);
+    ((DefaultTreeModel) getModel()).nodesWereInserted(parent, new int[] { parent.getChildCount() - 1 });
+  }
+
+  /*
+   * Looks a child up by name, ignoring case, through an index of the
+   * parent's children built on first use. Any change the model reports
+   * drops the indexes it may have made stale.
+   */
+  private DefaultMutableTreeNode findChild(DefaultMutableTreeNode parent, String name) {
+    Map<String, DefaultMutableTreeNode> children = childIndex.get(parent);
+    if (children == null) {
+      children = new HashMap<>();
+      for (int i = 0; i < parent.getChildCount(); i++) {
+        DefaultMutableTreeNode child = (DefaultMutableTreeNode) parent.getChildAt(i);
+        children.put(indexKey(child.toString()), child);
       }
+      childIndex.put(parent, children);
     }
+    return children.get(indexKey(name));
+  }
 
-    Collections.sort(ol, String.CASE_INSENSITIVE_ORDER);
-    File f;
-    Vector<String> files = new Vector<>();
-    // Make two passes, one for Dirs and one for Files. This is #1.
-    for (int i = 0; i < ol.size(); i++) {
-      String thisObject = ol.elementAt(i);
-      String newPath;
-      if (curPath.equals(".")){
-        newPath = thisObject;
-      }
-      else{
-        newPath = curPath + File.separator + thisObject;
+  private static String indexKey(String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  /*
+   * Lists the children of a directory node on a loader thread and puts them
+   * in, in one go, back on the event thread. A placeholder shows meanwhile.
+   */
+  private void load(final LazyTreeNode node) {
+    final int generation = node.startLoading();
+    node.removeAllChildren();
+    node.add(new DefaultMutableTreeNode(ApplicationContextUtil.getMessage("bagTree.loading")));
+    ((DefaultTreeModel) getModel()).nodeStructureChanged(node);
+    final Callable<List<LazyTreeNode>> lister = node.childLister();
+    LOADER.execute(new Runnable() {
+      @Override
+      public void run() {
+        List<LazyTreeNode> listed;
+        try {
+          listed = lister.call();
+        }
+        catch (Exception e) {
+          log.warn("Could not list {}", node, e);
+          listed = new ArrayList<>();
+        }
+        final List<LazyTreeNode> children = listed;
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (!node.isCurrent(generation) || node.getRoot() != getModel().getRoot()) {
+              // removed from the tree while it was listed
+              return;
+            }
+            node.removeAllChildren();
+            for (LazyTreeNode child : children) {
+              node.add(child);
+            }
+            node.loaded();
+            if (node != getModel().getRoot()) {
+              loaded.put(node, Boolean.TRUE);
+            }
+            ((DefaultTreeModel) getModel()).nodeStructureChanged(node);
+            updateSize();
+            evict();
+          }
+        });
       }
-      if ((f = new File(newPath)).isDirectory()){
-        createNodeTree(curDir, displayDir, f);
+    });
+  }
+
+  /*
+   * Unloads the least recently expanded directories that are collapsed once
+   * more than MAX_LOADED_DIRECTORIES have their children listed, apart from
+   * those pinned by a removal.
+   */
+  private void evict() {
+    int excess = loaded.size() - MAX_LOADED_DIRECTORIES;
+    Iterator<LazyTreeNode> it = loaded.keySet().iterator();
+    while (excess > 0 && it.hasNext()) {
+      LazyTreeNode node = it.next();
+      if (node.getRoot() != getModel().getRoot()) {
+        // removed, or under a directory unloaded before
+        it.remove();
+        pinned.remove(node);
+        excess--;
       }
-      else{
-        files.addElement(thisObject);
+      else if (!pinned.contains(node) && !isExpanded(new TreePath(node.getPath()))) {
+        it.remove();
+        excess--;
+        node.unload();
+        ((DefaultTreeModel) getModel()).nodeStructureChanged(node);
       }
     }
-    // Pass two: for files.
-    // display("createBagManagerTree: files.size: " + files.size());
-    for (int fnum = 0; fnum < files.size(); fnum++) {
-      String elem = files.elementAt(fnum);
-      DefaultMutableTreeNode elemNode = new DefaultMutableTreeNode(elem);
-      curDir.add(elemNode);
-      displayDir.add(elemNode);
-    }
+  }
 
-    // return curDir;
-    return displayDir;
+  private void updateSize() {
+    int rows = BAGTREE_ROW_MODIFIER * getRowCount();
+    log.trace("BagTree rows: {}", rows);
+    setPreferredSize(new Dimension(BAGTREE_WIDTH, rows));
+    invalidate();
   }
 
   public void setParentNode(DefaultMutableTreeNode parent) {
@@ -237,19 +426,37 @@ public class BagTree extends JTree {
   }
 
   private void initListeners() {
+    addTreeWillExpandListener(new TreeWillExpandListener() {
+      @Override
+      public void treeWillExpand(TreeExpansionEvent e) {
+        Object node = e.getPath().getLastPathComponent();
+        if (node instanceof LazyTreeNode) {
+          LazyTreeNode lazyNode = (LazyTreeNode) node;
+          if (lazyNode.getState() == LazyTreeNode.State.UNLOADED) {
+            load(lazyNode);
+          }
+          else {
+            // only marks the node as the most recently expanded, which the
+            // access-ordered map does on any read
+            loaded.get(lazyNode);
+          }
+        }
+      }
+
+      @Override
+      public void treeWillCollapse(TreeExpansionEvent e) {
+      }
+    });
     addTreeExpansionListener(new TreeExpansionListener() {
+      @Override
       public void treeExpanded(TreeExpansionEvent e) {
-        int rows = BAGTREE_ROW_MODIFIER * getRowCount();
-        log.trace("BagTree rows: {}", rows);
-        setPreferredSize(new Dimension(BAGTREE_WIDTH, rows));
-        invalidate();
+        updateSize();
       }
 
+      @Override
       public void treeCollapsed(TreeExpansionEvent e) {
-        int rows = BAGTREE_ROW_MODIFIER * getRowCount();
-        log.trace("BagTree rows: {}", rows);
-        setPreferredSize(new Dimension(BAGTREE_WIDTH, rows));
-        invalidate();
+        updateSize();
+        evict();
       }
     });
   }
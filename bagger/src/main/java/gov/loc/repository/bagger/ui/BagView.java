@@ -8,9 +8,6 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
@@ -23,9 +20,8 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JTree;
-import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 import javax.swing.border.LineBorder;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
@@ -42,7 +38,6 @@ import org.springframework.richclient.application.PageComponentContext;
 import org.springframework.richclient.application.support.AbstractView;
 import org.springframework.richclient.dialog.MessageDialog;
 import org.springframework.richclient.image.ImageSource;
-import org.springframework.richclient.progress.BusyIndicator;
 import org.springframework.util.Assert;
 
 import gov.loc.repository.bagger.Bagger;
@@ -71,22 +66,18 @@ import gov.loc.repository.bagger.ui.handlers.StartExecutor;
 import gov.loc.repository.bagger.ui.handlers.StartNewBagHandler;
 import gov.loc.repository.bagger.ui.handlers.ValidateBagHandler;
 import gov.loc.repository.bagger.ui.handlers.ValidateExecutor;
+import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 import gov.loc.repository.bagger.ui.util.LayoutUtil;
 import gov.loc.repository.bagit.BagFile;
-import gov.loc.repository.bagit.Cancellable;
 import gov.loc.repository.bagit.impl.AbstractBagConstants;
 
 public class BagView extends AbstractView implements ApplicationListener {
   protected static final Logger log = LoggerFactory.getLogger(BagView.class);
 
-  private final static int ONE_SECOND = 1000;
   private int DEFAULT_WIDTH = 1024;
   private int DEFAULT_HEIGHT = 768;
 
-  public ProgressMonitor progressMonitor;
-  public LongTask task;
-  public Cancellable longRunningProcess = null;
-  private final Timer timer = new Timer(ONE_SECOND / 10, null);
+  public final TaskService taskService = new TaskService();
 
   private Bagger bagger;
   private DefaultBag bag;
@@ -97,6 +88,8 @@ public class BagView extends AbstractView implements ApplicationListener {
 
   private File bagRootPath;
   private String userHomeDir;
+  // set on the event thread while the current bag has a task queued or running
+  private boolean bagLocked = false;
 
   public TagManifestPane tagManifestPane;
   public InfoFormsPane infoInputPane;
@@ -150,6 +143,13 @@ public class BagView extends AbstractView implements ApplicationListener {
 
   public void setBag(DefaultBag baggerBag) {
     this.bag = baggerBag;
+    ApplicationContextUtil.showBagStatus(baggerBag.getBagStatus());
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        updateBagLock();
+      }
+    });
   }
 
   public DefaultBag getBag() {
@@ -203,7 +203,7 @@ public class BagView extends AbstractView implements ApplicationListener {
   // This populates the default view descriptor declared as the startingPageId
   // property in the richclient-application-context.xml file.
   protected JComponent createControl() {
-    bag = new DefaultBag();
+    bag = new DefaultBag(profileStore);
 
     this.userHomeDir = System.getProperty("user.home");
     display("createControl - User Home Path: " + userHomeDir);
@@ -220,6 +220,17 @@ public class BagView extends AbstractView implements ApplicationListener {
 
     infoInputPane = new InfoFormsPane(this);
     infoInputPane.bagInfoInputPane.enableForms(false);
+    taskService.addListener(new TaskService.Listener() {
+      @Override
+      public void taskAdded(LongTask task) {
+        updateBagLock();
+      }
+
+      @Override
+      public void taskChanged(LongTask task) {
+        updateBagLock();
+      }
+    });
     JSplitPane bagPanel = createBagPanel();
 
     GridBagLayout layout = new GridBagLayout();
@@ -645,52 +656,44 @@ public class BagView extends AbstractView implements ApplicationListener {
   }
 
   /**
-   * The actionPerformed method in this class
-   * is called each time the Timer "goes off".
+   * Runs <code>progress</code> in the background as a task on the current
+   * bag, after any task already queued for that bag.
    */
-  class TimerListener implements ActionListener {
-    @Override
-    public void actionPerformed(ActionEvent evt) {
-      // check if task is completed or user has clicked cancel button
-      if (task.hasUserTriedToCancel() || task.isDone()) {
-        // we are done
-        progressMonitor.close();
-        Toolkit.getDefaultToolkit().beep();
-        timer.stop();
-        log.info("Stopped the timer");
-        // getting an array of Action Listeners from Timer Listener (will have
-        // only one element)
-        ActionListener[] als = timer.getListeners(ActionListener.class);
-        // Removing Action Listener from timer
-        if (als.length > 0){
-          timer.removeActionListener(als[0]);
-        }
-        if (longRunningProcess != null && !task.isDone()) {
-          log.info("Trying to cancel the long running process: {}", longRunningProcess);
-          longRunningProcess.cancel();
-        }
-      }
-    }
+  public LongTask startTask(Progress progress, String message, String activityMonitored) {
+    return taskService.submit(message, bag, progress, activityMonitored);
   }
 
-  public void statusBarBegin(Progress progress, String message, String activityMonitored) {
-    BusyIndicator.showAt(Application.instance().getActiveWindow().getControl());
-    task = new LongTask();
-    task.setActivityMonitored(activityMonitored);
-    task.setProgress(progress);
-
-    timer.addActionListener(new TimerListener());
-
-    progressMonitor = new ProgressMonitor(this.getControl(), message, "Preparing the operation...", 0, 1);
-    progressMonitor.setMillisToDecideToPopup(ONE_SECOND);
-    task.setMonitor(progressMonitor);
+  /**
+   * Tells the user and returns true when the current bag has a task queued
+   * or running, so it should not be changed yet.
+   */
+  public boolean isBagBusy() {
+    if (taskService.isBusy(bag)) {
+      showWarningErrorDialog(getMessage("bagView.busy.title"), getMessage("bagView.busy.message"));
+      return true;
+    }
+    return false;
+  }
 
-    task.go();
-    timer.start();
+  /**
+   * True while the current bag has a task queued or running; its bag-info
+   * forms are locked meanwhile. Must be called on the event thread.
+   */
+  public boolean isBagLocked() {
+    return bagLocked;
   }
 
-  public void statusBarEnd() {
-    BusyIndicator.clearAt(Application.instance().getActiveWindow().getControl());
+  /*
+   * Locks the forms that change the bag while a background save, validate
+   * or other task works on it, and unlocks them when its last task ends.
+   */
+  private void updateBagLock() {
+    boolean locked = bag != null && taskService.isBusy(bag);
+    if (locked == bagLocked || infoInputPane == null) {
+      return;
+    }
+    bagLocked = locked;
+    infoInputPane.bagInfoInputPane.setLocked(locked);
   }
 
   public void registerTreeListener(String label, final JTree tree) {
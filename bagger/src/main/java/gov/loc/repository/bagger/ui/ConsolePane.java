@@ -36,9 +36,14 @@ public class ConsolePane extends JPanel {
   private Color textBackground = new Color(240, 240, 240);
   private Border emptyBorder = new EmptyBorder(10, 10, 10, 10);
   private JTextArea serializedArea;
+  private BagStatus bagStatus;
+  private StatusImageLabel completeStatus;
+  private StatusImageLabel validationStatus;
+  private StatusImageLabel profileComplianceStatus;
 
-  public ConsolePane(String messages) {
+  public ConsolePane(String messages, BagStatus bagStatus) {
     super();
+    this.bagStatus = bagStatus;
     this.setLayout(new GridBagLayout());
     createFormControl();
     addConsoleMessages(messages);
@@ -64,7 +69,6 @@ public class ConsolePane extends JPanel {
     statusPanel.setLayout(new GridBagLayout());
     int row = 0;
     int col = 0;
-    BagStatus bagStatus = BagStatus.getInstance();
 
     // Complete Status
     JLabel completeLabel = new JLabel(ApplicationContextUtil.getMessage("compositePane.message.isComplete") + " ");
@@ -72,7 +76,7 @@ public class ConsolePane extends JPanel {
     GridBagConstraints gbc = LayoutUtil.buildGridBagConstraints(col++, row, 1, 1, 0, 0, GridBagConstraints.NONE, GridBagConstraints.WEST);
     statusPanel.add(completeLabel, gbc);
 
-    JLabel completeStatus = new StatusImageLabel(bagStatus.getCompletenessStatus());
+    completeStatus = new StatusImageLabel(bagStatus.getCompletenessStatus());
     gbc = LayoutUtil.buildGridBagConstraints(col++, row, 1, 1, 1, 1, GridBagConstraints.HORIZONTAL, GridBagConstraints.WEST);
     statusPanel.add(completeStatus, gbc);
 
@@ -82,7 +86,7 @@ public class ConsolePane extends JPanel {
     gbc = LayoutUtil.buildGridBagConstraints(col++, row, 1, 1, 0, 0, GridBagConstraints.NONE, GridBagConstraints.WEST);
     statusPanel.add(validationLabel, gbc);
 
-    JLabel validationStatus = new StatusImageLabel(bagStatus.getValidationStatus());
+    validationStatus = new StatusImageLabel(bagStatus.getValidationStatus());
     gbc = LayoutUtil.buildGridBagConstraints(col++, row, 1, 1, 1, 1, GridBagConstraints.HORIZONTAL, GridBagConstraints.WEST);
     statusPanel.add(validationStatus, gbc);
 
@@ -92,7 +96,7 @@ public class ConsolePane extends JPanel {
     gbc = LayoutUtil.buildGridBagConstraints(col++, row, 1, 1, 0, 0, GridBagConstraints.NONE, GridBagConstraints.WEST);
     statusPanel.add(profileComplianceLabel, gbc);
 
-    JLabel profileComplianceStatus = new StatusImageLabel(bagStatus.getProfileComplianceStatus());
+    profileComplianceStatus = new StatusImageLabel(bagStatus.getProfileComplianceStatus());
     gbc = LayoutUtil.buildGridBagConstraints(col++, row, 1, 1, 1, 1, GridBagConstraints.HORIZONTAL, GridBagConstraints.WEST);
     statusPanel.add(profileComplianceStatus, gbc);
 
@@ -114,24 +118,49 @@ public class ConsolePane extends JPanel {
 
   }
 
+  /**
+   * Shows the status of another bag, normally the one just opened or created.
+   */
+  public void setBagStatus(BagStatus bagStatus) {
+    this.bagStatus = bagStatus;
+    completeStatus.setModel(bagStatus.getCompletenessStatus());
+    validationStatus.setModel(bagStatus.getValidationStatus());
+    profileComplianceStatus.setModel(bagStatus.getProfileComplianceStatus());
+  }
+
+  public BagStatus getBagStatus() {
+    return bagStatus;
+  }
+
   public void addConsoleMessages(String message) {
     if (message != null && message.trim().length() != 0) {
-      Document consoleMessageDoc = serializedArea.getDocument();
       String date = new Date().toString();
-      serializedArea.append("\n[" + date + "]: " + message);
-
-      if (consoleMessageDoc.getLength() > MAX_CONSOLE_MESSAGE_LENGTH) {
-        try {
-          consoleMessageDoc.remove(0, consoleMessageDoc.getLength() - MAX_CONSOLE_MESSAGE_LENGTH);
-        }
-        catch (BadLocationException e) {
-          log.error("Could not remove message from console",e);
-          throw new RuntimeException(e);
-        }
+      appendConsoleText("\n[" + date + "]: " + message);
+    }
+  }
+
+  /**
+   * Appends one or more formatted messages, trimming the console once for
+   * all of them.
+   */
+  public void appendConsoleText(String text) {
+    if (text.length() > MAX_CONSOLE_MESSAGE_LENGTH) {
+      text = text.substring(text.length() - MAX_CONSOLE_MESSAGE_LENGTH);
+    }
+    Document consoleMessageDoc = serializedArea.getDocument();
+    serializedArea.append(text);
+
+    if (consoleMessageDoc.getLength() > MAX_CONSOLE_MESSAGE_LENGTH) {
+      try {
+        consoleMessageDoc.remove(0, consoleMessageDoc.getLength() - MAX_CONSOLE_MESSAGE_LENGTH);
+      }
+      catch (BadLocationException e) {
+        log.error("Could not remove message from console",e);
+        throw new RuntimeException(e);
       }
-      serializedArea.setAutoscrolls(true);
-      serializedArea.setCaretPosition(consoleMessageDoc.getLength());
     }
+    serializedArea.setAutoscrolls(true);
+    serializedArea.setCaretPosition(consoleMessageDoc.getLength());
   }
 
   public void clearConsoleMessages() {
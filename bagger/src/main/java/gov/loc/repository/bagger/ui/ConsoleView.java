@@ -7,6 +7,8 @@ import org.springframework.richclient.application.Application;
 import org.springframework.richclient.application.PageComponentContext;
 import org.springframework.richclient.application.support.AbstractView;
 
+import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.model.BagStatus;
 import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 
 
@@ -20,7 +22,8 @@ public class ConsoleView extends AbstractView {
 
   @Override
   protected JComponent createControl() {
-    consolePane = new ConsolePane(getInitialConsoleMsg());
+    DefaultBag bag = ApplicationContextUtil.getBagView().getBag();
+    consolePane = new ConsolePane(getInitialConsoleMsg(), bag == null ? new BagStatus() : bag.getBagStatus());
     return consolePane;
   }
 
@@ -41,10 +44,20 @@ public class ConsoleView extends AbstractView {
     consolePane.addConsoleMessages(messages);
   }
 
+  public void appendConsoleText(String text) {
+    consolePane.appendConsoleText(text);
+  }
+
   public void clearConsoleMessages() {
     consolePane.clearConsoleMessages();
   }
 
+  public void setBagStatus(BagStatus bagStatus) {
+    if (consolePane != null) {
+      consolePane.setBagStatus(bagStatus);
+    }
+  }
+
   private String getInitialConsoleMsg() {
     StringBuffer buffer = new StringBuffer();
     buffer.append(getMessage("consolepane.msg.help"));
@@ -0,0 +1,74 @@
+package gov.loc.repository.bagger.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A tree node for a file or directory on disk, labelled with its name.
+ */
+public class FileTreeNode extends LazyTreeNode {
+  private static final long serialVersionUID = 1L;
+  protected static final Logger log = LoggerFactory.getLogger(FileTreeNode.class);
+
+  private static final Comparator<FileTreeNode> BY_NAME = new Comparator<FileTreeNode>() {
+    @Override
+    public int compare(FileTreeNode a, FileTreeNode b) {
+      return String.CASE_INSENSITIVE_ORDER.compare(a.file.getName(), b.file.getName());
+    }
+  };
+
+  private final transient File file;
+
+  public FileTreeNode(File file) {
+    this(file, file.isDirectory());
+  }
+
+  FileTreeNode(File file, boolean directory) {
+    super(file.getName(), directory);
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /*
+   * Directories first, then files, each sorted by name ignoring case.
+   */
+  @Override
+  protected Callable<List<LazyTreeNode>> childLister() {
+    return new Callable<List<LazyTreeNode>>() {
+      @Override
+      public List<LazyTreeNode> call() {
+        List<FileTreeNode> dirs = new ArrayList<>();
+        List<FileTreeNode> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath())) {
+          for (Path path : stream) {
+            boolean isDirectory = Files.isDirectory(path);
+            (isDirectory ? dirs : files).add(new FileTreeNode(path.toFile(), isDirectory));
+          }
+        }
+        catch (IOException | DirectoryIteratorException e) {
+          log.warn("Could not list {}", file, e);
+        }
+        Collections.sort(dirs, BY_NAME);
+        Collections.sort(files, BY_NAME);
+        List<LazyTreeNode> children = new ArrayList<LazyTreeNode>(dirs);
+        children.addAll(files);
+        return children;
+      }
+    };
+  }
+}
@@ -0,0 +1,60 @@
+package gov.loc.repository.bagger.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.bag.impl.PayloadPathIndex;
+
+/**
+ * A tree node for a payload file or directory of a bag whose payload is not
+ * a directory on disk, such as a bag read from a zip or tar file or a holey
+ * bag. Its children are looked up in the bag's {@link PayloadPathIndex}, so
+ * only the nodes that are shown exist.
+ */
+public class IndexTreeNode extends LazyTreeNode {
+  private static final long serialVersionUID = 1L;
+
+  private final transient DefaultBag bag;
+  private final String path;
+
+  public IndexTreeNode(DefaultBag bag, String path, boolean directory) {
+    super(path.substring(path.lastIndexOf('/') + 1), directory);
+    this.bag = bag;
+    this.path = path;
+  }
+
+  /**
+   * The path of the file or directory in the bag.
+   */
+  public String getBagPath() {
+    return path;
+  }
+
+  /*
+   * Directories first, then files, as with files on disk.
+   */
+  @Override
+  protected Callable<List<LazyTreeNode>> childLister() {
+    // the index is taken here as the bag may only be read on the event thread
+    final PayloadPathIndex index = bag.getPayloadIndex();
+    return new Callable<List<LazyTreeNode>>() {
+      @Override
+      public List<LazyTreeNode> call() {
+        List<LazyTreeNode> dirs = new ArrayList<>();
+        List<LazyTreeNode> files = new ArrayList<>();
+        for (String name : index.children(path)) {
+          if (name.endsWith("/")) {
+            dirs.add(new IndexTreeNode(bag, path + "/" + name.substring(0, name.length() - 1), true));
+          }
+          else {
+            files.add(new IndexTreeNode(bag, path + "/" + name, false));
+          }
+        }
+        dirs.addAll(files);
+        return dirs;
+      }
+    };
+  }
+}
@@ -0,0 +1,76 @@
+package gov.loc.repository.bagger.ui;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * A tree node whose children are not known until {@link BagTree} loads them,
+ * which it does when the node is first expanded; it may unload them again
+ * once the node has been collapsed for a while.
+ */
+public abstract class LazyTreeNode extends DefaultMutableTreeNode {
+  private static final long serialVersionUID = 1L;
+
+  enum State {
+    UNLOADED, LOADING, LOADED
+  }
+
+  private final boolean directory;
+  private State state = State.UNLOADED;
+  private int generation = 0;
+
+  protected LazyTreeNode(String name, boolean directory) {
+    super(name, directory);
+    this.directory = directory;
+  }
+
+  public boolean isDirectory() {
+    return directory;
+  }
+
+  /*
+   * A directory shows an expand handle before its children are known.
+   */
+  @Override
+  public boolean isLeaf() {
+    return !directory;
+  }
+
+  /**
+   * Called on the event thread; the task it returns lists the children, in
+   * display order, on a loader thread.
+   */
+  protected abstract Callable<List<LazyTreeNode>> childLister();
+
+  State getState() {
+    return state;
+  }
+
+  /**
+   * Starts a load and returns its generation, which
+   * {@link #isCurrent(int)} checks before the children are put in.
+   */
+  int startLoading() {
+    state = State.LOADING;
+    return ++generation;
+  }
+
+  boolean isCurrent(int loadGeneration) {
+    return state == State.LOADING && generation == loadGeneration;
+  }
+
+  void loaded() {
+    state = State.LOADED;
+  }
+
+  /**
+   * Forgets the children; they are listed again on the next expansion.
+   */
+  void unload() {
+    removeAllChildren();
+    state = State.UNLOADED;
+    generation++;
+  }
+}
@@ -0,0 +1,33 @@
+package gov.loc.repository.bagger.ui;
+
+/**
+ * The lines of a text shown by a {@link PagedTextPane}, read on demand so
+ * that only the lines on screen are ever held as strings.
+ */
+interface LineSource {
+
+  /**
+   * Finds the lines; called once, off the event thread. The count grows
+   * while it runs.
+   */
+  void index();
+
+  boolean isIndexed();
+
+  int getLineCount();
+
+  String getLine(int line);
+
+  /**
+   * The first line at or after <code>fromLine</code> containing
+   * <code>text</code>, or -1. Called off the event thread.
+   */
+  int find(String text, int fromLine);
+
+  /**
+   * The line listing a bag path, or -1. Called off the event thread.
+   */
+  int findPath(String path);
+
+  void close();
+}
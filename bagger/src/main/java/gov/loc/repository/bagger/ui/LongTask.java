@@ -1,96 +1,242 @@
 package gov.loc.repository.bagger.ui;
 
 import java.text.MessageFormat;
-
-import javax.swing.ProgressMonitor;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagger.bag.impl.ByteProgressListener;
+import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
+import gov.loc.repository.bagit.Cancellable;
 
-public class LongTask implements ProgressListener {
+/**
+ * One long operation run by the {@link TaskService}. It is the operation's
+ * progress listener and its cancellation token: workers report into a
+ * {@link ProgressAggregator} and never touch Swing, and cancelling the task
+ * cancels every operation registered with it.
+ */
+public class LongTask implements ByteProgressListener, Cancellable {
 
   protected static final Logger log = LoggerFactory.getLogger(LongTask.class);
 
-  private boolean done = false;
-  private Progress progress;
-  private ProgressMonitor progressMonitor;
-
-  private String activityMonitored;
+  public enum State {
+    QUEUED, RUNNING, DONE, CANCELLED, FAILED;
 
-  public LongTask() {
-    // Compute length of task...
-    // In a real program, this would figure out
-    // the number of bytes to read or whatever.
+    public boolean isFinished() {
+      return this != QUEUED && this != RUNNING;
+    }
   }
 
-  public void setMonitor(ProgressMonitor monitor) {
-    this.progressMonitor = monitor;
-  }
+  private static final double MB = 1024 * 1024;
+
+  private final String name;
+  private final Object key;
+  private final Progress progress;
+  private final String activityMonitored;
+  private final ProgressAggregator aggregator = new ProgressAggregator();
+  private final List<Cancellable> cancellables = new CopyOnWriteArrayList<>();
+  private volatile boolean cancelled = false;
+  private volatile State state = State.QUEUED;
 
-  public void setProgress(Progress progress) {
+  // set on the event thread, apart from a failure to start
+  private volatile String note = "";
+  private double fraction = -1;
+
+  LongTask(String name, Object key, Progress progress, String activityMonitored) {
+    this.name = name;
+    this.key = key;
     this.progress = progress;
+    this.activityMonitored = activityMonitored;
+  }
+
+  public String getName() {
+    return name;
   }
 
   /**
-   * Called from ProgressBarDemo to start the task.
+   * What the task works on; tasks with the same key run one after another.
    */
-  public void go() {
-    final SwingWorker worker = new SwingWorker(this) {
-      @Override
-      public Object construct() {
-        done = false;
-        longTask.progress.execute();
-        return new Object();
-      }
+  public Object getKey() {
+    return key;
+  }
 
-      @Override
-      public void finished() {
-        // update UI
+  public State getState() {
+    return state;
+  }
+
+  public String getActivityMonitored() {
+    return activityMonitored;
+  }
+
+  /*
+   * Called by the task service on one of its threads.
+   */
+  void run() {
+    if (cancelled) {
+      state = State.CANCELLED;
+      return;
+    }
+    state = State.RUNNING;
+    try {
+      progress.execute(this);
+      state = cancelled ? State.CANCELLED : State.DONE;
+    }
+    catch (RuntimeException e) {
+      log.error("Task {} failed", name, e);
+      state = State.FAILED;
+    }
+    finally {
+      if (state == State.RUNNING) {
+        // an Error went past the catch above
+        state = State.FAILED;
+      }
+      for (ProgressAggregator.Snapshot phase : aggregator.getPhases()) {
+        if (phase.getCount() > 0 || phase.getBytes() > 0) {
+          String summary = describePhase(phase);
+          log.info(summary);
+          ApplicationContextUtil.addConsoleMessage(summary);
+        }
       }
-    };
-    worker.start();
+    }
   }
 
-  public boolean hasUserTriedToCancel() {
-    return progressMonitor.isCanceled();
+  void failed(String reason) {
+    log.error("Task {} failed: {}", name, reason);
+    note = reason;
+    state = State.FAILED;
   }
 
   /**
-   * Called from ProgressBarDemo to find out if the task has completed.
+   * Makes cancelling this task cancel <code>cancellable</code> too, at once
+   * when the task is already cancelled.
    */
-  public boolean isDone() {
-    return done;
+  public void addCancellable(Cancellable cancellable) {
+    cancellables.add(cancellable);
+    if (cancelled) {
+      cancellable.cancel();
+    }
   }
 
-  public void done() {
-    this.done = true;
-    progressMonitor.close();
+  public void removeCancellable(Cancellable cancellable) {
+    cancellables.remove(cancellable);
   }
 
-  // should be thread-safe
   @Override
-  public synchronized void reportProgress(String activity, Object item, Long count, Long total) {
-    if (count == null || total == null) {
-      log.error("reportProgress received null info: count={}, total={}", count, total);
-    }
-    else {
-      if (activityMonitored == null || activityMonitored.equals(activity)) {
-        String message = MessageFormat.format("{0} ({2} of {3}) {1} ", activity, item, count, total);
-        this.progressMonitor.setNote(message);
-        this.progressMonitor.setMaximum(total.intValue());
-        this.progressMonitor.setProgress(count.intValue());
-      }
+  public void cancel() {
+    cancelled = true;
+    for (Cancellable cancellable : cancellables) {
+      cancellable.cancel();
     }
   }
 
-  public synchronized String getActivityMonitored() {
-    return activityMonitored;
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
   }
 
-  public synchronized void setActivityMonitored(String activityMonitored) {
-    this.activityMonitored = activityMonitored;
+  @Override
+  public void reportProgress(String activity, Object item, Long count, Long total) {
+    aggregator.report(activity, item, count, total);
+  }
+
+  @Override
+  public void reportBytes(String activity, long bytes) {
+    aggregator.addBytes(activity, bytes);
   }
 
+  @Override
+  public void reportByteTotal(String activity, long total) {
+    aggregator.setByteTotal(activity, total);
+  }
+
+  /**
+   * Counts the items of <code>activity</code> from zero again, for an
+   * operation that starts over on a new set of items.
+   */
+  public void startRound(String activity) {
+    aggregator.startRound(activity);
+  }
+
+  /**
+   * Measures an activity whose operation only reports items in bytes, using
+   * the size of each item.
+   */
+  public void weighItems(String activity, long totalBytes, ProgressAggregator.ItemSizes sizes) {
+    aggregator.weighItems(activity, totalBytes, sizes);
+  }
+
+  /**
+   * Samples the latest progress of the monitored activity for
+   * {@link #getNote()} and {@link #getFraction()}. Must be called on the
+   * event thread.
+   */
+  public void update() {
+    ProgressAggregator.Snapshot snapshot = aggregator.sample(activityMonitored);
+    if (snapshot == null) {
+      return;
+    }
+    StringBuilder text = new StringBuilder(snapshot.getActivity());
+    if (snapshot.getTotal() > 0) {
+      text.append(MessageFormat.format(" ({0} of {1})", snapshot.getCount(), snapshot.getTotal()));
+    }
+    if (snapshot.getItem() != null) {
+      text.append(' ').append(snapshot.getItem());
+    }
+    if (snapshot.getByteTotal() > 0) {
+      text.append(String.format(" - %.1f of %.1f MB", snapshot.getBytes() / MB, snapshot.getByteTotal() / MB));
+    }
+    if (snapshot.getBytes() > 0 && snapshot.getBytesPerSecond() >= 0) {
+      text.append(String.format(" at %.1f MB/s", snapshot.getBytesPerSecond() / MB));
+    }
+    text.append(" - ").append(formatDuration(snapshot.getElapsedMillis()));
+    if (snapshot.getRemainingMillis() >= 0) {
+      text.append(", ").append(formatDuration(snapshot.getRemainingMillis())).append(" left");
+    }
+    note = text.toString();
+    fraction = snapshot.getFraction();
+  }
+
+  /**
+   * What the task was doing when last updated.
+   */
+  public String getNote() {
+    return note;
+  }
+
+  /**
+   * How much of the monitored activity was done when last updated, from 0
+   * to 1, or -1 when not known.
+   */
+  public double getFraction() {
+    return fraction;
+  }
+
+  private static String describePhase(ProgressAggregator.Snapshot phase) {
+    StringBuilder summary = new StringBuilder(phase.getActivity()).append(": ");
+    summary.append(phase.getCount()).append(" items");
+    if (phase.getBytes() > 0) {
+      summary.append(String.format(", %.1f MB", phase.getBytes() / MB));
+    }
+    summary.append(" in ").append(formatDuration(phase.getElapsedMillis()));
+    if (phase.getBytes() > 0 && phase.getBytesPerSecond() > 0) {
+      summary.append(String.format(" (%.1f MB/s)", phase.getBytesPerSecond() / MB));
+    }
+    return summary.toString();
+  }
+
+  private static String formatDuration(long millis) {
+    long seconds = TimeUnit.MILLISECONDS.toSeconds(millis + 999);
+    if (seconds >= 3600) {
+      return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+    return String.format("%d:%02d", seconds / 60, seconds % 60);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
 }
@@ -0,0 +1,253 @@
+package gov.loc.repository.bagger.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The lines of a file mapped into memory. Where every sixteenth line starts
+ * is kept in native memory, so a line is found by one lookup and a short
+ * scan, and the heap holds nothing in proportion to the file.
+ */
+class MappedLineSource implements LineSource {
+  protected static final Logger log = LoggerFactory.getLogger(MappedLineSource.class);
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final int LINES_PER_MARK = 16;
+  private static final int PUBLISH_EVERY = 4096;
+  // longer lines are cut short rather than made into huge strings
+  private static final int MAX_LINE_BYTES = 8192;
+
+  private final File file;
+  private final boolean temporary;
+  private final long length;
+  private final MappedByteBuffer[] segments;
+  // the start of line n * LINES_PER_MARK, for the lines counted so far
+  private volatile LongBuffer marks = ByteBuffer.allocateDirect(8 * 1024).asLongBuffer();
+  private volatile int lineCount = 0;
+  private volatile boolean indexed = false;
+  private volatile boolean closed = false;
+
+  MappedLineSource(File file, boolean temporary) throws IOException {
+    this.file = file;
+    this.temporary = temporary;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      length = channel.size();
+      segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+      for (int i = 0; i < segments.length; i++) {
+        long position = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+      }
+    }
+  }
+
+  /**
+   * Copies a stream to a temporary file and maps that, for tag files that
+   * are not on disk as they are shown.
+   */
+  static MappedLineSource spool(InputStream in) throws IOException {
+    File temp = File.createTempFile("bagger-tag-", ".txt");
+    temp.deleteOnExit();
+    Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return new MappedLineSource(temp, true);
+  }
+
+  /**
+   * Copies a file to a temporary one and maps that, so that the file itself
+   * is never held open or mapped and can be replaced while it is shown.
+   */
+  static MappedLineSource copyOf(File file) throws IOException {
+    File temp = File.createTempFile("bagger-tag-", ".txt");
+    temp.deleteOnExit();
+    Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return new MappedLineSource(temp, true);
+  }
+
+  @Override
+  public void index() {
+    int lines = 0;
+    for (int s = 0; s < segments.length; s++) {
+      MappedByteBuffer segment = segments[s];
+      long base = (long) s << SEGMENT_SHIFT;
+      int limit = segment.limit();
+      for (int i = 0; i < limit; i++) {
+        if (segment.get(i) == '\n') {
+          lines++;
+          if (lines % LINES_PER_MARK == 0) {
+            mark(lines / LINES_PER_MARK, base + i + 1);
+          }
+          if (lines % PUBLISH_EVERY == 0) {
+            if (closed) {
+              return;
+            }
+            lineCount = lines;
+          }
+        }
+      }
+    }
+    if (length > 0 && byteAt(length - 1) != '\n') {
+      lines++;
+    }
+    lineCount = lines;
+    indexed = true;
+    log.debug("Indexed {} lines of {}", lines, file);
+  }
+
+  private void mark(int n, long offset) {
+    LongBuffer current = marks;
+    if (n >= current.capacity()) {
+      LongBuffer grown = ByteBuffer.allocateDirect(current.capacity() * 2 * 8).asLongBuffer();
+      for (int i = 0; i < current.capacity(); i++) {
+        grown.put(i, current.get(i));
+      }
+      current = grown;
+      marks = grown;
+    }
+    current.put(n, offset);
+  }
+
+  @Override
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  @Override
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  @Override
+  public String getLine(int line) {
+    if (line < 0 || line >= lineCount || closed) {
+      return "";
+    }
+    long position = lineStart(line);
+    byte[] bytes = new byte[128];
+    int count = 0;
+    while (position < length && count < MAX_LINE_BYTES) {
+      byte b = byteAt(position++);
+      if (b == '\n') {
+        break;
+      }
+      if (count == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[count++] = b;
+    }
+    if (count > 0 && bytes[count - 1] == '\r') {
+      count--;
+    }
+    return new String(bytes, 0, count, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public int find(String text, int fromLine) {
+    if (text.isEmpty() || fromLine >= lineCount) {
+      return -1;
+    }
+    byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+    long at = indexOf(pattern, lineStart(Math.max(0, fromLine)));
+    return at < 0 ? -1 : lineOf(at);
+  }
+
+  /*
+   * Manifest lines end with the path after a space, a tab or the asterisk
+   * that marks binary mode.
+   */
+  @Override
+  public int findPath(String path) {
+    if (path.isEmpty()) {
+      return -1;
+    }
+    byte[] pattern = path.getBytes(StandardCharsets.UTF_8);
+    for (long at = indexOf(pattern, 0); at >= 0; at = indexOf(pattern, at + 1)) {
+      long end = at + pattern.length;
+      boolean startsPath = at > 0 && (byteAt(at - 1) == ' ' || byteAt(at - 1) == '\t' || byteAt(at - 1) == '*');
+      boolean endsLine = end == length || byteAt(end) == '\n' || byteAt(end) == '\r';
+      if (startsPath && endsLine) {
+        return lineOf(at);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    // the mapping goes when it is collected; until then the file may stay
+    if (temporary && !file.delete()) {
+      log.debug("Could not delete {} yet", file);
+    }
+  }
+
+  private byte byteAt(long position) {
+    return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_SIZE - 1)));
+  }
+
+  private long lineStart(int line) {
+    int n = line / LINES_PER_MARK;
+    long position = n == 0 ? 0 : marks.get(n);
+    for (int skip = line % LINES_PER_MARK; skip > 0 && position < length; position++) {
+      if (byteAt(position) == '\n') {
+        skip--;
+      }
+    }
+    return position;
+  }
+
+  /*
+   * The line holding a byte, by a binary search of the marks and a scan
+   * from the nearest one.
+   */
+  private int lineOf(long position) {
+    LongBuffer current = marks;
+    int low = 0;
+    // the block of the last line counted has its mark set
+    int high = Math.max(0, lineCount - 1) / LINES_PER_MARK;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (current.get(mid) <= position) {
+        low = mid;
+      }
+      else {
+        high = mid - 1;
+      }
+    }
+    int line = low * LINES_PER_MARK;
+    for (long at = low == 0 ? 0 : current.get(low); at < position; at++) {
+      if (byteAt(at) == '\n') {
+        line++;
+      }
+    }
+    return line;
+  }
+
+  private long indexOf(byte[] pattern, long from) {
+    long last = length - pattern.length;
+    for (long at = from; at <= last && !closed; at++) {
+      if (byteAt(at) != pattern[0]) {
+        continue;
+      }
+      int i = 1;
+      while (i < pattern.length && byteAt(at + i) == pattern[i]) {
+        i++;
+      }
+      if (i == pattern.length) {
+        return at;
+      }
+    }
+    return -1;
+  }
+}
@@ -304,8 +304,8 @@ public class NewBagInPlaceFrame extends JFrame implements ActionListener {
       fs.setCurrentDirectory(bag.getRootDir());
       if (bag.getName() != null && !bag.getName().equalsIgnoreCase(bagView.getPropertyMessage("bag.label.noname"))) {
         String selectedName = bag.getName();
-        if (bag.getSerialMode() == DefaultBag.ZIP_MODE) {
-          selectedName += "." + DefaultBag.ZIP_LABEL;
+        if (bag.getSerialMode() != DefaultBag.NO_MODE) {
+          selectedName += "." + DefaultBag.getSerialLabel(bag.getSerialMode());
         }
         fs.setSelectedFile(new File(selectedName));
       }
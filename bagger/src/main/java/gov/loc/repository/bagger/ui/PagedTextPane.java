@@ -0,0 +1,236 @@
+package gov.loc.repository.bagger.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.MessageFormat;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
+
+/**
+ * A read-only view of a possibly very large text, such as a manifest. Only
+ * the lines in view are read, and the text is opened and its lines counted
+ * in the background; the view fills in as they are counted.
+ */
+public class PagedTextPane extends JPanel {
+  private static final long serialVersionUID = 1L;
+  protected static final Logger log = LoggerFactory.getLogger(PagedTextPane.class);
+  private static final int REFRESH_MILLIS = 250;
+  // opens and counts the lines of every pane, one at a time
+  private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new DaemonThreadFactory("text-pane-"));
+  // searches, kept apart so that they do not wait for the counting
+  private static final ExecutorService FINDER = Executors.newSingleThreadExecutor(new DaemonThreadFactory("text-find-"));
+
+  private final LineModel model = new LineModel();
+  private final JList<String> lines = new JList<>(model);
+  private final JLabel status = new JLabel(ApplicationContextUtil.getMessage("bagTree.loading"));
+  private final JTextField findField = new JTextField(16);
+  private final JTextField pathField = new JTextField(16);
+  private final Timer refresher = new Timer(REFRESH_MILLIS, null);
+  private volatile LineSource source;
+  private volatile boolean disposed = false;
+
+  /**
+   * @param opener opens the text; called on a background thread
+   */
+  public PagedTextPane(Callable<? extends LineSource> opener) {
+    super(new BorderLayout());
+    lines.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    lines.setBackground(new Color(240, 240, 240));
+    lines.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    // fixed cells keep the list from measuring every line
+    lines.setPrototypeCellValue(String.format("%0160d", 0));
+    add(new JScrollPane(lines), BorderLayout.CENTER);
+    add(createToolBar(), BorderLayout.NORTH);
+
+    refresher.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+    refresher.start();
+    open(opener);
+  }
+
+  private JPanel createToolBar() {
+    JPanel toolBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    JButton findButton = new JButton(ApplicationContextUtil.getMessage("textPane.find"));
+    ActionListener find = new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        find(false, findField.getText());
+      }
+    };
+    findButton.addActionListener(find);
+    findField.addActionListener(find);
+    JButton pathButton = new JButton(ApplicationContextUtil.getMessage("textPane.goToPath"));
+    ActionListener goToPath = new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        find(true, pathField.getText().trim());
+      }
+    };
+    pathButton.addActionListener(goToPath);
+    pathField.addActionListener(goToPath);
+    toolBar.add(findField);
+    toolBar.add(findButton);
+    toolBar.add(pathField);
+    toolBar.add(pathButton);
+    toolBar.add(status);
+    return toolBar;
+  }
+
+  private void open(final Callable<? extends LineSource> opener) {
+    WORKER.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (disposed) {
+          return;
+        }
+        LineSource opened;
+        try {
+          opened = opener.call();
+        }
+        catch (Exception e) {
+          log.error("Failed to open text", e);
+          final String message = MessageFormat.format(ApplicationContextUtil.getMessage("textPane.failed"), e.getMessage());
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              refresher.stop();
+              status.setText(message);
+            }
+          });
+          return;
+        }
+        source = opened;
+        if (disposed) {
+          opened.close();
+          return;
+        }
+        opened.index();
+      }
+    });
+  }
+
+  /*
+   * Shows the lines counted since the last refresh.
+   */
+  private void refresh() {
+    LineSource current = source;
+    if (current == null) {
+      return;
+    }
+    boolean indexed = current.isIndexed();
+    model.setSize(current.getLineCount());
+    String message = indexed ? "textPane.lines" : "textPane.counting";
+    status.setText(MessageFormat.format(ApplicationContextUtil.getMessage(message), model.getSize()));
+    if (indexed) {
+      refresher.stop();
+    }
+  }
+
+  /*
+   * Searches in the background, among the lines counted so far, from the
+   * line after the one selected; a path is looked for from the top.
+   */
+  private void find(final boolean path, final String text) {
+    if (source == null || text.isEmpty()) {
+      return;
+    }
+    final int from = path ? 0 : lines.getSelectedIndex() + 1;
+    FINDER.execute(new Runnable() {
+      @Override
+      public void run() {
+        final LineSource current = source;
+        final int line = path ? current.findPath(text) : current.find(text, from);
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            refresh();
+            if (line < 0 || line >= model.getSize()) {
+              status.setText(MessageFormat.format(ApplicationContextUtil.getMessage("textPane.notFound"), text));
+              return;
+            }
+            lines.setSelectedIndex(line);
+            lines.ensureIndexIsVisible(line);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Stops counting and lets go of the text.
+   */
+  public void dispose() {
+    disposed = true;
+    refresher.stop();
+    LineSource current = source;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    DaemonThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  private class LineModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    private int size = 0;
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+      return source.getLine(index);
+    }
+
+    void setSize(int newSize) {
+      if (newSize > size) {
+        int old = size;
+        size = newSize;
+        fireIntervalAdded(this, old, newSize - 1);
+      }
+    }
+  }
+}
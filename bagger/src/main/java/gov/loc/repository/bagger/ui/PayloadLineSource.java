@@ -0,0 +1,59 @@
+package gov.loc.repository.bagger.ui;
+
+import java.util.Iterator;
+
+import gov.loc.repository.bagger.bag.impl.PayloadPathIndex;
+
+/**
+ * The payload paths of a bag, one per line, read from its path index.
+ */
+class PayloadLineSource implements LineSource {
+  private final PayloadPathIndex index;
+  private final int lineCount;
+
+  PayloadLineSource(PayloadPathIndex index) {
+    this.index = index;
+    this.lineCount = index.size();
+  }
+
+  @Override
+  public void index() {
+  }
+
+  @Override
+  public boolean isIndexed() {
+    return true;
+  }
+
+  @Override
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  @Override
+  public String getLine(int line) {
+    // paths removed since the pane was made leave blank lines at the end
+    return line < index.size() ? index.get(index.idAt(line)) : "";
+  }
+
+  @Override
+  public int find(String text, int fromLine) {
+    int line = 0;
+    for (Iterator<String> it = index.iterator(); it.hasNext(); line++) {
+      String path = it.next();
+      if (line >= fromLine && path.contains(text)) {
+        return line;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int findPath(String path) {
+    return index.positionOf(path);
+  }
+
+  @Override
+  public void close() {
+  }
+}
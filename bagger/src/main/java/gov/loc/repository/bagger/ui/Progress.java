@@ -2,6 +2,10 @@ package gov.loc.repository.bagger.ui;
 
 public interface Progress {
 
-  void execute();
+  /**
+   * Does the work of <code>task</code> on a task service thread, reporting
+   * progress to it and stopping early once it is cancelled.
+   */
+  void execute(LongTask task);
 
 }
@@ -0,0 +1,306 @@
+package gov.loc.repository.bagger.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects progress reports from any number of worker threads on atomic
+ * counters, per activity, without locking. A single reader, normally the
+ * event thread, samples it from time to time to show how far along the work
+ * is, how fast bytes are going by and how long is left.
+ * <p>
+ * An activity that knows how many bytes it has to go through is measured in
+ * bytes, otherwise in items. Operations that only report items can still be
+ * measured in bytes by telling the aggregator how big each item is.
+ */
+public class ProgressAggregator {
+  private static final long NANOS_PER_MILLI = 1000000L;
+  private static final double NANOS_PER_SECOND = 1e9;
+  // rates are averaged over the last this many samples
+  private static final int WINDOW = 50;
+
+  /**
+   * Tells how many bytes an item stands for.
+   */
+  public interface ItemSizes {
+    /**
+     * The size of <code>item</code>, or a negative number when not known.
+     * Called on worker threads.
+     */
+    long sizeOf(Object item);
+  }
+
+  private final ConcurrentMap<String, Counters> activities = new ConcurrentHashMap<>();
+  // the activities in the order they started
+  private final ConcurrentLinkedQueue<Counters> phases = new ConcurrentLinkedQueue<>();
+  private volatile Counters latest;
+
+  // only touched by the thread that samples
+  private Counters windowCounters;
+  private final long[] windowTimes = new long[WINDOW];
+  private final long[] windowBytes = new long[WINDOW];
+  private final long[] windowDone = new long[WINDOW];
+  private int windowSize = 0;
+  private int windowNext = 0;
+
+  /**
+   * Records that <code>count</code> of <code>total</code> items are done.
+   * Reports from parallel workers arrive out of order, so the count only goes
+   * up until {@link #startRound(String)} is called. A null count or total
+   * just updates the item shown.
+   */
+  public void report(String activity, Object item, Long count, Long total) {
+    Counters counters = counters(activity);
+    if (count != null) {
+      counters.raiseCount(count);
+      ItemSizes sizes = counters.sizes;
+      if (sizes != null) {
+        long size = sizes.sizeOf(item);
+        if (size > 0) {
+          counters.bytes.addAndGet(size);
+        }
+      }
+    }
+    if (total != null) {
+      counters.total = total;
+    }
+    counters.item = item;
+    touch(counters);
+    latest = counters;
+  }
+
+  /**
+   * Starts <code>activity</code> over for an operation that counts its items
+   * from one again, such as a verifier going on to the next set of
+   * manifests. Its bytes and time carry on.
+   */
+  public void startRound(String activity) {
+    Counters counters = counters(activity);
+    counters.count.set(0);
+    counters.item = null;
+  }
+
+  public void addBytes(String activity, long bytes) {
+    Counters counters = counters(activity);
+    counters.bytes.addAndGet(bytes);
+    touch(counters);
+  }
+
+  public void setByteTotal(String activity, long total) {
+    counters(activity).byteTotal = total;
+  }
+
+  /**
+   * Measures <code>activity</code> in bytes, counting the size of each item
+   * reported done towards <code>totalBytes</code>.
+   */
+  public void weighItems(String activity, long totalBytes, ItemSizes sizes) {
+    Counters counters = counters(activity);
+    counters.byteTotal = totalBytes;
+    counters.sizes = sizes;
+  }
+
+  private Counters counters(String activity) {
+    String key = activity == null ? "" : activity;
+    Counters counters = activities.get(key);
+    if (counters == null) {
+      Counters created = new Counters(key);
+      counters = activities.putIfAbsent(key, created);
+      if (counters == null) {
+        counters = created;
+      }
+    }
+    return counters;
+  }
+
+  /*
+   * An activity starts with its first report, which may come well after it
+   * was told its size.
+   */
+  private void touch(Counters counters) {
+    long now = System.nanoTime();
+    if (!counters.begun.get() && counters.begun.compareAndSet(false, true)) {
+      counters.started = now;
+      phases.add(counters);
+    }
+    counters.updated = now;
+  }
+
+  /**
+   * The state of <code>activity</code>, or of whichever activity reported
+   * last when it is null; null when nothing has been reported for it yet.
+   * Meant to be called from one thread only.
+   */
+  public Snapshot sample(String activity) {
+    Counters counters = activity == null ? latest : activities.get(activity);
+    if (counters == null || counters.started == 0) {
+      return null;
+    }
+    long now = System.nanoTime();
+    long count = counters.count.get();
+    long total = counters.total;
+    long bytes = counters.bytes.get();
+    long byteTotal = counters.byteTotal;
+    boolean byBytes = byteTotal > 0;
+    long done = byBytes ? bytes : count;
+    long goal = byBytes ? byteTotal : total;
+
+    if (counters != windowCounters) {
+      windowCounters = counters;
+      windowSize = 0;
+      windowNext = 0;
+    }
+    windowTimes[windowNext] = now;
+    windowBytes[windowNext] = bytes;
+    windowDone[windowNext] = done;
+    windowNext = (windowNext + 1) % WINDOW;
+    windowSize = Math.min(windowSize + 1, WINDOW);
+    int oldest = (windowNext - windowSize + WINDOW) % WINDOW;
+    double seconds = (now - windowTimes[oldest]) / NANOS_PER_SECOND;
+
+    double bytesPerSecond = -1;
+    long remainingMillis = -1;
+    if (seconds >= 1) {
+      bytesPerSecond = (bytes - windowBytes[oldest]) / seconds;
+      double donePerSecond = (done - windowDone[oldest]) / seconds;
+      if (donePerSecond > 0 && goal > done) {
+        remainingMillis = (long) ((goal - done) / donePerSecond * 1000);
+      }
+    }
+    double fraction = goal > 0 ? Math.min(1.0, (double) done / goal) : -1;
+    long elapsedMillis = (now - counters.started) / NANOS_PER_MILLI;
+    return new Snapshot(counters.activity, counters.item, count, total, bytes, byteTotal, fraction, bytesPerSecond,
+        remainingMillis, elapsedMillis);
+  }
+
+  /**
+   * What each activity did, in the order they started, with how long it took
+   * from its first report to its last.
+   */
+  public List<Snapshot> getPhases() {
+    List<Snapshot> result = new ArrayList<>();
+    for (Counters counters : phases) {
+      long count = counters.count.get();
+      long bytes = counters.bytes.get();
+      long nanos = counters.updated - counters.started;
+      double bytesPerSecond = nanos > 0 ? bytes * NANOS_PER_SECOND / nanos : -1;
+      result.add(new Snapshot(counters.activity, counters.item, count, counters.total, bytes, counters.byteTotal, 1.0,
+          bytesPerSecond, 0, nanos / NANOS_PER_MILLI));
+    }
+    return result;
+  }
+
+  private static class Counters {
+    final String activity;
+    final AtomicBoolean begun = new AtomicBoolean();
+    volatile long started;
+    volatile long updated;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    volatile long total = 0;
+    volatile long byteTotal = 0;
+    volatile Object item;
+    volatile ItemSizes sizes;
+
+    Counters(String activity) {
+      this.activity = activity;
+    }
+
+    void raiseCount(long value) {
+      long current = count.get();
+      while (value > current && !count.compareAndSet(current, value)) {
+        current = count.get();
+      }
+    }
+  }
+
+  /**
+   * What an activity had done when it was sampled.
+   */
+  public static class Snapshot {
+    private final String activity;
+    private final Object item;
+    private final long count;
+    private final long total;
+    private final long bytes;
+    private final long byteTotal;
+    private final double fraction;
+    private final double bytesPerSecond;
+    private final long remainingMillis;
+    private final long elapsedMillis;
+
+    Snapshot(String activity, Object item, long count, long total, long bytes, long byteTotal, double fraction,
+        double bytesPerSecond, long remainingMillis, long elapsedMillis) {
+      this.activity = activity;
+      this.item = item;
+      this.count = count;
+      this.total = total;
+      this.bytes = bytes;
+      this.byteTotal = byteTotal;
+      this.fraction = fraction;
+      this.bytesPerSecond = bytesPerSecond;
+      this.remainingMillis = remainingMillis;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getActivity() {
+      return activity;
+    }
+
+    public Object getItem() {
+      return item;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotal() {
+      return total;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * The bytes the activity expects to go through, or 0 when it is measured
+     * in items.
+     */
+    public long getByteTotal() {
+      return byteTotal;
+    }
+
+    /**
+     * How much of the activity is done, from 0 to 1, or -1 when its size is
+     * not known.
+     */
+    public double getFraction() {
+      return fraction;
+    }
+
+    /**
+     * Bytes a second over the last few seconds, or a negative number until
+     * it has been measured.
+     */
+    public double getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    /**
+     * The estimated time left, or -1 when it cannot be told yet.
+     */
+    public long getRemainingMillis() {
+      return remainingMillis;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+  }
+}
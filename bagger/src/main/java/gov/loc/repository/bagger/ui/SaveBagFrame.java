@@ -24,22 +24,27 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
-import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
+import javax.swing.ListModel;
+import javax.swing.ListSelectionModel;
 import javax.swing.border.Border;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,8 +82,8 @@ public class SaveBagFrame extends JFrame implements ActionListener {
   JCheckBox holeyCheckbox;
   JCheckBox isTagCheckbox;
   JCheckBox isPayloadCheckbox;
-  JComboBox<String> tagAlgorithmList;
-  JComboBox<String> payAlgorithmList;
+  JList<String> tagAlgorithmList;
+  JList<String> payAlgorithmList;
 
   public SaveBagFrame(BagView bagView, String title) {
     super(title);
@@ -210,22 +215,20 @@ public class SaveBagFrame extends JFrame implements ActionListener {
     zipButton.addActionListener(serializeListener);
     zipButton.setToolTipText(getMessage("bag.serializetype.zip.help"));
 
-    /*
-     * tarButton = new JRadioButton(getMessage("bag.serializetype.tar"));
-     * tarButton.setEnabled(true);
-     * tarButton.addActionListener(serializeListener);
-     * tarButton.setToolTipText(getMessage("bag.serializetype.tar.help"));
-     * 
-     * tarGzButton = new JRadioButton(getMessage("bag.serializetype.targz"));
-     * tarGzButton.setEnabled(true);
-     * tarGzButton.addActionListener(serializeListener);
-     * tarGzButton.setToolTipText(getMessage("bag.serializetype.targz.help"));
-     * 
-     * tarBz2Button = new JRadioButton(getMessage("bag.serializetype.tarbz2"));
-     * tarBz2Button.setEnabled(true);
-     * tarBz2Button.addActionListener(serializeListener);
-     * tarBz2Button.setToolTipText(getMessage("bag.serializetype.tarbz2.help"));
-     */
+    tarButton = new JRadioButton(getMessage("bag.serializetype.tar"));
+    tarButton.setEnabled(true);
+    tarButton.addActionListener(serializeListener);
+    tarButton.setToolTipText(getMessage("bag.serializetype.tar.help"));
+
+    tarGzButton = new JRadioButton(getMessage("bag.serializetype.targz"));
+    tarGzButton.setEnabled(true);
+    tarGzButton.addActionListener(serializeListener);
+    tarGzButton.setToolTipText(getMessage("bag.serializetype.targz.help"));
+
+    tarBz2Button = new JRadioButton(getMessage("bag.serializetype.tarbz2"));
+    tarBz2Button.setEnabled(true);
+    tarBz2Button.addActionListener(serializeListener);
+    tarBz2Button.setToolTipText(getMessage("bag.serializetype.tarbz2.help"));
 
     short mode = 2;
     if(bag != null){mode = bag.getSerialMode();}
@@ -234,15 +237,16 @@ public class SaveBagFrame extends JFrame implements ActionListener {
     }
     else if (mode == DefaultBag.ZIP_MODE) {
       this.zipButton.setEnabled(true);
-    } /*
-       * else if (mode == DefaultBag.TAR_MODE) {
-       * this.tarButton.setEnabled(true);
-       * } else if (mode == DefaultBag.TAR_GZ_MODE) {
-       * this.tarGzButton.setEnabled(true);
-       * } else if (mode == DefaultBag.TAR_BZ2_MODE) {
-       * this.tarBz2Button.setEnabled(true);
-       * }
-       */
+    }
+    else if (mode == DefaultBag.TAR_MODE) {
+      this.tarButton.setEnabled(true);
+    }
+    else if (mode == DefaultBag.TAR_GZ_MODE) {
+      this.tarGzButton.setEnabled(true);
+    }
+    else if (mode == DefaultBag.TAR_BZ2_MODE) {
+      this.tarBz2Button.setEnabled(true);
+    }
     else {
       this.noneButton.setEnabled(true);
     }
@@ -250,16 +254,16 @@ public class SaveBagFrame extends JFrame implements ActionListener {
     ButtonGroup serializeGroup = new ButtonGroup();
     serializeGroup.add(noneButton);
     serializeGroup.add(zipButton);
-    // serializeGroup.add(tarButton);
-    // serializeGroup.add(tarGzButton);
-    // serializeGroup.add(tarBz2Button);
+    serializeGroup.add(tarButton);
+    serializeGroup.add(tarGzButton);
+    serializeGroup.add(tarBz2Button);
     serializeGroupPanel = new JPanel(new FlowLayout());
     serializeGroupPanel.add(serializeLabel);
     serializeGroupPanel.add(noneButton);
     serializeGroupPanel.add(zipButton);
-    // serializeGroupPanel.add(tarButton);
-    // serializeGroupPanel.add(tarGzButton);
-    // serializeGroupPanel.add(tarBz2Button);
+    serializeGroupPanel.add(tarButton);
+    serializeGroupPanel.add(tarGzButton);
+    serializeGroupPanel.add(tarBz2Button);
     serializeGroupPanel.setBorder(border);
     serializeGroupPanel.setEnabled(true);
     serializeGroupPanel.setToolTipText(bagView.getPropertyMessage("bag.serializetype.help"));
@@ -277,9 +281,9 @@ public class SaveBagFrame extends JFrame implements ActionListener {
     for (Algorithm algorithm : Algorithm.values()) {
       listModel.add(algorithm.bagItAlgorithm);
     }
-    tagAlgorithmList = new JComboBox<>(listModel.toArray(new String[listModel.size()]));
+    tagAlgorithmList = createAlgorithmList(listModel);
     tagAlgorithmList.setName(getMessage("bag.tagalgorithmlist"));
-    tagAlgorithmList.addActionListener(new TagAlgorithmListHandler());
+    tagAlgorithmList.addListSelectionListener(new TagAlgorithmListHandler());
     tagAlgorithmList.setToolTipText(getMessage("bag.tagalgorithmlist.help"));
 
     JLabel payloadLabel = new JLabel(getMessage("bag.label.ispayload"));
@@ -291,9 +295,9 @@ public class SaveBagFrame extends JFrame implements ActionListener {
 
     JLabel payAlgorithmLabel = new JLabel(bagView.getPropertyMessage("bag.label.payalgorithm"));
     payAlgorithmLabel.setToolTipText(getMessage("bag.payalgorithm.help"));
-    payAlgorithmList = new JComboBox<>(listModel.toArray(new String[listModel.size()]));
+    payAlgorithmList = createAlgorithmList(listModel);
     payAlgorithmList.setName(getMessage("bag.payalgorithmlist"));
-    payAlgorithmList.addActionListener(new PayAlgorithmListHandler());
+    payAlgorithmList.addListSelectionListener(new PayAlgorithmListHandler());
     payAlgorithmList.setToolTipText(getMessage("bag.payalgorithmlist.help"));
     
     //only if bag is not null
@@ -305,9 +309,9 @@ public class SaveBagFrame extends JFrame implements ActionListener {
       holeyCheckbox.setSelected(bag.isHoley());
       urlLabel.setEnabled(bag.isHoley());
       isTagCheckbox.setSelected(bag.isBuildTagManifest());
-      tagAlgorithmList.setSelectedItem(bag.getTagManifestAlgorithm());
+      selectAlgorithms(tagAlgorithmList, bag.getTagManifestAlgorithms());
       isPayloadCheckbox.setSelected(bag.isBuildPayloadManifest());
-      payAlgorithmList.setSelectedItem(bag.getPayloadManifestAlgorithm());
+      selectAlgorithms(payAlgorithmList, bag.getPayloadManifestAlgorithms());
     }
 
     GridBagLayout layout = new GridBagLayout();
@@ -408,21 +412,22 @@ public class SaveBagFrame extends JFrame implements ActionListener {
       zipButton.setEnabled(true);
       zipButton.setSelected(true);
       bagView.infoInputPane.serializeValue.setText(DefaultBag.ZIP_LABEL);
-    } /*
-       * else if (mode == DefaultBag.TAR_MODE) {
-       * tarButton.setEnabled(true);
-       * tarButton.setSelected(true);
-       * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_LABEL);
-       * } else if (mode == DefaultBag.TAR_GZ_MODE) {
-       * tarGzButton.setEnabled(true);
-       * tarGzButton.setSelected(true);
-       * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_GZ_LABEL);
-       * } else if (mode == DefaultBag.TAR_BZ2_MODE) {
-       * tarBz2Button.setEnabled(true);
-       * tarBz2Button.setSelected(true);
-       * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_BZ2_LABEL);
-       * }
-       */
+    }
+    else if (mode == DefaultBag.TAR_MODE) {
+      tarButton.setEnabled(true);
+      tarButton.setSelected(true);
+      bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_LABEL);
+    }
+    else if (mode == DefaultBag.TAR_GZ_MODE) {
+      tarGzButton.setEnabled(true);
+      tarGzButton.setSelected(true);
+      bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_GZ_LABEL);
+    }
+    else if (mode == DefaultBag.TAR_BZ2_MODE) {
+      tarBz2Button.setEnabled(true);
+      tarBz2Button.setSelected(true);
+      bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_BZ2_LABEL);
+    }
     else {
       noneButton.setEnabled(true);
       noneButton.setSelected(true);
@@ -454,23 +459,22 @@ public class SaveBagFrame extends JFrame implements ActionListener {
           bagView.getBag().isSerial(true);
           bagView.getBag().setSerialMode(DefaultBag.ZIP_MODE);
           bagView.infoInputPane.serializeValue.setText(DefaultBag.ZIP_LABEL);
-        } /*
-           * else if (cb == tarButton) {
-           * bagView.getBag().isSerial(true);
-           * bagView.getBag().setSerialMode(DefaultBag.TAR_MODE);
-           * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_LABEL);
-           * } else if (cb == tarGzButton) {
-           * bagView.getBag().isSerial(true);
-           * bagView.getBag().setSerialMode(DefaultBag.TAR_GZ_MODE);
-           * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_GZ_LABEL
-           * );
-           * } else if (cb == tarBz2Button) {
-           * bagView.getBag().isSerial(true);
-           * bagView.getBag().setSerialMode(DefaultBag.TAR_BZ2_MODE);
-           * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_BZ2_LABEL
-           * );
-           * }
-           */
+        }
+        else if (cb == tarButton) {
+          bagView.getBag().isSerial(true);
+          bagView.getBag().setSerialMode(DefaultBag.TAR_MODE);
+          bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_LABEL);
+        }
+        else if (cb == tarGzButton) {
+          bagView.getBag().isSerial(true);
+          bagView.getBag().setSerialMode(DefaultBag.TAR_GZ_MODE);
+          bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_GZ_LABEL);
+        }
+        else if (cb == tarBz2Button) {
+          bagView.getBag().isSerial(true);
+          bagView.getBag().setSerialMode(DefaultBag.TAR_BZ2_MODE);
+          bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_BZ2_LABEL);
+        }
         else {
           bagView.getBag().isSerial(false);
           bagView.getBag().setSerialMode(DefaultBag.NO_MODE);
@@ -496,8 +500,8 @@ public class SaveBagFrame extends JFrame implements ActionListener {
       fs.setCurrentDirectory(bag.getRootDir());
       if (bag.getName() != null && !bag.getName().equalsIgnoreCase(bagView.getPropertyMessage("bag.label.noname"))) {
         String selectedName = bag.getName();
-        if (bag.getSerialMode() == DefaultBag.ZIP_MODE) {
-          selectedName += "." + DefaultBag.ZIP_LABEL;
+        if (bag.getSerialMode() != DefaultBag.NO_MODE) {
+          selectedName += "." + DefaultBag.getSerialLabel(bag.getSerialMode());
         }
         fs.setSelectedFile(new File(selectedName));
       }
@@ -572,14 +576,39 @@ public class SaveBagFrame extends JFrame implements ActionListener {
     }
   }
 
-  private class TagAlgorithmListHandler extends AbstractAction {
-    private static final long serialVersionUID = 75893358194076314L;
+  private JList<String> createAlgorithmList(List<String> algorithms) {
+    JList<String> list = new JList<>(algorithms.toArray(new String[algorithms.size()]));
+    list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+    list.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+    list.setVisibleRowCount(1);
+    list.setSelectedIndex(0);
+    return list;
+  }
+
+  private static void selectAlgorithms(JList<String> list, List<String> algorithms) {
+    ListModel<String> model = list.getModel();
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < model.getSize(); i++) {
+      if (algorithms.contains(model.getElementAt(i))) {
+        indices.add(i);
+      }
+    }
+    int[] selected = new int[indices.size()];
+    for (int i = 0; i < selected.length; i++) {
+      selected[i] = indices.get(i);
+    }
+    list.setSelectedIndices(selected);
+  }
 
+  private class TagAlgorithmListHandler implements ListSelectionListener {
     @Override
-    public void actionPerformed(ActionEvent e) {
-      JComboBox<?> jlist = (JComboBox<?>) e.getSource();
-      String alg = (String) jlist.getSelectedItem();
-      bagView.getBag().setTagManifestAlgorithm(alg);
+    public void valueChanged(ListSelectionEvent e) {
+      JList<?> jlist = (JList<?>) e.getSource();
+      List<String> algs = toStrings(jlist.getSelectedValuesList());
+      // keep the previous choice rather than saving a bag without a tag manifest
+      if (!e.getValueIsAdjusting() && !algs.isEmpty()) {
+        bagView.getBag().setTagManifestAlgorithms(algs);
+      }
     }
   }
 
@@ -601,15 +630,24 @@ public class SaveBagFrame extends JFrame implements ActionListener {
     }
   }
 
-  private class PayAlgorithmListHandler extends AbstractAction {
-    private static final long serialVersionUID = 75893358194076314L;
-
+  private class PayAlgorithmListHandler implements ListSelectionListener {
     @Override
-    public void actionPerformed(ActionEvent e) {
-      JComboBox<?> jlist = (JComboBox<?>) e.getSource();
-      String alg = (String) jlist.getSelectedItem();
-      bagView.getBag().setPayloadManifestAlgorithm(alg);
+    public void valueChanged(ListSelectionEvent e) {
+      JList<?> jlist = (JList<?>) e.getSource();
+      List<String> algs = toStrings(jlist.getSelectedValuesList());
+      // keep the previous choice rather than saving a bag without a payload manifest
+      if (!e.getValueIsAdjusting() && !algs.isEmpty()) {
+        bagView.getBag().setPayloadManifestAlgorithms(algs);
+      }
+    }
+  }
+
+  private static List<String> toStrings(List<?> values) {
+    List<String> strings = new ArrayList<>();
+    for (Object value : values) {
+      strings.add((String) value);
     }
+    return strings;
   }
 
   private class HoleyBagHandler extends AbstractAction {
@@ -9,6 +9,7 @@ import java.beans.PropertyChangeListener;
 
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
 public class StatusImageLabel extends JLabel implements PropertyChangeListener {
 
@@ -18,16 +19,40 @@ public class StatusImageLabel extends JLabel implements PropertyChangeListener {
   public static final String FAILURE_STATUS_ICON = "status.fail.icon";
   public static final String UNKNOWN_STATUS_ICON = "status.unknown.icon";
 
+  private StatusModel model;
+
   public StatusImageLabel(StatusModel model) {
     super("");
-    changeIcon(model.getStatus());
+    setModel(model);
+  }
+
+  /**
+   * Follows another status model, e.g. the one of a newly opened bag.
+   */
+  public void setModel(StatusModel model) {
+    if (this.model != null) {
+      this.model.removePropertyChangeListener(this);
+    }
+    this.model = model;
     model.addPropertyChangeListener(this);
+    changeIcon(model.getStatus());
   }
 
   @Override
   public void propertyChange(PropertyChangeEvent evt) {
-    Status newValue = (Status) evt.getNewValue();
-    changeIcon(newValue);
+    final Status newValue = (Status) evt.getNewValue();
+    if (SwingUtilities.isEventDispatchThread()) {
+      changeIcon(newValue);
+    }
+    else {
+      // status changes come from background save and validate tasks
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          changeIcon(newValue);
+        }
+      });
+    }
   }
 
   private void changeIcon(Status status) {
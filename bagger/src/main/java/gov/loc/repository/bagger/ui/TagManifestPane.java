@@ -2,13 +2,14 @@ package gov.loc.repository.bagger.ui;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 
-import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -17,7 +18,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.bag.impl.PayloadPathIndex;
 import gov.loc.repository.bagit.BagFile;
+import gov.loc.repository.bagit.impl.FileBagFile;
 
 public class TagManifestPane extends JTabbedPane {
   private static final long serialVersionUID = 1L;
@@ -26,10 +29,8 @@ public class TagManifestPane extends JTabbedPane {
   private String messages = "";
   private BagView parentView;
   private DefaultBag defaultBag;
-  private BagTextPane dataPane;
-  private JScrollPane dataScrollPane;
-  private List<BagTextPane> manifestPaneList;
-  private List<JScrollPane> manifestScrollPaneList;
+  private PagedTextPane dataPane;
+  private List<PagedTextPane> manifestPaneList = new ArrayList<>();
   private Dimension preferredDimension = new Dimension(600, 480);
   private Color selectedColor = Color.lightGray; // new Color(180, 180, 200);
   private Color unselectedColor = Color.black; // new Color(180, 180, 160);
@@ -78,46 +79,89 @@ public class TagManifestPane extends JTabbedPane {
   public void populateBagPane() {
     Collection<BagFile> list = defaultBag.getTags();
     manifestPaneList = new ArrayList<>();
-    manifestScrollPaneList = new ArrayList<>();
     log.info("TagManifestPane.populateBagPane getTags: {}", list.size());
     for (Iterator<BagFile> it = list.iterator(); it.hasNext();) {
       BagFile bf = it.next();
-      String content = "";
-      if (bf.getFilepath().contains("manifest")){
-        content = bf.toString();
-      }
-      else{
-        content = tokenFormat(bf.toString());
-      }
-      log.debug("BagFile: {}::{}", bf.getFilepath(), content);
-      BagTextPane manifestPane = new BagTextPane(content);
+      PagedTextPane manifestPane = new PagedTextPane(tagFileOpener(bf));
       manifestPaneList.add(manifestPane);
-      JScrollPane manifestScrollPane = new JScrollPane();
-      manifestScrollPane.setViewportView(manifestPane);
-      manifestScrollPane.setToolTipText(parentView.getPropertyMessage("compositePane.tab.manifest.help"));
-      manifestScrollPane.setForeground(selectedColor);
-      manifestScrollPaneList.add(manifestScrollPane);
+      manifestPane.setToolTipText(parentView.getPropertyMessage("compositePane.tab.manifest.help"));
+      manifestPane.setForeground(selectedColor);
       String tabName = bf.getFilepath();
       log.debug("manifestName: {}", tabName);
-      addTab(tabName, manifestScrollPane);
+      addTab(tabName, manifestPane);
     }
 
-    dataScrollPane = new JScrollPane();
-    String dataContent = defaultBag.getDataContent();
-    dataPane = new BagTextPane(dataContent);
-    dataScrollPane.setViewportView(dataPane);
-    dataScrollPane.setToolTipText(parentView.getPropertyMessage("compositePane.tab.data.help"));
-    dataScrollPane.setForeground(selectedColor);
+    dataPane = null;
     if (!this.defaultBag.isHoley()) {
-      addTab(parentView.getPropertyMessage("compositePane.tab.data"), dataScrollPane);
+      // read here, as the bag is only changed on this thread
+      defaultBag.updateDataSize();
+      final PayloadPathIndex index = defaultBag.getPayloadIndex();
+      dataPane = new PagedTextPane(new Callable<LineSource>() {
+        @Override
+        public LineSource call() {
+          return new PayloadLineSource(index);
+        }
+      });
+      dataPane.setToolTipText(parentView.getPropertyMessage("compositePane.tab.data.help"));
+      dataPane.setForeground(selectedColor);
+      addTab(parentView.getPropertyMessage("compositePane.tab.data"), dataPane);
     }
     init();
   }
 
+  /*
+   * Tag files are copied out before they are mapped, so that a save can
+   * replace the files in the bag while they are shown.
+   */
+  private Callable<LineSource> tagFileOpener(final BagFile bf) {
+    final File file = localFile(bf);
+    return new Callable<LineSource>() {
+      @Override
+      public LineSource call() throws Exception {
+        if (file != null) {
+          return MappedLineSource.copyOf(file);
+        }
+        try (InputStream in = bf.newInputStream()) {
+          return MappedLineSource.spool(in);
+        }
+      }
+    };
+  }
+
+  private File localFile(BagFile bf) {
+    if (bf instanceof FileBagFile) {
+      File file = ((FileBagFile) bf).getFile();
+      if (file != null && file.isFile()) {
+        return file;
+      }
+    }
+    File rootDir = defaultBag.getRootDir();
+    if (rootDir != null && rootDir.isDirectory() && !defaultBag.isDirty()) {
+      File file = new File(rootDir, bf.getFilepath());
+      if (file.isFile()) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Lets go of the text shown in every tab, e.g. before the bag is saved.
+   */
+  public void closeSources() {
+    for (PagedTextPane pane : manifestPaneList) {
+      pane.dispose();
+    }
+    if (dataPane != null) {
+      dataPane.dispose();
+    }
+  }
+
   // setBag must be called before updateTabs is called
   public void updateCompositePaneTabs(DefaultBag defaultBag) {
     setBag(defaultBag);
     if (this.getComponentCount() > 0) {
+      closeSources();
       this.removeAll();
       this.invalidate();
     }
@@ -131,16 +175,4 @@ public class TagManifestPane extends JTabbedPane {
     }
     this.invalidate();
   }
-
-  private String tokenFormat(String content) {
-    StringBuffer buffer = new StringBuffer();
-
-    StringTokenizer st = new StringTokenizer(content, ",", false);
-    while (st.hasMoreTokens()) {
-      String s = st.nextToken();
-      buffer.append(s);
-      buffer.append('\n');
-    }
-    return buffer.toString();
-  }
 }
@@ -0,0 +1,214 @@
+package gov.loc.repository.bagger.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableCellRenderer;
+
+import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
+
+/**
+ * The tasks of a {@link TaskService}: what each is doing and how far along it
+ * is, with buttons to cancel them and to clear away those that are done. The
+ * rows are refreshed a few times a second while any task is running.
+ */
+public class TaskListPane extends JPanel implements TaskService.Listener {
+  private static final long serialVersionUID = 1L;
+  private static final int REFRESH_MILLIS = 100;
+  private static final int PROGRESS_SCALE = 1000;
+
+  private final TaskService service;
+  private final TaskTableModel model = new TaskTableModel();
+  private final JTable table = new JTable(model);
+  private final Timer timer = new Timer(REFRESH_MILLIS, null);
+  // a task can be reported finished twice when it is over very quickly
+  private final Set<LongTask> announced = Collections.newSetFromMap(new WeakHashMap<LongTask, Boolean>());
+
+  public TaskListPane(TaskService service) {
+    super(new BorderLayout());
+    this.service = service;
+
+    table.getColumnModel().getColumn(TaskTableModel.PROGRESS).setCellRenderer(new ProgressRenderer());
+    table.getColumnModel().getColumn(TaskTableModel.DETAILS).setPreferredWidth(300);
+    add(new JScrollPane(table), BorderLayout.CENTER);
+
+    JButton cancelButton = new JButton(ApplicationContextUtil.getMessage("taskList.cancel"));
+    cancelButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        for (int row : table.getSelectedRows()) {
+          model.getTask(table.convertRowIndexToModel(row)).cancel();
+        }
+      }
+    });
+    JButton clearButton = new JButton(ApplicationContextUtil.getMessage("taskList.clear"));
+    clearButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        TaskListPane.this.service.removeFinished();
+        model.setTasks(TaskListPane.this.service.getTasks());
+      }
+    });
+    JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 2, 2));
+    buttonPanel.add(cancelButton);
+    buttonPanel.add(clearButton);
+    add(buttonPanel, BorderLayout.SOUTH);
+
+    timer.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+
+    model.setTasks(service.getTasks());
+    service.addListener(this);
+    timer.start();
+  }
+
+  @Override
+  public void taskAdded(LongTask task) {
+    model.addTask(task);
+    timer.start();
+  }
+
+  @Override
+  public void taskChanged(LongTask task) {
+    int row = model.indexOf(task);
+    if (row < 0) {
+      return;
+    }
+    if (task.getState().isFinished() && announced.add(task)) {
+      task.update();
+      Toolkit.getDefaultToolkit().beep();
+    }
+    model.fireTableRowsUpdated(row, row);
+    timer.start();
+  }
+
+  /*
+   * Samples the running tasks, and stops the timer when none are left.
+   */
+  private void refresh() {
+    boolean active = false;
+    for (int row = 0; row < model.getRowCount(); row++) {
+      LongTask task = model.getTask(row);
+      LongTask.State state = task.getState();
+      if (state == LongTask.State.RUNNING) {
+        task.update();
+        model.fireTableRowsUpdated(row, row);
+      }
+      active |= !state.isFinished();
+    }
+    if (!active) {
+      timer.stop();
+    }
+  }
+
+  private static class TaskTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    static final int NAME = 0;
+    static final int STATUS = 1;
+    static final int PROGRESS = 2;
+    static final int DETAILS = 3;
+    private static final String[] COLUMNS = { "taskList.name", "taskList.status", "taskList.progress",
+        "taskList.details" };
+
+    private final List<LongTask> tasks = new ArrayList<>();
+
+    void setTasks(List<LongTask> list) {
+      tasks.clear();
+      tasks.addAll(list);
+      fireTableDataChanged();
+    }
+
+    void addTask(LongTask task) {
+      if (!tasks.contains(task)) {
+        tasks.add(task);
+        fireTableRowsInserted(tasks.size() - 1, tasks.size() - 1);
+      }
+    }
+
+    LongTask getTask(int row) {
+      return tasks.get(row);
+    }
+
+    int indexOf(LongTask task) {
+      return tasks.indexOf(task);
+    }
+
+    @Override
+    public int getRowCount() {
+      return tasks.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return ApplicationContextUtil.getMessage(COLUMNS[column]);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      LongTask task = tasks.get(row);
+      switch (column) {
+        case NAME:
+          return task.getName();
+        case STATUS:
+          return ApplicationContextUtil.getMessage("task.state." + task.getState().name().toLowerCase());
+        case PROGRESS:
+          return task;
+        default:
+          return task.getNote();
+      }
+    }
+  }
+
+  private static class ProgressRenderer extends JProgressBar implements TableCellRenderer {
+    private static final long serialVersionUID = 1L;
+
+    ProgressRenderer() {
+      super(0, PROGRESS_SCALE);
+      setStringPainted(true);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+        int row, int column) {
+      LongTask task = (LongTask) value;
+      double fraction = task.getFraction();
+      if (task.getState() == LongTask.State.DONE) {
+        fraction = 1;
+      }
+      if (fraction < 0) {
+        setValue(0);
+        setString(task.getState().isFinished() ? "" : "...");
+      }
+      else {
+        setValue((int) (fraction * PROGRESS_SCALE));
+        setString(Math.round(fraction * 100) + "%");
+      }
+      return this;
+    }
+  }
+}
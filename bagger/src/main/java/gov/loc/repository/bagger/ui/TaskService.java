@@ -0,0 +1,202 @@
+package gov.loc.repository.bagger.ui;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs long operations in the background on a bounded pool of threads, so
+ * that several can run at once. Tasks with the same key, normally the bag
+ * they work on, wait for each other and run in the order they were
+ * submitted; tasks on different bags run side by side.
+ * <p>
+ * Listeners hear about tasks on the event thread.
+ */
+public class TaskService {
+  protected static final Logger log = LoggerFactory.getLogger(TaskService.class);
+
+  public static final String THREADS_PROPERTY = "bagger.tasks.threads";
+  public static final int DEFAULT_THREADS = 2;
+  // tasks that can be waiting for a thread, besides those waiting for their key
+  private static final int MAX_QUEUED = 64;
+
+  public interface Listener {
+    void taskAdded(LongTask task);
+
+    void taskChanged(LongTask task);
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  // guarded by this: the tasks waiting for one with the same key to finish
+  private final Map<Object, Deque<LongTask>> waiting = new HashMap<>();
+  private final List<LongTask> tasks = new ArrayList<>();
+
+  public TaskService() {
+    this(Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+  }
+
+  public TaskService(int threads) {
+    int size = Math.max(1, threads);
+    executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "bagger-task-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Queues <code>progress</code> to run as a task named <code>name</code>.
+   * It starts once a thread is free and no earlier task with the same
+   * <code>key</code> is still queued or running; a null key waits for
+   * nothing.
+   *
+   * @param activityMonitored the activity whose progress is shown, or null
+   *          for whichever reported last
+   */
+  public synchronized LongTask submit(String name, Object key, Progress progress, String activityMonitored) {
+    LongTask task = new LongTask(name, key, progress, activityMonitored);
+    tasks.add(task);
+    fire(task, true);
+    if (key != null) {
+      Deque<LongTask> queue = waiting.get(key);
+      if (queue != null) {
+        queue.add(task);
+        return task;
+      }
+      waiting.put(key, new ArrayDeque<LongTask>());
+    }
+    start(task);
+    return task;
+  }
+
+  /*
+   * Called with the lock held.
+   */
+  private void start(final LongTask task) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          fire(task, false);
+          try {
+            task.run();
+          }
+          finally {
+            finished(task);
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      task.failed("Too many tasks are waiting");
+      finished(task);
+    }
+  }
+
+  private synchronized void finished(LongTask task) {
+    fire(task, false);
+    if (task.getKey() != null) {
+      release(task.getKey());
+    }
+  }
+
+  /**
+   * Makes <code>key</code> busy until {@link #release(Object)}, for work on
+   * it done by a task with another key. Tasks submitted with
+   * <code>key</code> meanwhile wait for the release. Returns false, holding
+   * nothing, when the key is already busy.
+   */
+  public synchronized boolean hold(Object key) {
+    if (waiting.containsKey(key)) {
+      return false;
+    }
+    waiting.put(key, new ArrayDeque<LongTask>());
+    return true;
+  }
+
+  /**
+   * Starts the next task waiting for <code>key</code>, or makes it free.
+   */
+  public synchronized void release(Object key) {
+    Deque<LongTask> queue = waiting.get(key);
+    LongTask next = queue == null ? null : queue.poll();
+    if (next == null) {
+      waiting.remove(key);
+    }
+    else {
+      start(next);
+    }
+  }
+
+  /**
+   * True while a task with <code>key</code> is queued or running.
+   */
+  public synchronized boolean isBusy(Object key) {
+    return key != null && waiting.containsKey(key);
+  }
+
+  /**
+   * The tasks submitted and not yet removed, oldest first.
+   */
+  public synchronized List<LongTask> getTasks() {
+    return new ArrayList<>(tasks);
+  }
+
+  /**
+   * Forgets the tasks that have finished.
+   */
+  public synchronized void removeFinished() {
+    for (int i = tasks.size() - 1; i >= 0; i--) {
+      if (tasks.get(i).getState().isFinished()) {
+        tasks.remove(i);
+      }
+    }
+  }
+
+  private void fire(final LongTask task, final boolean added) {
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        for (Listener listener : listeners) {
+          if (added) {
+            listener.taskAdded(task);
+          }
+          else {
+            listener.taskChanged(task);
+          }
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,32 @@
+package gov.loc.repository.bagger.ui;
+
+import javax.swing.JComponent;
+
+import org.springframework.richclient.application.PageComponentContext;
+import org.springframework.richclient.application.support.AbstractView;
+
+import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
+
+/**
+ * Docks the list of background tasks next to the console.
+ */
+public class TasksView extends AbstractView {
+
+  @Override
+  protected JComponent createControl() {
+    return new TaskListPane(ApplicationContextUtil.getBagView().taskService);
+  }
+
+  @Override
+  protected void registerLocalCommandExecutors(PageComponentContext context) {
+    context.register("startCommand", ApplicationContextUtil.getBagView().startExecutor);
+    context.register("openCommand", ApplicationContextUtil.getBagView().openExecutor);
+    context.register("createBagInPlaceCommand", ApplicationContextUtil.getBagView().createBagInPlaceExecutor);
+    context.register("clearCommand", ApplicationContextUtil.getBagView().clearExecutor);
+    context.register("validateCommand", ApplicationContextUtil.getBagView().validateExecutor);
+    context.register("completeCommand", ApplicationContextUtil.getBagView().completeExecutor);
+    context.register("addDataCommand", ApplicationContextUtil.getBagView().addDataExecutor);
+    context.register("saveBagCommand", ApplicationContextUtil.getBagView().saveBagExecutor);
+    context.register("saveBagAsCommand", ApplicationContextUtil.getBagView().saveBagAsExecutor);
+  }
+}
@@ -2,21 +2,27 @@ package gov.loc.repository.bagger.ui.handlers;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.richclient.application.Application;
-import org.springframework.richclient.progress.BusyIndicator;
 
+import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.bag.impl.PayloadScanner;
 import gov.loc.repository.bagger.ui.BagView;
+import gov.loc.repository.bagger.ui.LongTask;
 import gov.loc.repository.bagger.ui.Progress;
 import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
+import gov.loc.repository.bagit.BagFile;
 
-public class AddDataHandler extends AbstractAction implements Progress {
+public class AddDataHandler extends AbstractAction {
   protected static final Logger log = LoggerFactory.getLogger(AddDataHandler.class);
   private static final long serialVersionUID = 1L;
   BagView bagView;
@@ -26,19 +32,15 @@ public class AddDataHandler extends AbstractAction implements Progress {
     this.bagView = bagView;
   }
 
-  @Override
-  public void execute() {
-    bagView.statusBarEnd();
-  }
-
   @Override
   public void actionPerformed(ActionEvent e) {
-    BusyIndicator.showAt(Application.instance().getActiveWindow().getControl());
     addData();
-    BusyIndicator.clearAt(Application.instance().getActiveWindow().getControl());
   }
 
   public void addData() {
+    if (bagView.isBagBusy()) {
+      return;
+    }
     File selectFile = new File(File.separator + ".");
     JFrame frame = new JFrame();
     JFileChooser fc = new JFileChooser(selectFile);
@@ -50,24 +52,16 @@ public class AddDataHandler extends AbstractAction implements Progress {
 
     if (option == JFileChooser.APPROVE_OPTION) {
       File[] files = fc.getSelectedFiles();
-      String message = ApplicationContextUtil.getMessage("bag.message.filesadded");
-      if (files != null && files.length > 0) {
-        addBagData(files);
-        ApplicationContextUtil.addConsoleMessage(message + " " + getFileNames(files));
+      if (files == null || files.length == 0) {
+        files = new File[] { fc.getSelectedFile() };
       }
-      else {
-        File file = fc.getSelectedFile();
-        addBagData(file);
-        ApplicationContextUtil.addConsoleMessage(message + " " + file.getAbsolutePath());
-      }
-      bagView.bagPayloadTreePanel.refresh(bagView.bagPayloadTree);
-      bagView.updateAddData();
+      addBagData(files);
     }
   }
 
-  private String getFileNames(File[] files) {
+  private String getFileNames(List<File> files) {
     StringBuffer stringBuff = new StringBuffer();
-    int totalFileCount = files.length;
+    int totalFileCount = files.size();
     int displayCount = 20;
     if (totalFileCount < 20) {
       displayCount = totalFileCount;
@@ -76,7 +70,7 @@ public class AddDataHandler extends AbstractAction implements Progress {
       if (i != 0) {
         stringBuff.append("\n");
       }
-      stringBuff.append(files[i].getAbsolutePath());
+      stringBuff.append(files.get(i).getAbsolutePath());
     }
     if (totalFileCount > displayCount) {
       stringBuff.append("\n" + (totalFileCount - displayCount) + " more...");
@@ -84,29 +78,81 @@ public class AddDataHandler extends AbstractAction implements Progress {
     return stringBuff.toString();
   }
 
-  public void addBagData(File[] files) {
-    if (files != null) {
-      for (int i = 0; i < files.length; i++) {
-        log.info("addBagData[{}] {}", i, files[i].getName());
-        addBagData(files[i]);
-      }
+  /**
+   * Adds <code>files</code> and everything under them to the payload in the
+   * background. The directories are walked in parallel, and the bag and the
+   * payload tree are then updated in one go on the event thread, before the
+   * task ends so that a save queued on the bag waits for the new files.
+   */
+  public void addBagData(final File[] files) {
+    if (files == null || files.length == 0) {
+      return;
     }
+    bagView.startTask(new Progress() {
+      @Override
+      public void execute(LongTask task) {
+        scan(task, (DefaultBag) task.getKey(), Arrays.asList(files));
+      }
+    }, "Adding " + (files.length == 1 ? files[0].getName() : files.length + " files"), PayloadScanner.ACTIVITY);
   }
 
-  public void addBagData(File file) {
-    BusyIndicator.showAt(Application.instance().getActiveWindow().getControl());
+  private void scan(LongTask task, final DefaultBag bag, final List<File> files) {
+    PayloadScanner scanner = new PayloadScanner();
+    scanner.addProgressListener(task);
+    task.addCancellable(scanner);
+    final List<BagFile> found;
     try {
-      bagView.getBag().addFileToPayload(file);
-      boolean alreadyExists = bagView.bagPayloadTree.addNodes(file, false);
-      if (alreadyExists) {
-        bagView.showWarningErrorDialog("Warning - file already exists", "File: " + file.getName() + "\n" + "already exists in bag.");
-      }
+      found = scanner.scan(files, bag.getDataDirectory());
     }
-    catch (Exception e) {
-      log.error("Failed to add bag file", e);
-      bagView.showWarningErrorDialog("Error - file not added", "Error adding bag file: " + file + "\ndue to:\n" + e.getMessage());
+    catch (final Exception e) {
+      log.error("Failed to add bag files", e);
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          bagView.showWarningErrorDialog("Error - file not added", "Error adding bag files: " + getFileNames(files) + "\ndue to:\n" + e.getMessage());
+        }
+      });
+      return;
     }
-    BusyIndicator.clearAt(Application.instance().getActiveWindow().getControl());
+    if (scanner.isCancelled()) {
+      ApplicationContextUtil.addConsoleMessage("Adding files cancelled: " + getFileNames(files));
+      return;
+    }
+    onEventThread(new Runnable() {
+      @Override
+      public void run() {
+        if (bagView.getBag() != bag) {
+          // the bag was closed while its files were being found
+          return;
+        }
+        bag.addFilesToPayload(found);
+        final List<File> existing = bagView.bagPayloadTree.addNodes(files);
+        bagView.bagPayloadTreePanel.refresh(bagView.bagPayloadTree);
+        bagView.updateAddData();
+        ApplicationContextUtil.addConsoleMessage(ApplicationContextUtil.getMessage("bag.message.filesadded") + " " + getFileNames(files));
+        if (!existing.isEmpty()) {
+          // shown after the task ends; a modal dialog here would hold the bag
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              bagView.showWarningErrorDialog("Warning - file already exists", "File: " + getFileNames(existing) + "\n" + "already exists in bag.");
+            }
+          });
+        }
+      }
+    });
   }
 
+  private static void onEventThread(Runnable runnable) {
+    try {
+      SwingUtilities.invokeAndWait(runnable);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (InvocationTargetException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
 }
@@ -31,6 +31,9 @@ public class AddTagFileHandler extends AbstractAction {
   }
 
   public void addTagFile() {
+    if (bagView.isBagBusy()) {
+      return;
+    }
     File selectFile = new File(File.separator + ".");
     JFrame frame = new JFrame();
     JFileChooser fo = new JFileChooser(selectFile);
@@ -43,9 +43,11 @@ public class ClearBagHandler extends AbstractAction {
       confirmCloseBag();
     }
     if (isConfirmSaveFlag()) {
-      bagView.saveBagHandler.setClearAfterSaving(true);
-      bagView.saveBagAsHandler.openSaveBagAsFrame();
       setConfirmSaveFlag(false);
+      if (!bagView.isBagBusy()) {
+        bagView.saveBagHandler.setClearAfterSaving(true);
+        bagView.saveBagAsHandler.openSaveBagAsFrame();
+      }
     }
 
   }
@@ -84,15 +86,8 @@ public class ClearBagHandler extends AbstractAction {
   }
 
   public void newDefaultBag(File f) {
-    DefaultBag bag = null;
+    DefaultBag bag = createDefaultBag(f, bagView.infoInputPane.getBagVersion());
     String bagName = "";
-    try {
-      bag = new DefaultBag(f, bagView.infoInputPane.getBagVersion());
-    }
-    catch (Exception e) {
-      log.error("failed to create new bag with specified version, defaulting to using null", e);
-      bag = new DefaultBag(f, null);
-    }
     if (f == null) {
       bagName = bagView.getPropertyMessage("bag.label.noname");
     }
@@ -105,6 +100,20 @@ public class ClearBagHandler extends AbstractAction {
     bagView.setBag(bag);
   }
 
+  /**
+   * Reads or creates a bag without touching the view, so it may be called off
+   * the event thread.
+   */
+  public DefaultBag createDefaultBag(File f, String version) {
+    try {
+      return new DefaultBag(f, version, bagView.getProfileStore());
+    }
+    catch (Exception e) {
+      log.error("failed to create new bag with specified version, defaulting to using null", e);
+      return new DefaultBag(f, null, bagView.getProfileStore());
+    }
+  }
+
   public void setConfirmSaveFlag(boolean confirmSaveFlag) {
     this.confirmSaveFlag = confirmSaveFlag;
   }
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import gov.loc.repository.bagger.bag.impl.DefaultBag;
 import gov.loc.repository.bagger.ui.BagView;
+import gov.loc.repository.bagger.ui.LongTask;
 import gov.loc.repository.bagger.ui.Progress;
 import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 import gov.loc.repository.bagit.verify.impl.CompleteVerifierImpl;
@@ -18,7 +19,6 @@ public class CompleteBagHandler extends AbstractAction implements Progress {
   private static final long serialVersionUID = 1L;
   protected static final Logger log = LoggerFactory.getLogger(CompleteBagHandler.class);
   private BagView bagView;
-  private String messages;
 
   public CompleteBagHandler(BagView bagView) {
     super();
@@ -31,18 +31,18 @@ public class CompleteBagHandler extends AbstractAction implements Progress {
   }
 
   public void completeBag() {
-    bagView.statusBarBegin(this, "Checking if complete...", null);
+    bagView.startTask(this, "Checking if complete...", null);
   }
 
   @Override
-  public void execute() {
-    DefaultBag bag = bagView.getBag();
+  public void execute(LongTask task) {
+    DefaultBag bag = (DefaultBag) task.getKey();
     try {
       CompleteVerifierImpl completeVerifier = new CompleteVerifierImpl();
-      completeVerifier.addProgressListener(bagView.task);
-      bagView.longRunningProcess = completeVerifier;
+      completeVerifier.addProgressListener(task);
+      task.addCancellable(completeVerifier);
 
-      messages = bag.completeBag(completeVerifier);
+      final String messages = bag.completeBag(completeVerifier);
 
       if (messages != null && !messages.trim().isEmpty()) {
         bagView.showWarningErrorDialog("Warning - incomplete", "Is complete result: " + messages);
@@ -63,16 +63,12 @@ public class CompleteBagHandler extends AbstractAction implements Progress {
       log.error("Error completing bag!", e);
       e.printStackTrace();
 
-      if (bagView.longRunningProcess.isCancelled()) {
+      if (task.isCancelled()) {
         bagView.showWarningErrorDialog("Check cancelled", "Completion check cancelled.");
       }
       else {
         bagView.showWarningErrorDialog("Warning - complete check interrupted", "Error checking bag completeness: " + e.getMessage());
       }
     }
-    finally {
-      bagView.task.done();
-      bagView.statusBarEnd();
-    }
   }
 }
@@ -15,10 +15,9 @@ import gov.loc.repository.bagger.bag.impl.DefaultBag;
 import gov.loc.repository.bagger.bag.impl.DefaultBagInfo;
 import gov.loc.repository.bagger.ui.BagView;
 import gov.loc.repository.bagger.ui.NewBagInPlaceFrame;
-import gov.loc.repository.bagger.ui.Progress;
 import gov.loc.repository.bagit.BagFactory;
 
-public class CreateBagInPlaceHandler extends AbstractAction implements Progress {
+public class CreateBagInPlaceHandler extends AbstractAction {
   private static final long serialVersionUID = 1L;
   protected static final Logger log = LoggerFactory.getLogger(StartNewBagHandler.class);
   private BagView bagView;
@@ -33,11 +32,6 @@ public class CreateBagInPlaceHandler extends AbstractAction implements Progress
     createBagInPlace();
   }
 
-  @Override
-  public void execute() {
-    bagView.statusBarEnd();
-  }
-
   public void createBagInPlace() {
     NewBagInPlaceFrame newBagInPlaceFrame = new NewBagInPlaceFrame(bagView, bagView.getPropertyMessage("bag.frame.newbaginplace"));
     newBagInPlaceFrame.setBag(bagView.getBag());
@@ -2,22 +2,32 @@ package gov.loc.repository.bagger.ui.handlers;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 
 import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.ui.BagTree;
 import gov.loc.repository.bagger.ui.BagView;
+import gov.loc.repository.bagger.ui.FileTreeNode;
+import gov.loc.repository.bagger.ui.IndexTreeNode;
+import gov.loc.repository.bagger.ui.LongTask;
+import gov.loc.repository.bagger.ui.Progress;
 import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 import gov.loc.repository.bagit.impl.AbstractBagConstants;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
 
 public class OpenBagHandler extends AbstractAction {
   protected static final Logger log = LoggerFactory.getLogger(OpenBagHandler.class);
   private static final long serialVersionUID = 1L;
+  private static final String OPEN_ACTIVITY = "Opening bag";
+  private static final int STAGES = 4;
   BagView bagView;
 
   public OpenBagHandler(BagView bagView) {
@@ -52,69 +62,158 @@ public class OpenBagHandler extends AbstractAction {
     }
   }
 
-  public void openExistingBag(File file) {
+  /**
+   * Opens a bag in the background, in stages: the bag is read and its
+   * information shown first, then its payload is indexed and the trees are
+   * filled in. Progress goes to the task list, where cancelling the task
+   * stops the open between stages and leaves an empty bag. Opens wait for
+   * each other, as they all fill in the same forms and trees, and the bag
+   * opened counts as busy until it is fully shown.
+   */
+  public void openExistingBag(final File file) {
     bagView.infoInputPane.bagInfoInputPane.enableForms(true);
     bagView.clearBagHandler.clearExistingBag();
 
+    final String bagVersion = bagView.infoInputPane.getBagVersion();
+    bagView.taskService.submit("Opening " + file.getName(), this, new Progress() {
+      @Override
+      public void execute(LongTask task) {
+        open(task, file, bagVersion);
+      }
+    }, OPEN_ACTIVITY);
+  }
+
+  private void open(LongTask task, final File file, String bagVersion) {
+    final OpenOperation open = new OpenOperation();
+    open.addProgressListener(task);
+    task.addCancellable(open);
     try {
-      bagView.clearBagHandler.newDefaultBag(file);
-      ApplicationContextUtil.addConsoleMessage("Opened the bag " + file.getAbsolutePath());
-    }
-    catch (Exception ex) {
-      bagView.showWarningErrorDialog("Could not open Bag", "Failed to create bag message: " + ex.getMessage());
-      ApplicationContextUtil.addConsoleMessage("Failed to create bag message: " + ex.getMessage());
-      ApplicationContextUtil.addConsoleMessage("Failed to create bag exception: " + ex);
-      log.error("Failed to create bag", ex);
-      return;
-    }
-    DefaultBag bag = bagView.getBag();
-    bagView.infoInputPane.setBagVersion(bag.getVersion());
-    bagView.infoInputPane.setProfile(bag.getProfile().getName());
-    String fileName = file.getName();
-    fileName = file.getAbsolutePath();
-    bagView.infoInputPane.setBagName(fileName);
-
-    String s = file.getName();
-    int i = s.lastIndexOf('.');
-    if (i > 0 && i < s.length() - 1) {
-      String sub = s.substring(i + 1).toLowerCase();
-      /*
-       * if (sub.contains("gz")) {
-       * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_GZ_LABEL);
-       * //bagView.infoInputPane.tarGzButton.setSelected(true);
-       * bag.setSerialMode(DefaultBag.TAR_GZ_MODE);
-       * bag.isSerial(true);
-       * } else if (sub.contains("bz2")) {
-       * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_BZ2_LABEL);
-       * //bagView.infoInputPane.tarBz2Button.setSelected(true);
-       * bag.setSerialMode(DefaultBag.TAR_BZ2_MODE);
-       * bag.isSerial(true);
-       * } else if (sub.contains(DefaultBag.TAR_LABEL)) {
-       * bagView.infoInputPane.serializeValue.setText(DefaultBag.TAR_LABEL);
-       * //bagView.infoInputPane.tarButton.setSelected(true);
-       * bag.setSerialMode(DefaultBag.TAR_MODE);
-       * bag.isSerial(true);
-       * } else if (sub.contains(DefaultBag.ZIP_LABEL)) {
-       */
-      if (sub.contains(DefaultBag.ZIP_LABEL)) {
-        bagView.infoInputPane.serializeValue.setText(DefaultBag.ZIP_LABEL);
-        // bagView.infoInputPane.zipButton.setSelected(true);
-        bag.setSerialMode(DefaultBag.ZIP_MODE);
-        bag.isSerial(true);
+      open.stage("Reading " + file.getName(), 0);
+      final DefaultBag bag;
+      try {
+        bag = bagView.clearBagHandler.createDefaultBag(file, bagVersion);
+      }
+      catch (final Exception ex) {
+        log.error("Failed to create bag", ex);
+        onEventThread(new Runnable() {
+          @Override
+          public void run() {
+            bagView.showWarningErrorDialog("Could not open Bag", "Failed to create bag message: " + ex.getMessage());
+            ApplicationContextUtil.addConsoleMessage("Failed to create bag message: " + ex.getMessage());
+            ApplicationContextUtil.addConsoleMessage("Failed to create bag exception: " + ex);
+          }
+        });
+        return;
+      }
+      if (open.isCancelled()) {
+        return;
+      }
+
+      // the open is keyed on this handler, so the bag is held as well until
+      // its trees are filled in; edits made meanwhile would be lost
+      bagView.taskService.hold(bag);
+      try {
+        open.stage("Showing bag information", 1);
+        onEventThread(new Runnable() {
+          @Override
+          public void run() {
+            showBag(bag, file);
+          }
+        });
+        if (open.isCancelled()) {
+          return;
+        }
+
+        open.stage("Indexing payload", 2);
+        log.debug("Payload paths: {}", bag.getPayloadIndex().size());
+        if (open.isCancelled()) {
+          return;
+        }
+
+        open.stage("Showing payload", 3);
+        onEventThread(new Runnable() {
+          @Override
+          public void run() {
+            showPayload(bag, file);
+            // the bag status it sets is shown by listeners on this thread
+            String msgs = bag.validateMetadata();
+            if (msgs != null) {
+              ApplicationContextUtil.addConsoleMessage(msgs);
+            }
+            ApplicationContextUtil.addConsoleMessage("Opened the bag " + file.getAbsolutePath());
+          }
+        });
+        open.stage("Opened " + file.getName(), STAGES);
       }
-      else {
-        bagView.infoInputPane.serializeValue.setText(DefaultBag.NO_LABEL);
-        // bagView.infoInputPane.noneButton.setSelected(true);
-        bag.setSerialMode(DefaultBag.NO_MODE);
-        bag.isSerial(false);
+      finally {
+        bagView.taskService.release(bag);
       }
     }
+    catch (final Exception e) {
+      log.error("Failed to open bag {}", file, e);
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          bagView.showWarningErrorDialog("Could not open Bag", "Error trying to open bag: " + e.getMessage());
+        }
+      });
+    }
+    finally {
+      open.removeProgressListener(task);
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          if (open.isCancelled()) {
+            ApplicationContextUtil.addConsoleMessage("Opening cancelled: " + file.getAbsolutePath());
+            bagView.clearBagHandler.clearExistingBag();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Shows a bag just written to <code>file</code> as it is in memory, which
+   * the save brought up to date, instead of reading it back. The payload
+   * tree is kept when it lists the bag's payload where it was written or
+   * from its index; otherwise it is rooted afresh at the written payload.
+   * Must be called on the event thread.
+   */
+  public void showSavedBag(DefaultBag bag, File file) {
+    showBag(bag, file);
+    Object root = bagView.bagPayloadTree.getParentNode();
+    boolean current = root instanceof IndexTreeNode
+        || (root instanceof FileTreeNode && ((FileTreeNode) root).getFile().equals(new File(file, bag.getDataDirectory())));
+    if (current) {
+      bagView.updateManifestPane();
+      bagView.enableBagSettings(true);
+      bagView.updateOpenBag();
+    }
     else {
-      bagView.infoInputPane.serializeValue.setText(DefaultBag.NO_LABEL);
-      // bagView.infoInputPane.noneButton.setSelected(true);
-      bag.setSerialMode(DefaultBag.NO_MODE);
-      bag.isSerial(false);
+      bagView.bagPayloadTree = new BagTree(bagView, AbstractBagConstants.DATA_DIRECTORY);
+      showPayload(bag, file);
+    }
+    String msgs = bag.validateMetadata();
+    if (msgs != null) {
+      ApplicationContextUtil.addConsoleMessage(msgs);
     }
+  }
+
+  /*
+   * What bagit.txt and bag-info.txt say, and the settings that follow from
+   * them.
+   */
+  private void showBag(DefaultBag bag, File file) {
+    bag.setName(file.getName());
+    bagView.setBag(bag);
+    bagView.infoInputPane.setBagVersion(bag.getVersion());
+    bagView.infoInputPane.setProfile(bag.getProfile().getName());
+    bagView.infoInputPane.setBagName(file.getAbsolutePath());
+
+    short mode = DefaultBag.getSerialMode(file);
+    bagView.infoInputPane.serializeValue.setText(DefaultBag.getSerialLabel(mode));
+    bag.setSerialMode(mode);
+    bag.isSerial(mode != DefaultBag.NO_MODE);
     bagView.infoInputPane.serializeValue.invalidate();
 
     if (bag.isHoley()) {
@@ -127,8 +226,16 @@ public class OpenBagHandler extends AbstractAction {
 
     bagView.updateBaggerRules();
     bagView.setBagRootPath(file);
-    File rootSrc = new File(file, bag.getDataDirectory());
-    String path = null;
+    bagView.infoInputPane.bagInfoInputPane.populateForms(bag);
+  }
+
+  /*
+   * The payload and tag file trees. Payload directories are listed as they
+   * are expanded.
+   */
+  private void showPayload(DefaultBag bag, File file) {
+    File rootSrc;
+    String path;
     if (bag.getFetchTxt() != null) {
       path = bag.getFetch().getBaseURL();
       rootSrc = new File(file, bag.getFetchTxt().getFilepath());
@@ -141,12 +248,28 @@ public class OpenBagHandler extends AbstractAction {
     bagView.bagPayloadTreePanel.refresh(bagView.bagPayloadTree);
     bagView.updateManifestPane();
     bagView.enableBagSettings(true);
-    String msgs = bag.validateMetadata();
-    if (msgs != null) {
-      ApplicationContextUtil.addConsoleMessage(msgs);
-    }
-    bagView.infoInputPane.bagInfoInputPane.populateForms(bag);
     bagView.updateOpenBag();
-    bagView.statusBarEnd();
+  }
+
+  private static void onEventThread(Runnable runnable) {
+    try {
+      SwingUtilities.invokeAndWait(runnable);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (InvocationTargetException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /*
+   * Lets the task follow the stages and cancel the open.
+   */
+  private static class OpenOperation extends LongRunningOperationBase {
+    void stage(String item, int count) {
+      progress(OPEN_ACTIVITY, item, count, STAGES);
+    }
   }
 }
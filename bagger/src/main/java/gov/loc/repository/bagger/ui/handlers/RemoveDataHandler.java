@@ -2,11 +2,17 @@ package gov.loc.repository.bagger.ui.handlers;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.AbstractAction;
 import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreePath;
 
 import org.slf4j.Logger;
@@ -20,6 +26,7 @@ import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 public class RemoveDataHandler extends AbstractAction {
   protected static final Logger log = LoggerFactory.getLogger(RemoveDataHandler.class);
   private static final long serialVersionUID = 1L;
+  private static final int MAX_NAMES_SHOWN = 20;
   BagView bagView;
 
   public RemoveDataHandler(BagView bagView) {
@@ -32,74 +39,75 @@ public class RemoveDataHandler extends AbstractAction {
     removeData();
   }
 
+  /**
+   * Removes the selected files and directories from the payload in one go,
+   * and tells the tree and the console once.
+   */
   public void removeData() {
-    String message = "";
+    if (bagView.isBagBusy()) {
+      return;
+    }
     DefaultBag bag = bagView.getBag();
 
     TreePath[] paths = bagView.bagPayloadTree.getSelectionPaths();
 
     if (paths != null) {
-      DefaultTreeModel model = (DefaultTreeModel) bagView.bagPayloadTree.getModel();
-      for (int i = 0; i < paths.length; i++) {
-        TreePath path = paths[i];
-        Object node = path.getLastPathComponent();
-        log.debug("removeData: {}", path.toString());
-        log.debug("removeData pathCount: {}", path.getPathCount());
-        File filePath = null;
-        String fileName = null;
-        if (path.getPathCount() > 0) {
-          filePath = new File("" + path.getPathComponent(0));
-          for (int j = 1; j < path.getPathCount(); j++) {
-            filePath = new File(filePath, "" + path.getPathComponent(j));
-            log.debug("filepath: {}", filePath);
-          }
-        }
-        if (filePath != null){
-          fileName = BaggerFileEntity.normalize(filePath.getPath());
-        }
+      List<String> fileNames = new ArrayList<>(paths.length);
+      Map<String, DefaultMutableTreeNode> nodes = new HashMap<>();
+      for (TreePath path : paths) {
+        String fileName = getFileName(path);
         log.debug("removeData filePath: {}", fileName);
-        if (fileName != null && !fileName.isEmpty()) {
-          try {
-            bag.removeBagFile(fileName);
-            ApplicationContextUtil.addConsoleMessage("Payload data removed: " + fileName);
-            if (node instanceof MutableTreeNode) {
-              model.removeNodeFromParent((MutableTreeNode) node);
-            }
-            else {
-              DefaultMutableTreeNode aNode = new DefaultMutableTreeNode(node);
-              model.removeNodeFromParent(aNode);
-            }
-          }
-          catch (Exception e) {
-            log.debug("Failed to remove {} as a file, assuming it is a directory and trying again", fileName, e);
-            try {
-              bag.removePayloadDirectory(fileName);
-              
-//              if(bag.getRootDir() != null){
-//                File directory = new File(bag.getRootDir(), fileName);
-//                FileUtils.deleteDirectory(directory);
-//              }
-              
-              if (node instanceof MutableTreeNode) {
-                model.removeNodeFromParent((MutableTreeNode) node);
-              }
-              else {
-                DefaultMutableTreeNode aNode = new DefaultMutableTreeNode(node);
-                model.removeNodeFromParent(aNode);
-              }
-            }
-            catch (Exception ex) {
-              message = "Error trying to remove: " + fileName + "\n";
-              bagView.showWarningErrorDialog("Error - file not removed", message + ex.getMessage());
-              log.error("Failed to remove file {}", fileName, e);
-            }
-          }
+        if (fileName != null && !fileName.isEmpty() && path.getLastPathComponent() instanceof DefaultMutableTreeNode) {
+          fileNames.add(fileName);
+          nodes.put(fileName, (DefaultMutableTreeNode) path.getLastPathComponent());
         }
       }
 
+      DefaultBag.PayloadRemoval removal = bag.removePayloadPaths(fileNames);
+      nodes.keySet().removeAll(removal.getMissing());
       bagView.bagPayloadTree.removeSelectionPaths(paths);
+      bagView.bagPayloadTree.removeNodes(nodes.values());
       bagView.bagPayloadTreePanel.refresh(bagView.bagPayloadTree);
+
+      log.info("Removed {} payload files, {} directories among them", removal.getFileCount(), removal.getDirectoryCount());
+      Set<String> missing = new HashSet<>(removal.getMissing());
+      ApplicationContextUtil.addConsoleMessage(MessageFormat.format("Payload data removed: {0} files from{1}",
+          removal.getFileCount(), describe(fileNames, missing)));
+      if (!missing.isEmpty()) {
+        bagView.showWarningErrorDialog("Error - file not removed",
+            "Error trying to remove:" + describe(removal.getMissing(), Collections.<String> emptySet()) + "\nnot found in the payload.");
+      }
     }
   }
 
+  /*
+   * The payload path of a tree node, from the names on the way down to it.
+   */
+  private static String getFileName(TreePath path) {
+    if (path.getPathCount() == 0) {
+      return null;
+    }
+    File filePath = new File("" + path.getPathComponent(0));
+    for (int j = 1; j < path.getPathCount(); j++) {
+      filePath = new File(filePath, "" + path.getPathComponent(j));
+    }
+    return BaggerFileEntity.normalize(filePath.getPath());
+  }
+
+  private static String describe(List<String> fileNames, Set<String> skipped) {
+    StringBuilder names = new StringBuilder();
+    int shown = 0;
+    for (String fileName : fileNames) {
+      if (skipped.contains(fileName)) {
+        continue;
+      }
+      if (shown == MAX_NAMES_SHOWN) {
+        names.append("\n").append(fileNames.size() - skipped.size() - shown).append(" more...");
+        break;
+      }
+      names.append("\n").append(fileName);
+      shown++;
+    }
+    return names.toString();
+  }
 }
@@ -30,6 +30,9 @@ public class RemoveTagFileHandler extends AbstractAction {
   }
 
   public void removeTagFile() {
+    if (bagView.isBagBusy()) {
+      return;
+    }
     DefaultBag bag = bagView.getBag();
 
     TreePath[] paths = bagView.bagTagFileTree.getSelectionPaths();
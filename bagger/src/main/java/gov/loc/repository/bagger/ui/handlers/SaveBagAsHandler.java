@@ -25,6 +25,10 @@ public class SaveBagAsHandler extends AbstractAction {
   }
 
   public void openSaveBagAsFrame() {
+    // the frame changes the bag's serialization and manifests right away
+    if (bagView.isBagBusy()) {
+      return;
+    }
     bag = bagView.getBag();
     saveBagFrame = new SaveBagFrame(bagView, bagView.getPropertyMessage("bag.frame.save"));
     saveBagFrame.setBag(bag);
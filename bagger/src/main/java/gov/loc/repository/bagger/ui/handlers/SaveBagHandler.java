@@ -2,11 +2,6 @@ package gov.loc.repository.bagger.ui.handlers;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Collections;
 
 import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
@@ -19,8 +14,14 @@ import org.springframework.richclient.dialog.CloseAction;
 import org.springframework.richclient.dialog.ConfirmationDialog;
 
 import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.bag.impl.HashingFileSystemWriter;
+import gov.loc.repository.bagger.bag.impl.ParallelTarWriter;
+import gov.loc.repository.bagger.bag.impl.ParallelZipWriter;
+import gov.loc.repository.bagger.bag.impl.TarArchive;
 import gov.loc.repository.bagger.ui.BagView;
+import gov.loc.repository.bagger.ui.LongTask;
 import gov.loc.repository.bagger.ui.Progress;
+import gov.loc.repository.bagger.ui.ProgressAggregator;
 import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
 import gov.loc.repository.bagit.BagFactory;
 import gov.loc.repository.bagit.writer.Writer;
@@ -28,15 +29,13 @@ import gov.loc.repository.bagit.writer.impl.FileSystemWriter;
 //import gov.loc.repository.bagit.writer.impl.TarBz2Writer;
 //import gov.loc.repository.bagit.writer.impl.TarGzWriter;
 //import gov.loc.repository.bagit.writer.impl.TarWriter;
-import gov.loc.repository.bagit.writer.impl.ZipWriter;
 
-public class SaveBagHandler extends AbstractAction implements Progress {
+public class SaveBagHandler extends AbstractAction {
   protected static final Logger log = LoggerFactory.getLogger(SaveBagHandler.class);
   private static final long serialVersionUID = 1L;
   private BagView bagView;
   private File tmpRootPath;
   private boolean clearAfterSaving = false;
-  private String messages;
 
   public SaveBagHandler(BagView bagView) {
     super();
@@ -45,6 +44,9 @@ public class SaveBagHandler extends AbstractAction implements Progress {
 
   @Override
   public void actionPerformed(ActionEvent e) {
+    if (bagView.isBagBusy()) {
+      return;
+    }
     DefaultBag bag = bagView.getBag();
     bagView.infoInputPane.updateBagHandler.updateBag(bag);
     if (bagView.getBagRootPath().exists()) {
@@ -56,27 +58,39 @@ public class SaveBagHandler extends AbstractAction implements Progress {
     }
   }
 
-  @Override
-  public void execute() {
-    DefaultBag bag = bagView.getBag();
-
+  private void write(LongTask task, final DefaultBag bag, File file, final boolean clearAfter) {
+    // set here rather than when queued, as an earlier save may still be writing
+    bag.setRootDir(file);
     try {
       BagFactory bagFactory = new BagFactory();
       Writer bagWriter = getWriter(bagFactory, bag);
-      /*
-         * else if (mode == DefaultBag.TAR_MODE) {
-         * bagWriter = new TarWriter(bagFactory);
-         * } else if (mode == DefaultBag.TAR_GZ_MODE) {
-         * bagWriter = new TarGzWriter(bagFactory);
-         * } else if (mode == DefaultBag.TAR_BZ2_MODE) {
-         * bagWriter = new TarBz2Writer(bagFactory);
-         * }
-         */
+      if (bagWriter instanceof FileSystemWriter) {
+        // unlike the archive writers it only reports files, so they are
+        // weighed by size
+        task.weighItems("writing", bag.updateDataSize(), new ProgressAggregator.ItemSizes() {
+          @Override
+          public long sizeOf(Object item) {
+            return bag.getFileSize(String.valueOf(item));
+          }
+        });
+      }
+      String messages = null;
       if(bagWriter != null){
-        bagWriter.addProgressListener(bagView.task);
-        bagView.longRunningProcess = bagWriter;
-        messages = bag.write(bagWriter);
-        deleteEmptyDirectories(bag.getRootDir());
+        bagWriter.addProgressListener(task);
+        bag.addProgressListener(task);
+        task.addCancellable(bagWriter);
+        try {
+          messages = bag.write(bagWriter);
+        }
+        finally {
+          bag.removeProgressListener(task);
+        }
+        // the writer deletes the files taken out of the bag but not their
+        // directories, which would show up as empty folders on reopening
+        int pruned = bag.pruneEmptyDirectories();
+        if (pruned > 0) {
+          log.info("Deleted {} empty directories from {}", pruned, bag.getBagFile());
+        }
 
         if (messages != null && !messages.trim().isEmpty()) {
           bagView.showWarningErrorDialog("Warning - bag not saved", "Problem saving bag:\n" + messages);
@@ -89,32 +103,37 @@ public class SaveBagHandler extends AbstractAction implements Progress {
         bagView.showWarningErrorDialog("Warning - bag not saved", "Could not get writer for bag");
       }
 
+      final String result = messages;
       SwingUtilities.invokeLater(new Runnable() {
 
         @Override
         public void run() {
-          DefaultBag bag = bagView.getBag();
+          if (bagView.getBag() != bag) {
+            // another bag was opened while this one was being written
+            ApplicationContextUtil.addConsoleMessage(result);
+            return;
+          }
           if (bag.isSerialized()) {
-            if (clearAfterSaving) {
-              bagView.statusBarEnd();
+            if (clearAfter) {
               bagView.clearBagHandler.clearExistingBag();
-              setClearAfterSaving(false);
             }
             else {
               if (bag.isValidateOnSave()) {
-                bagView.validateBagHandler.validateBag();
+                bagView.validateBagHandler.validateSavedBag();
               }
-              bagView.statusBarEnd();
-              File bagFile = bag.getBagFile();
-              log.info("BagView.openExistingBag: {}", bagFile);
-              bagView.openBagHandler.openExistingBag(bagFile);
+              // the bag was brought up to date by the save, so it is shown
+              // as it is rather than read back
+              bagView.openBagHandler.showSavedBag(bag, bag.getBagFile());
               bagView.updateSaveBag();
             }
           }
           else {
-            ApplicationContextUtil.addConsoleMessage(messages);
+            ApplicationContextUtil.addConsoleMessage(result);
             bagView.updateManifestPane();
           }
+          if (bagView.getBag() == bag && bagView.tagManifestPane.isShowing()) {
+            bagView.tagManifestPane.updateCompositePaneTabs(bag);
+          }
         }
 
       });
@@ -123,37 +142,23 @@ public class SaveBagHandler extends AbstractAction implements Progress {
       log.error("Failed to save bag", e);
       bagView.showWarningErrorDialog("Error - Failed to save bag", "Error trying to save bag due to:\n" + e.getMessage());
     }
-    finally {
-      bagView.task.done();
-      bagView.statusBarEnd();
-    }
   }
 
-  //we only delete the empty directories because bagit should have already deleted the files, 
-  //leaving just empty directories this causes the ui to display empty directories which causes 
-  //confusion since the user thought they deleted the directory and all its files
-  private void deleteEmptyDirectories(File rootDir) throws IOException{
-    Path dataDir = Paths.get(rootDir.toURI()).resolve("data");
-    FindDirectoriesVisitor visitor = new FindDirectoriesVisitor();
-    Files.walkFileTree(dataDir, visitor);
-    
-    //since the first visited path is at the top of the directory we need to reverse them so that we delete the inner most empty directory
-    Collections.sort(visitor.getDirectories(), Collections.reverseOrder());
-    
-    for(Path path : visitor.getDirectories()){
-      System.err.println(path);
-      if(path.toFile().list().length == 0){
-        Files.delete(path); 
-      }
-    }
-  }
-  
   protected Writer getWriter(BagFactory bagFactory, DefaultBag bag){
     if (bag.getSerialMode() == DefaultBag.NO_MODE) {
-      return new FileSystemWriter(bagFactory);
+      return new HashingFileSystemWriter(bagFactory);
     }
     else if (bag.getSerialMode() == DefaultBag.ZIP_MODE) {
-      return new ZipWriter(bagFactory);
+      return new ParallelZipWriter(bagFactory);
+    }
+    else if (bag.getSerialMode() == DefaultBag.TAR_MODE) {
+      return new ParallelTarWriter(bagFactory, TarArchive.Compression.NONE);
+    }
+    else if (bag.getSerialMode() == DefaultBag.TAR_GZ_MODE) {
+      return new ParallelTarWriter(bagFactory, TarArchive.Compression.GZIP);
+    }
+    else if (bag.getSerialMode() == DefaultBag.TAR_BZ2_MODE) {
+      return new ParallelTarWriter(bagFactory, TarArchive.Compression.BZIP2);
     }
     return null;
   }
@@ -174,10 +179,23 @@ public class SaveBagHandler extends AbstractAction implements Progress {
     return this.clearAfterSaving;
   }
 
-  public void saveBag(File file) {
-    DefaultBag bag = bagView.getBag();
-    bag.setRootDir(file);
-    bagView.statusBarBegin(this, "Writing bag...", null);
+  /**
+   * Writes the current bag to <code>file</code> in the background, after any
+   * task already queued for the bag.
+   */
+  public void saveBag(final File file) {
+    final DefaultBag bag = bagView.getBag();
+    final boolean clearAfter = clearAfterSaving;
+    clearAfterSaving = false;
+    // the tag files shown are read from copies; these go before the bag is
+    // rewritten, and the tabs are filled in again once it has been
+    bagView.tagManifestPane.closeSources();
+    bagView.startTask(new Progress() {
+      @Override
+      public void execute(LongTask task) {
+        write(task, bag, file, clearAfter);
+      }
+    }, "Writing " + file.getName(), null);
   }
 
   public void confirmWriteBag() {
@@ -243,8 +261,8 @@ public class SaveBagHandler extends AbstractAction implements Progress {
     fs.setCurrentDirectory(bag.getRootDir());
     if (bag.getName() != null && !bag.getName().equalsIgnoreCase(bagView.getPropertyMessage("bag.label.noname"))) {
       String selectedName = bag.getName();
-      if (bag.getSerialMode() == DefaultBag.ZIP_MODE) {
-        selectedName += "." + DefaultBag.ZIP_LABEL;
+      if (bag.getSerialMode() != DefaultBag.NO_MODE) {
+        selectedName += "." + DefaultBag.getSerialLabel(bag.getSerialMode());
       }
       fs.setSelectedFile(new File(selectedName));
     }
@@ -1,14 +1,25 @@
 package gov.loc.repository.bagger.ui.handlers;
 
 import gov.loc.repository.bagger.bag.impl.DefaultBag;
+import gov.loc.repository.bagger.bag.impl.WrittenFixityVerifier;
 import gov.loc.repository.bagger.ui.BagView;
+import gov.loc.repository.bagger.ui.LongTask;
+import gov.loc.repository.bagger.ui.ProgressAggregator;
 import gov.loc.repository.bagger.ui.Progress;
 import gov.loc.repository.bagger.ui.util.ApplicationContextUtil;
+import gov.loc.repository.bagit.Bag;
+import gov.loc.repository.bagit.Manifest;
+import gov.loc.repository.bagit.ProgressListener;
+import gov.loc.repository.bagit.utilities.LongRunningOperationBase;
+import gov.loc.repository.bagit.utilities.SimpleResult;
+import gov.loc.repository.bagit.verify.ManifestChecksumVerifier;
 import gov.loc.repository.bagit.verify.impl.CompleteVerifierImpl;
 import gov.loc.repository.bagit.verify.impl.ParallelManifestChecksumVerifier;
 import gov.loc.repository.bagit.verify.impl.ValidVerifierImpl;
 
 import java.awt.event.ActionEvent;
+import java.util.Collections;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.SwingUtilities;
@@ -19,8 +30,8 @@ import org.slf4j.LoggerFactory;
 public class ValidateBagHandler extends AbstractAction implements Progress {
   private static final long serialVersionUID = 1L;
   protected static final Logger log = LoggerFactory.getLogger(ValidateBagHandler.class);
+  private static final String FILE_CHECKSUM_ACTIVITY = "verifying file checksum";
   private BagView bagView;
-  private String messages;
 
   public ValidateBagHandler(BagView bagView) {
     super();
@@ -33,22 +44,55 @@ public class ValidateBagHandler extends AbstractAction implements Progress {
   }
 
   public void validateBag() {
-    bagView.statusBarBegin(this, "Validating bag...", "verifying file checksum");
+    bagView.startTask(this, "Validating bag...", null);
+  }
+
+  /**
+   * Validates the bag just saved, checking its manifests against the digests
+   * taken while it was written so that the payload is not read again. Falls
+   * back to a full validation when the save kept none.
+   */
+  public void validateSavedBag() {
+    bagView.startTask(new Progress() {
+      @Override
+      public void execute(LongTask task) {
+        validate(task, true);
+      }
+    }, "Validating saved bag...", null);
   }
 
   @Override
-  public void execute() {
-    DefaultBag bag = bagView.getBag();
+  public void execute(LongTask task) {
+    validate(task, false);
+  }
+
+  private void validate(LongTask task, boolean saved) {
+    final DefaultBag bag = (DefaultBag) task.getKey();
     try {
+      WrittenFixityVerifier writtenVerifier = saved ? bag.getWrittenFixityVerifier() : null;
+      ManifestChecksumVerifier manifestVerifier;
+      if (writtenVerifier != null) {
+        // reports the bytes of the files it reads itself
+        manifestVerifier = new RoundVerifier(writtenVerifier, task);
+      }
+      else {
+        // the checksum verifier reports files, so they are weighed by size
+        task.weighItems(FILE_CHECKSUM_ACTIVITY, bag.getManifestedSize(), new ProgressAggregator.ItemSizes() {
+          @Override
+          public long sizeOf(Object item) {
+            return bag.getFileSize(String.valueOf(item));
+          }
+        });
+        manifestVerifier = new RoundVerifier(new ParallelManifestChecksumVerifier(), task);
+      }
       CompleteVerifierImpl completeVerifier = new CompleteVerifierImpl();
 
-      ParallelManifestChecksumVerifier manifestVerifier = new ParallelManifestChecksumVerifier();
-
       ValidVerifierImpl validVerifier = new ValidVerifierImpl(completeVerifier, manifestVerifier);
-      validVerifier.addProgressListener(bagView.task);
-      bagView.longRunningProcess = validVerifier;
-      /* */
-      messages = bag.validateBag(validVerifier);
+      validVerifier.addProgressListener(task);
+      bag.addProgressListener(task);
+      task.addCancellable(validVerifier);
+      final String messages = writtenVerifier != null ? bag.validateWrittenBag(validVerifier)
+          : bag.validateBag(validVerifier);
 
       if (messages != null && !messages.trim().isEmpty()) {
         bagView.showWarningErrorDialog("Warning - validation failed", "Validation result: " + messages);
@@ -66,7 +110,7 @@ public class ValidateBagHandler extends AbstractAction implements Progress {
     }
     catch (Exception e) {
       log.error("Failed to validate bag", e);
-      if (bagView.longRunningProcess.isCancelled()) {
+      if (task.isCancelled()) {
         bagView.showWarningErrorDialog("Validation cancelled", "Validation cancelled.");
       }
       else {
@@ -74,8 +118,55 @@ public class ValidateBagHandler extends AbstractAction implements Progress {
       }
     }
     finally {
-      bagView.task.done();
-      bagView.statusBarEnd();
+      bag.removeProgressListener(task);
+    }
+  }
+
+  /*
+   * The payload and tag manifests are verified one set after the other, each
+   * counting its files from one, so each set starts a new round of the
+   * checksum activity on the task.
+   */
+  private static class RoundVerifier extends LongRunningOperationBase implements ManifestChecksumVerifier {
+    private final LongRunningOperationBase operation;
+    private final ManifestChecksumVerifier verifier;
+    private final LongTask task;
+
+    <V extends LongRunningOperationBase & ManifestChecksumVerifier> RoundVerifier(V verifier, LongTask task) {
+      this.operation = verifier;
+      this.verifier = verifier;
+      this.task = task;
+    }
+
+    @Override
+    public SimpleResult verify(Manifest manifest, Bag bag) {
+      return verify(Collections.singletonList(manifest), bag);
+    }
+
+    @Override
+    public SimpleResult verify(List<Manifest> manifests, Bag bag) {
+      task.startRound(FILE_CHECKSUM_ACTIVITY);
+      return verifier.verify(manifests, bag);
+    }
+
+    @Override
+    public void addProgressListener(ProgressListener listener) {
+      operation.addProgressListener(listener);
+    }
+
+    @Override
+    public void removeProgressListener(ProgressListener listener) {
+      operation.removeProgressListener(listener);
+    }
+
+    @Override
+    public void cancel() {
+      operation.cancel();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return operation.isCancelled();
     }
   }
 }
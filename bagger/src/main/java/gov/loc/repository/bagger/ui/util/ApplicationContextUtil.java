@@ -9,10 +9,24 @@ import org.springframework.richclient.application.Application;
 import org.springframework.richclient.application.ApplicationServicesLocator;
 import org.springframework.richclient.image.ImageSource;
 
+import gov.loc.repository.bagger.model.BagStatus;
 import gov.loc.repository.bagger.ui.BagView;
 import gov.loc.repository.bagger.ui.ConsoleView;
 
 public class ApplicationContextUtil {
+  private static final int CONSOLE_BUFFER_SIZE = 1 << 16;
+  // about as much as the console keeps on screen
+  private static final int CONSOLE_PENDING_LENGTH = 50000;
+  private static final ConsoleBuffer console = new ConsoleBuffer(CONSOLE_BUFFER_SIZE, CONSOLE_PENDING_LENGTH,
+      new ConsoleBuffer.Display() {
+        @Override
+        public void show(String text) {
+          if (Application.instance().getApplicationContext().containsBean("myConsoleView")) {
+            ConsoleView consoleView = (ConsoleView) Application.instance().getApplicationContext().getBean("myConsoleView");
+            consoleView.appendConsoleText(text);
+          }
+        }
+      });
 
   static {
     UIManager.put("FileChooser.readOnly", Boolean.TRUE);
@@ -32,9 +46,24 @@ public class ApplicationContextUtil {
     return bagView;
   }
 
+  /**
+   * Adds a message to the console. Safe to call from any thread; the message
+   * shows shortly after, together with any others added meanwhile.
+   */
   public static void addConsoleMessage(String message) {
-    ConsoleView consoleView = (ConsoleView) Application.instance().getApplicationContext().getBean("myConsoleView");
-    consoleView.addConsoleMessages(message);
+    console.add(message);
+  }
+
+  /**
+   * Points the status icons of the console at the given bag's status. Does
+   * nothing while the console view has not been created yet; it picks up the
+   * current bag itself when it is.
+   */
+  public static void showBagStatus(BagStatus bagStatus) {
+    if (Application.instance().getApplicationContext().containsBean("myConsoleView")) {
+      ConsoleView consoleView = (ConsoleView) Application.instance().getApplicationContext().getBean("myConsoleView");
+      consoleView.setBagStatus(bagStatus);
+    }
   }
 
 }
@@ -0,0 +1,201 @@
+package gov.loc.repository.bagger.ui.util;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Console messages on their way to the screen. Any thread may add messages
+ * without taking a lock or waiting: they go into a fixed ring that one
+ * background thread empties, writing them to the console log and handing
+ * them to the event thread in batches. When the ring is full, a message is
+ * written to the console log by the thread adding it and only counted for
+ * the screen, so nothing is lost from the log and no thread is held up.
+ * <p>
+ * Every message goes to the <code>gov.loc.repository.bagger.console</code>
+ * logger, which the logging configuration sends to a rolling file when
+ * asked to.
+ */
+public class ConsoleBuffer {
+  protected static final Logger log = LoggerFactory.getLogger(ConsoleBuffer.class);
+  private static final Logger consoleLog = LoggerFactory.getLogger("gov.loc.repository.bagger.console");
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  public interface Display {
+    /**
+     * Called on the event thread with one or more formatted messages.
+     */
+    void show(String text);
+  }
+
+  private final AtomicReferenceArray<Entry> slots;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // written by the drain thread only
+  private volatile long head = 0;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  // text waiting for the event thread, at most about maxPending chars of it
+  private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingLength = new AtomicInteger();
+  private final AtomicBoolean showScheduled = new AtomicBoolean();
+  private final int maxPending;
+  private final Display display;
+  // the drain thread formats the date once a second, not once a message
+  private long stampSecond = -1;
+  private String stamp;
+
+  /**
+   * @param capacity the most messages held, rounded up to a power of two
+   * @param maxPending roughly how many characters to keep for the screen
+   *          when it falls behind; older ones are not shown
+   */
+  public ConsoleBuffer(int capacity, int maxPending, Display display) {
+    int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+    this.maxPending = maxPending;
+    this.display = display;
+  }
+
+  public void add(String message) {
+    if (message == null || message.trim().isEmpty()) {
+      return;
+    }
+    Entry entry = new Entry(System.currentTimeMillis(), message);
+    while (true) {
+      long t = tail.get();
+      if (t - head > mask) {
+        // the drain thread logs the ones before it later, so the log may
+        // have this out of order, but still with the time it was added
+        if (consoleLog.isInfoEnabled()) {
+          consoleLog.info("[" + new Date(entry.time) + "]: " + entry.message);
+        }
+        dropped.incrementAndGet();
+        break;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        slots.lazySet((int) t & mask, entry);
+        break;
+      }
+    }
+    if (!started.get() && started.compareAndSet(false, true)) {
+      Thread drainer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (true) {
+            if (!drain()) {
+              LockSupport.parkNanos(IDLE_NANOS);
+            }
+          }
+        }
+      }, "console-drain");
+      drainer.setDaemon(true);
+      drainer.start();
+    }
+  }
+
+  /*
+   * Takes what is in the ring, in order, and returns false when it was
+   * empty. A slot claimed but not filled yet ends the batch.
+   */
+  private boolean drain() {
+    long h = head;
+    StringBuilder text = new StringBuilder();
+    boolean logging = consoleLog.isInfoEnabled();
+    long lost = dropped.getAndSet(0);
+    if (lost > 0) {
+      log.warn("{} console messages were logged but not shown", lost);
+      text.append("\n[").append(lost).append(" messages not shown]");
+    }
+    while (true) {
+      int slot = (int) h & mask;
+      Entry entry = slots.get(slot);
+      if (entry == null) {
+        break;
+      }
+      slots.lazySet(slot, null);
+      h++;
+      if ((h & 1023) == 0) {
+        // let producers have the slots back without waiting for the batch
+        head = h;
+      }
+      String line = stamp(entry.time) + entry.message;
+      if (logging) {
+        consoleLog.info(line);
+      }
+      text.append('\n').append(line);
+      if (text.length() > 2 * maxPending) {
+        text.delete(0, text.length() - maxPending);
+      }
+    }
+    head = h;
+    if (text.length() == 0) {
+      return false;
+    }
+    offer(text.toString());
+    return true;
+  }
+
+  private String stamp(long time) {
+    long second = time / 1000;
+    if (second != stampSecond) {
+      stampSecond = second;
+      stamp = "[" + new Date(time) + "]: ";
+    }
+    return stamp;
+  }
+
+  /*
+   * Queues text for the event thread, which is asked at most once to show
+   * all that has built up.
+   */
+  private void offer(String text) {
+    pending.add(text);
+    pendingLength.addAndGet(text.length());
+    while (pendingLength.get() > maxPending + text.length()) {
+      String old = pending.poll();
+      if (old == null) {
+        break;
+      }
+      pendingLength.addAndGet(-old.length());
+    }
+    if (showScheduled.compareAndSet(false, true)) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          showScheduled.set(false);
+          StringBuilder batch = new StringBuilder();
+          for (String next = pending.poll(); next != null; next = pending.poll()) {
+            pendingLength.addAndGet(-next.length());
+            batch.append(next);
+          }
+          if (batch.length() > 0) {
+            display.show(batch.toString());
+          }
+        }
+      });
+    }
+  }
+
+  private static class Entry {
+    final long time;
+    final String message;
+
+    Entry(long time, String message) {
+      this.time = time;
+      this.message = message;
+    }
+  }
+}
@@ -1,6 +1,9 @@
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder
 import ch.qos.logback.core.ConsoleAppender
 import ch.qos.logback.core.FileAppender
+import ch.qos.logback.core.rolling.FixedWindowRollingPolicy
+import ch.qos.logback.core.rolling.RollingFileAppender
+import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy
 
 import static ch.qos.logback.classic.Level.*
 
@@ -39,5 +42,29 @@ appender("DEBUGOUT", FileAppender) {
 
 root(DEBUG, ["STDOUT", "FILEOUT", "DEBUGOUT"])
 
+//every console message, kept in a rolling file when run with -Dbagger.console.log
+if (System.getProperty("bagger.console.log") != null) {
+  appender("CONSOLELOG", RollingFileAppender) {
+    def homeDir = System.getProperty("user.home")
+    def logDir = "${System.getProperty("app.home", homeDir)}/logs"
+    file = "${logDir}/console.log"
+    rollingPolicy(FixedWindowRollingPolicy) {
+      fileNamePattern = "${logDir}/console.%i.log"
+      minIndex = 1
+      maxIndex = 5
+    }
+    triggeringPolicy(SizeBasedTriggeringPolicy) {
+      maxFileSize = "10MB"
+    }
+    encoder(PatternLayoutEncoder) {
+      pattern = "%msg%n"
+    }
+  }
+  logger("gov.loc.repository.bagger.console", INFO, ["CONSOLELOG"], false)
+}
+else {
+  logger("gov.loc.repository.bagger.console", OFF)
+}
+
 //these are set to ERROR since they output unneeded logging at the info level
 logger("org.springframework", ERROR)